@@ -37,6 +37,8 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
     
     static NestedRequestSentinel SENTINEL = new NestedRequestSentinel();
 
+    static ThreadLocal<Operation> CURRENT_OPERATION = new ThreadLocal<Operation>();
+
     List<FlowController> controllers = Collections.emptyList();
     long timeout = -1;
 
@@ -60,6 +62,22 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
         return runningRequests.get();
     }
 
+    /**
+     * Returns the operation being admitted by the flow controllers, allows them to inspect the
+     * parsed request. Only available during {@link FlowController#requestIncoming(Request, long)}.
+     */
+    public static Operation getCurrentOperation() {
+        return CURRENT_OPERATION.get();
+    }
+
+    /**
+     * Returns the flow controllers currently in use, sorted by priority. Adaptive controllers
+     * report their current limits.
+     */
+    public List<FlowController> getControllers() {
+        return Collections.unmodifiableList(controllers);
+    }
+
     public void finished(Request request) {
         if(SENTINEL.isOutermostRequest() && REQUEST_CONTROLLERS.get() != null) {
             runningRequests.decrementAndGet();
@@ -103,6 +121,7 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                 List<FlowController> controllers = this.controllers;
                 if (controllers.size() > 0) {
                     REQUEST_CONTROLLERS.set(controllers);
+                    CURRENT_OPERATION.set(operation);
                     long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
                     for (FlowController flowController : controllers) {
                         if(timeout > 0) {
@@ -115,6 +134,7 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                     }
                 }
             } finally {
+                CURRENT_OPERATION.remove();
                 blockedRequests.decrementAndGet();
                 runningRequests.incrementAndGet();
             }
@@ -0,0 +1,123 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow;
+
+import java.util.List;
+
+import org.geoserver.flow.controller.AdaptiveFlowController;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairFlowController;
+import org.geoserver.flow.controller.QueueController;
+import org.geoserver.flow.controller.SingleQueueFlowController;
+import org.geoserver.metrics.MetricsCollector;
+import org.geoserver.metrics.MetricsWriter;
+
+/**
+ * Reports the number of blocked and running requests, and the queue depths and limits of the
+ * flow controllers. Controllers are identified by their string representation, which summarizes
+ * their configuration.
+ */
+public class ControlFlowMetricsCollector implements MetricsCollector {
+
+    ControlFlowCallback callback;
+
+    public ControlFlowMetricsCollector(ControlFlowCallback callback) {
+        this.callback = callback;
+    }
+
+    public void collect(MetricsWriter writer) {
+        writer.gauge("geoserver_control_flow_blocked_requests",
+                "Number of requests waiting to be admitted by the flow controllers",
+                callback.getBlockedRequests());
+        writer.gauge("geoserver_control_flow_running_requests",
+                "Number of requests admitted by the flow controllers and running",
+                callback.getRunningRequests());
+
+        List<FlowController> controllers = callback.getControllers();
+        String help = "Number of requests holding a slot in the controller queue";
+        for (FlowController controller : controllers) {
+            int size;
+            if (controller instanceof SingleQueueFlowController) {
+                size = ((SingleQueueFlowController) controller).getQueueSize();
+            } else if (controller instanceof QueueController) {
+                size = ((QueueController) controller).getQueuedRequests();
+            } else if (controller instanceof AdaptiveFlowController) {
+                size = ((AdaptiveFlowController) controller).getRunningRequests();
+            } else if (controller instanceof FairFlowController) {
+                FairFlowController fair = (FairFlowController) controller;
+                size = fair.getRunningRequests() + fair.getWaitingRequests();
+            } else {
+                continue;
+            }
+            writer.gauge("geoserver_control_flow_queue_size", help, size, "controller",
+                    controller.toString());
+        }
+
+        help = "Maximum number of requests running in parallel for the controller";
+        for (FlowController controller : controllers) {
+            int limit;
+            if (controller instanceof SingleQueueFlowController) {
+                limit = ((SingleQueueFlowController) controller).getQueueCapacity();
+            } else if (controller instanceof AdaptiveFlowController) {
+                limit = ((AdaptiveFlowController) controller).getLimit();
+            } else {
+                continue;
+            }
+            writer.gauge("geoserver_control_flow_limit", help, limit, "controller",
+                    controller.toString());
+        }
+
+        for (FlowController controller : controllers) {
+            if (controller instanceof QueueController) {
+                writer.gauge("geoserver_control_flow_client_queues",
+                        "Number of per client queues tracked by the controller",
+                        ((QueueController) controller).getQueueCount(), "controller",
+                        controller.toString());
+            }
+        }
+
+        for (FlowController controller : controllers) {
+            if (controller instanceof FairFlowController) {
+                FairFlowController fair = (FairFlowController) controller;
+                writer.gauge("geoserver_control_flow_waiting_requests",
+                        "Number of requests queued by the fair flow controller",
+                        fair.getWaitingRequests(), "controller", controller.toString());
+            }
+        }
+        for (FlowController controller : controllers) {
+            if (controller instanceof FairFlowController) {
+                FairFlowController fair = (FairFlowController) controller;
+                writer.counter("geoserver_control_flow_rejected_requests",
+                        "Number of requests rejected by the fair flow controller",
+                        fair.getRejectedRequests(), "controller", controller.toString());
+            }
+        }
+
+        for (FlowController controller : controllers) {
+            if (controller instanceof CostFlowController) {
+                writer.gauge("geoserver_control_flow_cost_used",
+                        "Cost budget used by the running requests",
+                        ((CostFlowController) controller).getUsedBudget(), "controller",
+                        controller.toString());
+            }
+        }
+        for (FlowController controller : controllers) {
+            if (controller instanceof CostFlowController) {
+                writer.gauge("geoserver_control_flow_cost_budget",
+                        "Total cost budget of the controller",
+                        ((CostFlowController) controller).getBudget(), "controller",
+                        controller.toString());
+            }
+        }
+        for (FlowController controller : controllers) {
+            if (controller instanceof CostFlowController) {
+                writer.gauge("geoserver_control_flow_cost_waiting_requests",
+                        "Number of requests waiting for cost budget",
+                        ((CostFlowController) controller).getWaitingCount(), "controller",
+                        controller.toString());
+            }
+        }
+    }
+}
@@ -6,17 +6,24 @@ package org.geoserver.flow.config;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.logging.Logger;
 
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveFlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairFlowController;
+import org.geoserver.flow.controller.FairFlowController.TenantType;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
+import org.geoserver.flow.controller.SingleQueueFlowController;
 import org.geoserver.flow.controller.UserFlowController;
 import org.geoserver.security.PropertyFileWatcher;
 import org.geotools.util.logging.Logging;
@@ -54,6 +61,16 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        // the fair controller settings are spread over several keys
+        int fairSlots = 0;
+        TenantType fairTenantType = TenantType.IP;
+        long fairMaxWait = 0;
+        Map<String, Double> fairWeights = new HashMap<String, Double>();
+        Map<String, Long> fairMaxWaits = new HashMap<String, Long>();
+        // and so are the cost controller ones
+        int costBudget = 0;
+        int costMaxShare = CostFlowController.DEFAULT_MAX_SHARE;
+        long costAging = CostFlowController.DEFAULT_AGING_TIME;
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
@@ -85,6 +102,38 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 timeout = queueSize * 1000;
                 continue;
             }
+            if ("fair".equalsIgnoreCase(key)) {
+                fairSlots = queueSize;
+                if (tokenizer.hasMoreTokens()) {
+                    String type = tokenizer.nextToken().trim();
+                    try {
+                        fairTenantType = TenantType.valueOf(type.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.severe("Unknown tenant type '" + type + "' in rule '" + okey + "="
+                                + value + "', should be one of user, role or ip");
+                    }
+                }
+                continue;
+            } else if (key.startsWith("fair.weight.")) {
+                fairWeights.put(key.substring("fair.weight.".length()), (double) queueSize);
+                continue;
+            } else if ("fair.maxwait".equalsIgnoreCase(key)) {
+                fairMaxWait = queueSize * 1000L;
+                continue;
+            } else if (key.startsWith("fair.maxwait.")) {
+                fairMaxWaits.put(key.substring("fair.maxwait.".length()), queueSize * 1000L);
+                continue;
+            }
+            if ("cost".equalsIgnoreCase(key)) {
+                costBudget = queueSize;
+                continue;
+            } else if ("cost.maxshare".equalsIgnoreCase(key)) {
+                costMaxShare = queueSize;
+                continue;
+            } else if ("cost.aging".equalsIgnoreCase(key)) {
+                costAging = queueSize * 1000L;
+                continue;
+            }
             if ("ows.global".equalsIgnoreCase(key)) {
                 controller = new GlobalFlowController(queueSize);
             } else if ("ows".equals(keys[0])) {
@@ -108,6 +157,17 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 	}
                 }
             }
+            // the static queue size becomes the hard cap of an adaptive controller
+            while (controller != null && tokenizer.hasMoreTokens()) {
+                String option = tokenizer.nextToken().trim();
+                if (!"adaptive".equalsIgnoreCase(option)) {
+                    LOGGER.severe("Unknown option '" + option + "' in rule '" + okey + "=" + value);
+                } else if (controller instanceof SingleQueueFlowController) {
+                    controller = new AdaptiveFlowController((SingleQueueFlowController) controller);
+                } else {
+                    LOGGER.severe("Adaptive limits are not supported by rule '" + okey + "=" + value);
+                }
+            }
             if (controller == null) {
                 LOGGER.severe("Could not parse rule '" + okey + "=" + value);
             } else {
@@ -115,6 +175,18 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
             }
         }
 
+        if (fairSlots > 0) {
+            newControllers.add(new FairFlowController(fairSlots, fairTenantType, fairWeights,
+                    fairMaxWait, fairMaxWaits));
+        }
+        if (costBudget > 0) {
+            try {
+                newControllers.add(new CostFlowController(costBudget, costMaxShare, costAging));
+            } catch (IllegalArgumentException e) {
+                LOGGER.severe("Could not configure the cost controller: " + e.getMessage());
+            }
+        }
+
         return newControllers;
     }
 
@@ -0,0 +1,198 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller adapting the number of concurrent requests allowed to the observed latency,
+ * for the requests matched by a {@link SingleQueueFlowController}. The queue size of the latter
+ * is used as the hard cap on the computed limit.
+ * <p>
+ * The limit is computed with a gradient algorithm: the controller keeps a short term and a long
+ * term moving average of the request execution time, and scales the limit by their ratio, so that
+ * the limit shrinks as soon as the requests slow down (e.g. because the database is struggling)
+ * and grows back when the latency returns to the long term baseline. A small allowance, the
+ * square root of the limit, keeps probing for more capacity. The limit only grows when the
+ * requests actually use at least half of it.
+ * </p>
+ */
+public class AdaptiveFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * Weight of a new sample in the short term latency average
+     */
+    static final double SHORT_ALPHA = 0.1;
+
+    /**
+     * Weight of a new sample in the long term latency average
+     */
+    static final double LONG_ALPHA = 0.01;
+
+    /**
+     * How much slower than the long term average the requests can get before the limit shrinks
+     */
+    static final double TOLERANCE = 1.5;
+
+    /**
+     * Weight of the new estimate when updating the limit
+     */
+    static final double SMOOTHING = 0.2;
+
+    static final int MIN_LIMIT = 1;
+
+    final SingleQueueFlowController matcher;
+
+    final int maxLimit;
+
+    double limit;
+
+    double shortLatency;
+
+    double longLatency;
+
+    int inFlight;
+
+    final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+    /**
+     * Builds an adaptive controller for the requests matched by the given controller
+     *
+     * @param matcher The controller providing the request matching rule and the hard cap on the
+     *        number of concurrent requests
+     */
+    public AdaptiveFlowController(SingleQueueFlowController matcher) {
+        this.matcher = matcher;
+        this.maxLimit = matcher.queueSize;
+        this.limit = maxLimit;
+    }
+
+    public int getPriority() {
+        return maxLimit;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.matchesRequest(request)) {
+            return true;
+        }
+        long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+        synchronized (this) {
+            try {
+                while (inFlight >= getLimit()) {
+                    if (maxTime > 0) {
+                        long wait = maxTime - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            return false;
+                        }
+                        wait(wait);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING,
+                        "Unexpected interruption while waiting for the adaptive limit");
+                return false;
+            }
+            inFlight++;
+        }
+        startTime.set(System.nanoTime());
+        return true;
+    }
+
+    public void requestComplete(Request request) {
+        Long start = startTime.get();
+        if (start == null || !matcher.matchesRequest(request)) {
+            return;
+        }
+        startTime.remove();
+        long latency = System.nanoTime() - start;
+        synchronized (this) {
+            inFlight--;
+            update(latency, inFlight + 1);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Updates the limit with a new latency sample
+     *
+     * @param latency The request execution time, in nanoseconds
+     * @param concurrency The number of requests in flight while the sampled one was running
+     */
+    synchronized void update(long latency, int concurrency) {
+        if (longLatency == 0) {
+            shortLatency = longLatency = latency;
+            return;
+        }
+        shortLatency = shortLatency * (1 - SHORT_ALPHA) + latency * SHORT_ALPHA;
+        longLatency = longLatency * (1 - LONG_ALPHA) + latency * LONG_ALPHA;
+        // after a long slowdown the baseline catches up, but it should recover quickly when
+        // the latency gets back to normal
+        if (longLatency / shortLatency > 2) {
+            longLatency *= 0.95;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+        double estimate = limit * gradient + Math.sqrt(limit);
+        if (estimate > limit && concurrency < limit / 2) {
+            // the requests are not using the current limit, no reason to grow it
+            return;
+        }
+        double previous = limit;
+        limit = limit * (1 - SMOOTHING) + estimate * SMOOTHING;
+        limit = Math.max(MIN_LIMIT, Math.min(maxLimit, limit));
+        if (LOGGER.isLoggable(Level.FINE) && (int) previous != (int) limit) {
+            LOGGER.fine(this + " limit changed from " + (int) previous + " to " + (int) limit);
+        }
+    }
+
+    /**
+     * Returns the number of concurrent requests currently allowed
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the hard cap on the number of concurrent requests
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Returns the number of requests currently executing
+     */
+    public synchronized int getRunningRequests() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the short term average of the requests execution time, in milliseconds
+     */
+    public synchronized double getLatency() {
+        return shortLatency / 1000000d;
+    }
+
+    /**
+     * Returns the controller providing the request matching rule
+     */
+    public FlowController getMatcher() {
+        return matcher;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveFlowController(" + matcher + ",limit=" + getLimit() + ")";
+    }
+}
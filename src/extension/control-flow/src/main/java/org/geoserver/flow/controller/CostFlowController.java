@@ -0,0 +1,379 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.platform.Operation;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+
+/**
+ * A flow controller admitting requests against a total cost budget, instead of counting each
+ * request as one slot. The cost of a request is estimated before its execution, in units:
+ * <ul>
+ * <li>GetMap: the image area, in 256x256 tiles, times the number of layers</li>
+ * <li>GetFeature: the maximum number of features returned, in thousands, scaled down when the
+ * queries are filtered</li>
+ * <li>GetCoverage: the output area, in 256x256 tiles</li>
+ * <li>any other request: one unit</li>
+ * </ul>
+ * A request is admitted if its cost fits in the budget left by the running ones, so a few large
+ * requests cannot use the slots of many cheap ones. The cost of a single request is capped to a
+ * share of the budget, so that it can still run, and cannot lock out all the others while it does.
+ * <p>
+ * Cheap requests can overtake a waiting large one, but only until the oldest waiting request has
+ * aged past the aging time: from then on no request is admitted ahead of it, the running ones
+ * drain the budget and it eventually runs.
+ * </p>
+ */
+public class CostFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * The number of pixels making up a cost unit
+     */
+    static final long PIXELS_PER_UNIT = 256 * 256;
+
+    /**
+     * The number of features making up a cost unit
+     */
+    static final long FEATURES_PER_UNIT = 1000;
+
+    /**
+     * The number of features assumed for a GetFeature without a limit
+     */
+    static final long UNBOUNDED_FEATURES = 100000;
+
+    /**
+     * The fraction of the features assumed to be returned by a filtered query, there are no
+     * statistics to estimate the actual filter selectivity
+     */
+    static final double FILTER_SELECTIVITY = 0.1;
+
+    /**
+     * The default share of the budget a single request can use, in percent
+     */
+    public static final int DEFAULT_MAX_SHARE = 50;
+
+    /**
+     * The default time the oldest waiting request can be overtaken by cheaper ones, in
+     * milliseconds
+     */
+    public static final long DEFAULT_AGING_TIME = 2000;
+
+    static final Pattern SCALE_SIZE = Pattern.compile("\\(\\s*(\\d+)\\s*\\)");
+
+    final int budget;
+
+    final int maxShare;
+
+    final int maxCost;
+
+    final long agingTime;
+
+    int used;
+
+    /**
+     * The requests waiting for budget, in arrival order
+     */
+    final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+    final ThreadLocal<Integer> requestCost = new ThreadLocal<Integer>();
+
+    public CostFlowController(int budget) {
+        this(budget, DEFAULT_MAX_SHARE, DEFAULT_AGING_TIME);
+    }
+
+    /**
+     * @param budget The total cost budget
+     * @param maxShare The share of the budget a single request can use, in percent
+     * @param agingTime The time, in milliseconds, after which the oldest waiting request cannot be
+     *        overtaken anymore, zero for strict arrival order
+     */
+    public CostFlowController(int budget, int maxShare, long agingTime) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The cost budget must be positive");
+        }
+        if (maxShare <= 0 || maxShare > 100) {
+            throw new IllegalArgumentException("The maximum request share must be between 1 "
+                    + "and 100 percent");
+        }
+        if (agingTime < 0) {
+            throw new IllegalArgumentException("The aging time cannot be negative");
+        }
+        this.budget = budget;
+        this.maxShare = maxShare;
+        this.maxCost = Math.max(1, (int) ((long) budget * maxShare / 100));
+        this.agingTime = agingTime;
+    }
+
+    public int getPriority() {
+        return budget;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        int cost = (int) Math.max(1, Math.min(maxCost, estimateCost(request,
+                ControlFlowCallback.getCurrentOperation())));
+        long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+        synchronized (this) {
+            Waiter waiter = new Waiter(cost, System.currentTimeMillis());
+            waiters.add(waiter);
+            try {
+                while (!canRun(waiter)) {
+                    if (maxTime > 0) {
+                        long wait = maxTime - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            return false;
+                        }
+                        wait(wait);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Unexpected interruption while waiting for budget");
+                return false;
+            } finally {
+                // leaving the queue might let the next waiter in
+                waiters.remove(waiter);
+                notifyAll();
+            }
+            used += cost;
+        }
+        requestCost.set(cost);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(this + " admitted request with cost " + cost);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the waiting request fits in the budget, and is not overtaking an aged one
+     */
+    boolean canRun(Waiter waiter) {
+        if (used + waiter.cost > budget) {
+            return false;
+        }
+        Waiter oldest = waiters.getFirst();
+        return oldest == waiter || System.currentTimeMillis() - oldest.since < agingTime;
+    }
+
+    public void requestComplete(Request request) {
+        Integer cost = requestCost.get();
+        if (cost == null) {
+            return;
+        }
+        requestCost.remove();
+        synchronized (this) {
+            used -= cost;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Estimates the cost of a request, in units
+     *
+     * @param request The request
+     * @param operation The dispatched operation, if available
+     */
+    static long estimateCost(Request request, Operation operation) {
+        String name = request.getRequest();
+        if (name == null) {
+            return 1;
+        }
+        try {
+            Object bean = findRequestBean(operation);
+            if ("GetMap".equalsIgnoreCase(name)) {
+                return getMapCost(request, bean);
+            } else if ("GetFeature".equalsIgnoreCase(name)) {
+                return getFeatureCost(request, bean);
+            } else if ("GetCoverage".equalsIgnoreCase(name)) {
+                return getCoverageCost(request);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to estimate the cost of " + request, e);
+        }
+        return 1;
+    }
+
+    static Object findRequestBean(Operation operation) {
+        if (operation == null || operation.getParameters() == null) {
+            return null;
+        }
+        for (Object parameter : operation.getParameters()) {
+            if (parameter != null) {
+                return parameter;
+            }
+        }
+        return null;
+    }
+
+    static long getMapCost(Request request, Object bean) {
+        long width, height, layers;
+        if (bean != null && OwsUtils.has(bean, "width")) {
+            width = toLong(OwsUtils.get(bean, "width"));
+            height = toLong(OwsUtils.get(bean, "height"));
+            Object list = OwsUtils.get(bean, "layers");
+            layers = list instanceof Collection ? ((Collection<?>) list).size() : 1;
+        } else {
+            Map<?, ?> kvp = request.getRawKvp();
+            if (kvp == null) {
+                return 1;
+            }
+            width = toLong(kvp.get("WIDTH"));
+            height = toLong(kvp.get("HEIGHT"));
+            Object list = kvp.get("LAYERS");
+            layers = list == null ? 1 : list.toString().split(",").length;
+        }
+        return units(width * height * Math.max(1, layers), PIXELS_PER_UNIT);
+    }
+
+    static long getFeatureCost(Request request, Object bean) {
+        long features = -1;
+        Collection<?> queries = null;
+        if (bean != null) {
+            // WFS 1.x uses maxFeatures, WFS 2.0 count
+            for (String property : new String[] { "maxFeatures", "count" }) {
+                if (OwsUtils.has(bean, property)) {
+                    long value = toLong(OwsUtils.get(bean, property));
+                    if (value > 0) {
+                        features = value;
+                    }
+                }
+            }
+            for (String property : new String[] { "query", "abstractQueryExpression" }) {
+                if (OwsUtils.has(bean, property)) {
+                    Object value = OwsUtils.get(bean, property);
+                    if (value instanceof Collection) {
+                        queries = (Collection<?>) value;
+                    }
+                }
+            }
+        } else if (request.getRawKvp() != null) {
+            Map<?, ?> kvp = request.getRawKvp();
+            Object value = kvp.get("MAXFEATURES") != null ? kvp.get("MAXFEATURES") : kvp
+                    .get("COUNT");
+            features = value == null ? -1 : toLong(value);
+        }
+
+        if (queries == null || queries.isEmpty()) {
+            return units(features > 0 ? features : UNBOUNDED_FEATURES, FEATURES_PER_UNIT);
+        }
+        // the limit applies to the whole request, without one each query can return a lot
+        double total = 0;
+        for (Object query : queries) {
+            long queryFeatures = features > 0 ? features : UNBOUNDED_FEATURES;
+            Object filter = OwsUtils.has(query, "filter") ? OwsUtils.get(query, "filter") : null;
+            if (filter != null && filter != Filter.INCLUDE) {
+                total += queryFeatures * FILTER_SELECTIVITY;
+            } else {
+                total += queryFeatures;
+            }
+        }
+        if (features > 0) {
+            total = Math.min(total, features);
+        }
+        return units((long) total, FEATURES_PER_UNIT);
+    }
+
+    static long getCoverageCost(Request request) {
+        Map<?, ?> kvp = request.getRawKvp();
+        if (kvp == null) {
+            return 1;
+        }
+        // WCS 1.0
+        if (kvp.get("WIDTH") != null && kvp.get("HEIGHT") != null) {
+            return units(toLong(kvp.get("WIDTH")) * toLong(kvp.get("HEIGHT")), PIXELS_PER_UNIT);
+        }
+        // WCS 2.0 scaling extension, e.g. SCALESIZE=i(1000),j(1000)
+        Object scaleSize = kvp.get("SCALESIZE");
+        if (scaleSize != null) {
+            long pixels = 1;
+            Matcher matcher = SCALE_SIZE.matcher(scaleSize.toString());
+            while (matcher.find()) {
+                pixels *= Long.parseLong(matcher.group(1));
+            }
+            return units(pixels, PIXELS_PER_UNIT);
+        }
+        return 1;
+    }
+
+    static long toLong(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else {
+            return Long.parseLong(value.toString().trim());
+        }
+    }
+
+    static long units(long amount, long perUnit) {
+        return Math.max(1, (amount + perUnit - 1) / perUnit);
+    }
+
+    /**
+     * Returns the total cost budget
+     */
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the share of the budget a single request can use, in percent
+     */
+    public int getMaxShare() {
+        return maxShare;
+    }
+
+    /**
+     * Returns the time, in milliseconds, after which the oldest waiting request cannot be
+     * overtaken anymore
+     */
+    public long getAgingTime() {
+        return agingTime;
+    }
+
+    /**
+     * Returns the cost of the requests currently running
+     */
+    public synchronized int getUsedBudget() {
+        return used;
+    }
+
+    /**
+     * Returns the number of requests waiting for budget
+     */
+    public synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    @Override
+    public String toString() {
+        return "CostFlowController(" + budget + ")";
+    }
+
+    static class Waiter {
+        final int cost;
+
+        final long since;
+
+        Waiter(int cost, long since) {
+            this.cost = cost;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * A flow controller sharing a number of execution slots among tenants (users, roles or client
+ * IPs) with weighted fair queuing.
+ * <p>
+ * Each waiting request gets a virtual finish tag, computed as the tag of the previous request of
+ * the same tenant (or the current virtual time, if larger) plus the inverse of the tenant weight.
+ * Free slots go to the waiting request with the smallest tag, so a tenant flooding the server
+ * only delays its own requests, while the others get a share of the slots proportional to their
+ * weight.
+ * </p>
+ * <p>
+ * Each tenant has a maximum wait time. When the expected wait, estimated from the requests ahead
+ * in the queue and the average execution time, exceeds it, the request is rejected right away
+ * with a 503 and a Retry-After header, otherwise it is rejected in the same way once the wait
+ * actually exceeds it.
+ * </p>
+ */
+public class FairFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * How tenants are identified
+     */
+    public static enum TenantType {
+        USER, ROLE, IP
+    }
+
+    static final String ANONYMOUS = "anonymous";
+
+    /**
+     * Number of tenants tracked that triggers a cleanup of the idle ones
+     */
+    static final int MAX_TENANTS = 1000;
+
+    /**
+     * Weight of a new sample in the average execution time
+     */
+    static final double ALPHA = 0.1;
+
+    static final class Tenant {
+        double weight;
+
+        long maxWait;
+
+        double lastTag;
+
+        Tenant(double weight, long maxWait) {
+            this.weight = weight;
+            this.maxWait = maxWait;
+        }
+    }
+
+    static final class Ticket implements Comparable<Ticket> {
+        final double tag;
+
+        final long sequence;
+
+        boolean granted;
+
+        Ticket(double tag, long sequence) {
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Ticket other) {
+            if (tag != other.tag) {
+                return tag < other.tag ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    final int slots;
+
+    final TenantType tenantType;
+
+    final Map<String, Double> weights;
+
+    final long defaultMaxWait;
+
+    final Map<String, Long> maxWaits;
+
+    final Map<String, Tenant> tenants = new HashMap<String, Tenant>();
+
+    final PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>();
+
+    final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+    int running;
+
+    double virtualTime;
+
+    long sequence;
+
+    double averageExecution;
+
+    long rejected;
+
+    /**
+     * Builds a new fair flow controller
+     *
+     * @param slots The number of requests allowed to run concurrently
+     * @param tenantType How the tenants are identified
+     * @param weights The tenant weights, tenants not listed have weight 1
+     * @param defaultMaxWait The maximum wait, in milliseconds, for tenants not listed in maxWaits.
+     *        Zero or negative means no limit.
+     * @param maxWaits The per tenant maximum wait, in milliseconds
+     */
+    public FairFlowController(int slots, TenantType tenantType, Map<String, Double> weights,
+            long defaultMaxWait, Map<String, Long> maxWaits) {
+        if (slots <= 0) {
+            throw new IllegalArgumentException("The number of slots must be positive");
+        }
+        this.slots = slots;
+        this.tenantType = tenantType;
+        this.weights = new HashMap<String, Double>(weights);
+        this.defaultMaxWait = defaultMaxWait;
+        this.maxWaits = new HashMap<String, Long>(maxWaits);
+    }
+
+    public int getPriority() {
+        return slots;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        final String tenantId = getTenantId(request);
+        final long start = System.currentTimeMillis();
+        final Ticket ticket;
+        long maxWait;
+        synchronized (this) {
+            Tenant tenant = getTenant(tenantId);
+            maxWait = tenant.maxWait;
+            if (timeout > 0 && (maxWait <= 0 || timeout < maxWait)) {
+                maxWait = timeout;
+            }
+
+            double tag = Math.max(virtualTime, tenant.lastTag) + 1 / tenant.weight;
+            ticket = new Ticket(tag, sequence++);
+            if (running < slots && waiting.isEmpty()) {
+                grant(ticket);
+            } else {
+                // reject right away if the wait is not going to fit in the budget
+                if (maxWait > 0) {
+                    long expected = expectedWait(ticket);
+                    if (expected > maxWait) {
+                        reject(request, tenantId, expected);
+                    }
+                }
+                waiting.add(ticket);
+            }
+            tenant.lastTag = tag;
+
+            try {
+                while (!ticket.granted) {
+                    if (maxWait > 0) {
+                        long wait = start + maxWait - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            waiting.remove(ticket);
+                            reject(request, tenantId, expectedWait(null));
+                        }
+                        wait(wait);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Unexpected interruption while waiting for a slot");
+                if (!ticket.granted) {
+                    waiting.remove(ticket);
+                    return false;
+                }
+            }
+        }
+        startTime.set(System.nanoTime());
+        return true;
+    }
+
+    public void requestComplete(Request request) {
+        Long start = startTime.get();
+        if (start == null) {
+            return;
+        }
+        startTime.remove();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        synchronized (this) {
+            running--;
+            averageExecution = averageExecution == 0 ? elapsed : averageExecution * (1 - ALPHA)
+                    + elapsed * ALPHA;
+            grantWaiting();
+        }
+    }
+
+    /**
+     * Grants the free slots to the waiting requests with the smallest tags. Must be called
+     * while holding the lock.
+     */
+    void grantWaiting() {
+        boolean granted = false;
+        while (running < slots && !waiting.isEmpty()) {
+            grant(waiting.poll());
+            granted = true;
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    void grant(Ticket ticket) {
+        ticket.granted = true;
+        running++;
+        virtualTime = Math.max(virtualTime, ticket.tag);
+    }
+
+    /**
+     * Estimates how long the given ticket will wait, in milliseconds, or how long a new request
+     * would wait if the ticket is null. Must be called while holding the lock.
+     */
+    long expectedWait(Ticket ticket) {
+        int ahead = 0;
+        for (Ticket t : waiting) {
+            if (ticket == null || t.compareTo(ticket) < 0) {
+                ahead++;
+            }
+        }
+        return (long) Math.ceil((ahead + 1) * averageExecution / slots);
+    }
+
+    private void reject(Request request, String tenantId, long expectedWait) {
+        rejected++;
+        long retryAfter = Math.max(1, (long) Math.ceil(expectedWait / 1000d));
+        HttpServletResponse response = request.getHttpResponse();
+        if (response != null) {
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(this + " rejected request from " + tenantId + ", expected wait "
+                    + expectedWait + "ms");
+        }
+        throw new HttpErrorCodeException(503, "Too many requests from " + tenantType.name()
+                .toLowerCase() + " " + tenantId + ", retry in " + retryAfter + " seconds");
+    }
+
+    /**
+     * Returns the tenant state, creating it if missing. Must be called while holding the lock.
+     */
+    Tenant getTenant(String tenantId) {
+        Tenant tenant = tenants.get(tenantId);
+        if (tenant == null) {
+            if (tenants.size() > MAX_TENANTS) {
+                // drop the tenants without requests ahead of the current virtual time
+                for (Iterator<Tenant> it = tenants.values().iterator(); it.hasNext();) {
+                    if (it.next().lastTag <= virtualTime) {
+                        it.remove();
+                    }
+                }
+            }
+            Double weight = weights.get(tenantId);
+            Long maxWait = maxWaits.get(tenantId);
+            tenant = new Tenant(weight != null && weight > 0 ? weight : 1,
+                    maxWait != null ? maxWait : defaultMaxWait);
+            tenants.put(tenantId, tenant);
+        }
+        return tenant;
+    }
+
+    String getTenantId(Request request) {
+        if (tenantType == TenantType.IP) {
+            String ip = request.getHttpRequest() == null ? null : IpFlowController
+                    .getRemoteAddr(request.getHttpRequest());
+            return ip == null ? "" : ip;
+        }
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth.getName() == null) {
+            return ANONYMOUS;
+        }
+        if (tenantType == TenantType.USER) {
+            return auth.getName();
+        }
+        // pick the role with the highest weight, or the first one
+        String best = null;
+        double bestWeight = 0;
+        for (GrantedAuthority authority : auth.getAuthorities()) {
+            String role = authority.getAuthority();
+            Double weight = weights.get(role);
+            double w = weight == null ? 1 : weight;
+            if (best == null || w > bestWeight) {
+                best = role;
+                bestWeight = w;
+            }
+        }
+        return best == null ? ANONYMOUS : best;
+    }
+
+    /**
+     * Returns the number of requests running
+     */
+    public synchronized int getRunningRequests() {
+        return running;
+    }
+
+    /**
+     * Returns the number of requests waiting for a slot
+     */
+    public synchronized int getWaitingRequests() {
+        return waiting.size();
+    }
+
+    /**
+     * Returns the number of requests rejected because they exceeded their wait budget
+     */
+    public synchronized long getRejectedRequests() {
+        return rejected;
+    }
+
+    public TenantType getTenantType() {
+        return tenantType;
+    }
+
+    @Override
+    public String toString() {
+        return "FairFlowController(" + slots + "," + tenantType + ")";
+    }
+}
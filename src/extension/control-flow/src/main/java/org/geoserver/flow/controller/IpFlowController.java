@@ -116,4 +116,9 @@ public class IpFlowController extends QueueController {
         }
     }
 
+    @Override
+    public String toString() {
+        return "IpFlowController(" + queueSize + ")";
+    }
+
 }
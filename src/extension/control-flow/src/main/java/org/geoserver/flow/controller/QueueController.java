@@ -41,6 +41,24 @@ public abstract class QueueController implements FlowController {
         return queueSize;
     }
 
+    /**
+     * Returns the number of queues, that is, of distinct clients tracked
+     */
+    public int getQueueCount() {
+        return queues.size();
+    }
+
+    /**
+     * Returns the total number of requests holding a slot in the queues
+     */
+    public int getQueuedRequests() {
+        int total = 0;
+        for (TimedBlockingQueue queue : queues.values()) {
+            total += queue.size();
+        }
+        return total;
+    }
+
     @SuppressWarnings("serial")
     protected static class TimedBlockingQueue extends ArrayBlockingQueue<Request> {
         long lastModified;
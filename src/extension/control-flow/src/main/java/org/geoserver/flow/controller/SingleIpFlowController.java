@@ -33,4 +33,9 @@ public class SingleIpFlowController extends SingleQueueFlowController {
         return ip;
     }
 
+    @Override
+    public String toString() {
+        return "SingleIpFlowController(" + ip + "," + queueSize + ")";
+    }
+
 }
@@ -64,6 +64,20 @@ public abstract class SingleQueueFlowController implements FlowController {
         return retval;
     }
 
+    /**
+     * Returns the number of requests currently holding a slot in the queue
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the maximum number of requests running in parallel
+     */
+    public int getQueueCapacity() {
+        return queueSize;
+    }
+
     abstract boolean matchesRequest(Request request);
 
 }
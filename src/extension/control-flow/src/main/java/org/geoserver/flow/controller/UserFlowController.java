@@ -165,5 +165,9 @@ public class UserFlowController extends QueueController {
         return retval;
     }
 
-    
+    @Override
+    public String toString() {
+        return "UserFlowController(" + queueSize + ")";
+    }
+
 }
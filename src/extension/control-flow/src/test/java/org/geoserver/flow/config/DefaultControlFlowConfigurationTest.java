@@ -13,7 +13,11 @@ import java.util.Properties;
 
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveFlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairFlowController;
+import org.geoserver.flow.controller.FairFlowController.TenantType;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
@@ -67,6 +71,78 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(14, ipSc.getPriority());
     }
 
+    @Test
+    public void testParsingAdaptive() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.global", "100,adaptive");
+        p.put("ows.wms.getmap", "8, adaptive");
+        p.put("user", "6,adaptive");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        Collections.sort(controllers, new ControllerPriorityComparator());
+
+        assertEquals(3, controllers.size());
+        // adaptive limits are not supported by the per user controller
+        assertTrue(controllers.get(0) instanceof UserFlowController);
+        AdaptiveFlowController oc = (AdaptiveFlowController) controllers.get(1);
+        assertEquals(8, oc.getPriority());
+        assertEquals(8, oc.getLimit());
+        assertTrue(oc.getMatcher() instanceof BasicOWSController);
+        AdaptiveFlowController gc = (AdaptiveFlowController) controllers.get(2);
+        assertEquals(100, gc.getMaxLimit());
+        assertTrue(gc.getMatcher() instanceof GlobalFlowController);
+    }
+
+    @Test
+    public void testParsingCost() throws Exception {
+        Properties p = new Properties();
+        p.put("cost", "500");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        CostFlowController cc = (CostFlowController) controllers.get(0);
+        assertEquals(500, cc.getBudget());
+        assertEquals(500, cc.getPriority());
+    }
+
+    @Test
+    public void testParsingCostOptions() throws Exception {
+        Properties p = new Properties();
+        p.put("cost", "500");
+        p.put("cost.maxshare", "20");
+        p.put("cost.aging", "5");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        CostFlowController cc = (CostFlowController) controllers.get(0);
+        assertEquals(500, cc.getBudget());
+        assertEquals(20, cc.getMaxShare());
+        assertEquals(5000, cc.getAgingTime());
+    }
+
+    @Test
+    public void testParsingFair() throws Exception {
+        Properties p = new Properties();
+        p.put("fair", "20,user");
+        p.put("fair.weight.admin", "4");
+        p.put("fair.maxwait", "30");
+        p.put("fair.maxwait.admin", "60");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        FairFlowController fc = (FairFlowController) controllers.get(0);
+        assertEquals(20, fc.getPriority());
+        assertEquals(TenantType.USER, fc.getTenantType());
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
@@ -0,0 +1,118 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class AdaptiveFlowControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    static final long MS = 1000000;
+
+    @Test
+    public void testPriority() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new GlobalFlowController(
+                10));
+        // priority == hard cap
+        assertEquals(10, controller.getPriority());
+        assertEquals(10, controller.getLimit());
+    }
+
+    @Test
+    public void testShrinkAndRecover() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new GlobalFlowController(
+                20));
+        // steady state, the limit stays at the cap
+        for (int i = 0; i < 100; i++) {
+            controller.update(10 * MS, 20);
+        }
+        assertEquals(20, controller.getLimit());
+
+        // the requests slow down a lot, the limit shrinks
+        for (int i = 0; i < 30; i++) {
+            controller.update(100 * MS, 20);
+        }
+        int shrunk = controller.getLimit();
+        assertTrue("Limit did not shrink: " + shrunk, shrunk < 10);
+
+        // back to normal, the limit grows back to the cap but not above it
+        for (int i = 0; i < 200; i++) {
+            controller.update(10 * MS, 20);
+        }
+        assertEquals(20, controller.getLimit());
+    }
+
+    @Test
+    public void testNoGrowthWhenUnused() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new GlobalFlowController(
+                20));
+        controller.update(10 * MS, 1);
+        for (int i = 0; i < 30; i++) {
+            controller.update(100 * MS, 1);
+        }
+        int shrunk = controller.getLimit();
+        // fast requests, but a single one running at a time
+        for (int i = 0; i < 200; i++) {
+            controller.update(10 * MS, 1);
+        }
+        assertEquals(shrunk, controller.getLimit());
+    }
+
+    @Test
+    public void testBlockAtLimit() throws Exception {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new GlobalFlowController(
+                2));
+        // simulate a limit computed under load
+        controller.limit = 1;
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(new Request(), 0,
+                Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(new Request(), 0,
+                Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(1, controller.getRunningRequests());
+
+            // let t1 go, t2 can run
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            waitBlocked(t2, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+            t2.interrupt();
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final AdaptiveFlowController controller = new AdaptiveFlowController(
+                new GlobalFlowController(1));
+        Request first = new Request();
+        assertTrue(controller.requestIncoming(first, 100));
+
+        // the second request, on another thread, times out
+        FlowControllerTestingThread t = new FlowControllerTestingThread(new Request(), 100, 0,
+                controller);
+        t.start();
+        waitTerminated(t, MAX_WAIT);
+        assertEquals(ThreadState.TIMED_OUT, t.state);
+
+        controller.requestComplete(first);
+        assertEquals(0, controller.getRunningRequests());
+    }
+}
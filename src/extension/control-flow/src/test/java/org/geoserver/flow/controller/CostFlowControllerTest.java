@@ -0,0 +1,287 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.util.Version;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+public class CostFlowControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    Request request(String name, String... kvp) {
+        Request request = new Request();
+        request.setRequest(name);
+        Map<String, Object> raw = new HashMap<String, Object>();
+        for (int i = 0; i < kvp.length; i += 2) {
+            raw.put(kvp[i], kvp[i + 1]);
+        }
+        request.setRawKvp(raw);
+        return request;
+    }
+
+    @Test
+    public void testGetMapCost() {
+        // a tile is the unit
+        assertEquals(1, CostFlowController.estimateCost(
+                request("GetMap", "WIDTH", "256", "HEIGHT", "256", "LAYERS", "states"), null));
+        // a large map with three layers
+        assertEquals(3 * 16, CostFlowController.estimateCost(
+                request("GetMap", "WIDTH", "1024", "HEIGHT", "1024", "LAYERS", "a,b,c"), null));
+    }
+
+    @Test
+    public void testGetMapCostFromBean() {
+        MapBean bean = new MapBean();
+        Operation op = new Operation("GetMap", new Service("wms", null, new Version("1.1.1"),
+                null), null, new Object[] { bean });
+        assertEquals(2 * 4, CostFlowController.estimateCost(request("GetMap"), op));
+    }
+
+    @Test
+    public void testGetFeatureCost() {
+        // no limit, no query information
+        assertEquals(100, CostFlowController.estimateCost(request("GetFeature"), null));
+        assertEquals(1, CostFlowController.estimateCost(
+                request("GetFeature", "MAXFEATURES", "10"), null));
+        assertEquals(5, CostFlowController.estimateCost(request("GetFeature", "COUNT", "5000"),
+                null));
+    }
+
+    @Test
+    public void testGetFeatureCostFromBean() {
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        FeatureBean bean = new FeatureBean();
+        bean.query = Arrays.asList(new QueryBean(Filter.INCLUDE), new QueryBean(ff.bbox("geom",
+                0, 0, 1, 1, null)));
+        Operation op = new Operation("GetFeature", new Service("wfs", null, new Version(
+                "1.1.0"), null), null, new Object[] { bean });
+        // one unfiltered query and a filtered one, no limit
+        assertEquals(110, CostFlowController.estimateCost(request("GetFeature"), op));
+
+        // the limit applies to the whole request
+        bean.maxFeatures = BigInteger.valueOf(2000);
+        assertEquals(2, CostFlowController.estimateCost(request("GetFeature"), op));
+    }
+
+    @Test
+    public void testGetCoverageCost() {
+        assertEquals(4, CostFlowController.estimateCost(
+                request("GetCoverage", "WIDTH", "512", "HEIGHT", "512"), null));
+        assertEquals(16, CostFlowController.estimateCost(
+                request("GetCoverage", "SCALESIZE", "i(1024),j(1024)"), null));
+        assertEquals(1, CostFlowController.estimateCost(request("GetCoverage"), null));
+    }
+
+    @Test
+    public void testOtherRequests() {
+        assertEquals(1, CostFlowController.estimateCost(request("GetCapabilities"), null));
+        assertEquals(1, CostFlowController.estimateCost(new Request(), null));
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        // the whole budget can go to a single request, in strict arrival order
+        CostFlowController controller = new CostFlowController(10, 100, 0);
+        assertEquals(10, controller.getPriority());
+
+        // a large request uses most of the budget
+        FlowControllerTestingThread large = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "1024", "HEIGHT", "512"), 0, Long.MAX_VALUE, controller);
+        // a huge one does not fit, times out
+        FlowControllerTestingThread huge = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "10000", "HEIGHT", "10000"), 200, Long.MAX_VALUE, controller);
+        // a cheap one still runs
+        FlowControllerTestingThread cheap = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "256", "HEIGHT", "256"), 200, Long.MAX_VALUE, controller);
+        try {
+            large.start();
+            waitBlocked(large, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, large.state);
+            assertEquals(8, controller.getUsedBudget());
+
+            huge.start();
+            waitTerminated(huge, MAX_WAIT);
+            assertEquals(ThreadState.TIMED_OUT, huge.state);
+
+            cheap.start();
+            waitBlocked(cheap, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, cheap.state);
+            assertEquals(9, controller.getUsedBudget());
+
+            large.interrupt();
+            cheap.interrupt();
+            waitTerminated(large, MAX_WAIT);
+            waitTerminated(cheap, MAX_WAIT);
+            assertEquals(0, controller.getUsedBudget());
+        } finally {
+            waitAndKill(large, MAX_WAIT);
+            waitAndKill(huge, MAX_WAIT);
+            waitAndKill(cheap, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testCostCap() throws Exception {
+        CostFlowController controller = new CostFlowController(10);
+        assertEquals(50, controller.getMaxShare());
+
+        // a huge request only gets half of the budget
+        FlowControllerTestingThread huge = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "10000", "HEIGHT", "10000"), 0, Long.MAX_VALUE, controller);
+        // so it does not block a cheap one
+        FlowControllerTestingThread cheap = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "256", "HEIGHT", "256"), 200, Long.MAX_VALUE, controller);
+        try {
+            huge.start();
+            waitBlocked(huge, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, huge.state);
+            assertEquals(5, controller.getUsedBudget());
+
+            cheap.start();
+            waitBlocked(cheap, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, cheap.state);
+            assertEquals(6, controller.getUsedBudget());
+
+            huge.interrupt();
+            cheap.interrupt();
+            waitTerminated(huge, MAX_WAIT);
+            waitTerminated(cheap, MAX_WAIT);
+            assertEquals(0, controller.getUsedBudget());
+        } finally {
+            waitAndKill(huge, MAX_WAIT);
+            waitAndKill(cheap, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testAging() throws Exception {
+        CostFlowController controller = new CostFlowController(10, 50, 300);
+
+        // two medium requests, using 3 units each
+        FlowControllerTestingThread medium1 = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "768", "HEIGHT", "256"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread medium2 = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "768", "HEIGHT", "256"), 0, Long.MAX_VALUE, controller);
+        // a large one, capped to 5 units, does not fit and waits without a timeout
+        FlowControllerTestingThread large = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "1024", "HEIGHT", "512"), 0, Long.MAX_VALUE, controller);
+        // a cheap request overtakes it while it's young
+        FlowControllerTestingThread early = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "256", "HEIGHT", "256"), 0, Long.MAX_VALUE, controller);
+        // but not once it aged
+        FlowControllerTestingThread late = new FlowControllerTestingThread(request("GetMap",
+                "WIDTH", "256", "HEIGHT", "256"), 0, Long.MAX_VALUE, controller);
+        try {
+            medium1.start();
+            waitBlocked(medium1, MAX_WAIT);
+            medium2.start();
+            waitBlocked(medium2, MAX_WAIT);
+            assertEquals(6, controller.getUsedBudget());
+
+            large.start();
+            waitBlocked(large, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, large.state);
+
+            early.start();
+            waitBlocked(early, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, early.state);
+            assertEquals(7, controller.getUsedBudget());
+
+            Thread.sleep(400);
+            late.start();
+            waitBlocked(late, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, late.state);
+            assertEquals(2, controller.getWaitingCount());
+            assertEquals(7, controller.getUsedBudget());
+
+            // once the medium requests are done the large one gets in, and the late one after it
+            medium1.interrupt();
+            medium2.interrupt();
+            waitProcessing(large, MAX_WAIT);
+            waitProcessing(late, MAX_WAIT);
+            assertEquals(0, controller.getWaitingCount());
+            assertEquals(7, controller.getUsedBudget());
+
+            large.interrupt();
+            early.interrupt();
+            late.interrupt();
+            waitTerminated(large, MAX_WAIT);
+            waitTerminated(early, MAX_WAIT);
+            waitTerminated(late, MAX_WAIT);
+            assertEquals(0, controller.getUsedBudget());
+        } finally {
+            waitAndKill(medium1, MAX_WAIT);
+            waitAndKill(medium2, MAX_WAIT);
+            waitAndKill(large, MAX_WAIT);
+            waitAndKill(early, MAX_WAIT);
+            waitAndKill(late, MAX_WAIT);
+        }
+    }
+
+    void waitProcessing(FlowControllerTestingThread t, long maxWait) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (t.state != ThreadState.PROCESSING) {
+            if (System.currentTimeMillis() > start + maxWait) {
+                fail("Waited for the thread to be processing more than maxWait: " + maxWait);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    public static class MapBean {
+        public int getWidth() {
+            return 512;
+        }
+
+        public int getHeight() {
+            return 512;
+        }
+
+        public List<String> getLayers() {
+            return Arrays.asList("a", "b");
+        }
+    }
+
+    public static class FeatureBean {
+        BigInteger maxFeatures;
+
+        List<QueryBean> query;
+
+        public BigInteger getMaxFeatures() {
+            return maxFeatures;
+        }
+
+        public List<QueryBean> getQuery() {
+            return query;
+        }
+    }
+
+    public static class QueryBean {
+        Filter filter;
+
+        QueryBean(Filter filter) {
+            this.filter = filter;
+        }
+
+        public Filter getFilter() {
+            return filter;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.flow.controller.FairFlowController.TenantType;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class FairFlowControllerTest extends AbstractFlowControllerTest {
+
+    private static final long MAX_WAIT = 10000;
+
+    Request buildRequest(String ipAddress) {
+        Request request = new Request();
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setRemoteAddr(ipAddress);
+        request.setHttpRequest(httpRequest);
+        request.setHttpResponse(new MockHttpServletResponse());
+        return request;
+    }
+
+    FairFlowController controller(int slots, Map<String, Double> weights, long maxWait) {
+        return new FairFlowController(slots, TenantType.IP, weights, maxWait,
+                Collections.<String, Long> emptyMap());
+    }
+
+    /**
+     * A thread getting a slot, recording its name, and leaving right away
+     */
+    class RecordingThread extends Thread {
+        FairFlowController controller;
+
+        List<String> order;
+
+        Request request;
+
+        RecordingThread(String name, FairFlowController controller, List<String> order) {
+            super(name);
+            this.controller = controller;
+            this.order = order;
+            this.request = buildRequest(name.substring(0, 1));
+        }
+
+        @Override
+        public void run() {
+            controller.requestIncoming(request, -1);
+            order.add(getName());
+            controller.requestComplete(request);
+        }
+    }
+
+    List<String> runQueued(FairFlowController controller, String... names) throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        // hold the only slot
+        Request holder = buildRequest("A");
+        assertTrue(controller.requestIncoming(holder, -1));
+        List<Thread> threads = new ArrayList<Thread>();
+        for (String name : names) {
+            Thread t = new RecordingThread(name, controller, order);
+            threads.add(t);
+            t.start();
+            waitBlocked(t, MAX_WAIT);
+        }
+        assertEquals(names.length, controller.getWaitingRequests());
+        controller.requestComplete(holder);
+        for (Thread t : threads) {
+            waitTerminated(t, MAX_WAIT);
+        }
+        return order;
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        FairFlowController controller = controller(1, Collections.<String, Double> emptyMap(), 0);
+        // tenant A floods the queue, B does not have to wait for all of its requests
+        List<String> order = runQueued(controller, "A2", "A3", "A4", "B1");
+        assertEquals(4, order.size());
+        assertTrue(order.toString(), order.indexOf("B1") < order.indexOf("A3"));
+        assertEquals(0, controller.getRunningRequests());
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        Map<String, Double> weights = new HashMap<String, Double>();
+        weights.put("B", 4d);
+        FairFlowController controller = controller(1, weights, 0);
+        List<String> order = runQueued(controller, "A2", "A3", "B1", "B2", "B3");
+        // B has four times the weight, its requests go first
+        assertEquals("B1", order.get(0));
+        assertTrue(order.toString(), order.indexOf("B3") < order.indexOf("A3"));
+    }
+
+    @Test
+    public void testRejectFast() throws Exception {
+        FairFlowController controller = controller(1, Collections.<String, Double> emptyMap(),
+                100);
+        // requests have been taking a couple of seconds
+        controller.averageExecution = 2000;
+        Request holder = buildRequest("A");
+        assertTrue(controller.requestIncoming(holder, -1));
+
+        Request request = buildRequest("B");
+        long start = System.currentTimeMillis();
+        try {
+            controller.requestIncoming(request, -1);
+            fail("The request should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+        // rejected right away, without waiting
+        assertTrue(System.currentTimeMillis() - start < 100);
+        assertEquals("2", ((MockHttpServletResponse) request.getHttpResponse())
+                .getHeader("Retry-After"));
+        assertEquals(1, controller.getRejectedRequests());
+        assertEquals(0, controller.getWaitingRequests());
+        controller.requestComplete(holder);
+    }
+
+    @Test
+    public void testRejectAfterWait() throws Exception {
+        FairFlowController controller = controller(1, Collections.<String, Double> emptyMap(),
+                100);
+        Request holder = buildRequest("A");
+        assertTrue(controller.requestIncoming(holder, -1));
+
+        Request request = buildRequest("B");
+        long start = System.currentTimeMillis();
+        try {
+            controller.requestIncoming(request, -1);
+            fail("The request should have been rejected");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertNotNull(((MockHttpServletResponse) request.getHttpResponse())
+                .getHeader("Retry-After"));
+        assertEquals(0, controller.getWaitingRequests());
+        controller.requestComplete(holder);
+        assertEquals(0, controller.getRunningRequests());
+    }
+}
@@ -188,4 +188,9 @@ public class IpFlowControllerTest extends AbstractFlowControllerTest {
         return request;
     }
 
+    @Test
+    public void testToString() {
+        // used as a metrics label, has to be stable across restarts
+        assertEquals("IpFlowController(2)", new IpFlowController(2).toString());
+    }
 }
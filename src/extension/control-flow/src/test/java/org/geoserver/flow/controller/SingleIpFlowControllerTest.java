@@ -113,4 +113,10 @@ public class SingleIpFlowControllerTest extends IpFlowControllerTest {
 
     }
 
+    @Test
+    public void testToString() {
+        // used as a metrics label, has to be stable across restarts
+        assertEquals("SingleIpFlowController(192.168.1.8,2)",
+                new SingleIpFlowController(2, "192.168.1.8").toString());
+    }
 }
@@ -9,23 +9,59 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
 
 import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.ows.util.OwsUtils;
+import org.geotools.util.logging.Logging;
 
+/**
+ * Keeps the running requests, and a fixed number of the most recent completed ones, in memory.
+ * <p>
+ * Completed requests are stored in a preallocated ring buffer, writers claim a slot with an
+ * atomic increment and overwrite the oldest request, without locking. Aggregates over all the
+ * completed requests are kept by {@link org.geoserver.monitor.metrics.RequestMetrics}.
+ * </p>
+ * <p>
+ * The number of completed requests kept can be set with the <code>memory.history</code>
+ * monitoring property, it defaults to {@value #DEFAULT_HISTORY}.
+ * </p>
+ */
 public class MemoryMonitorDAO implements MonitorDAO {
 
+    static final Logger LOGGER = Logging.getLogger(MemoryMonitorDAO.class);
+
     public static final String NAME = "memory";
 
-    Queue<RequestData> live = new ConcurrentLinkedQueue<RequestData>();
-    Queue<RequestData> history = new ConcurrentLinkedQueue<RequestData>();
-    
+    public static final int DEFAULT_HISTORY = 100;
+
+    /**
+     * A completed request along with its position in the history, used to tell apart the slots
+     * that have been overwritten while reading
+     */
+    static final class Slot {
+        final long sequence;
+
+        final RequestData data;
+
+        Slot(long sequence, RequestData data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+
+    Map<Long, RequestData> live = new ConcurrentSkipListMap<Long, RequestData>();
+
+    AtomicReferenceArray<Slot> history = new AtomicReferenceArray<Slot>(DEFAULT_HISTORY);
+
+    AtomicLong historySequence = new AtomicLong();
+
     AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
 
     @Override
@@ -35,6 +71,17 @@ public class MemoryMonitorDAO implements MonitorDAO {
 
     @Override
     public void init(MonitorConfig config) {
+        Integer size = null;
+        try {
+            size = config.getProperty(NAME, "history", Integer.class);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid value for " + NAME + ".history, using the default of "
+                    + DEFAULT_HISTORY);
+        }
+        if (size != null && size > 0 && size != history.length()) {
+            history = new AtomicReferenceArray<Slot>(size);
+            historySequence.set(0);
+        }
     }
 
     public RequestData init(RequestData data) {
@@ -43,19 +90,17 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
 
     public void add(RequestData data) {
-        live.add(data);
+        live.put(data.getId(), data);
     }
 
     public void update(RequestData data) {
     }
 
     public void save(RequestData data) {
-        live.remove(data);
-        history.add(data);
-        
-        if (history.size() > 100) {
-            history.poll();
-        }
+        live.remove(data.getId());
+        AtomicReferenceArray<Slot> history = this.history;
+        long sequence = historySequence.getAndIncrement();
+        history.set((int) (sequence % history.length()), new Slot(sequence, data));
     }
     
     public RequestData getRequest(long id) {
@@ -68,15 +113,24 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
     
     public List<RequestData> getRequests() {
-        List<RequestData> requests = new LinkedList();
-        requests.addAll(live);
-        requests.addAll(history);
+        AtomicReferenceArray<Slot> history = this.history;
+        int size = history.length();
+        long end = historySequence.get();
+        long start = Math.max(0, end - size);
+
+        List<RequestData> requests = new ArrayList<RequestData>(live.size() + size);
+        requests.addAll(live.values());
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = history.get((int) (sequence % size));
+            // skip slots not written yet, or already overwritten by newer requests
+            if (slot != null && slot.sequence == sequence) {
+                requests.add(slot.data);
+            }
+        }
         return requests;
     }
         
     public List<RequestData> getRequests(Query q) {
-        List<RequestData> requests = getRequests();
-       
         List<Predicate> predicates = new ArrayList();
         if (q.getFilter() != null) {
             Filter f = q.getFilter();
@@ -86,26 +140,23 @@ public class MemoryMonitorDAO implements MonitorDAO {
             predicates.add(new DateRange(q.getFromDate(), q.getToDate()));
         }
         
-        int i = 1, count = 0;
+        List<RequestData> requests = new ArrayList<RequestData>();
+        int i = 1;
         
-O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
-            RequestData r = it.next();
+O:      for (RequestData r : getRequests()) {
             for (Predicate p : predicates) {
                 if (!p.matches(r)) {
-                    it.remove();
                     continue O;
                 }
             }
         
             if (q.getOffset() != null && q.getOffset() >= i++) {
-                it.remove();
                 continue;
             }
-            if (q.getCount() != null && q.getCount() <= count) {
-                it.remove();
-                continue;       
+            if (q.getCount() != null && q.getCount() <= requests.size()) {
+                break;
             }
-            count++;
+            requests.add(r);
         }
         
         if (q.getSortBy() != null) {
@@ -165,7 +216,6 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     public void dispose() {
         live.clear();
         live = null;
-        history.clear();
         history = null;
     }
     
@@ -148,6 +148,10 @@ public class MonitorFilter implements GeoServerFilter {
         data.setResponseContentType(response.getContentType());
         data.setResponseLength(((MonitorServletResponse)response).getContentLength());
         data.setResponseStatus(((MonitorServletResponse)response).getStatus());
+        long firstByteTime = ((MonitorServletResponse)response).getFirstByteTime();
+        if (firstByteTime > 0) {
+            data.setTimeToFirstByte(firstByteTime - data.getStartTime().getTime());
+        }
         
         if (error != null) {
             data.setStatus(Status.FAILED);
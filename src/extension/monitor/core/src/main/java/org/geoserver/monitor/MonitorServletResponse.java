@@ -27,6 +27,18 @@ public class MonitorServletResponse extends HttpServletResponseWrapper {
         
         return output.getBytesWritten();
     }
+
+    /**
+     * Returns the time the first byte of the response was written, in milliseconds since the
+     * epoch, or 0 if nothing has been written yet
+     */
+    public long getFirstByteTime() {
+        if (output == null) {
+            return 0;
+        }
+
+        return output.getFirstByteTime();
+    }
     
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
@@ -56,6 +68,7 @@ public class MonitorServletResponse extends HttpServletResponseWrapper {
     static class MonitorOutputStream extends ServletOutputStream {
 
         long nbytes;
+        long firstByteTime;
         OutputStream delegate;
 
         public MonitorOutputStream(OutputStream delegate) {
@@ -66,21 +79,32 @@ public class MonitorServletResponse extends HttpServletResponseWrapper {
             return nbytes;
         }
 
+        public long getFirstByteTime() {
+            return firstByteTime;
+        }
+
         @Override
         public void write(int b) throws IOException {
             delegate.write(b);
-            ++nbytes;
+            written(1);
         }
 
         @Override
         public void write(byte b[]) throws IOException {
             delegate.write(b);
-            nbytes += b.length;
+            written(b.length);
         }
 
         @Override
         public void write(byte b[], int off, int len) throws IOException {
             delegate.write(b, off, len);
+            written(len);
+        }
+
+        void written(long len) {
+            if (firstByteTime == 0 && len > 0) {
+                firstByteTime = System.currentTimeMillis();
+            }
             nbytes += len;
         }
 
@@ -10,6 +10,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.geoserver.ows.RequestTrace;
 import org.geoserver.platform.ServiceException;
 import org.opengis.geometry.BoundingBox;
 
@@ -188,6 +189,23 @@ public class RequestData implements Serializable {
      */
     private long responseLength;
 
+    /**
+     * The time elapsed between the start of the request and the first byte of the response being
+     * written, in milliseconds, or -1 if no response body was written
+     */
+    private long timeToFirstByte = -1;
+
+    /**
+     * The number of features or tiles returned, or -1 if not known
+     */
+    private long resultCount = -1;
+
+    /**
+     * The processing phases of the request, only available if the request was traced, see
+     * {@link RequestTrace}
+     */
+    private List<RequestTrace.Span> spans;
+
     /**
      * The response content MIME type, might be {@code null}
      */
@@ -465,6 +483,30 @@ public class RequestData implements Serializable {
         this.responseLength = responseLength;
     }
 
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    public void setTimeToFirstByte(long timeToFirstByte) {
+        this.timeToFirstByte = timeToFirstByte;
+    }
+
+    public long getResultCount() {
+        return resultCount;
+    }
+
+    public void setResultCount(long resultCount) {
+        this.resultCount = resultCount;
+    }
+
+    public List<RequestTrace.Span> getSpans() {
+        return spans;
+    }
+
+    public void setSpans(List<RequestTrace.Span> spans) {
+        this.spans = spans;
+    }
+
     public String getResponseContentType() {
         return responseContentType;
     }
@@ -511,6 +553,9 @@ public class RequestData implements Serializable {
         clone.setOwsVersion(owsVersion);
         clone.setResources(new ArrayList(resources));
         clone.setResponseLength(responseLength);
+        clone.setTimeToFirstByte(timeToFirstByte);
+        clone.setResultCount(resultCount);
+        clone.setSpans(spans != null ? new ArrayList<RequestTrace.Span>(spans) : null);
         clone.setResponseContentType(responseContentType);
         clone.setErrorMessage(errorMessage);
         clone.setError(error);
@@ -10,6 +10,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -17,12 +19,16 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.metrics.MetricsCollector;
+import org.geoserver.metrics.MetricsWriter;
 import org.geoserver.monitor.MemoryMonitorDAO;
 import org.geoserver.monitor.MonitorConfig;
 import org.geoserver.monitor.RequestData;
@@ -36,14 +42,42 @@ import org.vfny.geoserver.global.GeoserverDataDirectory;
 
 import freemarker.template.Configuration;
 import freemarker.template.Template;
+import freemarker.template.TemplateException;
 
 /**
  * Writes all requests to a log file. The log file can be configured in the MonitorConfig, as well
  * as a Freemarker template to drive its contents
+ * <p>
+ * Requests are queued and written by a background thread, which renders all the queued requests
+ * in memory and writes them to the file in one go. When the queue is full the
+ * {@link OverflowPolicy} decides whether the request threads wait, or the requests are dropped
+ * from the log. The number of written, dropped and failed records is counted and exposed as
+ * metrics.
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  */
-public class AuditLogger implements RequestDataListener, ApplicationListener<ApplicationEvent> {
+public class AuditLogger implements RequestDataListener, ApplicationListener<ApplicationEvent>,
+        MetricsCollector {
+
+    /**
+     * What to do with a request when the logging queue is full
+     */
+    public static enum OverflowPolicy {
+        /**
+         * The request thread waits for the queue to have room, no request is lost
+         */
+        BLOCK,
+        /**
+         * The request is not logged
+         */
+        DROP,
+        /**
+         * Once the queue is three quarters full only one request out of the sample rate is
+         * logged, and once full the requests are dropped
+         */
+        SAMPLE;
+    }
 
     static final String AUDIT = "audit";
 
@@ -53,11 +87,22 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
     public final static int DEFAULT_ROLLING_LIMIT = 10000;
 
+    public final static int DEFAULT_QUEUE_SIZE = 10000;
+
+    public final static int DEFAULT_SAMPLE_RATE = 10;
+
+    public final static OverflowPolicy DEFAULT_OVERFLOW = OverflowPolicy.DROP;
+
+    /**
+     * Size of the in memory buffer the records are rendered into before being written out
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
     Configuration templateConfig;
 
     MonitorConfig config;
 
-    RequestDumper dumper;
+    volatile RequestDumper dumper;
 
     int rollLimit;
 
@@ -71,6 +116,24 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
     String footerTemplate;
 
+    int queueSize;
+
+    String overflow;
+
+    int sampleRate;
+
+    OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW;
+
+    final AtomicLong sampleCounter = new AtomicLong();
+
+    final AtomicLong written = new AtomicLong();
+
+    final AtomicLong dropped = new AtomicLong();
+
+    final AtomicLong failed = new AtomicLong();
+
+    final AtomicLong blocked = new AtomicLong();
+
     public AuditLogger(MonitorConfig config, GeoServerResourceLoader loader) throws IOException {
         this.config = config;
         defaultPath = new File(GeoserverDataDirectory.getGeoserverDataDirectory(), "monitoring")
@@ -90,6 +153,19 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
             headerTemplate = getProperty("ftl.header", String.class, null);
             contentTemplate = getProperty("ftl.content", String.class, null);
             footerTemplate = getProperty("ftl.footer", String.class, null);
+            queueSize = getProperty("queue_size", Integer.class, DEFAULT_QUEUE_SIZE);
+            sampleRate = getProperty("sample_rate", Integer.class, DEFAULT_SAMPLE_RATE);
+            overflow = getProperty("overflow", String.class, null);
+            overflowPolicy = DEFAULT_OVERFLOW;
+            if (overflow != null) {
+                try {
+                    overflowPolicy = OverflowPolicy.valueOf(overflow.trim().toUpperCase(
+                            Locale.ENGLISH));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning("Invalid audit.overflow value " + overflow + ", using "
+                            + DEFAULT_OVERFLOW.name().toLowerCase(Locale.ENGLISH));
+                }
+            }
 
             // check the path
             File loggingDir = new File(path);
@@ -106,7 +182,8 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
             path = config.getProperty(AUDIT, "path", String.class);
 
             // setup the dumper
-            this.dumper = new RequestDumper(loggingDir, rollLimit, headerTemplate, contentTemplate, footerTemplate);
+            this.dumper = new RequestDumper(loggingDir, rollLimit, headerTemplate, contentTemplate,
+                    footerTemplate, Math.max(1, queueSize));
         }
     }
 
@@ -156,6 +233,10 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
                     String newHeaderTemplate = getProperty("ftl.header", String.class, null);
                     String newContentTemplate = getProperty("ftl.content", String.class, null);
                     String newFooterTemplate = getProperty("ftl.footer", String.class, null);
+                    int newQueueSize = getProperty("queue_size", Integer.class, DEFAULT_QUEUE_SIZE);
+                    int newSampleRate = getProperty("sample_rate", Integer.class,
+                            DEFAULT_SAMPLE_RATE);
+                    String newOverflow = getProperty("overflow", String.class, null);
                     // the comparison of newTemplateName using != is intended, works fine with nulls
                     // and the strings we get do not change unless the property file has been
                     // reloaded. We also rework if the dumper died for some reason (e.g., improper
@@ -164,6 +245,8 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
                             || newHeaderTemplate != headerTemplate
                             || newContentTemplate != contentTemplate 
                             || newFooterTemplate != footerTemplate 
+                            || newQueueSize != queueSize || newSampleRate != sampleRate
+                            || newOverflow != overflow
                             || !dumper.isAlive()) {
                         // config changed, close the current dumper and create a new one
                         closeDumper(dumper);
@@ -175,11 +258,7 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
             // if we have a dumper, add in the logging queue
             if (dumper != null) {
-                if (!dumper.queue.offer(rd)) {
-                    LOGGER.log(Level.WARNING,
-                            "Auditing subsystem overload, the logging queue is full, stopping the world on it");
-                    dumper.queue.put(rd);
-                }
+                enqueue(dumper.queue, rd);
             }
         } catch (Exception e) {
             throw new RuntimeException("Unepected error occurred while trying to "
@@ -187,6 +266,82 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
         }
     }
 
+    /**
+     * Adds the request to the logging queue, applying the overflow policy if the queue is full
+     * 
+     * @return true if the request has been queued, false if it has been dropped
+     */
+    boolean enqueue(BlockingQueue<RequestData> queue, RequestData rd) throws InterruptedException {
+        switch (overflowPolicy) {
+        case BLOCK:
+            if (!queue.offer(rd)) {
+                if (blocked.getAndIncrement() == 0) {
+                    LOGGER.log(Level.WARNING, "Auditing subsystem overload, the logging queue "
+                            + "is full, request threads will wait for it to drain");
+                }
+                queue.put(rd);
+            }
+            return true;
+        case SAMPLE:
+            int size = queue.size();
+            int capacity = size + queue.remainingCapacity();
+            if (size >= capacity * 3 / 4
+                    && sampleCounter.getAndIncrement() % Math.max(1, sampleRate) != 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            // fall through, the queue might still be full
+        default:
+            if (!queue.offer(rd)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of requests written to the log files so far
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Returns the number of requests dropped because the logging queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of requests that could not be written because the template failed
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of times a request thread had to wait for the logging queue to drain
+     */
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    @Override
+    public void collect(MetricsWriter writer) {
+        String help = "Number of requests processed by the audit logger";
+        writer.counter("geoserver_audit_records", help, written.get(), "status", "written");
+        writer.counter("geoserver_audit_records", help, dropped.get(), "status", "dropped");
+        writer.counter("geoserver_audit_records", help, failed.get(), "status", "failed");
+        writer.counter("geoserver_audit_blocked_requests",
+                "Number of times a request waited for the audit logging queue to drain",
+                blocked.get());
+        RequestDumper current = dumper;
+        writer.gauge("geoserver_audit_queue_size", "Number of requests waiting to be logged",
+                current != null ? current.queue.size() : 0);
+    }
+
     @Override
     public void onApplicationEvent(ApplicationEvent event) {
         if (event instanceof ContextClosedEvent) {
@@ -216,14 +371,15 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
          * audit with the thread that writes to disk.
          * 
          */
-        BlockingQueue<RequestData> queue = new ArrayBlockingQueue<RequestData>(10000);
+        BlockingQueue<RequestData> queue;
 
         /** The {@link File} where we audit to. */
         private File logFile;
 
         private File path;
 
-        private int day = -1;
+        /** The time at which the current file has to be rolled because the day changed */
+        private long rollTime = Long.MAX_VALUE;
 
         private int lineRollingLimit;
 
@@ -233,13 +389,23 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
         private String footerTemplate;
 
+        /** The content template, resolved once per log file instead of once per request */
+        private Template content;
+
+        /** The records rendered in memory and not written to the file yet */
+        private StringWriter buffer = new StringWriter(BUFFER_SIZE);
+
+        private int buffered;
+
+        private char[] chars = new char[0];
+
         /**
          * Constructs and starts a new thread as a daemon. This thread will be sleeping most of the
          * time. It will run only some few nanoseconds each time a new {@link RequestData} is
          * enqueded.
          */
         private RequestDumper(final File path, final int lineRollingLimit, String headerTemplate,
-                String contentTemplate, String footerTemplate) {
+                String contentTemplate, String footerTemplate, int queueSize) {
             super("RequestDumper");
 
             // save path to use
@@ -247,7 +413,8 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
             this.lineRollingLimit = lineRollingLimit;
             this.headerTemplate = headerTemplate == null ? "header.ftl" : headerTemplate;
             this.contentTemplate = contentTemplate == null ? "content.ftl" : contentTemplate;
-            this.footerTemplate = contentTemplate == null ? "footer.ftl" : footerTemplate;
+            this.footerTemplate = footerTemplate == null ? "footer.ftl" : footerTemplate;
+            this.queue = new ArrayBlockingQueue<RequestData>(queueSize);
             setPriority(NORM_PRIORITY - 1);
             setDaemon(true);
             start();
@@ -260,40 +427,66 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
         public void run() {
 
             BufferedWriter writer = null;
+            List<RequestData> rds = new ArrayList<RequestData>();
+            long droppedReported = 0;
             try {
-                while (true) {
-                    // grab as many items from the queue as possible
-                    List<RequestData> rds = new ArrayList<RequestData>();
-                    if (queue.size() > 0) {
-                        queue.drainTo(rds);
-                    } else {
-                        rds.add(queue.take());
-                    }
-
-                    // roll the writer if necessary
-                    writer = rollWriter(writer);
-                    
-                    // get the template
-                    Template template = templateConfig.getTemplate(contentTemplate);
-
-                    // write out each of the request data
+                boolean running = true;
+                while (running) {
+                    // wait for a request, then grab as many items from the queue as possible
+                    rds.clear();
+                    rds.add(queue.take());
+                    queue.drainTo(rds);
+
+                    // render the requests in memory, and write them out in large chunks
+                    boolean rollChecked = false;
                     for (RequestData rd : rds) {
                         if (rd == END_MARKER) {
-                            return;
+                            running = false;
+                            break;
+                        }
+                        // roll the writer if necessary
+                        if (!rollChecked || lineCounter >= lineRollingLimit) {
+                            if (writer != null) {
+                                writeBuffer(writer);
+                            }
+                            writer = rollWriter(writer);
+                            rollChecked = true;
                         }
 
-                        template.process(rd, writer);
-                        this.lineCounter++;
+                        StringBuffer sb = buffer.getBuffer();
+                        int mark = sb.length();
+                        try {
+                            content.process(rd, buffer);
+                            this.lineCounter++;
+                            buffered++;
+                        } catch (TemplateException e) {
+                            // do not leave a partial record in the log
+                            sb.setLength(mark);
+                            failed.incrementAndGet();
+                            if (LOGGER.isLoggable(Level.FINE))
+                                LOGGER.log(Level.FINE, "Failed to log request " + rd.getId(), e);
+                        }
+                        if (sb.length() >= BUFFER_SIZE) {
+                            writeBuffer(writer);
+                        }
                     }
+                    if (writer != null) {
+                        writeBuffer(writer);
 
-                    // flush the writer so that the file is up to date, otherwise a request
-                    // might keep in the buffer for hours under low traffic situations
-                    try {
-                        if (writer != null) {
+                        // flush the writer so that the file is up to date, otherwise a request
+                        // might keep in the buffer for hours under low traffic situations
+                        try {
                             writer.flush();
+                        } catch (Exception e) {
+                            LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
                         }
-                    } catch (Exception e) {
-                        LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+                    }
+
+                    long d = dropped.get();
+                    if (d > droppedReported) {
+                        LOGGER.warning("Dropped " + (d - droppedReported)
+                                + " audit records, the audit log is not keeping up");
+                        droppedReported = d;
                     }
                 }
             } catch (Exception e) {
@@ -307,6 +500,24 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
         }
 
+        /**
+         * Writes the rendered records to the log file, with a single write call
+         */
+        void writeBuffer(Writer writer) throws IOException {
+            StringBuffer sb = buffer.getBuffer();
+            int length = sb.length();
+            if (length > 0) {
+                if (chars.length < length) {
+                    chars = new char[Math.max(length, BUFFER_SIZE)];
+                }
+                sb.getChars(0, length, chars, 0);
+                writer.write(chars, 0, length);
+                sb.setLength(0);
+            }
+            written.addAndGet(buffered);
+            buffered = 0;
+        }
+
         /**
          * Performs log-rolling if necessary
          * 
@@ -315,12 +526,8 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
          * @throws IOException
          */
         BufferedWriter rollWriter(BufferedWriter writer) throws Exception {
-            // get date
-            final GregorianCalendar current = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
-
             // check if we have to close the file and reopen it for rolling
-            if (this.lineCounter >= lineRollingLimit
-                    || (day > 0 && day != current.get(GregorianCalendar.DAY_OF_YEAR))
+            if (this.lineCounter >= lineRollingLimit || System.currentTimeMillis() >= rollTime
                     || (logFile != null && !logFile.exists())) {
                 closeWriter(writer);
 
@@ -334,6 +541,10 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
 
             // new start or rolling just happened?
             if (writer == null) {
+                // get date
+                final GregorianCalendar current = new GregorianCalendar(
+                        TimeZone.getTimeZone("GMT"));
+
                 // create proper file to write to
                 final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
                 dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -386,14 +597,22 @@ public class AuditLogger implements RequestDataListener, ApplicationListener<App
                     throw new IllegalStateException("Unable to create monitoring file:"
                             + logFile.getCanonicalPath());
                 }
-                // save day
-                day = new GregorianCalendar(TimeZone.getTimeZone("GMT"))
-                        .get(GregorianCalendar.DAY_OF_YEAR);
-
-                // now the writer
-                writer = new BufferedWriter(new FileWriter(logFile, true));
+                // save the start of the next day
+                GregorianCalendar nextDay = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+                nextDay.setTimeInMillis(current.getTimeInMillis());
+                nextDay.set(GregorianCalendar.HOUR_OF_DAY, 0);
+                nextDay.set(GregorianCalendar.MINUTE, 0);
+                nextDay.set(GregorianCalendar.SECOND, 0);
+                nextDay.set(GregorianCalendar.MILLISECOND, 0);
+                nextDay.add(GregorianCalendar.DAY_OF_YEAR, 1);
+                rollTime = nextDay.getTimeInMillis();
+
+                // now the writer, and the templates, which are parsed and cached by FreeMarker,
+                // looking them up once per file still allows them to be edited at runtime
+                writer = new BufferedWriter(new FileWriter(logFile, true), BUFFER_SIZE);
                 Template template = templateConfig.getTemplate(headerTemplate);
                 template.process(null, writer);
+                content = templateConfig.getTemplate(contentTemplate);
             }
 
             return writer;
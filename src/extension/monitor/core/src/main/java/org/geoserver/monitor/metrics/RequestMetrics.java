@@ -0,0 +1,513 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestDataListener;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Keeps rolling histograms of the completed requests, so that percentiles can be computed without
+ * going back to the request records.
+ * <p>
+ * For each combination of service, operation, layer and output format (the response mime type) a
+ * histogram of each {@link Metric} is kept over the last minute, five minutes and hour. Each
+ * window is split in a few slices, the oldest one being recycled as time passes, so the windows
+ * roll with the granularity of the slice. Requests hitting several layers are accounted once per
+ * layer.
+ * </p>
+ * <p>
+ * The number of combinations tracked is capped by the <code>metrics.maxKeys</code> monitoring
+ * property ({@value #DEFAULT_MAX_KEYS} by default), past that the new combinations are accounted
+ * in the one of their service and operation, without layer and format.
+ * </p>
+ */
+public class RequestMetrics implements RequestDataListener {
+
+    static final Logger LOGGER = Logging.getLogger(RequestMetrics.class);
+
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    /**
+     * The measured quantities
+     */
+    public static enum Metric {
+        TOTAL_TIME, TIME_TO_FIRST_BYTE, RESPONSE_BYTES, RESULT_COUNT
+    }
+
+    /**
+     * The rolling windows
+     */
+    public static enum Window {
+        ONE_MINUTE("1m", 10 * 1000, 6), FIVE_MINUTES("5m", 60 * 1000, 5), ONE_HOUR("1h",
+                10 * 60 * 1000, 6);
+
+        final String label;
+
+        final long sliceLength;
+
+        final int slices;
+
+        Window(String label, long sliceLength, int slices) {
+            this.label = label;
+            this.sliceLength = sliceLength;
+            this.slices = slices;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Looks up a window by label (e.g. "5m") or name, returns null if not found
+         */
+        public static Window lookup(String label) {
+            for (Window w : values()) {
+                if (w.label.equalsIgnoreCase(label) || w.name().equalsIgnoreCase(label)) {
+                    return w;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The combination a request is accounted in, null components mean the information was not
+     * available
+     */
+    public static final class Key {
+        final String service;
+
+        final String operation;
+
+        final String layer;
+
+        final String format;
+
+        public Key(String service, String operation, String layer, String format) {
+            this.service = service;
+            this.operation = operation;
+            this.layer = layer;
+            this.format = format;
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getLayer() {
+            return layer;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        /**
+         * Returns true if the key matches the given values, null values matching anything
+         */
+        public boolean matches(String service, String operation, String layer, String format) {
+            return matches(this.service, service) && matches(this.operation, operation)
+                    && matches(this.layer, layer) && matches(this.format, format);
+        }
+
+        static boolean matches(String value, String filter) {
+            return filter == null || filter.equalsIgnoreCase(value);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = service == null ? 0 : service.hashCode();
+            result = 31 * result + (operation == null ? 0 : operation.hashCode());
+            result = 31 * result + (layer == null ? 0 : layer.hashCode());
+            return 31 * result + (format == null ? 0 : format.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return eq(service, other.service) && eq(operation, other.operation)
+                    && eq(layer, other.layer) && eq(format, other.format);
+        }
+
+        static boolean eq(String s1, String s2) {
+            return s1 == null ? s2 == null : s1.equals(s2);
+        }
+
+        @Override
+        public String toString() {
+            return service + ":" + operation + ":" + layer + ":" + format;
+        }
+    }
+
+    /**
+     * A time slice, with one histogram per metric
+     */
+    static final class Slice {
+        long start = -1;
+
+        final LogHistogram[] histograms = new LogHistogram[Metric.values().length];
+
+        Slice() {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LogHistogram();
+            }
+        }
+
+        void reset(long start) {
+            this.start = start;
+            for (LogHistogram h : histograms) {
+                h.reset();
+            }
+        }
+    }
+
+    /**
+     * The slices making up a window, reused in a circular fashion
+     */
+    static final class RollingWindow {
+        final Window window;
+
+        final Slice[] slices;
+
+        RollingWindow(Window window) {
+            this.window = window;
+            this.slices = new Slice[window.slices];
+            for (int i = 0; i < slices.length; i++) {
+                slices[i] = new Slice();
+            }
+        }
+
+        synchronized void record(long time, long[] values) {
+            long start = time - time % window.sliceLength;
+            Slice slice = slices[(int) ((start / window.sliceLength) % slices.length)];
+            if (slice.start != start) {
+                slice.reset(start);
+            }
+            for (int i = 0; i < values.length; i++) {
+                slice.histograms[i].record(values[i]);
+            }
+        }
+
+        synchronized void collect(long time, LogHistogram[] target) {
+            long oldest = time - time % window.sliceLength - (slices.length - 1)
+                    * window.sliceLength;
+            for (Slice slice : slices) {
+                if (slice.start >= oldest && slice.start <= time) {
+                    for (int i = 0; i < target.length; i++) {
+                        target[i].add(slice.histograms[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The rolling windows of a key
+     */
+    static final class KeyMetrics {
+        final RollingWindow[] windows = new RollingWindow[Window.values().length];
+
+        KeyMetrics() {
+            for (Window w : Window.values()) {
+                windows[w.ordinal()] = new RollingWindow(w);
+            }
+        }
+    }
+
+    /**
+     * Summary of a histogram, as returned to clients
+     */
+    public static class Summary {
+        long count;
+
+        long min;
+
+        long max;
+
+        double mean;
+
+        long p50;
+
+        long p90;
+
+        long p95;
+
+        long p99;
+
+        public Summary(LogHistogram h) {
+            count = h.getCount();
+            min = h.getMin();
+            max = h.getMax();
+            mean = h.getMean();
+            p50 = h.getValueAtPercentile(50);
+            p90 = h.getValueAtPercentile(90);
+            p95 = h.getValueAtPercentile(95);
+            p99 = h.getValueAtPercentile(99);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+    }
+
+    /**
+     * The metrics of a key over a window
+     */
+    public static class Snapshot {
+        String service;
+
+        String operation;
+
+        String layer;
+
+        String format;
+
+        String window;
+
+        Summary totalTime;
+
+        Summary timeToFirstByte;
+
+        Summary responseBytes;
+
+        Summary resultCount;
+
+        Snapshot(Key key, Window window, LogHistogram[] histograms) {
+            this.service = key.service;
+            this.operation = key.operation;
+            this.layer = key.layer;
+            this.format = key.format;
+            this.window = window.label;
+            this.totalTime = new Summary(histograms[Metric.TOTAL_TIME.ordinal()]);
+            this.timeToFirstByte = new Summary(histograms[Metric.TIME_TO_FIRST_BYTE.ordinal()]);
+            this.responseBytes = new Summary(histograms[Metric.RESPONSE_BYTES.ordinal()]);
+            this.resultCount = new Summary(histograms[Metric.RESULT_COUNT.ordinal()]);
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getLayer() {
+            return layer;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public String getWindow() {
+            return window;
+        }
+
+        public Summary getTotalTime() {
+            return totalTime;
+        }
+
+        public Summary getTimeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        public Summary getResponseBytes() {
+            return responseBytes;
+        }
+
+        public Summary getResultCount() {
+            return resultCount;
+        }
+    }
+
+    final Map<Key, KeyMetrics> metrics = new ConcurrentHashMap<Key, KeyMetrics>();
+
+    final int maxKeys;
+
+    final AtomicLong overflows = new AtomicLong();
+
+    public RequestMetrics(MonitorConfig config) {
+        Integer max = null;
+        try {
+            max = config.getProperty("metrics", "maxKeys", Integer.class);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid value for metrics.maxKeys, using the default of "
+                    + DEFAULT_MAX_KEYS);
+        }
+        this.maxKeys = max != null && max > 0 ? max : DEFAULT_MAX_KEYS;
+    }
+
+    public void requestStarted(RequestData rd) {
+    }
+
+    public void requestUpdated(RequestData rd) {
+    }
+
+    public void requestCompleted(RequestData rd) {
+        record(rd, currentTimeMillis());
+    }
+
+    public void requestPostProcessed(RequestData rd) {
+    }
+
+    void record(RequestData rd, long time) {
+        long[] values = new long[Metric.values().length];
+        values[Metric.TOTAL_TIME.ordinal()] = rd.getTotalTime();
+        values[Metric.TIME_TO_FIRST_BYTE.ordinal()] = rd.getTimeToFirstByte();
+        values[Metric.RESPONSE_BYTES.ordinal()] = rd.getResponseLength();
+        values[Metric.RESULT_COUNT.ordinal()] = rd.getResultCount();
+
+        String format = rd.getResponseContentType();
+        List<String> layers = rd.getResources();
+        if (layers == null || layers.isEmpty()) {
+            record(new Key(rd.getService(), rd.getOperation(), null, format), time, values);
+        } else {
+            for (String layer : layers) {
+                record(new Key(rd.getService(), rd.getOperation(), layer, format), time, values);
+            }
+        }
+    }
+
+    void record(Key key, long time, long[] values) {
+        KeyMetrics km = getKeyMetrics(key);
+        for (RollingWindow window : km.windows) {
+            window.record(time, values);
+        }
+    }
+
+    KeyMetrics getKeyMetrics(Key key) {
+        KeyMetrics km = metrics.get(key);
+        if (km == null) {
+            synchronized (metrics) {
+                km = metrics.get(key);
+                if (km == null) {
+                    if (metrics.size() >= maxKeys && (key.layer != null || key.format != null)) {
+                        overflows.incrementAndGet();
+                        return getKeyMetrics(new Key(key.service, key.operation, null, null));
+                    }
+                    km = new KeyMetrics();
+                    metrics.put(key, km);
+                }
+            }
+        }
+        return km;
+    }
+
+    /**
+     * Returns the metrics over the given window, one entry per key matching the given values
+     * (null values match anything)
+     */
+    public List<Snapshot> getSnapshots(Window window, String service, String operation,
+            String layer, String format) {
+        long now = currentTimeMillis();
+        List<Snapshot> result = new ArrayList<Snapshot>();
+        for (Map.Entry<Key, KeyMetrics> entry : metrics.entrySet()) {
+            Key key = entry.getKey();
+            if (key.matches(service, operation, layer, format)) {
+                LogHistogram[] histograms = newHistograms();
+                entry.getValue().windows[window.ordinal()].collect(now, histograms);
+                if (histograms[Metric.TOTAL_TIME.ordinal()].getCount() > 0) {
+                    result.add(new Snapshot(key, window, histograms));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the metrics over the given window of all the keys matching the given values, merged
+     * together (null values match anything)
+     */
+    public Snapshot getSnapshot(Window window, String service, String operation, String layer,
+            String format) {
+        long now = currentTimeMillis();
+        LogHistogram[] histograms = newHistograms();
+        for (Map.Entry<Key, KeyMetrics> entry : metrics.entrySet()) {
+            if (entry.getKey().matches(service, operation, layer, format)) {
+                entry.getValue().windows[window.ordinal()].collect(now, histograms);
+            }
+        }
+        return new Snapshot(new Key(service, operation, layer, format), window, histograms);
+    }
+
+    /**
+     * Returns the keys tracked so far
+     */
+    public List<Key> getKeys() {
+        return Collections.unmodifiableList(new ArrayList<Key>(metrics.keySet()));
+    }
+
+    /**
+     * Returns the number of times a new key could not be tracked because of the key cap
+     */
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    /**
+     * Drops all the metrics
+     */
+    public void clear() {
+        metrics.clear();
+    }
+
+    LogHistogram[] newHistograms() {
+        LogHistogram[] histograms = new LogHistogram[Metric.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LogHistogram();
+        }
+        return histograms;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -25,7 +25,9 @@ import org.geoserver.monitor.ows.wms.GetLegendGraphicHandler;
 import org.geoserver.monitor.ows.wms.GetMapHandler;
 import org.geoserver.ows.DispatcherCallback;
 import org.geoserver.ows.Request;
+import org.geoserver.ows.RequestTrace;
 import org.geoserver.ows.Response;
+import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
@@ -102,20 +104,58 @@ public class MonitorCallback implements DispatcherCallback {
     }
     
     public Object operationExecuted(Request request, Operation operation, Object result) {
-        return null;
+        RequestData data = monitor.current();
+        if (data == null || result == null) {
+            return result;
+        }
+        
+        long count = resultCount(operation, result);
+        if (count >= 0) {
+            data.setResultCount(count);
+            monitor.update();
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the number of features or tiles in the result, or -1 if not known. The feature
+     * count is only available when the service computed it already, e.g. for the WFS
+     * numberOfFeatures attribute, as counting them would mean running the query twice.
+     */
+    long resultCount(Operation operation, Object result) {
+        if ("GetTile".equalsIgnoreCase(operation.getId())) {
+            return 1;
+        }
+        try {
+            if (OwsUtils.has(result, "numberOfFeatures")) {
+                Object count = OwsUtils.get(result, "numberOfFeatures");
+                if (count instanceof Number) {
+                    return ((Number) count).longValue();
+                }
+            }
+        } catch (Exception e) {
+            // not a feature collection response, not a problem
+        }
+        return -1;
     }
     
     public void finished(Request request) {
-        if (request.getError() != null) {
+        RequestTrace trace = RequestTrace.current();
+        if (request.getError() != null || trace != null) {
             RequestData data = monitor.current();
             if (data == null) {
                 //will happen in cases where the filter is not active
                 return;
             }
             
-            data.setStatus(Status.FAILED);
-            data.setErrorMessage(request.getError().getLocalizedMessage());
-            data.setError(request.getError());
+            if (request.getError() != null) {
+                data.setStatus(Status.FAILED);
+                data.setErrorMessage(request.getError().getLocalizedMessage());
+                data.setError(request.getError());
+            }
+            if (trace != null) {
+                data.setSpans(trace.getSpans());
+            }
             
             monitor.update();
         }
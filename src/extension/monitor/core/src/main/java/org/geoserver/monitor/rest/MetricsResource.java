@@ -0,0 +1,81 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geoserver.monitor.metrics.RequestMetrics;
+import org.geoserver.monitor.metrics.RequestMetrics.Snapshot;
+import org.geoserver.monitor.metrics.RequestMetrics.Summary;
+import org.geoserver.monitor.metrics.RequestMetrics.Window;
+import org.geoserver.rest.ReflectiveResource;
+import org.geoserver.rest.RestletException;
+import org.geoserver.rest.format.DataFormat;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Returns the request latency, size and result count percentiles kept by {@link RequestMetrics}.
+ * <p>
+ * Supported query parameters:
+ * <ul>
+ * <li>window: the rolling window, one of 1m, 5m, 1h, defaults to 1m</li>
+ * <li>service, operation, layer, outputFormat: restrict the results to the matching requests</li>
+ * <li>merge: if true the matching requests are summarized together, instead of one entry per
+ * service, operation, layer and output format</li>
+ * </ul>
+ * </p>
+ */
+public class MetricsResource extends ReflectiveResource {
+
+    RequestMetrics metrics;
+
+    public MetricsResource(RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected List<DataFormat> createSupportedFormats(Request request, Response response) {
+        List<DataFormat> formats = new ArrayList<DataFormat>();
+        formats.add(createXMLFormat(request, response));
+        formats.add(createJSONFormat(request, response));
+        return formats;
+    }
+
+    @Override
+    protected Object handleObjectGet() throws Exception {
+        String w = getQueryStringValue("window");
+        Window window = w == null ? Window.ONE_MINUTE : Window.lookup(w);
+        if (window == null) {
+            throw new RestletException("Unknown window " + w + ", supported values are 1m, 5m, 1h",
+                    Status.CLIENT_ERROR_BAD_REQUEST);
+        }
+        String service = getQueryStringValue("service");
+        String operation = getQueryStringValue("operation");
+        String layer = getQueryStringValue("layer");
+        String format = getQueryStringValue("outputFormat");
+
+        List<Snapshot> snapshots;
+        if (getQueryStringValue("merge", Boolean.class, false)) {
+            snapshots = new ArrayList<Snapshot>();
+            snapshots.add(metrics.getSnapshot(window, service, operation, layer, format));
+        } else {
+            snapshots = metrics.getSnapshots(window, service, operation, layer, format);
+        }
+        return snapshots;
+    }
+
+    @Override
+    protected void configureXStream(XStream xstream) {
+        xstream.alias("metrics", List.class);
+        xstream.alias("metrics", ArrayList.class);
+        xstream.alias("entry", Snapshot.class);
+        xstream.alias("summary", Summary.class);
+    }
+}
@@ -4,7 +4,12 @@
  */
 package org.geoserver.monitor;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
 
@@ -13,4 +18,24 @@ public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
         dao = new MemoryMonitorDAO();
         setUpData();
     }
+
+    @Test
+    public void testHistoryWraps() throws Exception {
+        MemoryMonitorDAO memory = new MemoryMonitorDAO();
+        for (int i = 0; i < MemoryMonitorDAO.DEFAULT_HISTORY + 10; i++) {
+            RequestData data = memory.init(new RequestData());
+            memory.add(data);
+            memory.save(data);
+        }
+        RequestData running = memory.init(new RequestData());
+        memory.add(running);
+
+        List<RequestData> requests = memory.getRequests();
+        assertEquals(MemoryMonitorDAO.DEFAULT_HISTORY + 1, requests.size());
+        // running requests first, then the most recent completed ones, oldest first
+        assertEquals(running.getId(), requests.get(0).getId());
+        assertEquals(11, requests.get(1).getId());
+        assertEquals(MemoryMonitorDAO.DEFAULT_HISTORY + 10,
+                requests.get(requests.size() - 1).getId());
+    }
 }
@@ -0,0 +1,151 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.auditlog;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.support.StaticApplicationContext;
+
+public class AuditLoggerTest {
+
+    File root;
+
+    File logs;
+
+    MonitorConfig config;
+
+    AuditLogger logger;
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("audit", "test", new File("target"));
+        root.delete();
+        File templates = new File(root, "monitoring");
+        templates.mkdirs();
+        FileUtils.writeStringToFile(new File(templates, "header.ftl"), "<Requests>\n");
+        FileUtils.writeStringToFile(new File(templates, "content.ftl"), "${path}\n");
+        FileUtils.writeStringToFile(new File(templates, "footer.ftl"), "</Requests>\n");
+        logs = new File(root, "logs");
+
+        config = new MonitorConfig();
+        config.getProperties().put("audit.enabled", "true");
+        config.getProperties().put("audit.path", logs.getAbsolutePath());
+        logger = new AuditLogger(config, new GeoServerResourceLoader(root));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        logger.onApplicationEvent(new ContextClosedEvent(new StaticApplicationContext()));
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void testWriteAndRoll() throws Exception {
+        config.getProperties().put("audit.roll_limit", "5");
+        for (int i = 0; i < 12; i++) {
+            logger.requestPostProcessed(request("/r" + i));
+        }
+        logger.onApplicationEvent(new ContextClosedEvent(new StaticApplicationContext()));
+
+        assertEquals(12, logger.getWritten());
+        assertEquals(0, logger.getDropped());
+        assertEquals(0, logger.getFailed());
+
+        String[] files = logs.list();
+        Arrays.sort(files);
+        assertEquals(3, files.length);
+        int count = 0;
+        for (String file : files) {
+            List<String> lines = FileUtils.readLines(new File(logs, file));
+            assertEquals("<Requests>", lines.get(0));
+            assertEquals("</Requests>", lines.get(lines.size() - 1));
+            for (String line : lines.subList(1, lines.size() - 1)) {
+                assertTrue(line.startsWith("/r"));
+                count++;
+            }
+            assertTrue(lines.size() - 2 <= 5);
+        }
+        assertEquals(12, count);
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        logger.overflowPolicy = AuditLogger.OverflowPolicy.DROP;
+        BlockingQueue<RequestData> queue = new ArrayBlockingQueue<RequestData>(4);
+        for (int i = 0; i < 6; i++) {
+            logger.enqueue(queue, request("/r" + i));
+        }
+        assertEquals(4, queue.size());
+        assertEquals(2, logger.getDropped());
+        assertEquals(0, logger.getBlocked());
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        logger.overflowPolicy = AuditLogger.OverflowPolicy.SAMPLE;
+        logger.sampleRate = 2;
+        BlockingQueue<RequestData> queue = new ArrayBlockingQueue<RequestData>(8);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(logger.enqueue(queue, request("/r" + i)));
+        }
+        // three quarters full, one out of two is accepted
+        assertTrue(logger.enqueue(queue, request("/r6")));
+        assertFalse(logger.enqueue(queue, request("/r7")));
+        assertTrue(logger.enqueue(queue, request("/r8")));
+        assertEquals(8, queue.size());
+        assertEquals(1, logger.getDropped());
+
+        // full, everything is dropped
+        assertFalse(logger.enqueue(queue, request("/r9")));
+        assertFalse(logger.enqueue(queue, request("/r10")));
+        assertEquals(3, logger.getDropped());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        logger.overflowPolicy = AuditLogger.OverflowPolicy.BLOCK;
+        final BlockingQueue<RequestData> queue = new ArrayBlockingQueue<RequestData>(2);
+        logger.enqueue(queue, request("/r0"));
+        logger.enqueue(queue, request("/r1"));
+
+        Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    queue.take();
+                } catch (InterruptedException e) {
+                    // test will fail
+                }
+            }
+        };
+        consumer.start();
+        assertTrue(logger.enqueue(queue, request("/r2")));
+        consumer.join();
+
+        assertEquals(2, queue.size());
+        assertEquals(1, logger.getBlocked());
+        assertEquals(0, logger.getDropped());
+    }
+
+    RequestData request(String path) {
+        RequestData data = new RequestData();
+        data.setPath(path);
+        return data;
+    }
+}
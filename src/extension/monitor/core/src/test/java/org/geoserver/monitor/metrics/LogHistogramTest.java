@@ -0,0 +1,64 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LogHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L,
+                Long.MAX_VALUE }) {
+            int index = LogHistogram.index(value);
+            assertTrue(value + " below bucket " + index,
+                    LogHistogram.lowestEquivalentValue(index) <= value);
+            assertTrue(value + " above bucket " + index,
+                    LogHistogram.highestEquivalentValue(index) >= value);
+        }
+        // small values are exact
+        assertEquals(15, LogHistogram.highestEquivalentValue(LogHistogram.index(15)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LogHistogram h = new LogHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(1000, h.getMax());
+        assertEquals(500.5, h.getMean(), 0.001);
+        assertWithin(500, h.getValueAtPercentile(50));
+        assertWithin(990, h.getValueAtPercentile(99));
+        assertEquals(1000, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testAddAndReset() {
+        LogHistogram h1 = new LogHistogram();
+        h1.record(10);
+        LogHistogram h2 = new LogHistogram();
+        h2.record(100000);
+        h2.record(-1);
+        h1.add(h2);
+        assertEquals(2, h1.getCount());
+        assertEquals(10, h1.getMin());
+        assertEquals(100000, h1.getMax());
+
+        h1.reset();
+        assertEquals(0, h1.getCount());
+        assertEquals(0, h1.getValueAtPercentile(50));
+    }
+
+    void assertWithin(long expected, long actual) {
+        assertTrue("Expected " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= expected / 16);
+    }
+}
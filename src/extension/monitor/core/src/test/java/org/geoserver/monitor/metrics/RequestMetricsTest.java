@@ -0,0 +1,103 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.metrics.RequestMetrics.Snapshot;
+import org.geoserver.monitor.metrics.RequestMetrics.Window;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestMetricsTest {
+
+    long now;
+
+    RequestMetrics metrics;
+
+    @Before
+    public void setUp() {
+        now = 1000000000L;
+        metrics = new RequestMetrics(new MonitorConfig()) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    RequestData request(String service, String operation, long time, String... layers) {
+        RequestData data = new RequestData();
+        data.setService(service);
+        data.setOperation(operation);
+        data.setResources(Arrays.asList(layers));
+        data.setResponseContentType("image/png");
+        data.setTotalTime(time);
+        data.setTimeToFirstByte(time / 2);
+        data.setResponseLength(1024);
+        return data;
+    }
+
+    @Test
+    public void testKeys() {
+        metrics.requestCompleted(request("WMS", "GetMap", 100, "a", "b"));
+        metrics.requestCompleted(request("WMS", "GetMap", 200, "a"));
+        metrics.requestCompleted(request("WFS", "GetCapabilities", 10));
+
+        List<Snapshot> snapshots = metrics.getSnapshots(Window.ONE_MINUTE, "WMS", null, null,
+                null);
+        assertEquals(2, snapshots.size());
+        Snapshot a = metrics.getSnapshots(Window.ONE_MINUTE, null, null, "a", null).get(0);
+        assertEquals(2, a.getTotalTime().getCount());
+        assertEquals(200, a.getTotalTime().getMax());
+        assertEquals(100, a.getTimeToFirstByte().getMax());
+        assertEquals(1024, a.getResponseBytes().getP50());
+        // no result count recorded
+        assertEquals(0, a.getResultCount().getCount());
+
+        Snapshot all = metrics.getSnapshot(Window.ONE_MINUTE, null, null, null, null);
+        assertEquals(4, all.getTotalTime().getCount());
+        assertEquals(10, all.getTotalTime().getMin());
+    }
+
+    @Test
+    public void testWindowsRoll() {
+        metrics.requestCompleted(request("WMS", "GetMap", 100, "a"));
+        now += 2 * 60 * 1000;
+        metrics.requestCompleted(request("WMS", "GetMap", 300, "a"));
+
+        // the first request is out of the last minute, but still in the last five
+        assertEquals(1, count(Window.ONE_MINUTE));
+        assertEquals(2, count(Window.FIVE_MINUTES));
+        assertEquals(2, count(Window.ONE_HOUR));
+
+        now += 10 * 60 * 1000;
+        assertEquals(0, count(Window.ONE_MINUTE));
+        assertEquals(0, count(Window.FIVE_MINUTES));
+        assertEquals(2, count(Window.ONE_HOUR));
+
+        now += 60 * 60 * 1000;
+        assertEquals(0, count(Window.ONE_HOUR));
+    }
+
+    @Test
+    public void testMaxKeys() {
+        for (int i = 0; i < RequestMetrics.DEFAULT_MAX_KEYS + 10; i++) {
+            metrics.requestCompleted(request("WMS", "GetMap", 100, "layer" + i));
+        }
+        assertEquals(RequestMetrics.DEFAULT_MAX_KEYS + 1, metrics.getKeys().size());
+        assertEquals(10, metrics.getOverflows());
+        assertEquals(RequestMetrics.DEFAULT_MAX_KEYS + 10, count(Window.ONE_MINUTE));
+    }
+
+    long count(Window window) {
+        return metrics.getSnapshot(window, null, null, null, null).getTotalTime().getCount();
+    }
+}
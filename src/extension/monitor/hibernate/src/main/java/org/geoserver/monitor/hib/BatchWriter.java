@@ -0,0 +1,263 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.RequestData;
+import org.geotools.util.logging.Logging;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.springframework.orm.hibernate3.HibernateCallback;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+
+/**
+ * Writes request records to the monitoring database in batches, from a single background thread.
+ * <p>
+ * Records are queued, and written in a single transaction once the batch size is reached or the
+ * flush interval elapses, whatever comes first. Records are inserted if they do not have an id
+ * yet and updated otherwise, a record queued several times before being written is written only
+ * once, with its latest state.
+ * </p>
+ * <p>
+ * The queue is bounded: once it is three quarters full only one new record out of the sample rate
+ * is accepted, and once full all new records are dropped. The dropped records are counted and
+ * reported in the logs.
+ * </p>
+ */
+public class BatchWriter implements Runnable {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.monitor");
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    public static final int DEFAULT_MAX_QUEUED = 10000;
+
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    final HibernateTemplate hib;
+
+    final int batchSize;
+
+    final long interval;
+
+    final int maxQueued;
+
+    final int sampleRate;
+
+    final Object lock = new Object();
+
+    Set<RequestData> queue = new LinkedHashSet<RequestData>();
+
+    long sampleCounter;
+
+    final AtomicLong written = new AtomicLong();
+
+    final AtomicLong dropped = new AtomicLong();
+
+    final AtomicLong failed = new AtomicLong();
+
+    long droppedReported;
+
+    volatile boolean running;
+
+    Thread thread;
+
+    /**
+     * @param hib The template used to access the database
+     * @param batchSize The number of records triggering a write
+     * @param interval The maximum time a record waits in the queue, in milliseconds
+     * @param maxQueued The maximum number of records in the queue
+     * @param sampleRate One out of sampleRate new records is accepted when the queue is three
+     *        quarters full
+     */
+    public BatchWriter(HibernateTemplate hib, int batchSize, long interval, int maxQueued,
+            int sampleRate) {
+        this.hib = hib;
+        this.batchSize = Math.max(1, batchSize);
+        this.interval = Math.max(1, interval);
+        this.maxQueued = Math.max(this.batchSize, maxQueued);
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Starts the background writer thread
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "GeoServer monitor batch writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background writer thread, writing the records still queued
+     */
+    public void shutdown() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join(10 * interval + 10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Queues a record for writing
+     *
+     * @return false if the record has been dropped because the queue is full
+     */
+    public boolean enqueue(RequestData data) {
+        synchronized (lock) {
+            if (queue.contains(data)) {
+                // will be written with its latest state
+                return true;
+            }
+            int size = queue.size();
+            if (size >= maxQueued
+                    || (size >= maxQueued * 3 / 4 && sampleCounter++ % sampleRate != 0)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            queue.add(data);
+            if (queue.size() >= batchSize) {
+                lock.notifyAll();
+            }
+            return true;
+        }
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                synchronized (lock) {
+                    long deadline = System.currentTimeMillis() + interval;
+                    while (running && queue.size() < batchSize) {
+                        long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            break;
+                        }
+                        lock.wait(wait);
+                    }
+                }
+                flush();
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Unexpected error writing monitoring records", t);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Writes all the queued records
+     */
+    public void flush() {
+        final List<RequestData> batch;
+        synchronized (lock) {
+            if (queue.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<RequestData>(queue);
+            queue = new LinkedHashSet<RequestData>();
+        }
+
+        final List<RequestData> inserted = new ArrayList<RequestData>();
+        try {
+            hib.execute(new HibernateCallback() {
+                public Object doInHibernate(Session session) throws HibernateException,
+                        SQLException {
+                    Transaction tx = session.beginTransaction();
+                    try {
+                        int count = 0;
+                        for (RequestData data : batch) {
+                            synchronized (data) {
+                                if (data.getId() == -1) {
+                                    data.setId((Long) session.save(data));
+                                    inserted.add(data);
+                                } else {
+                                    session.update(data);
+                                }
+                            }
+                            // let the driver send a JDBC batch, and keep the session small
+                            if (++count % batchSize == 0) {
+                                session.flush();
+                                session.clear();
+                            }
+                        }
+                        tx.commit();
+                    } catch (HibernateException e) {
+                        tx.rollback();
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+            written.addAndGet(batch.size());
+        } catch (Exception e) {
+            // the records inserted in the failed transaction are not in the database
+            for (RequestData data : inserted) {
+                data.setId(-1);
+            }
+            failed.addAndGet(batch.size());
+            LOGGER.log(Level.WARNING, "Failed to write " + batch.size() + " monitoring records",
+                    e);
+        }
+
+        long d = dropped.get();
+        if (d > droppedReported) {
+            LOGGER.warning("Dropped " + (d - droppedReported)
+                    + " monitoring records, the monitoring database is not keeping up");
+            droppedReported = d;
+        }
+    }
+
+    /**
+     * Returns the number of records waiting to be written
+     */
+    public int getQueued() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Returns the number of records written so far
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Returns the number of records dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of records that could not be written because of database errors
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+}
@@ -36,11 +36,17 @@ import com.google.common.base.FinalizableReference;
 public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 
     public static enum Sync {
-        SYNC, ASYNC, ASYNC_UPDATE;
+        SYNC, ASYNC, ASYNC_UPDATE, BATCH;
     }
 
     HibernateTemplate hib;
     PipeliningTaskQueue<Thread> tasks;
+    BatchWriter writer;
+    
+    int batchSize = BatchWriter.DEFAULT_BATCH_SIZE;
+    long batchInterval = BatchWriter.DEFAULT_INTERVAL;
+    int batchMaxQueued = BatchWriter.DEFAULT_MAX_QUEUED;
+    int batchSampleRate = BatchWriter.DEFAULT_SAMPLE_RATE;
 
     Mode mode = Mode.HISTORY;
     Sync sync = Sync.ASYNC;
@@ -57,6 +63,24 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
     @Override
     public void init(MonitorConfig config) {
         setMode(config.getMode());
+        
+        Integer size = config.getProperty("hibernate", "batch.size", Integer.class);
+        if (size != null) {
+            setBatchSize(size);
+        }
+        Long interval = config.getProperty("hibernate", "batch.interval", Long.class);
+        if (interval != null) {
+            setBatchInterval(interval);
+        }
+        Integer maxQueued = config.getProperty("hibernate", "batch.maxQueued", Integer.class);
+        if (maxQueued != null) {
+            setBatchMaxQueued(maxQueued);
+        }
+        Integer sampleRate = config.getProperty("hibernate", "batch.sampleRate", Integer.class);
+        if (sampleRate != null) {
+            setBatchSampleRate(sampleRate);
+        }
+        
         setSync(getSync(config));
     }
 
@@ -66,18 +90,69 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 
     public void setSync(Sync sync) {
         this.sync = sync;
-        if (sync != Sync.SYNC) {
+        if (sync == Sync.BATCH) {
+            if (tasks != null) {
+                tasks.shutdown();
+                tasks = null;
+            }
+            if (writer == null) {
+                writer = new BatchWriter(hib, batchSize, batchInterval, batchMaxQueued, 
+                    batchSampleRate);
+                writer.start();
+            }
+        }
+        else if (sync != Sync.SYNC) {
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
             if (tasks == null) {
                 tasks = new PipeliningTaskQueue<Thread>();
                 tasks.start();
             }
         }
         else {
-            if (tasks != null) {
+            if (tasks != null || writer != null) {
                 dispose();
             }
         }
     }
+    
+    /**
+     * The number of records written in a single batch, when in {@link Sync#BATCH} mode
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * The maximum time, in milliseconds, a record waits before being written, when in 
+     * {@link Sync#BATCH} mode
+     */
+    public void setBatchInterval(long batchInterval) {
+        this.batchInterval = batchInterval;
+    }
+    
+    /**
+     * The maximum number of records waiting to be written, when in {@link Sync#BATCH} mode
+     */
+    public void setBatchMaxQueued(int batchMaxQueued) {
+        this.batchMaxQueued = batchMaxQueued;
+    }
+    
+    /**
+     * One out of sampleRate new records is kept when the batch queue is getting full
+     */
+    public void setBatchSampleRate(int batchSampleRate) {
+        this.batchSampleRate = batchSampleRate;
+    }
+    
+    /**
+     * Returns the batch writer, or null if not running in {@link Sync#BATCH} mode
+     */
+    public BatchWriter getBatchWriter() {
+        return writer;
+    }
     public void setMode(Mode mode) {
         this.mode = mode;
     }
@@ -140,6 +215,10 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
             tasks.shutdown();
             tasks = null;
         }
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
     }
 
     public List<RequestData> getOwsRequests() {
@@ -576,7 +655,11 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 //    }
     
     protected void run(Task task) {
-        if (tasks != null) {
+        if (writer != null) {
+            //inserts and updates are sorted out when the batch is written
+            writer.enqueue(task.data);
+        }
+        else if (tasks != null) {
             tasks.execute(Thread.currentThread(), new Async(task), task.desc);
         }
         else {
@@ -681,6 +764,8 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 
 	@Override
 	public void destroy() throws Exception {
+		//write out the records still queued before closing the database
+		dispose();
 		getSessionFactory().close();
 	}
 }
@@ -0,0 +1,162 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.hibernate.HibUtil;
+import org.geoserver.monitor.MonitorConfig.Mode;
+import org.geoserver.monitor.Query;
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.hib.HibernateMonitorDAO2.Sync;
+import org.h2.tools.DeleteDbFiles;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+
+public class BatchWriterTest {
+
+    private static XmlWebApplicationContext ctx;
+
+    static HibernateMonitorDAO2 dao;
+
+    @BeforeClass
+    public static void initHibernate() throws Exception {
+        // setup in memory h2 db
+        Properties p = new Properties();
+        p.put("driver", "org.h2.Driver");
+        p.put("url", "jdbc:h2:mem:monitoring");
+        File file = new File("./target/monitoring/db.properties");
+        FileOutputStream fos = null;
+        try {
+            if (!file.getParentFile().exists()) {
+                assertTrue(file.getParentFile().mkdirs());
+            }
+            fos = new FileOutputStream(file);
+            p.store(fos, null);
+        } finally {
+            IOUtils.closeQuietly(fos);
+        }
+
+        ctx = new XmlWebApplicationContext() {
+            public String[] getConfigLocations() {
+                return new String[] { "classpath*:applicationContext-hibtest.xml",
+                        "classpath*:applicationContext-hib2.xml" };
+            }
+        };
+        ctx.refresh();
+        dao = (HibernateMonitorDAO2) ctx.getBean("hibMonitorDAO");
+        dao.setSync(Sync.SYNC);
+        dao.setMode(Mode.HYBRID);
+    }
+
+    @AfterClass
+    public static void destroy() throws Exception {
+        dao.dispose();
+        ctx.close();
+        DeleteDbFiles.execute("target/monitoring", "monitoring", false);
+    }
+
+    @Before
+    public void setUpSession() throws Exception {
+        HibUtil.setUpSession(dao.getSessionFactory());
+    }
+
+    @After
+    public void tearDownSession() throws Exception {
+        HibUtil.tearDownSession(dao.getSessionFactory(), null);
+    }
+
+    BatchWriter writer(int maxQueued) {
+        // not started, flushed by hand
+        return new BatchWriter(new HibernateTemplate(dao.getSessionFactory()), 2, 60000,
+                maxQueued, 10);
+    }
+
+    long count(String path) {
+        return dao.getCount(new Query().filter("path", path, Comparison.EQ));
+    }
+
+    @Test
+    public void testInsertAndUpdate() throws Exception {
+        BatchWriter writer = writer(100);
+        RequestData data = new RequestData();
+        data.setPath("/batch1");
+        assertTrue(writer.enqueue(data));
+        // queued again before being written, written once
+        data.setPath("/batch2");
+        assertTrue(writer.enqueue(data));
+        RequestData other = new RequestData();
+        other.setPath("/batch2");
+        assertTrue(writer.enqueue(other));
+        RequestData third = new RequestData();
+        third.setPath("/batch2");
+        assertTrue(writer.enqueue(third));
+        assertEquals(3, writer.getQueued());
+
+        writer.flush();
+        assertEquals(0, writer.getQueued());
+        assertEquals(3, writer.getWritten());
+        assertTrue(data.getId() != -1);
+        assertEquals(0, count("/batch1"));
+        assertEquals(3, count("/batch2"));
+
+        // now it has an id, it gets updated
+        data.setPath("/batch3");
+        writer.enqueue(data);
+        writer.flush();
+        assertEquals(2, count("/batch2"));
+        assertEquals(1, count("/batch3"));
+        assertEquals(0, writer.getFailed());
+    }
+
+    @Test
+    public void testOverload() throws Exception {
+        BatchWriter writer = writer(8);
+        for (int i = 0; i < 30; i++) {
+            RequestData data = new RequestData();
+            data.setPath("/overload");
+            writer.enqueue(data);
+        }
+        assertTrue(writer.getQueued() <= 8);
+        assertTrue(writer.getDropped() > 0);
+        assertEquals(30, writer.getQueued() + writer.getDropped());
+
+        long queued = writer.getQueued();
+        writer.flush();
+        assertEquals(queued, count("/overload"));
+    }
+
+    @Test
+    public void testDAO() throws Exception {
+        dao.setBatchSize(2);
+        dao.setBatchInterval(50);
+        dao.setSync(Sync.BATCH);
+        try {
+            BatchWriter writer = dao.getBatchWriter();
+            assertNotNull(writer);
+            for (int i = 0; i < 5; i++) {
+                RequestData data = dao.init(new RequestData());
+                data.setPath("/dao");
+                dao.save(data);
+            }
+        } finally {
+            // shutting down the writer writes out the records still queued
+            dao.setSync(Sync.SYNC);
+        }
+        assertNull(dao.getBatchWriter());
+        assertEquals(5, count("/dao"));
+    }
+}
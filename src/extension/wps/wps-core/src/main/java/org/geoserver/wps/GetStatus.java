@@ -28,6 +28,11 @@ public class GetStatus {
         // otherwise check for a stored response
         File storedResponse = executionManager.getStoredResponse(request.getExecutionId());
         if (storedResponse == null || !storedResponse.exists()) {
+            // maybe it failed or got interrupted by a restart before writing its response
+            status = executionManager.getRecordedStatus(request.getExecutionId());
+            if (status != null) {
+                return status;
+            }
             throw new WPSException("Unknown execution id " + request.getExecutionId()
                     + ", either the execution was never submitted or too much time "
                     + "elapsed since the process completed");
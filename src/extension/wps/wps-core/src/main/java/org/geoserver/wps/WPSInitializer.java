@@ -9,11 +9,14 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
+import org.geoserver.catalog.MetadataMap;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.GeoServerInitializer;
+import org.geoserver.config.ServiceInfo;
 import org.geoserver.wps.executor.DefaultProcessManager;
+import org.geoserver.wps.executor.ProcessResultCache;
 import org.geoserver.wps.executor.WPSExecutionManager;
 import org.geotools.process.ProcessFactory;
 import org.geotools.process.Processors;
@@ -46,6 +49,13 @@ public class WPSInitializer implements GeoServerInitializer {
             public void handlePostGlobalChange(GeoServerInfo global) {
                 initWPS(geoServer.getService(WPSInfo.class), geoServer);
             }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                if (service instanceof WPSInfo) {
+                    initMetadataSettings((WPSInfo) service);
+                }
+            }
         });
     }
 
@@ -87,9 +97,44 @@ public class WPSInitializer implements GeoServerInitializer {
             processManager.setMaxAsynchronousProcesses(defaultMaxProcesses);
         }
 
+        initMetadataSettings(info);
+
         lookupNewProcessGroups(info, geoServer);
     }
 
+    void initMetadataSettings(WPSInfo info) {
+        MetadataMap metadata = info.getMetadata();
+        if (metadata == null) {
+            metadata = new MetadataMap();
+        }
+
+        ProcessResultCache resultCache = executionManager.getResultCache();
+        if (resultCache != null) {
+            resultCache.configure(metadata);
+        }
+
+        Boolean streaming = metadata.get(WPSExecutionManager.CHAIN_STREAMING, Boolean.class);
+        executionManager.setStreamingChain(streaming == null || streaming);
+
+        // the referenced inputs fetched in parallel, by default as many as the processes
+        Integer maxInputs = metadata.get(DefaultProcessManager.MAX_CONCURRENT_INPUTS,
+                Integer.class);
+        if (maxInputs != null && maxInputs > 0) {
+            processManager.setMaxConcurrentInputs(maxInputs);
+        } else {
+            processManager.setMaxConcurrentInputs(Runtime.getRuntime().availableProcessors() * 2);
+        }
+        Integer inputTimeout = metadata.get(DefaultProcessManager.INPUT_TIMEOUT, Integer.class);
+        processManager.setInputTimeout(inputTimeout != null ? inputTimeout * 1000L : 0);
+
+        // the asynchronous execution queue, no per user limit and no priorities by default
+        Integer maxPerUser = metadata.get(DefaultProcessManager.MAX_EXECUTIONS_PER_USER,
+                Integer.class);
+        processManager.setMaxExecutionsPerUser(maxPerUser != null ? maxPerUser : 0);
+        processManager.setPriorities(DefaultProcessManager.parsePriorities(metadata.get(
+                DefaultProcessManager.PRIORITIES, String.class)));
+    }
+
     static void lookupNewProcessGroups(WPSInfo info, GeoServer geoServer) {
         List<ProcessGroupInfo> newGroups = new ArrayList();
 
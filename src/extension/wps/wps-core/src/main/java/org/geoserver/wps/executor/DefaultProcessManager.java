@@ -5,12 +5,15 @@
 package org.geoserver.wps.executor;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -33,15 +36,60 @@ import org.opengis.util.ProgressListener;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextClosedEvent;
-import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 public class DefaultProcessManager implements ProcessManager, ExtensionPriority, ApplicationListener<ApplicationEvent> {
 
+    static final Logger LOGGER = Logging.getLogger(DefaultProcessManager.class);
+
+    /**
+     * WPS metadata key for the number of inputs that can be fetched in parallel
+     */
+    public static final String MAX_CONCURRENT_INPUTS = "inputs.maxConcurrent";
+
+    /**
+     * WPS metadata key for the maximum time allowed to fetch a single input, in seconds
+     */
+    public static final String INPUT_TIMEOUT = "inputs.timeout";
+
+    /**
+     * WPS metadata key for the maximum number of asynchronous executions running at the same
+     * time for a single user
+     */
+    public static final String MAX_EXECUTIONS_PER_USER = "queue.maxPerUser";
+
+    /**
+     * WPS metadata key for the priorities of the asynchronous executions, as a comma separated
+     * list of process=priority pairs, e.g. "gs:Bounds=10,JTS:buffer=5". Processes not listed
+     * have priority 0, higher priorities run first.
+     */
+    public static final String PRIORITIES = "queue.priorities";
+
+    /**
+     * How often the progress of an asynchronous execution is recorded in the store, in
+     * milliseconds
+     */
+    static final long PERSIST_INTERVAL = 1000;
+
     ConcurrentHashMap<String, ExecutionStatusEx> executions = new ConcurrentHashMap<String, DefaultProcessManager.ExecutionStatusEx>();
 
     ThreadPoolExecutor synchService;
 
     ThreadPoolExecutor asynchService;
+
+    ThreadPoolExecutor inputService;
+
+    long inputTimeout;
+
+    ExecutionQueue asynchQueue;
+
+    int maxExecutionsPerUser;
+
+    Map<String, Integer> priorities = Collections.emptyMap();
+
+    ExecutionStore store;
     
     WPSResourceManager resourceManager;
 
@@ -56,12 +104,66 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
             asynchService = new ThreadPoolExecutor(maxAsynchronousProcesses, maxAsynchronousProcesses, 
                                       0L, TimeUnit.MILLISECONDS,
                                       new LinkedBlockingQueue<Runnable>());
+            asynchQueue = new ExecutionQueue(asynchService);
+            asynchQueue.setMaxPerUser(maxExecutionsPerUser);
         } else {
             asynchService.setCorePoolSize(maxAsynchronousProcesses);
             asynchService.setMaximumPoolSize(maxAsynchronousProcesses);
+            asynchQueue.dispatch();
+        }
+    }
+
+    /**
+     * Sets the maximum number of asynchronous executions running at the same time for a single
+     * user, 0 or less meaning no limit
+     */
+    public void setMaxExecutionsPerUser(int maxExecutionsPerUser) {
+        this.maxExecutionsPerUser = maxExecutionsPerUser;
+        if (asynchQueue != null) {
+            asynchQueue.setMaxPerUser(maxExecutionsPerUser);
         }
     }
 
+    /**
+     * Sets the priorities of the asynchronous executions, keyed by process name in prefix:name
+     * form
+     */
+    public void setPriorities(Map<String, Integer> priorities) {
+        this.priorities = priorities != null ? priorities : Collections.<String, Integer> emptyMap();
+    }
+
+    /**
+     * Parses a list of process=priority pairs, as found in the {@link #PRIORITIES} metadata
+     * entry, skipping the invalid ones
+     */
+    public static Map<String, Integer> parsePriorities(String spec) {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        if (spec == null) {
+            return result;
+        }
+        for (String pair : spec.split(",")) {
+            int idx = pair.lastIndexOf('=');
+            if (idx <= 0) {
+                continue;
+            }
+            try {
+                result.put(pair.substring(0, idx).trim(),
+                        Integer.valueOf(pair.substring(idx + 1).trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid priority for process " + pair.substring(0, idx).trim()
+                        + ": " + pair.substring(idx + 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the store recording the state of the asynchronous executions, may be null
+     */
+    public void setStore(ExecutionStore store) {
+        this.store = store;
+    }
+
     public void setMaxSynchronousProcesses(int maxSynchronousProcesses) {
         if(synchService == null) {
             // create a fixed size pool. If we allow a delta between core and max 
@@ -75,12 +177,36 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
         }
     }
     
+    /**
+     * Sets the number of inputs given by reference that can be fetched in parallel, across all
+     * the executing processes
+     */
+    public void setMaxConcurrentInputs(int maxConcurrentInputs) {
+        if (inputService == null) {
+            inputService = new ThreadPoolExecutor(maxConcurrentInputs, maxConcurrentInputs,
+                    0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        } else {
+            inputService.setCorePoolSize(maxConcurrentInputs);
+            inputService.setMaximumPoolSize(maxConcurrentInputs);
+        }
+    }
+
+    /**
+     * Sets the maximum time allowed to fetch a single input, in milliseconds, 0 or less meaning
+     * no timeout
+     */
+    public void setInputTimeout(long inputTimeout) {
+        this.inputTimeout = inputTimeout;
+    }
+    
     @Override
     public void onApplicationEvent(ApplicationEvent event) {
-        if (event instanceof ContextRefreshedEvent) {
-            if (event instanceof ContextClosedEvent) {
-                synchService.shutdownNow();
-                asynchService.shutdownNow();
+        if (event instanceof ContextClosedEvent) {
+            for (ThreadPoolExecutor executor : new ThreadPoolExecutor[] { synchService,
+                    asynchService, inputService }) {
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
             }
         }
     }
@@ -120,14 +246,37 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
         ProcessListener listener = new ProcessListener(status);
         status.listener = listener;
         ProcessCallable callable = new ProcessCallable(inputs, status);
-        Future<Map<String, Object>> future;
         if(background) {
-            future = asynchService.submit(callable);
+            // queued by priority, recorded so that the status survives a restart
+            String user = getCurrentUser();
+            int priority = getPriority(processName);
+            AsynchronousTask task = new AsynchronousTask(callable, status);
+            task.job = new ExecutionQueue.Job(executionId, user, priority, task);
+            status.future = task;
+            status.store = store;
+            executions.put(executionId, status);
+            if (store != null) {
+                store.insert(executionId, processName, user, priority);
+            }
+            asynchQueue.submit(task.job);
         } else {
-            future = synchService.submit(callable);
+            status.future = synchService.submit(callable);
+            executions.put(executionId, status);
         }
-        status.future = future;
-        executions.put(executionId, status);
+    }
+
+    String getCurrentUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || auth instanceof AnonymousAuthenticationToken) {
+            return null;
+        }
+        return auth.getName();
+    }
+
+    int getPriority(Name processName) {
+        Integer priority = priorities.get(processName.getNamespaceURI() + ":"
+                + processName.getLocalPart());
+        return priority != null ? priority : 0;
     }
 
     @Override
@@ -135,6 +284,9 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
         ExecutionStatusEx status = executions.get(executionId);
         if (status != null) {
             return status.getStatus();
+        } else if (store != null) {
+            // asynchronous executions are recorded also after completion and restarts
+            return store.get(executionId);
         } else {
             return null;
         }
@@ -213,6 +365,7 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
                 
                 resourceManager.setCurrentExecutionId(status.getExecutionId());
                 status.setPhase(ProcessState.RUNNING);
+                status.persist(true);
                 ProcessListener listener = status.listener;
                 Name processName = status.getProcessName();
                 ProcessFactory pf = GeoServerProcessors.createProcessFactory(processName);
@@ -223,6 +376,12 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
                 // execute the process
                 Map<String, Object> result = null;
                 try {
+                    // fetch the referenced inputs in parallel, instead of one at a time as the
+                    // process accesses them
+                    if (inputs instanceof LazyInputMap && inputService != null) {
+                        ((LazyInputMap) inputs).resolve(inputService, inputTimeout, listener,
+                                resourceManager);
+                    }
                     Process p = pf.create(processName);
                     result = p.execute(inputs, listener);
                     if (listener.exception != null) {
@@ -244,6 +403,48 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
 
     }
 
+    /**
+     * An asynchronous execution, records its outcome in the store when done
+     */
+    class AsynchronousTask extends FutureTask<Map<String, Object>> {
+
+        ExecutionStatusEx status;
+
+        ExecutionQueue.Job job;
+
+        AsynchronousTask(ProcessCallable callable, ExecutionStatusEx status) {
+            super(callable);
+            this.status = status;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                asynchQueue.remove(job);
+                record(ProcessState.CANCELLED, status.getProgress(), null);
+                return;
+            }
+            try {
+                get();
+                record(ProcessState.COMPLETED, 100, null);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                String message = cause.getMessage() != null ? cause.getMessage() : cause
+                        .getClass().getName();
+                record(ProcessState.COMPLETED, status.getProgress(), message);
+            } catch (InterruptedException e) {
+                // cannot happen, the task is done
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void record(ProcessState phase, float progress, String error) {
+            if (store != null) {
+                store.update(status.getExecutionId(), phase, progress, error);
+            }
+        }
+    }
+
     /**
      * A pimped up execution status
      * 
@@ -255,10 +456,32 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
 
         ProcessListener listener;
 
+        /**
+         * The store recording the execution state, null for synchronous executions
+         */
+        ExecutionStore store;
+
+        long lastPersisted;
+
         public ExecutionStatusEx(Name processName, String executionId) {
             super(processName, executionId, ProcessState.QUEUED, 0);
         }
 
+        /**
+         * Records the current phase and progress in the store, if any. Unless forced, the
+         * progress is recorded at most once every {@link DefaultProcessManager#PERSIST_INTERVAL}
+         */
+        void persist(boolean force) {
+            if (store == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (force || now - lastPersisted > PERSIST_INTERVAL) {
+                lastPersisted = now;
+                store.update(executionId, phase, progress, null);
+            }
+        }
+
         public ExecutionStatus getStatus() {
             return new ExecutionStatus(processName, executionId, phase, progress);
         }
@@ -314,6 +537,9 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
         @Override
         public void progress(float percent) {
             status.setProgress(percent);
+            if (status instanceof ExecutionStatusEx) {
+                ((ExecutionStatusEx) status).persist(false);
+            }
         }
 
         @Override
@@ -163,6 +163,16 @@ public class ExecuteResponseBuilder {
                     progressPercent = 100;
                 }
                 startedType.setPercentCompleted(new BigInteger(String.valueOf(progressPercent)));
+                Map<String, Long> fetchTimes = status.getInputFetchTimes();
+                if (fetchTimes != null && !fetchTimes.isEmpty()) {
+                    StringBuilder sb = new StringBuilder("Inputs fetched:");
+                    for (Map.Entry<String, Long> entry : fetchTimes.entrySet()) {
+                        sb.append(' ').append(entry.getKey()).append(" in ")
+                                .append(entry.getValue()).append(" ms,");
+                    }
+                    sb.setLength(sb.length() - 1);
+                    startedType.setValue(sb.toString());
+                }
                 response.getStatus().setProcessStarted(startedType);
             } else if (status.getPhase() == ProcessState.COMPLETED) {
                 response.getStatus().setProcessSucceeded("Process succeeded.");
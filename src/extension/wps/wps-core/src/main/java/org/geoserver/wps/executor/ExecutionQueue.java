@@ -0,0 +1,156 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches the asynchronous executions to the thread pool, higher priorities first, and
+ * executions with the same priority in submission order. Executions are handed to the pool only
+ * when it has an idle thread, and the user that submitted them has less than the maximum number
+ * of executions running, so that a user cannot take over the whole pool.
+ */
+class ExecutionQueue {
+
+    static final AtomicLong SEQUENCE = new AtomicLong();
+
+    static final Comparator<Job> ORDER = new Comparator<Job>() {
+
+        @Override
+        public int compare(Job j1, Job j2) {
+            if (j1.priority != j2.priority) {
+                return j1.priority > j2.priority ? -1 : 1;
+            }
+            return j1.sequence < j2.sequence ? -1 : (j1.sequence == j2.sequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * An execution waiting for its turn
+     */
+    static class Job {
+
+        String executionId;
+
+        String user;
+
+        int priority;
+
+        long sequence = SEQUENCE.getAndIncrement();
+
+        RunnableFuture<?> task;
+
+        Job(String executionId, String user, int priority, RunnableFuture<?> task) {
+            this.executionId = executionId;
+            this.user = user;
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+
+    ThreadPoolExecutor executor;
+
+    TreeSet<Job> pending = new TreeSet<Job>(ORDER);
+
+    Map<String, Integer> running = new HashMap<String, Integer>();
+
+    int active;
+
+    int maxPerUser;
+
+    ExecutionQueue(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the maximum number of executions running at the same time for a single user, 0 or
+     * less meaning no limit. Anonymous users share the same limit.
+     */
+    synchronized void setMaxPerUser(int maxPerUser) {
+        this.maxPerUser = maxPerUser;
+        dispatch();
+    }
+
+    synchronized void submit(Job job) {
+        pending.add(job);
+        dispatch();
+    }
+
+    /**
+     * Removes a job that has not started yet, returns false if it was not found
+     */
+    synchronized boolean remove(Job job) {
+        return pending.remove(job);
+    }
+
+    /**
+     * Hands over to the pool as many jobs as possible
+     */
+    synchronized void dispatch() {
+        Iterator<Job> it = pending.iterator();
+        while (it.hasNext() && active < executor.getMaximumPoolSize()) {
+            Job job = it.next();
+            if (job.task.isDone()) {
+                // cancelled while waiting
+                it.remove();
+                continue;
+            }
+            Integer count = running.get(job.user);
+            if (maxPerUser > 0 && count != null && count >= maxPerUser) {
+                continue;
+            }
+            it.remove();
+            start(job, count == null ? 1 : count + 1);
+        }
+    }
+
+    void start(final Job job, int count) {
+        active++;
+        running.put(job.user, count);
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    job.task.run();
+                } finally {
+                    finished(job);
+                }
+            }
+        });
+    }
+
+    synchronized void finished(Job job) {
+        active--;
+        Integer count = running.get(job.user);
+        if (count == null || count <= 1) {
+            running.remove(job.user);
+        } else {
+            running.put(job.user, count - 1);
+        }
+        dispatch();
+    }
+
+    /**
+     * The number of executions waiting to be started
+     */
+    synchronized int getQueued() {
+        return pending.size();
+    }
+
+    /**
+     * The number of executions handed to the pool and not completed yet
+     */
+    synchronized int getActive() {
+        return active;
+    }
+}
@@ -4,6 +4,8 @@
  */
 package org.geoserver.wps.executor;
 
+import java.util.Map;
+
 import org.opengis.feature.type.Name;
 
 /**
@@ -37,6 +39,11 @@ public class ExecutionStatus {
      * Process execution status (as a percentage between 0 and 100)
      */
     float progress;
+
+    /**
+     * The time spent fetching the inputs resolved so far, in milliseconds, may be null
+     */
+    Map<String, Long> inputFetchTimes;
     
     public ExecutionStatus(Name processName, String executionId, ProcessState phase, float progress) {
         this.processName = processName;
@@ -81,4 +88,17 @@ public class ExecutionStatus {
         this.progress = progress;
     }
 
+    /**
+     * Returns the time spent fetching each input resolved so far, in milliseconds, or null if
+     * not tracked
+     * @return
+     */
+    public Map<String, Long> getInputFetchTimes() {
+        return inputFetchTimes;
+    }
+
+    public void setInputFetchTimes(Map<String, Long> inputFetchTimes) {
+        this.inputFetchTimes = inputFetchTimes;
+    }
+
 }
@@ -0,0 +1,326 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.wps.WPSException;
+import org.geoserver.wps.executor.ExecutionStatus.ProcessState;
+import org.geotools.feature.NameImpl;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Keeps track of the asynchronous executions in an embedded H2 database, so that their status
+ * survives a restart.
+ * <p>
+ * The database is stored in the {@code wps} directory of the data directory, outside of the
+ * temporary storage which is periodically cleaned and publicly accessible. When the store is
+ * first accessed the executions left queued or running by a previous run are marked as failed,
+ * the clients polling their status get a failure report instead of an unknown execution error.
+ * </p>
+ */
+public class ExecutionStore implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(ExecutionStore.class);
+
+    static final String RESTART_MESSAGE = "GeoServer was restarted before the execution completed";
+
+    /**
+     * How often the completed executions are purged, in number of recorded executions
+     */
+    static final int PURGE_INTERVAL = 100;
+
+    /**
+     * The state of an execution as recorded in the store. A failed execution is completed, with
+     * an error message.
+     */
+    public static class Record extends ExecutionStatus {
+
+        String user;
+
+        int priority;
+
+        Date created;
+
+        Date updated;
+
+        String error;
+
+        public Record(Name processName, String executionId, ProcessState phase, float progress) {
+            super(processName, executionId, phase, progress);
+        }
+
+        /**
+         * The name of the user that submitted the execution, or null if anonymous
+         */
+        public String getUser() {
+            return user;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public Date getUpdated() {
+            return updated;
+        }
+
+        /**
+         * The failure message, or null if the execution did not fail
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    File directory;
+
+    GeoServerDataDirectory dataDirectory;
+
+    Connection connection;
+
+    long retention = 24 * 60 * 60 * 1000;
+
+    int recorded;
+
+    public ExecutionStore(GeoServerDataDirectory dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    public ExecutionStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets how long the completed executions are kept in the store, in milliseconds
+     */
+    public void setRetention(long retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Records a new execution
+     */
+    public synchronized void insert(String executionId, Name processName, String user,
+            int priority) {
+        PreparedStatement ps = null;
+        try {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            ps = getConnection().prepareStatement("INSERT INTO WPS_EXECUTION(ID, PROCESS_NS, "
+                    + "PROCESS_NAME, USERNAME, PRIORITY, PHASE, PROGRESS, CREATED, UPDATED) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            ps.setString(1, executionId);
+            ps.setString(2, processName.getNamespaceURI());
+            ps.setString(3, processName.getLocalPart());
+            ps.setString(4, user);
+            ps.setInt(5, priority);
+            ps.setString(6, ProcessState.QUEUED.name());
+            ps.setFloat(7, 0);
+            ps.setTimestamp(8, now);
+            ps.setTimestamp(9, now);
+            ps.executeUpdate();
+
+            if (++recorded % PURGE_INTERVAL == 0) {
+                purge();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to record execution " + executionId, e);
+        } finally {
+            close(ps);
+        }
+    }
+
+    /**
+     * Updates the state of an execution
+     *
+     * @param error The failure message, or null if the execution did not fail
+     */
+    public synchronized void update(String executionId, ProcessState phase, float progress,
+            String error) {
+        PreparedStatement ps = null;
+        try {
+            ps = getConnection().prepareStatement("UPDATE WPS_EXECUTION SET PHASE = ?, "
+                    + "PROGRESS = ?, ERROR = ?, UPDATED = ? WHERE ID = ?");
+            ps.setString(1, phase.name());
+            ps.setFloat(2, progress);
+            ps.setString(3, truncate(error));
+            ps.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            ps.setString(5, executionId);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to update execution " + executionId, e);
+        } finally {
+            close(ps);
+        }
+    }
+
+    /**
+     * Returns the recorded state of an execution, or null if not found
+     */
+    public synchronized Record get(String executionId) {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = getConnection().prepareStatement("SELECT PROCESS_NS, PROCESS_NAME, USERNAME, "
+                    + "PRIORITY, PHASE, PROGRESS, ERROR, CREATED, UPDATED FROM WPS_EXECUTION "
+                    + "WHERE ID = ?");
+            ps.setString(1, executionId);
+            rs = ps.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            Record record = new Record(new NameImpl(rs.getString(1), rs.getString(2)),
+                    executionId, ProcessState.valueOf(rs.getString(5)), rs.getFloat(6));
+            record.user = rs.getString(3);
+            record.priority = rs.getInt(4);
+            record.error = rs.getString(7);
+            record.created = rs.getTimestamp(8);
+            record.updated = rs.getTimestamp(9);
+            return record;
+        } catch (SQLException e) {
+            throw new WPSException("Failed to look up execution " + executionId, e);
+        } finally {
+            close(rs);
+            close(ps);
+        }
+    }
+
+    /**
+     * Marks the executions left queued or running by a previous run as failed, returns how many
+     * were found
+     */
+    synchronized int recover() throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("UPDATE WPS_EXECUTION SET PHASE = ?, "
+                + "ERROR = ?, UPDATED = ? WHERE PHASE IN (?, ?)");
+        try {
+            ps.setString(1, ProcessState.COMPLETED.name());
+            ps.setString(2, RESTART_MESSAGE);
+            ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            ps.setString(4, ProcessState.QUEUED.name());
+            ps.setString(5, ProcessState.RUNNING.name());
+            return ps.executeUpdate();
+        } finally {
+            close(ps);
+        }
+    }
+
+    /**
+     * Removes the executions that completed more than the retention time ago
+     */
+    synchronized void purge() throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("DELETE FROM WPS_EXECUTION "
+                + "WHERE PHASE IN (?, ?) AND UPDATED < ?");
+        try {
+            ps.setString(1, ProcessState.COMPLETED.name());
+            ps.setString(2, ProcessState.CANCELLED.name());
+            ps.setTimestamp(3, new Timestamp(System.currentTimeMillis() - retention));
+            ps.executeUpdate();
+        } finally {
+            close(ps);
+        }
+    }
+
+    Connection getConnection() throws SQLException {
+        if (connection == null) {
+            try {
+                if (directory == null) {
+                    directory = dataDirectory.findOrCreateDir("wps");
+                }
+                Class.forName("org.h2.Driver");
+            } catch (IOException e) {
+                throw new WPSException("Could not create the WPS execution store directory", e);
+            } catch (ClassNotFoundException e) {
+                throw new WPSException("The H2 driver is not available", e);
+            }
+
+            Connection conn = DriverManager.getConnection("jdbc:h2:file:"
+                    + new File(directory, "executions").getAbsolutePath(), "geoserver", "geopass");
+            Statement st = conn.createStatement();
+            try {
+                st.execute("CREATE TABLE IF NOT EXISTS WPS_EXECUTION(" //
+                        + "ID VARCHAR(64) PRIMARY KEY, " //
+                        + "PROCESS_NS VARCHAR(256), " //
+                        + "PROCESS_NAME VARCHAR(256), " //
+                        + "USERNAME VARCHAR(256), " //
+                        + "PRIORITY INT, " //
+                        + "PHASE VARCHAR(16), " //
+                        + "PROGRESS REAL, " //
+                        + "ERROR VARCHAR(1024), " //
+                        + "CREATED TIMESTAMP, " //
+                        + "UPDATED TIMESTAMP)");
+                st.execute("CREATE INDEX IF NOT EXISTS IDX_WPS_EXECUTION_PHASE "
+                        + "ON WPS_EXECUTION(PHASE, UPDATED)");
+            } finally {
+                close(st);
+            }
+            connection = conn;
+
+            int recovered = recover();
+            if (recovered > 0) {
+                LOGGER.warning(recovered + " WPS executions were interrupted by a restart, "
+                        + "they have been marked as failed");
+            }
+            purge();
+        }
+        return connection;
+    }
+
+    String truncate(String error) {
+        if (error != null && error.length() > 1024) {
+            return error.substring(0, 1024);
+        }
+        return error;
+    }
+
+    void close(Statement st) {
+        if (st != null) {
+            try {
+                st.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to close statement", e);
+            }
+        }
+    }
+
+    void close(ResultSet rs) {
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to close result set", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to close the WPS execution store", e);
+            }
+            connection = null;
+        }
+    }
+}
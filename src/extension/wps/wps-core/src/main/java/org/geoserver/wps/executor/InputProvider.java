@@ -37,4 +37,11 @@ interface InputProvider {
      * @return
      */
     boolean longParse();
+
+    /**
+     * Returns true if the value is fetched from a reference, and can be resolved in a separate
+     * thread concurrently with the other inputs
+     * @return
+     */
+    boolean concurrentFetch();
 }
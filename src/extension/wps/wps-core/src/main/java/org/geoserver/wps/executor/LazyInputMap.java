@@ -5,12 +5,28 @@
 package org.geoserver.wps.executor;
 
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wps.WPSException;
+import org.geoserver.wps.resource.WPSResourceManager;
+import org.geotools.process.ProcessException;
+import org.geotools.util.logging.Logging;
+import org.opengis.util.ProgressListener;
 
 /**
  * A map using input providers internally, allows for deferred execution of the input parsing
@@ -20,8 +36,21 @@ import org.geoserver.wps.WPSException;
  */
 class LazyInputMap extends AbstractMap<String, Object> {
 
+    static final Logger LOGGER = Logging.getLogger(LazyInputMap.class);
+
+    /**
+     * How often the cancellation of the process is checked while waiting for the inputs, in
+     * milliseconds
+     */
+    static final long POLL_INTERVAL = 100;
+
     Map<String, InputProvider> providers = new HashMap<String, InputProvider>();
 
+    /**
+     * The time spent fetching each input, in milliseconds
+     */
+    Map<String, Long> fetchTimes = new LinkedHashMap<String, Long>();
+
     public LazyInputMap(Map<String, InputProvider> providers) {
         this.providers = providers;
     }
@@ -32,7 +61,7 @@ class LazyInputMap extends AbstractMap<String, Object> {
             return null;
         } else {
             try {
-                return provider.getValue();
+                return fetch(provider);
             } catch (Exception e) {
                 throw new WPSException("Failed to retrieve value for input "
                         + provider.getInputId(), e);
@@ -49,6 +78,121 @@ class LazyInputMap extends AbstractMap<String, Object> {
         }
         return result;
     }
+
+    /**
+     * Gets the provider value, keeping track of the time it took. The values of multi-valued
+     * inputs add up to the fetch time of the input.
+     */
+    Object fetch(InputProvider provider) throws Exception {
+        if (provider.resolved()) {
+            return provider.getValue();
+        }
+        long start = System.nanoTime();
+        Object value = provider.getValue();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        synchronized (fetchTimes) {
+            Long previous = fetchTimes.get(provider.getInputId());
+            fetchTimes.put(provider.getInputId(), previous == null ? elapsed : previous + elapsed);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the time spent fetching the inputs resolved so far, in milliseconds
+     */
+    public Map<String, Long> getFetchTimes() {
+        synchronized (fetchTimes) {
+            return new LinkedHashMap<String, Long>(fetchTimes);
+        }
+    }
+
+    /**
+     * Fetches the inputs given by reference concurrently, and waits for them to be available.
+     * Nothing is done if less than two inputs can be fetched concurrently, they will be resolved
+     * one at a time on access as usual.
+     *
+     * @param executor The executor running the fetches
+     * @param timeout The maximum time allowed to fetch a single input, in milliseconds, counting
+     *        from the moment the executor starts fetching it, or 0 for no timeout
+     * @param listener The process listener, when it gets cancelled the fetches are cancelled too
+     * @param resourceManager Used to associate the resources allocated by the fetches with the
+     *        current execution
+     */
+    public void resolve(ExecutorService executor, long timeout, ProgressListener listener,
+            WPSResourceManager resourceManager) {
+        List<InputProvider> candidates = new ArrayList<InputProvider>();
+        for (InputProvider provider : providers.values()) {
+            if (provider.resolved()) {
+                continue;
+            }
+            if (provider instanceof ListInputProvider) {
+                for (InputProvider value : ((ListInputProvider) provider).providers) {
+                    if (!value.resolved() && value.concurrentFetch()) {
+                        candidates.add(value);
+                    }
+                }
+            } else if (provider.concurrentFetch()) {
+                candidates.add(provider);
+            }
+        }
+        if (candidates.size() < 2) {
+            return;
+        }
+
+        String executionId = resourceManager.getExecutionId(null);
+        List<Fetch> fetches = new ArrayList<Fetch>();
+        try {
+            for (InputProvider provider : candidates) {
+                Fetch fetch = new Fetch(provider, resourceManager, executionId);
+                fetch.future = executor.submit(fetch);
+                fetches.add(fetch);
+            }
+            for (Fetch fetch : fetches) {
+                await(fetch, timeout, listener);
+            }
+        } finally {
+            // stops the fetches still running in case of failure, no-op otherwise
+            for (Fetch fetch : fetches) {
+                fetch.future.cancel(true);
+            }
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Fetched " + fetches.size() + " inputs concurrently, fetch times: "
+                    + getFetchTimes());
+        }
+    }
+
+    void await(Fetch fetch, long timeout, ProgressListener listener) {
+        String inputId = fetch.provider.getInputId();
+        while (true) {
+            if (listener != null && listener.isCanceled()) {
+                throw new ProcessException("Execution cancelled while fetching input " + inputId);
+            }
+            long wait = POLL_INTERVAL;
+            if (timeout > 0 && fetch.started) {
+                long left = timeout - (System.nanoTime() - fetch.start) / 1000000;
+                if (left <= 0) {
+                    throw new WPSException("Input " + inputId + " could not be fetched within "
+                            + timeout + " ms");
+                }
+                wait = Math.min(wait, left);
+            }
+            try {
+                fetch.future.get(wait, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // check again for cancellation and timeout
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("Interrupted while fetching input " + inputId, e);
+            } catch (ExecutionException e) {
+                throw new WPSException("Failed to retrieve value for input " + inputId,
+                        e.getCause());
+            }
+        }
+    }
+
     /**
      * The retrieved input percentage, as a number between 0 and 100
      * @return
@@ -76,6 +220,49 @@ class LazyInputMap extends AbstractMap<String, Object> {
         return false;
     }
 
+    /**
+     * Fetches an input in a pooled thread, on behalf of the thread running the process
+     */
+    class Fetch implements Callable<Object> {
+
+        InputProvider provider;
+
+        WPSResourceManager resourceManager;
+
+        String executionId;
+
+        ThreadLocalsTransfer threadLocalTransfer;
+
+        Future<Object> future;
+
+        /**
+         * When the fetch started, as returned by {@link System#nanoTime()}
+         */
+        long start;
+
+        volatile boolean started;
+
+        Fetch(InputProvider provider, WPSResourceManager resourceManager, String executionId) {
+            this.provider = provider;
+            this.resourceManager = resourceManager;
+            this.executionId = executionId;
+            this.threadLocalTransfer = new ThreadLocalsTransfer();
+        }
+
+        @Override
+        public Object call() throws Exception {
+            start = System.nanoTime();
+            started = true;
+            try {
+                threadLocalTransfer.apply();
+                resourceManager.setCurrentExecutionId(executionId);
+                return fetch(provider);
+            } finally {
+                threadLocalTransfer.cleanup();
+            }
+        }
+    }
+
     public class DeferredEntry implements Entry<String, Object> {
 
         private String key;
@@ -95,10 +282,10 @@ class LazyInputMap extends AbstractMap<String, Object> {
         @Override
         public Object getValue() {
             try {
-                return provider.getValue();
+                return fetch(provider);
             } catch (Exception e) {
                 throw new WPSException("Failed to retrieve value for input "
-                        + provider.getInputId());
+                        + provider.getInputId(), e);
             }
         }
 
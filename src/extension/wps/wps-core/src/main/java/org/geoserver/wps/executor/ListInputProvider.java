@@ -54,6 +54,19 @@ class ListInputProvider implements InputProvider {
         return value != null;
     }
 
+    @Override
+    public boolean concurrentFetch() {
+        if (providers == null) {
+            return false;
+        }
+        for (InputProvider provider : providers) {
+            if (provider.concurrentFetch()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public boolean longParse() {
         for (InputProvider provider : providers) {
@@ -0,0 +1,74 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.geoserver.metrics.MetricsCollector;
+import org.geoserver.metrics.MetricsWriter;
+
+/**
+ * Reports the state of the synchronous and asynchronous execution queues, and of the input fetch
+ * queue, of the {@link DefaultProcessManager}
+ */
+public class ProcessManagerMetricsCollector implements MetricsCollector {
+
+    DefaultProcessManager processManager;
+
+    public ProcessManagerMetricsCollector(DefaultProcessManager processManager) {
+        this.processManager = processManager;
+    }
+
+    public void collect(MetricsWriter writer) {
+        ThreadPoolExecutor[] executors = { processManager.synchService,
+                processManager.asynchService };
+        String[] modes = { "sync", "async" };
+
+        for (int i = 0; i < executors.length; i++) {
+            if (executors[i] != null) {
+                writer.gauge("geoserver_wps_executing_processes",
+                        "Number of processes executing", executors[i].getActiveCount(), "mode",
+                        modes[i]);
+            }
+        }
+        ExecutionQueue[] queues = { null, processManager.asynchQueue };
+        for (int i = 0; i < executors.length; i++) {
+            if (executors[i] != null) {
+                // the asynchronous executions wait in the priority queue before reaching the pool
+                int queued = executors[i].getQueue().size();
+                if (queues[i] != null) {
+                    queued += queues[i].getQueued();
+                }
+                writer.gauge("geoserver_wps_queued_processes",
+                        "Number of processes waiting in the execution queue", queued, "mode",
+                        modes[i]);
+            }
+        }
+        for (int i = 0; i < executors.length; i++) {
+            if (executors[i] != null) {
+                writer.gauge("geoserver_wps_max_processes",
+                        "Maximum number of processes executing in parallel",
+                        executors[i].getMaximumPoolSize(), "mode", modes[i]);
+            }
+        }
+        for (int i = 0; i < executors.length; i++) {
+            if (executors[i] != null) {
+                writer.counter("geoserver_wps_completed_processes",
+                        "Number of processes completed", executors[i].getCompletedTaskCount(),
+                        "mode", modes[i]);
+            }
+        }
+        ThreadPoolExecutor inputs = processManager.inputService;
+        if (inputs != null) {
+            writer.gauge("geoserver_wps_fetching_inputs",
+                    "Number of process inputs being fetched concurrently", inputs.getActiveCount());
+            writer.gauge("geoserver_wps_queued_inputs",
+                    "Number of process inputs waiting to be fetched", inputs.getQueue().size());
+        }
+        writer.gauge("geoserver_wps_tracked_executions",
+                "Number of executions tracked by the process manager, queued or running",
+                processManager.executions.size());
+    }
+}
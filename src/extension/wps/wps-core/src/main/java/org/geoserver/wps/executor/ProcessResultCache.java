@@ -0,0 +1,928 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.GetFeatureType;
+import net.opengis.wfs.QueryType;
+import net.opengis.wps10.ExecuteType;
+import net.opengis.wps10.InputReferenceType;
+import net.opengis.wps10.InputType;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.metrics.MetricsCollector;
+import org.geoserver.metrics.MetricsWriter;
+import org.geoserver.ows.Ows11Util;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wps.resource.WPSResourceManager;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Caches the outputs of deterministic processes, so that executions with the same inputs are not
+ * computed again.
+ * <p>
+ * Caching is opt-in, only the processes listed in the {@link #PROCESSES} key of the WPS service
+ * metadata are cached. The cache key is the process name plus a SHA-1 hash of the canonical form
+ * of the inputs. References to catalog layers are resolved to the layer data version, which
+ * changes when the layer, its store or its data (via WFS-T) is modified, so that results computed
+ * on old data are never returned, and are evicted. Inputs that cannot be put in canonical form
+ * (references to remote servers, inline objects without a stable text representation) make the
+ * execution not cacheable. When catalog layers are referenced the current user is part of the key,
+ * as a cache hit does not access the layers.
+ * </p>
+ * <p>
+ * Outputs are stored serialized, each hit gets its own copy of the results. Outputs that are not
+ * serializable, like feature collections, are not cached. Entries are kept either in memory or in
+ * the WPS storage directory, and the least recently used ones are evicted once the maximum size is
+ * reached. Entries on disk are removed along with the other WPS temporary files, when they have
+ * not been used for the resource expiration timeout.
+ * </p>
+ */
+public class ProcessResultCache implements CatalogListener, TransactionListener,
+        MetricsCollector {
+
+    static final Logger LOGGER = Logging.getLogger(ProcessResultCache.class);
+
+    /**
+     * WPS metadata key listing the processes to be cached, as a comma separated list of names
+     */
+    public static final String PROCESSES = "resultCache.processes";
+
+    /**
+     * WPS metadata key for the maximum size of the cache, in megabytes
+     */
+    public static final String MAX_SIZE = "resultCache.maxSize";
+
+    /**
+     * WPS metadata key for the cache storage, "memory" or "disk"
+     */
+    public static final String STORAGE = "resultCache.storage";
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    public static enum Storage {
+        MEMORY, DISK
+    };
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Maximum nesting level of the inputs, guards against cyclic object graphs
+     */
+    static final int MAX_DEPTH = 32;
+
+    /**
+     * The prefixes of the internal references, resolved to catalog layers
+     */
+    static final String INTERNAL_WFS = "http://geoserver/wfs";
+
+    static final String INTERNAL_WCS = "http://geoserver/wcs";
+
+    static final String INTERNAL_WPS = "http://geoserver/wps";
+
+    /**
+     * The KVP parameters naming layers in the internal WFS and WCS references
+     */
+    static final String[] LAYER_PARAMETERS = { "TYPENAME", "TYPENAMES", "IDENTIFIER",
+            "COVERAGE", "SOURCECOVERAGE", "COVERAGEID" };
+
+    /**
+     * A cache key, computed from an execute request
+     */
+    public static class Key {
+        final Name processName;
+
+        final String hash;
+
+        /**
+         * The data version of the referenced layers, by resource id
+         */
+        final Map<String, Long> versions;
+
+        Key(Name processName, String hash, Map<String, Long> versions) {
+            this.processName = processName;
+            this.hash = hash;
+            this.versions = versions;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return processName + "/" + hash;
+        }
+    }
+
+    static class Entry {
+        final Key key;
+
+        final byte[] data;
+
+        final File file;
+
+        final long size;
+
+        Entry(Key key, byte[] data, File file, long size) {
+            this.key = key;
+            this.data = data;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Output stream giving up once a size limit is reached
+     */
+    static class LimitedOutputStream extends ByteArrayOutputStream {
+        final long limit;
+
+        LimitedOutputStream(long limit) {
+            super(8192);
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            check(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            check(len);
+            super.write(b, off, len);
+        }
+
+        void check(int len) {
+            if (count + len > limit) {
+                throw new IllegalStateException("Output larger than " + limit + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Collects the canonical form of the inputs into a digest
+     */
+    static class Hasher {
+        final MessageDigest digest;
+
+        Hasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        Hasher add(String value) {
+            if (value == null) {
+                digest.update((byte) 0);
+            } else {
+                byte[] bytes = value.getBytes(UTF8);
+                // length prefixed, so that no two sequences of values hash the same way
+                digest.update((byte) 1);
+                digest.update(Integer.toString(bytes.length).getBytes(UTF8));
+                digest.update((byte) ':');
+                digest.update(bytes);
+            }
+            return this;
+        }
+
+        String hex() {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+    }
+
+    Catalog catalog;
+
+    WPSResourceManager resourceManager;
+
+    volatile Set<Name> processes = Collections.emptySet();
+
+    volatile long maxSize = DEFAULT_MAX_SIZE * 1024L * 1024L;
+
+    volatile Storage storage = Storage.MEMORY;
+
+    /**
+     * The layers data versions, by resource id
+     */
+    final ConcurrentHashMap<String, AtomicLong> versions =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Bumped when the whole cache is invalidated
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The cache entries, in access order
+     */
+    final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f,
+            true);
+
+    long size;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    public ProcessResultCache(Catalog catalog, WPSResourceManager resourceManager) {
+        this.catalog = catalog;
+        this.resourceManager = resourceManager;
+        catalog.addListener(this);
+    }
+
+    /**
+     * Configures the cache from the WPS service metadata
+     */
+    public void configure(MetadataMap metadata) {
+        Set<Name> names = new HashSet<Name>();
+        Integer size = null;
+        Storage newStorage = Storage.MEMORY;
+        if (metadata != null) {
+            String list = metadata.get(PROCESSES, String.class);
+            if (list != null) {
+                for (String name : list.split("\\s*,\\s*")) {
+                    if (name.trim().length() > 0) {
+                        names.add(Ows11Util.name(name.trim()));
+                    }
+                }
+            }
+            size = metadata.get(MAX_SIZE, Integer.class);
+            String s = metadata.get(STORAGE, String.class);
+            if (s != null) {
+                try {
+                    newStorage = Storage.valueOf(s.trim().toUpperCase(Locale.ENGLISH));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning("Invalid WPS result cache storage " + s + ", using memory");
+                }
+            }
+        }
+        setProcesses(names);
+        setMaxSize((size != null && size > 0 ? size : DEFAULT_MAX_SIZE) * 1024L * 1024L);
+        setStorage(newStorage);
+    }
+
+    /**
+     * Sets the processes whose results are cached
+     */
+    public void setProcesses(Collection<Name> processes) {
+        this.processes = Collections.unmodifiableSet(new HashSet<Name>(processes));
+        if (processes.isEmpty()) {
+            clear();
+        }
+    }
+
+    public Set<Name> getProcesses() {
+        return processes;
+    }
+
+    /**
+     * Sets the maximum size of the cached entries, in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets where the entries are stored, the current entries are discarded if the storage changes
+     */
+    public void setStorage(Storage storage) {
+        if (this.storage != storage) {
+            this.storage = storage;
+            clear();
+        }
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns true if the outputs of the process are to be cached
+     */
+    public boolean isCached(Name processName) {
+        return processes.contains(processName);
+    }
+
+    /**
+     * Computes the cache key for the request
+     *
+     * @return the key, or null if the process is not cached or the inputs cannot be used to build
+     *         a key
+     */
+    public Key getKey(ExecuteRequest request) {
+        Name processName = request.getProcessName();
+        if (!isCached(processName)) {
+            return null;
+        }
+
+        Hasher hasher = new Hasher();
+        hasher.add(Long.toString(generation.get()));
+        Map<String, Long> layers = new TreeMap<String, Long>();
+        try {
+            if (!hashExecute(request.getRequest(), hasher, layers, 0)) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Inputs of " + processName + " cannot be cached");
+                }
+                return null;
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to compute the cache key for " + processName, e);
+            return null;
+        }
+        for (Map.Entry<String, Long> layer : layers.entrySet()) {
+            hasher.add(layer.getKey()).add(Long.toString(layer.getValue()));
+        }
+        if (!layers.isEmpty()) {
+            // the results are computed with the access rights of the user
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            if (auth != null) {
+                hasher.add(auth.getName());
+                List<String> roles = new ArrayList<String>();
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+                Collections.sort(roles);
+                for (String role : roles) {
+                    hasher.add(role);
+                }
+            } else {
+                hasher.add(null);
+            }
+        }
+        return new Key(processName, hasher.hex(), layers);
+    }
+
+    /**
+     * Returns a copy of the cached outputs, or null if the key is not cached
+     */
+    public Map<String, Object> get(Key key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key.hash);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        InputStream is = null;
+        try {
+            if (entry.file != null) {
+                is = new FileInputStream(entry.file);
+                // keep it around as long as it's used
+                entry.file.setLastModified(System.currentTimeMillis());
+            } else {
+                is = new ByteArrayInputStream(entry.data);
+            }
+            ObjectInputStream ois = new ObjectInputStream(is);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> outputs = (Map<String, Object>) ois.readObject();
+            hits.incrementAndGet();
+            return outputs;
+        } catch (Exception e) {
+            // the file might have been cleaned up
+            LOGGER.log(Level.FINE, "Failed to read the cached outputs for " + key, e);
+            remove(entry);
+            misses.incrementAndGet();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Caches the outputs of an execution, unless they are not serializable, too big, or the
+     * referenced layers changed in the meantime
+     */
+    public void put(Key key, Map<String, Object> outputs) {
+        if (outputs == null || !isCached(key.processName)) {
+            return;
+        }
+        for (Object value : outputs.values()) {
+            if (value != null && !(value instanceof Serializable)) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Outputs of " + key.processName + " cannot be cached, "
+                            + value.getClass().getName() + " is not serializable");
+                }
+                return;
+            }
+        }
+
+        // a single entry cannot take more than a quarter of the cache
+        LimitedOutputStream bos = new LimitedOutputStream(maxSize / 4);
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(new LinkedHashMap<String, Object>(outputs));
+            oos.close();
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Outputs of " + key + " not cached", e);
+            return;
+        }
+        if (isStale(key)) {
+            return;
+        }
+
+        Entry entry;
+        if (storage == Storage.DISK) {
+            File file = resourceManager.getOutputFile("cache", UUID.randomUUID() + ".ser");
+            try {
+                FileUtils.writeByteArrayToFile(file, bos.toByteArray());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to store the cached outputs of " + key, e);
+                file.delete();
+                return;
+            }
+            entry = new Entry(key, null, file, bos.size());
+        } else {
+            entry = new Entry(key, bos.toByteArray(), null, bos.size());
+        }
+
+        List<Entry> removed = new ArrayList<Entry>();
+        synchronized (this) {
+            Entry previous = entries.put(key.hash, entry);
+            if (previous != null) {
+                size -= previous.size;
+                removed.add(previous);
+            }
+            size += entry.size;
+            removed.addAll(evict());
+        }
+        delete(removed);
+    }
+
+    boolean isStale(Key key) {
+        for (Map.Entry<String, Long> layer : key.versions.entrySet()) {
+            if (getVersion(layer.getKey()) != layer.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its maximum size. Must be
+     * called while holding the lock
+     */
+    List<Entry> evict() {
+        List<Entry> removed = new ArrayList<Entry>();
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            size -= entry.size;
+            removed.add(entry);
+            evictions.incrementAndGet();
+        }
+        return removed;
+    }
+
+    void remove(Entry entry) {
+        synchronized (this) {
+            if (entries.get(entry.key.hash) == entry) {
+                entries.remove(entry.key.hash);
+                size -= entry.size;
+            }
+        }
+        delete(Collections.singletonList(entry));
+    }
+
+    void delete(List<Entry> removed) {
+        for (Entry entry : removed) {
+            if (entry.file != null) {
+                entry.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        List<Entry> removed;
+        synchronized (this) {
+            removed = new ArrayList<Entry>(entries.values());
+            entries.clear();
+            size = 0;
+        }
+        delete(removed);
+    }
+
+    /**
+     * Marks the data of the resource as changed, removing the entries computed on it
+     */
+    void invalidate(String resourceId) {
+        AtomicLong version = versions.get(resourceId);
+        if (version == null) {
+            version = new AtomicLong();
+            AtomicLong existing = versions.putIfAbsent(resourceId, version);
+            if (existing != null) {
+                version = existing;
+            }
+        }
+        version.incrementAndGet();
+
+        List<Entry> removed = new ArrayList<Entry>();
+        synchronized (this) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (entry.key.versions.containsKey(resourceId)) {
+                    it.remove();
+                    size -= entry.size;
+                    removed.add(entry);
+                }
+            }
+        }
+        delete(removed);
+    }
+
+    long getVersion(String resourceId) {
+        AtomicLong version = versions.get(resourceId);
+        return version == null ? 0 : version.get();
+    }
+
+    // -----------------------------------------------------------------
+    // Canonical form of the inputs
+    // -----------------------------------------------------------------
+
+    boolean hashExecute(ExecuteType execute, Hasher hasher, Map<String, Long> layers, int depth) {
+        hasher.add(execute.getIdentifier().getValue());
+        if (execute.getDataInputs() == null) {
+            return true;
+        }
+
+        // the order of the inputs does not matter, but the order of the values of a multi
+        // valued input might
+        List<InputType> inputs = new ArrayList<InputType>();
+        for (Object o : execute.getDataInputs().getInput()) {
+            inputs.add((InputType) o);
+        }
+        Collections.sort(inputs, new Comparator<InputType>() {
+            public int compare(InputType i1, InputType i2) {
+                return i1.getIdentifier().getValue().compareTo(i2.getIdentifier().getValue());
+            }
+        });
+
+        for (InputType input : inputs) {
+            hasher.add(input.getIdentifier().getValue());
+            if (input.getReference() != null) {
+                if (!hashReference(input.getReference(), hasher, layers, depth)) {
+                    return false;
+                }
+            } else if (!hashValue(input.getData(), hasher, depth)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean hashReference(InputReferenceType ref, Hasher hasher, Map<String, Long> layers,
+            int depth) {
+        String href = ref.getHref();
+        if (href == null) {
+            return false;
+        }
+        if (href.startsWith(INTERNAL_WPS)) {
+            // nested process, only the parsed POST body can be hashed
+            if (!(ref.getBody() instanceof ExecuteType)) {
+                return false;
+            }
+            hasher.add(INTERNAL_WPS).add(ref.getMimeType());
+            return hashExecute((ExecuteType) ref.getBody(), hasher, layers, depth + 1);
+        } else if (href.startsWith(INTERNAL_WFS) || href.startsWith(INTERNAL_WCS)) {
+            List<String> names = new ArrayList<String>();
+            if (ref.getBody() != null) {
+                if (!collectLayers(ref.getBody(), names)) {
+                    return false;
+                }
+            } else {
+                // KVP request, the parameter order does not matter
+                Map<String, String> kvp = new TreeMap<String, String>();
+                for (Map.Entry<String, Object> e : KvpUtils.parseQueryString(href).entrySet()) {
+                    Object value = e.getValue();
+                    if (value instanceof String[]) {
+                        value = Arrays.toString((String[]) value);
+                    }
+                    kvp.put(e.getKey().toUpperCase(), String.valueOf(value));
+                }
+                for (String param : LAYER_PARAMETERS) {
+                    String value = kvp.get(param);
+                    if (value != null) {
+                        for (String name : value.split(",")) {
+                            names.add(name.trim());
+                        }
+                    }
+                }
+                hasher.add(href.substring(0, href.indexOf('?') < 0 ? href.length() : href
+                        .indexOf('?')));
+                for (Map.Entry<String, String> e : kvp.entrySet()) {
+                    hasher.add(e.getKey()).add(e.getValue());
+                }
+                hasher.add(ref.getMimeType());
+            }
+            if (names.isEmpty()) {
+                return false;
+            }
+            for (String name : names) {
+                ResourceInfo resource = lookupResource(name);
+                if (resource == null) {
+                    return false;
+                }
+                layers.put(resource.getId(), getVersion(resource.getId()));
+            }
+            return ref.getBody() == null || hashValue(ref, hasher, depth);
+        } else {
+            // remote resource, we cannot tell when it changes
+            return false;
+        }
+    }
+
+    /**
+     * Collects the names of the layers read by an internal WFS or WCS request body
+     */
+    boolean collectLayers(Object body, List<String> names) {
+        if (body instanceof GetFeatureType) {
+            for (Object q : ((GetFeatureType) body).getQuery()) {
+                for (Object typeName : ((QueryType) q).getTypeName()) {
+                    names.add(qualifiedName((QName) typeName));
+                }
+            }
+            return true;
+        } else if (body instanceof net.opengis.wcs11.GetCoverageType) {
+            names.add(((net.opengis.wcs11.GetCoverageType) body).getIdentifier().getValue());
+            return true;
+        } else if (body instanceof net.opengis.wcs10.GetCoverageType) {
+            names.add(((net.opengis.wcs10.GetCoverageType) body).getSourceCoverage());
+            return true;
+        }
+        return false;
+    }
+
+    String qualifiedName(QName name) {
+        String prefix = name.getPrefix();
+        if (name.getNamespaceURI() != null && name.getNamespaceURI().length() > 0) {
+            NamespaceInfo ns = catalog.getNamespaceByURI(name.getNamespaceURI());
+            if (ns != null) {
+                prefix = ns.getPrefix();
+            }
+        }
+        if (prefix == null || prefix.length() == 0) {
+            return name.getLocalPart();
+        }
+        return prefix + ":" + name.getLocalPart();
+    }
+
+    ResourceInfo lookupResource(String name) {
+        if (name == null) {
+            return null;
+        }
+        LayerInfo layer = catalog.getLayerByName(name);
+        return layer == null ? null : layer.getResource();
+    }
+
+    /**
+     * Adds the canonical form of a value to the hash
+     *
+     * @return false if the value does not have a canonical form
+     */
+    boolean hashValue(Object value, Hasher hasher, int depth) {
+        if (depth > MAX_DEPTH) {
+            return false;
+        }
+        if (value == null) {
+            hasher.add(null);
+        } else if (value instanceof String || value instanceof Number
+                || value instanceof Boolean || value instanceof Character
+                || value instanceof Enum || value instanceof QName || value instanceof Filter
+                || value instanceof Expression || value instanceof Envelope) {
+            hasher.add(value.getClass().getName()).add(value.toString());
+        } else if (value instanceof Geometry) {
+            Geometry g = (Geometry) value;
+            hasher.add("geometry").add(g.toText()).add(String.valueOf(g.getSRID()));
+            if (g.getUserData() != null && !hashValue(g.getUserData(), hasher, depth + 1)) {
+                return false;
+            }
+        } else if (value instanceof CoordinateReferenceSystem) {
+            hasher.add("crs").add(((CoordinateReferenceSystem) value).toWKT());
+        } else if (value instanceof Date) {
+            hasher.add("date").add(Long.toString(((Date) value).getTime()));
+        } else if (value instanceof FeatureMap.Entry) {
+            FeatureMap.Entry entry = (FeatureMap.Entry) value;
+            hasher.add(entry.getEStructuralFeature().getName());
+            return hashValue(entry.getValue(), hasher, depth + 1);
+        } else if (value instanceof EObject) {
+            EObject eo = (EObject) value;
+            hasher.add(eo.eClass().getName());
+            for (EStructuralFeature feature : eo.eClass().getEAllStructuralFeatures()) {
+                if (feature.isTransient() || feature.isDerived() || !eo.eIsSet(feature)) {
+                    continue;
+                }
+                hasher.add(feature.getName());
+                if (!hashValue(eo.eGet(feature), hasher, depth + 1)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> c = (Collection<?>) value;
+            hasher.add("collection").add(Integer.toString(c.size()));
+            for (Object item : c) {
+                if (!hashValue(item, hasher, depth + 1)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<String, Object>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                sorted.put(String.valueOf(e.getKey()), e.getValue());
+            }
+            hasher.add("map").add(Integer.toString(sorted.size()));
+            for (Map.Entry<String, Object> e : sorted.entrySet()) {
+                hasher.add(e.getKey());
+                if (!hashValue(e.getValue(), hasher, depth + 1)) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // -----------------------------------------------------------------
+    // Invalidation
+    // -----------------------------------------------------------------
+
+    public void handleAddEvent(CatalogAddEvent event) {
+        // a new layer cannot be referenced by the cached entries
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        invalidate(event);
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify event
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        invalidate(event);
+    }
+
+    void invalidate(CatalogEvent event) {
+        Object source = event.getSource();
+        if (source instanceof ResourceInfo) {
+            invalidate(((ResourceInfo) source).getId());
+        } else if (source instanceof LayerInfo) {
+            ResourceInfo resource = ((LayerInfo) source).getResource();
+            if (resource != null) {
+                invalidate(resource.getId());
+            }
+        } else if (source instanceof StoreInfo) {
+            for (ResourceInfo resource : catalog.getResourcesByStore((StoreInfo) source,
+                    ResourceInfo.class)) {
+                invalidate(resource.getId());
+            }
+        }
+    }
+
+    public void reloaded() {
+        versions.clear();
+        clear();
+    }
+
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName name = event.getLayerName();
+        if (name != null) {
+            ResourceInfo resource = catalog.getResourceByName(name.getNamespaceURI(),
+                    name.getLocalPart(), ResourceInfo.class);
+            if (resource != null) {
+                invalidate(resource.getId());
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------
+    // Statistics
+    // -----------------------------------------------------------------
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * The size of the cached entries, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public void collect(MetricsWriter writer) {
+        writer.counter("geoserver_wps_result_cache_hits",
+                "Number of executions served from the result cache", hits.get());
+        writer.counter("geoserver_wps_result_cache_misses",
+                "Number of cacheable executions not found in the result cache", misses.get());
+        writer.counter("geoserver_wps_result_cache_evictions",
+                "Number of result cache entries evicted to respect the size limit",
+                evictions.get());
+        synchronized (this) {
+            writer.gauge("geoserver_wps_result_cache_size_bytes",
+                    "Size of the result cache entries", size);
+            writer.gauge("geoserver_wps_result_cache_entries", "Number of result cache entries",
+                    entries.size());
+        }
+    }
+}
@@ -4,9 +4,11 @@
  */
 package org.geoserver.wps.executor;
 
+import java.awt.image.RenderedImage;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -16,12 +18,14 @@ import net.opengis.wcs11.GetCoverageType;
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wps10.ComplexDataType;
 import net.opengis.wps10.DataType;
+import net.opengis.wps10.DocumentOutputDefinitionType;
 import net.opengis.wps10.ExecuteType;
 import net.opengis.wps10.HeaderType;
 import net.opengis.wps10.InputReferenceType;
 import net.opengis.wps10.InputType;
 import net.opengis.wps10.LiteralDataType;
 import net.opengis.wps10.MethodType;
+import net.opengis.wps10.ResponseFormType;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpConnectionManager;
@@ -51,8 +55,15 @@ import org.geoserver.wps.ppio.ComplexPPIO;
 import org.geoserver.wps.ppio.LiteralPPIO;
 import org.geoserver.wps.ppio.ProcessParameterIO;
 import org.geoserver.wps.resource.GridCoverageResource;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
 import org.opengis.coverage.Coverage;
 import org.opengis.coverage.grid.GridCoverage;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.springframework.context.ApplicationContext;
 
 /**
@@ -66,7 +77,7 @@ class SimpleInputProvider implements InputProvider {
 
     ProcessParameterIO ppio;
 
-    Object value;
+    volatile Object value;
 
     ApplicationContext context;
 
@@ -108,6 +119,20 @@ class SimpleInputProvider implements InputProvider {
         }
     }
 
+    public boolean concurrentFetch() {
+        if (input == null || input.getReference() == null) {
+            return false;
+        }
+        InputReferenceType ref = input.getReference();
+        String href = ref.getHref();
+        // internal KVP requests are parsed by altering the current request, which is shared
+        // with the other threads
+        boolean internal = href.startsWith("http://geoserver/wfs")
+                || href.startsWith("http://geoserver/wcs")
+                || href.startsWith("http://geoserver/wps");
+        return !internal || ref.getMethod() == MethodType.POST_LITERAL;
+    }
+
     public Object getValue() throws Exception {
         if (value == null) {
             if (input.getReference() != null) {
@@ -198,16 +223,92 @@ class SimpleInputProvider implements InputProvider {
             request = (ExecuteType) kvpParse(ref.getHref(), reader);
         }
 
-        Map<String, Object> results = executor.submitChained(new ExecuteRequest(request));
-        Object obj = results.values().iterator().next();
+        ExecuteRequest chained = new ExecuteRequest(request);
+        Map<String, Object> results = executor.submitChained(chained);
+        Object obj = getChainedOutput(chained, results);
         if (obj != null && !ppio.getType().isInstance(obj)) {
-            throw new WPSException(
-                    "The process output is incompatible with the input target type, was expecting "
-                            + ppio.getType().getName() + " and got " + obj.getClass().getName());
+            // hand over the output as is, or in a lazy adapted form, never encoding it
+            Object adapted = adaptChainedOutput(obj, ppio.getType());
+            if (adapted == null) {
+                throw new WPSException("The process output is incompatible with the input "
+                        + "target type, was expecting " + ppio.getType().getName() + " and got "
+                        + obj.getClass().getName());
+            }
+            if (obj instanceof GridCoverage) {
+                executor.getResourceManager().addResource(
+                        new GridCoverageResource((GridCoverage) obj));
+            }
+            obj = adapted;
+        }
+        if (!executor.isStreamingChain() && obj instanceof SimpleFeatureCollection) {
+            obj = load((SimpleFeatureCollection) obj);
         }
         return obj;
     }
 
+    /**
+     * Picks the output requested in the chained process response form, or the only output
+     * available if none was requested
+     */
+    Object getChainedOutput(ExecuteRequest chained, Map<String, Object> results) {
+        String outputId = null;
+        ResponseFormType form = chained.getRequest().getResponseForm();
+        if (form != null && form.getRawDataOutput() != null) {
+            outputId = form.getRawDataOutput().getIdentifier().getValue();
+        } else {
+            List<DocumentOutputDefinitionType> outputs = chained.getRequestedOutputs();
+            if (outputs != null && !outputs.isEmpty()) {
+                outputId = outputs.get(0).getIdentifier().getValue();
+            }
+        }
+
+        if (outputId != null && results.containsKey(outputId)) {
+            return results.get(outputId);
+        } else if (results.size() == 1) {
+            return results.values().iterator().next();
+        } else if (outputId != null) {
+            throw new WPSException("Process " + chained.getProcessName()
+                    + " did not return the output " + outputId);
+        } else {
+            throw new WPSException("Process " + chained.getProcessName()
+                    + " has multiple outputs, the one to be used as input " + inputId
+                    + " must be specified in the response form");
+        }
+    }
+
+    /**
+     * Adapts the output of a chained process to the type expected by the input without
+     * computing it, returns null if that is not possible
+     */
+    static Object adaptChainedOutput(Object value, Class<?> target) {
+        if (value instanceof GridCoverage && target.isAssignableFrom(RenderedImage.class)) {
+            // the image tiles are computed on demand
+            return ((GridCoverage) value).getRenderedImage();
+        } else if (value instanceof FeatureCollection
+                && target.isAssignableFrom(SimpleFeatureCollection.class)
+                && ((FeatureCollection) value).getSchema() instanceof SimpleFeatureType) {
+            return DataUtilities.simple((FeatureCollection) value);
+        }
+        return null;
+    }
+
+    /**
+     * Loads the collection in memory, so that the chained process runs only once no matter how
+     * many times the collection is read
+     */
+    SimpleFeatureCollection load(SimpleFeatureCollection fc) {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = fc.features();
+        try {
+            while (it.hasNext()) {
+                features.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return new ListFeatureCollection(fc.getSchema(), features);
+    }
+
     /**
      * Process the request as an internal one, without going through GML encoding/decoding
      * 
@@ -4,6 +4,7 @@
  */
 package org.geoserver.wps.executor;
 
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -17,8 +18,11 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.opengis.wps10.ExecuteResponseType;
+import net.opengis.wps10.ExecuteType;
+import net.opengis.wps10.Wps10Factory;
 
 import org.apache.commons.io.IOUtils;
+import org.geoserver.ows.Ows11Util;
 import org.geoserver.ows.XmlObjectEncodingResponse;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wps.WPSException;
@@ -29,9 +33,11 @@ import org.geoserver.wps.process.GeoServerProcessors;
 import org.geoserver.wps.resource.WPSResourceManager;
 import org.geoserver.wps.xml.WPSConfiguration;
 import org.geotools.data.Parameter;
+import org.geotools.feature.FeatureCollection;
 import org.geotools.process.ProcessException;
 import org.geotools.process.ProcessFactory;
 import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.GridCoverage;
 import org.opengis.feature.type.Name;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -52,6 +58,12 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
     private static final Logger LOGGER = Logging.getLogger(WPSExecutionManager.class);
 
+    /**
+     * WPS metadata key controlling how the outputs of chained processes are handed over to the
+     * calling process, see {@link #setStreamingChain(boolean)}
+     */
+    public static final String CHAIN_STREAMING = "chain.streaming";
+
     private ExecutorService storedResponseWriters = Executors.newCachedThreadPool();
 
     ApplicationContext applicationContext;
@@ -64,6 +76,12 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
     private int connectionTimeout;
 
+    private ProcessResultCache resultCache;
+
+    private boolean streamingChain = true;
+
+    private ExecutionStore executionStore;
+
     public WPSExecutionManager(WPSResourceManager resourceManager) {
         this.resourceManager = resourceManager;
     }
@@ -81,10 +99,48 @@ public class WPSExecutionManager implements ApplicationContextAware,
      */
     Map<String, Object> submitChained(ExecuteRequest request) {
         Name processName = request.getProcessName();
+        ProcessResultCache.Key cacheKey = getCacheKey(request);
+        if (cacheKey != null) {
+            Map<String, Object> cached = resultCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
         ProcessManager processManager = getProcessManager(processName);
         String executionId = resourceManager.getExecutionId(true);
         Map<String, Object> inputs = request.getProcessInputs(this);
-        return processManager.submitChained(executionId, processName, inputs);
+        Map<String, Object> outputs = processManager.submitChained(executionId, processName,
+                inputs);
+        // caching would serialize the lazy outputs, computing them before the calling
+        // process gets a chance to stream them
+        if (cacheKey != null && !(streamingChain && hasLazyOutputs(outputs))) {
+            resultCache.put(cacheKey, outputs);
+        }
+        return outputs;
+    }
+
+    /**
+     * Returns true if any of the outputs is computed on demand, like most feature collections,
+     * coverages and images are
+     */
+    static boolean hasLazyOutputs(Map<String, Object> outputs) {
+        if (outputs == null) {
+            return false;
+        }
+        for (Object value : outputs.values()) {
+            if (value instanceof FeatureCollection || value instanceof GridCoverage
+                    || value instanceof RenderedImage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    ProcessResultCache.Key getCacheKey(ExecuteRequest request) {
+        if (resultCache == null) {
+            return null;
+        }
+        return resultCache.getKey(request);
     }
     
 
@@ -104,11 +160,19 @@ public class WPSExecutionManager implements ApplicationContextAware,
         String executionId = resourceManager.getExecutionId(synchronous);
         final AsynchronousProcessContext context = new AsynchronousProcessContext(request,
                 executionId, inputs, processManager, applicationContext);
+        context.cacheKey = getCacheKey(request);
+        if (context.cacheKey != null) {
+            context.cachedOutputs = resultCache.get(context.cacheKey);
+        }
         contexts.put(executionId, context);
         if(!synchronous) {
             LOGGER.log(Level.INFO, "Submitting new asynch process " + processName.getURI() + " with execution id " + executionId);
         }
-        processManager.submit(executionId, processName, inputs, request.isAsynchronous());
+        if (context.cachedOutputs == null) {
+            processManager.submit(executionId, processName, inputs, request.isAsynchronous());
+        } else if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Execution " + executionId + " served from the result cache");
+        }
         if (request.isAsynchronous()) {
             // ah, we need to store the output at the end, schedule a thread that will
             // do as soon as the process is done executing
@@ -140,6 +204,43 @@ public class WPSExecutionManager implements ApplicationContextAware,
         return context.getStatusResponse();
     }
 
+    /**
+     * Returns the status of an execution as recorded in the execution store, for executions that
+     * are no longer tracked in memory and did not leave a stored response behind, e.g. because
+     * they were interrupted by a restart. Returns null if there is nothing meaningful to report.
+     * 
+     * @param executionId
+     * @return
+     */
+    public ExecuteResponseType getRecordedStatus(String executionId) {
+        if (executionStore == null) {
+            return null;
+        }
+        ExecutionStore.Record record = executionStore.get(executionId);
+        if (record == null
+                || (record.getPhase() == ProcessState.COMPLETED && record.getError() == null)
+                || GeoServerProcessors.createProcessFactory(record.getProcessName()) == null) {
+            return null;
+        }
+
+        // rebuild a minimal request, the original one is gone
+        Wps10Factory f = Wps10Factory.eINSTANCE;
+        ExecuteType execute = f.createExecuteType();
+        execute.setService("WPS");
+        execute.setVersion("1.0.0");
+        execute.setIdentifier(Ows11Util.code(record.getProcessName()));
+
+        ExecuteResponseBuilder responseBuilder = new ExecuteResponseBuilder(execute,
+                applicationContext, record.getCreated());
+        responseBuilder.setExecutionId(executionId);
+        if (record.getError() != null) {
+            responseBuilder.setException(new WPSException(record.getError()));
+        } else {
+            responseBuilder.setStatus(record);
+        }
+        return responseBuilder.build();
+    }
+
     /**
      * Returns the stored response file for the specified execution (which has already completed its
      * lifecycle)
@@ -176,10 +277,18 @@ public class WPSExecutionManager implements ApplicationContextAware,
      * @return
      */
     public Map<String, Object> getOutput(String executionId, long timeout) throws ProcessException {
+        AsynchronousProcessContext context = contexts.get(executionId);
+        if (context != null && context.cachedOutputs != null) {
+            contexts.remove(executionId);
+            return context.cachedOutputs;
+        }
         for (ProcessManager pm : getProcessManagers()) {
             Map<String, Object> output = pm.getOutput(executionId, timeout);
             if (output != null) {
                 contexts.remove(executionId);
+                if (context != null && context.cacheKey != null) {
+                    resultCache.put(context.cacheKey, output);
+                }
                 return output;
             }
         }
@@ -216,6 +325,39 @@ public class WPSExecutionManager implements ApplicationContextAware,
         this.connectionTimeout = connectionTimeout;
     }
 
+    /**
+     * The cache of the process outputs, may be null
+     */
+    public ProcessResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(ProcessResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Sets the store recording the asynchronous executions, may be null
+     */
+    public void setExecutionStore(ExecutionStore executionStore) {
+        this.executionStore = executionStore;
+    }
+
+    public boolean isStreamingChain() {
+        return streamingChain;
+    }
+
+    /**
+     * Sets how the outputs of chained processes are handed over to the calling process. When
+     * streaming (the default) feature collections and coverages are passed as they are, so that
+     * they are computed while the calling process reads them. Otherwise feature collections are
+     * loaded in memory first, which is preferable only when the calling process reads its input
+     * multiple times and the chained process is expensive.
+     */
+    public void setStreamingChain(boolean streamingChain) {
+        this.streamingChain = streamingChain;
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext context) throws BeansException {
         this.applicationContext = context;
@@ -246,6 +388,16 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
         Date started;
 
+        /**
+         * The result cache key, or null if the execution is not cacheable
+         */
+        ProcessResultCache.Key cacheKey;
+
+        /**
+         * The outputs found in the result cache, if any
+         */
+        Map<String, Object> cachedOutputs;
+
         private float inputWeight;
 
         private float outputWeight;
@@ -301,7 +453,10 @@ public class WPSExecutionManager implements ApplicationContextAware,
                 // still running
                 float progress = inputs.getRetrievedInputPercentage() * inputWeight;
                 progress += inner.getProgress() * processWeight;
-                return new ExecutionStatus(request.getProcessName(), executionId, ProcessState.RUNNING, progress);
+                ExecutionStatus status = new ExecutionStatus(request.getProcessName(),
+                        executionId, ProcessState.RUNNING, progress);
+                status.setInputFetchTimes(inputs.getFetchTimes());
+                return status;
             }
         }
 
@@ -332,7 +487,7 @@ public class WPSExecutionManager implements ApplicationContextAware,
                         request.getRequest(), applicationContext, started);
                 responseBuilder.setExecutionId(executionId);
                 try {
-                    Map<String, Object> outputs = processManager.getOutput(executionId, -1);
+                    Map<String, Object> outputs = getOutputs();
                     responseBuilder.setOutputs(outputs);
                 } catch (Exception exception) {
                     LOGGER.log(Level.SEVERE, "Request " + executionId + " failed during execution", exception);
@@ -362,6 +517,20 @@ public class WPSExecutionManager implements ApplicationContextAware,
             }
         }
 
+        /**
+         * Waits for the process outputs, and caches them if the execution is cacheable
+         */
+        Map<String, Object> getOutputs() throws ProcessException {
+            if (cachedOutputs != null) {
+                return cachedOutputs;
+            }
+            Map<String, Object> outputs = processManager.getOutput(executionId, -1);
+            if (cacheKey != null) {
+                resultCache.put(cacheKey, outputs);
+            }
+            return outputs;
+        }
+
         void writeOutResponse(ExecuteResponseBuilder responseBuilder, File output)
                 throws IOException {
             FileOutputStream fos = null;
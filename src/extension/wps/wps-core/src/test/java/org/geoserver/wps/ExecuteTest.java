@@ -5,6 +5,7 @@
 package org.geoserver.wps;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
@@ -35,6 +36,7 @@ import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.SystemTestData.LayerProperty;
 import org.geoserver.test.RemoteOWSTestSupport;
+import org.geoserver.wps.executor.WPSExecutionManager;
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.FeatureCollection;
@@ -889,7 +891,38 @@ public class ExecuteTest extends WPSTestSupport {
      */
     @Test
     public void testChainedProgress() throws Exception {
-        String request = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + 
+        String request = chainedMonkeyRequest("chained-monkey");
+        
+        MonkeyProcess.progress("chained-monkey", 10f, false);
+        MonkeyProcess.exit("chained-monkey", collectionOfThings(), false);
+        MockHttpServletResponse response = postAsServletResponse("wfs", request);
+        assertEquals("application/wkt", response.getContentType());
+        assertEquals("GEOMETRYCOLLECTION EMPTY", response.getOutputStreamContent());
+    }
+    
+    @Test
+    public void testChainedMaterialized() throws Exception {
+        WPSInfo wps = getGeoServer().getService(WPSInfo.class);
+        wps.getMetadata().put(WPSExecutionManager.CHAIN_STREAMING, false);
+        getGeoServer().save(wps);
+        WPSExecutionManager manager = applicationContext.getBean(WPSExecutionManager.class);
+        try {
+            assertFalse(manager.isStreamingChain());
+
+            MonkeyProcess.exit("materialized-monkey", collectionOfThings(), false);
+            MockHttpServletResponse response = postAsServletResponse("wfs",
+                    chainedMonkeyRequest("materialized-monkey"));
+            assertEquals("application/wkt", response.getContentType());
+            assertEquals("GEOMETRYCOLLECTION EMPTY", response.getOutputStreamContent());
+        } finally {
+            wps.getMetadata().remove(WPSExecutionManager.CHAIN_STREAMING);
+            getGeoServer().save(wps);
+        }
+        assertTrue(manager.isStreamingChain());
+    }
+
+    private String chainedMonkeyRequest(String id) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + 
         		"<wps:Execute version=\"1.0.0\" service=\"WPS\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"http://www.opengis.net/wps/1.0.0\" xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:wps=\"http://www.opengis.net/wps/1.0.0\" xmlns:ows=\"http://www.opengis.net/ows/1.1\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:wcs=\"http://www.opengis.net/wcs/1.1.1\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xsi:schemaLocation=\"http://www.opengis.net/wps/1.0.0 http://schemas.opengis.net/wps/1.0.0/wpsAll.xsd\">\n" + 
         		"  <ows:Identifier>gs:CollectGeometries</ows:Identifier>\n" + 
         		"  <wps:DataInputs>\n" + 
@@ -903,7 +936,7 @@ public class ExecuteTest extends WPSTestSupport {
         		"              <wps:Input>\n" + 
         		"                <ows:Identifier>id</ows:Identifier>\n" + 
         		"                <wps:Data>\n" + 
-        		"                  <wps:LiteralData>chained-monkey</wps:LiteralData>\n" + 
+        		"                  <wps:LiteralData>" + id + "</wps:LiteralData>\n" + 
         		"                </wps:Data>\n" + 
         		"              </wps:Input>\n" + 
         		"            </wps:DataInputs>\n" + 
@@ -923,12 +956,6 @@ public class ExecuteTest extends WPSTestSupport {
         		"    </wps:RawDataOutput>\n" + 
         		"  </wps:ResponseForm>\n" + 
         		"</wps:Execute>";
-        
-        MonkeyProcess.progress("chained-monkey", 10f, false);
-        MonkeyProcess.exit("chained-monkey", collectionOfThings(), false);
-        MockHttpServletResponse response = postAsServletResponse("wfs", request);
-        assertEquals("application/wkt", response.getContentType());
-        assertEquals("GEOMETRYCOLLECTION EMPTY", response.getOutputStreamContent());
     }
     
     @Test
@@ -0,0 +1,123 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecutionQueueTest {
+
+    ThreadPoolExecutor executor;
+
+    ExecutionQueue queue;
+
+    List<String> started = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        queue = new ExecutionQueue(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A job recording its start, then waiting for the latch to open
+     */
+    ExecutionQueue.Job job(final String id, String user, int priority, final CountDownLatch latch) {
+        FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+
+            @Override
+            public void run() {
+                started.add(id);
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        return new ExecutionQueue.Job(id, user, priority, task);
+    }
+
+    void waitForCompletion() throws InterruptedException {
+        for (int i = 0; i < 100 && (queue.getActive() > 0 || queue.getQueued() > 0); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, queue.getActive());
+        assertEquals(0, queue.getQueued());
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch open = new CountDownLatch(0);
+        // occupies the only thread, the others have to wait
+        queue.submit(job("first", null, 0, blocker));
+        queue.submit(job("low", null, 0, open));
+        queue.submit(job("high", null, 10, open));
+        queue.submit(job("low2", null, 0, open));
+        assertEquals(1, queue.getActive());
+        assertEquals(3, queue.getQueued());
+
+        blocker.countDown();
+        waitForCompletion();
+        assertEquals(4, started.size());
+        assertEquals("first", started.get(0));
+        assertEquals("high", started.get(1));
+        assertEquals("low", started.get(2));
+        assertEquals("low2", started.get(3));
+    }
+
+    @Test
+    public void testMaxPerUser() throws Exception {
+        executor.setCorePoolSize(2);
+        executor.setMaximumPoolSize(2);
+        queue.setMaxPerUser(1);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        queue.submit(job("a1", "alice", 0, latch));
+        queue.submit(job("a2", "alice", 10, latch));
+        queue.submit(job("b1", "bob", 0, latch));
+
+        // alice second execution has to wait even if it has a higher priority
+        assertEquals(2, queue.getActive());
+        assertEquals(1, queue.getQueued());
+
+        latch.countDown();
+        waitForCompletion();
+        assertEquals("a2", started.get(2));
+    }
+
+    @Test
+    public void testCancelledWhileQueued() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        queue.submit(job("first", null, 0, blocker));
+        ExecutionQueue.Job cancelled = job("cancelled", null, 0, new CountDownLatch(0));
+        queue.submit(cancelled);
+        cancelled.task.cancel(true);
+
+        blocker.countDown();
+        waitForCompletion();
+        assertEquals(1, started.size());
+        assertEquals("first", started.get(0));
+    }
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.wps.executor.ExecutionStatus.ProcessState;
+import org.geotools.feature.NameImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecutionStoreTest {
+
+    File directory;
+
+    ExecutionStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File("target/executionStore");
+        FileUtils.deleteQuietly(directory);
+        directory.mkdirs();
+        store = new ExecutionStore(directory);
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testInsertUpdate() throws Exception {
+        store.insert("abc", new NameImpl("gs", "Bounds"), "alice", 5);
+        ExecutionStore.Record record = store.get("abc");
+        assertEquals(new NameImpl("gs", "Bounds"), record.getProcessName());
+        assertEquals(ProcessState.QUEUED, record.getPhase());
+        assertEquals("alice", record.getUser());
+        assertEquals(5, record.getPriority());
+        assertNotNull(record.getCreated());
+
+        store.update("abc", ProcessState.RUNNING, 50, null);
+        record = store.get("abc");
+        assertEquals(ProcessState.RUNNING, record.getPhase());
+        assertEquals(50f, record.getProgress(), 0f);
+        assertNull(record.getError());
+
+        store.update("abc", ProcessState.COMPLETED, 50, "Boom");
+        record = store.get("abc");
+        assertEquals(ProcessState.COMPLETED, record.getPhase());
+        assertEquals("Boom", record.getError());
+
+        assertNull(store.get("def"));
+    }
+
+    @Test
+    public void testRecoverAfterRestart() throws Exception {
+        store.insert("queued", new NameImpl("gs", "Bounds"), null, 0);
+        store.insert("running", new NameImpl("gs", "Bounds"), null, 0);
+        store.update("running", ProcessState.RUNNING, 10, null);
+        store.insert("done", new NameImpl("gs", "Bounds"), null, 0);
+        store.update("done", ProcessState.COMPLETED, 100, null);
+
+        // simulate a restart
+        store.destroy();
+        store = new ExecutionStore(directory);
+
+        for (String id : new String[] { "queued", "running" }) {
+            ExecutionStore.Record record = store.get(id);
+            assertEquals(ProcessState.COMPLETED, record.getPhase());
+            assertEquals(ExecutionStore.RESTART_MESSAGE, record.getError());
+        }
+        assertNull(store.get("done").getError());
+    }
+
+    @Test
+    public void testPurge() throws Exception {
+        store.insert("done", new NameImpl("gs", "Bounds"), null, 0);
+        store.update("done", ProcessState.COMPLETED, 100, null);
+        store.insert("running", new NameImpl("gs", "Bounds"), null, 0);
+        store.update("running", ProcessState.RUNNING, 10, null);
+
+        store.setRetention(-1000);
+        store.purge();
+        assertNull(store.get("done"));
+        assertNotNull(store.get("running"));
+    }
+}
@@ -0,0 +1,160 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.wps.WPSException;
+import org.geoserver.wps.resource.WPSResourceManager;
+import org.geotools.process.ProcessException;
+import org.geotools.util.NullProgressListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyInputMapTest {
+
+    ExecutorService executor;
+
+    WPSResourceManager resourceManager;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        resourceManager = new WPSResourceManager();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A provider that waits for the latch to open before returning its value
+     */
+    static class LatchProvider implements InputProvider {
+
+        String inputId;
+
+        CountDownLatch latch;
+
+        volatile Object value;
+
+        LatchProvider(String inputId, CountDownLatch latch) {
+            this.inputId = inputId;
+            this.latch = latch;
+        }
+
+        @Override
+        public Object getValue() throws Exception {
+            if (value == null) {
+                latch.countDown();
+                if (!latch.await(10, TimeUnit.SECONDS)) {
+                    throw new Exception("The other inputs were not fetched in parallel");
+                }
+                value = inputId;
+            }
+            return value;
+        }
+
+        @Override
+        public String getInputId() {
+            return inputId;
+        }
+
+        @Override
+        public boolean resolved() {
+            return value != null;
+        }
+
+        @Override
+        public boolean longParse() {
+            return true;
+        }
+
+        @Override
+        public boolean concurrentFetch() {
+            return true;
+        }
+    }
+
+    LazyInputMap map(InputProvider... providers) {
+        Map<String, InputProvider> result = new LinkedHashMap<String, InputProvider>();
+        for (InputProvider provider : providers) {
+            result.put(provider.getInputId(), provider);
+        }
+        return new LazyInputMap(result);
+    }
+
+    @Test
+    public void testConcurrentFetch() throws Exception {
+        // each provider blocks until all of them are being fetched
+        CountDownLatch latch = new CountDownLatch(3);
+        ListInputProvider list = new ListInputProvider(new LatchProvider("b", latch));
+        list.add(new LatchProvider("b", latch));
+        LazyInputMap inputs = map(new LatchProvider("a", latch), list);
+
+        inputs.resolve(executor, 0, new NullProgressListener(), resourceManager);
+        assertEquals(50f, inputs.getRetrievedInputPercentage(), 0f);
+        assertEquals("a", inputs.get("a"));
+        assertEquals(2, ((List) inputs.get("b")).size());
+        assertEquals(100f, inputs.getRetrievedInputPercentage(), 0f);
+
+        Map<String, Long> times = inputs.getFetchTimes();
+        assertTrue(times.containsKey("a"));
+        assertTrue(times.containsKey("b"));
+    }
+
+    @Test
+    public void testSingleInputNotFetched() throws Exception {
+        LatchProvider provider = new LatchProvider("a", new CountDownLatch(1));
+        LazyInputMap inputs = map(provider);
+
+        inputs.resolve(executor, 0, new NullProgressListener(), resourceManager);
+        assertFalse(provider.resolved());
+        assertTrue(inputs.getFetchTimes().isEmpty());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        // never opens, the fetches will wait until interrupted
+        CountDownLatch latch = new CountDownLatch(3);
+        LazyInputMap inputs = map(new LatchProvider("a", latch), new LatchProvider("b", latch));
+
+        try {
+            inputs.resolve(executor, 200, new NullProgressListener(), resourceManager);
+            fail("Should have timed out");
+        } catch (WPSException e) {
+            assertTrue(e.getMessage().contains("could not be fetched within 200 ms"));
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        LazyInputMap inputs = map(new LatchProvider("a", latch), new LatchProvider("b", latch));
+        NullProgressListener listener = new NullProgressListener() {
+            @Override
+            public boolean isCanceled() {
+                return true;
+            }
+        };
+
+        try {
+            inputs.resolve(executor, 0, listener, resourceManager);
+            fail("Should have been cancelled");
+        } catch (ProcessException e) {
+            assertTrue(e.getMessage().contains("cancelled"));
+        }
+    }
+}
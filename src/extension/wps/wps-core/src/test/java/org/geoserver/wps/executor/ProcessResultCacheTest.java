@@ -0,0 +1,154 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.custommonkey.xmlunit.XMLAssert.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wps.WPSInfo;
+import org.geoserver.wps.WPSTestSupport;
+import org.geotools.feature.NameImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ProcessResultCacheTest extends WPSTestSupport {
+
+    ProcessResultCache cache;
+
+    @Before
+    public void setUpCache() throws Exception {
+        cache = applicationContext.getBean(ProcessResultCache.class);
+        WPSInfo wps = getGeoServer().getService(WPSInfo.class);
+        wps.getMetadata().put(ProcessResultCache.PROCESSES, "gs:Bounds");
+        getGeoServer().save(wps);
+        cache.clear();
+        cache.hits.set(0);
+        cache.misses.set(0);
+    }
+
+    @After
+    public void tearDownCache() throws Exception {
+        WPSInfo wps = getGeoServer().getService(WPSInfo.class);
+        wps.getMetadata().remove(ProcessResultCache.PROCESSES);
+        getGeoServer().save(wps);
+    }
+
+    String boundsRequest() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<wps:Execute version=\"1.0.0\" service=\"WPS\" "
+                + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+                + "xmlns=\"http://www.opengis.net/wps/1.0.0\" xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                + "xmlns:wps=\"http://www.opengis.net/wps/1.0.0\" xmlns:ows=\"http://www.opengis.net/ows/1.1\" "
+                + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n"
+                + "  <ows:Identifier>gs:Bounds</ows:Identifier>\n"
+                + "  <wps:DataInputs>\n"
+                + "    <wps:Input>\n"
+                + "      <ows:Identifier>features</ows:Identifier>\n"
+                + "      <wps:Reference mimeType=\"text/xml; subtype=wfs-collection/1.0\" "
+                + "xlink:href=\"http://geoserver/wfs\" method=\"POST\">\n"
+                + "        <wps:Body>\n"
+                + "          <wfs:GetFeature service=\"WFS\" version=\"1.0.0\">\n"
+                + "            <wfs:Query typeName=\"cite:Streams\"/>\n"
+                + "          </wfs:GetFeature>\n"
+                + "        </wps:Body>\n"
+                + "      </wps:Reference>\n"
+                + "    </wps:Input>\n"
+                + "  </wps:DataInputs>\n"
+                + "  <wps:ResponseForm>\n"
+                + "    <wps:RawDataOutput>\n"
+                + "      <ows:Identifier>bounds</ows:Identifier>\n"
+                + "    </wps:RawDataOutput>\n"
+                + "  </wps:ResponseForm>\n"
+                + "</wps:Execute>";
+    }
+
+    void assertBounds(Document dom) throws Exception {
+        assertXpathEvaluatesTo("-4.0E-4 -0.0024", "/ows:BoundingBox/ows:LowerCorner", dom);
+        assertXpathEvaluatesTo("0.0036 0.0024", "/ows:BoundingBox/ows:UpperCorner", dom);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        assertTrue(cache.isCached(new NameImpl("gs", "Bounds")));
+
+        assertBounds(postAsDOM(root(), boundsRequest()));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEntryCount());
+
+        assertBounds(postAsDOM(root(), boundsRequest()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLayerChange() throws Exception {
+        assertBounds(postAsDOM(root(), boundsRequest()));
+        assertEquals(1, cache.getEntryCount());
+
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.STREAMS));
+        ft.setTitle("Modified streams");
+        getCatalog().save(ft);
+        assertEquals(0, cache.getEntryCount());
+
+        assertBounds(postAsDOM(root(), boundsRequest()));
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testNotConfigured() throws Exception {
+        WPSInfo wps = getGeoServer().getService(WPSInfo.class);
+        wps.getMetadata().put(ProcessResultCache.PROCESSES, "gs:Aggregate");
+        getGeoServer().save(wps);
+
+        assertBounds(postAsDOM(root(), boundsRequest()));
+        assertBounds(postAsDOM(root(), boundsRequest()));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ProcessResultCache small = new ProcessResultCache(getCatalog(), null);
+        small.setProcesses(Collections.singleton(new NameImpl("gs", "Test")));
+        small.setMaxSize(4096);
+
+        Map<String, Long> noLayers = Collections.emptyMap();
+        for (int i = 0; i < 20; i++) {
+            Map<String, Object> outputs = new HashMap<String, Object>();
+            outputs.put("result", new byte[512]);
+            small.put(new ProcessResultCache.Key(new NameImpl("gs", "Test"), "k" + i, noLayers),
+                    outputs);
+        }
+        assertTrue(small.getSize() <= 4096);
+        assertTrue(small.getEvictions() > 0);
+
+        // the most recent entry is still there, the first one is gone
+        ProcessResultCache.Key last = new ProcessResultCache.Key(new NameImpl("gs", "Test"),
+                "k19", noLayers);
+        assertNotNull(small.get(last));
+        ProcessResultCache.Key first = new ProcessResultCache.Key(new NameImpl("gs", "Test"),
+                "k0", noLayers);
+        assertNull(small.get(first));
+
+        // too big for the cache
+        Map<String, Object> big = new HashMap<String, Object>();
+        big.put("result", new byte[2048]);
+        ProcessResultCache.Key bigKey = new ProcessResultCache.Key(new NameImpl("gs", "Test"),
+                "big", noLayers);
+        small.put(bigKey, big);
+        assertNull(small.get(bigKey));
+    }
+}
@@ -83,6 +83,11 @@ public class ConfigurableQuotaStoreProvider extends QuotaStoreProvider {
             try {
                 store = getQuotaStoreByName(quotaStoreName);
                 exception = null;
+                // aggregate the quota updates in memory if so configured
+                int flushInterval = WriteBehindQuotaStore.getConfiguredInterval();
+                if (flushInterval > 0) {
+                    store = new WriteBehindQuotaStore(store, flushInterval);
+                }
             } catch(Exception e) {
                 LOGGER.log(Level.SEVERE, "Failed to get a quota store, " +
                 		"the GeoWebCache disk quota subsystem will stop working now", e);
@@ -49,8 +49,14 @@ import org.geoserver.gwc.layer.CatalogStyleChangeListener;
 import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
+import org.geoserver.gwc.layer.SeedThrottle;
+import org.geoserver.gwc.layer.TilePrefetcher;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.DispatcherCallback;
+import org.geoserver.ows.Request;
 import org.geoserver.ows.Response;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.security.CoverageAccessLimits;
@@ -62,6 +68,9 @@ import org.geoserver.security.WrapperPolicy;
 import org.geoserver.security.decorators.SecuredLayerInfo;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.WebMapService;
+import org.geoserver.wms.map.GetMapKvpRequestReader;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.opengis.filter.Filter;
 import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
@@ -148,6 +157,20 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
 
     private static final String GLOBAL_LOCK_KEY = "global";
 
+    /**
+     * Name of the property enabling direct meta tile rendering, see {@link #renderMap(Map)}
+     */
+    public static final String GWC_DIRECT_RENDERING = "GWC_DIRECT_RENDERING";
+
+    private static final Method GET_MAP_METHOD;
+    static {
+        try {
+            GET_MAP_METHOD = WebMapService.class.getMethod("getMap", GetMapRequest.class);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * @see #get()
      */
@@ -189,6 +212,8 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
     private JDBCPasswordEncryptionHelper passwordHelper;
 
     private JDBCConfigurationStorage jdbcConfigurationStorage;
+
+    private volatile GetMapKvpRequestReader getMapReader;
     
     public GWC(final GWCConfigPersister gwcConfigPersister, final StorageBroker sb,
             final TileLayerDispatcher tld, final GridSetBroker gridSetBroker,
@@ -294,6 +319,44 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return gwcConfigPersister.getConfig();
     }
 
+    /**
+     * @return the in memory tile tier, or {@code null} if not available or disabled
+     * @see MemoryTierBlobStore
+     */
+    public MemoryTierBlobStore getMemoryTier() {
+        MemoryTierBlobStore memoryTier = GeoServerExtensions.bean(MemoryTierBlobStore.class,
+                applicationContext);
+        if (memoryTier == null || !memoryTier.isEnabled()) {
+            return null;
+        }
+        return memoryTier;
+    }
+
+    /**
+     * @return the tile prefetcher, or {@code null} if not available or disabled
+     * @see TilePrefetcher
+     */
+    public TilePrefetcher getTilePrefetcher() {
+        TilePrefetcher prefetcher = GeoServerExtensions.bean(TilePrefetcher.class,
+                applicationContext);
+        if (prefetcher == null || !prefetcher.isEnabled()) {
+            return null;
+        }
+        return prefetcher;
+    }
+
+    /**
+     * @return the seed throttle, or {@code null} if not available or disabled
+     * @see SeedThrottle
+     */
+    public SeedThrottle getSeedThrottle() {
+        SeedThrottle throttle = GeoServerExtensions.bean(SeedThrottle.class, applicationContext);
+        if (throttle == null || !throttle.isEnabled()) {
+            return null;
+        }
+        return throttle;
+    }
+
     /**
      * Fully truncates the given layer, including any ParameterFilter
      * 
@@ -340,7 +403,13 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         truncate(layerName, styleName, gridSetId, bounds, format);
     }
 
-    public void truncate(final String layerName, final ReferencedEnvelope bounds)
+    /**
+     * Truncates the given area of all the grid subsets, styles and formats of a tile layer
+     * 
+     * @return the number of tile positions covered by the truncated area, summed over the grid
+     *         subsets and zoom levels
+     */
+    public long truncate(final String layerName, final ReferencedEnvelope bounds)
             throws GeoWebCacheException {
 
         final TileLayer tileLayer = tld.getTileLayer(layerName);
@@ -349,6 +418,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         /*
          * Create a truncate task for each gridSubset (CRS), format and style
          */
+        long tiles = 0;
         for (String gridSetId : gridSubSets) {
             GridSubset layerGrid = tileLayer.getGridSubset(gridSetId);
             BoundingBox intersectingBounds = getIntersectingBounds(layerName, layerGrid, bounds);
@@ -358,7 +428,11 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
             String styleName = null;// all of them
             String format = null;// all of them
             truncate(layerName, styleName, gridSetId, intersectingBounds, format);
+            for (long[] level : layerGrid.getCoverageIntersections(intersectingBounds)) {
+                tiles += Math.max(0, level[2] - level[0] + 1) * Math.max(0, level[3] - level[1] + 1);
+            }
         }
+        return tiles;
     }
 
     private BoundingBox getIntersectingBounds(String layerName, GridSubset layerGrid,
@@ -1163,6 +1237,164 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return new ByteArrayResource(resp.getBytes());
     }
     
+    /**
+     * Returns true if meta tiles should be rendered calling {@link #renderMap(Map, Cookie[])} instead of
+     * going through {@link #dispatchOwsRequest(Map, Cookie[])}
+     */
+    public static boolean isDirectRenderingEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(GWC_DIRECT_RENDERING));
+    }
+
+    /**
+     * Renders a GetMap request in process, without going through the OWS {@link Dispatcher}.
+     * <p>
+     * The KVP parameters are parsed and turned into a {@link GetMapRequest} exactly as the
+     * dispatcher would do, so layer and style resolution, parameter filters and the secured
+     * catalog checks work the same way, but the fake servlet request/response round trip, the
+     * service and operation lookup and the thread local hand-off of the produced map are skipped.
+     * </p>
+     *
+     * @param params the GetMap KVP parameters
+     * @param cookies the cookies of the request originating the tile rendering, if any
+     * @return the rendered map
+     * @see #renderMap(GetMapRequest, Map, Cookie[])
+     */
+    public WebMap renderMap(final Map<String, String> params, Cookie[] cookies) throws Exception {
+        return renderMap(null, params, cookies);
+    }
+
+    /**
+     * Renders an already built GetMap request in process, without going through the OWS
+     * {@link Dispatcher} and without parsing the KVP parameters at all.
+     * <p>
+     * The {@link DispatcherCallback} events are fired in the same order the dispatcher would fire
+     * them ({@code init}, {@code serviceDispatched}, {@code operationDispatched},
+     * {@code operationExecuted}, {@code responseDispatched} and {@code finished}) against a
+     * request carrying the same fake http request {@link #dispatchOwsRequest(Map, Cookie[])} would
+     * use, so control-flow, environment injection and monitoring keep on working as for
+     * dispatched requests. The request KVP is only normalized, the values are left as strings.
+     * </p>
+     *
+     * @param getMap the request to render, or {@code null} to have it parsed out of {@code params}
+     * @param params the GetMap KVP parameters, used as the raw KVP of the request
+     * @param cookies the cookies of the request originating the tile rendering, if any
+     * @return the rendered map
+     */
+    public WebMap renderMap(GetMapRequest getMap, final Map<String, String> params,
+            Cookie[] cookies) throws Exception {
+        final Request previous = Dispatcher.REQUEST.get();
+        Request request = new Request();
+        request.setHttpRequest(new FakeHttpServletRequest(params, cookies));
+        request.setHttpResponse(new FakeHttpServletResponse());
+        request.setGet(true);
+        request.setService("WMS");
+        request.setVersion(params.get("VERSION"));
+        request.setRequest("GetMap");
+        request.setRawKvp(new KvpMap(params));
+        KvpMap kvp = KvpUtils.normalize(params);
+        if (getMap == null) {
+            List<Throwable> errors = KvpUtils.parse(kvp);
+            if (!errors.isEmpty()) {
+                throw new org.geoserver.platform.ServiceException(errors.get(0));
+            }
+        }
+        request.setKvp(kvp);
+
+        List<DispatcherCallback> callbacks = GeoServerExtensions
+                .extensions(DispatcherCallback.class);
+        Dispatcher.REQUEST.set(request);
+        try {
+            for (DispatcherCallback cb : callbacks) {
+                Request r = cb.init(request);
+                if (r != null && r != request) {
+                    request = r;
+                    Dispatcher.REQUEST.set(request);
+                }
+            }
+
+            org.geoserver.platform.Service service = getWMSServiceDescriptor(request
+                    .getVersion());
+            request.setServiceDescriptor(service);
+            for (DispatcherCallback cb : callbacks) {
+                org.geoserver.platform.Service s = cb.serviceDispatched(request, service);
+                service = s != null ? s : service;
+            }
+
+            if (getMap == null) {
+                getMap = getMapReader().read(new GetMapRequest(), kvp, request.getRawKvp());
+            }
+            Operation operation = new Operation("GetMap", service, GET_MAP_METHOD,
+                    new Object[] { getMap });
+            for (DispatcherCallback cb : callbacks) {
+                Operation o = cb.operationDispatched(request, operation);
+                operation = o != null ? o : operation;
+            }
+
+            WebMapService wms = (WebMapService) GeoServerExtensions.bean("webMapService");
+            Object result = wms.getMap((GetMapRequest) operation.getParameters()[0]);
+            for (DispatcherCallback cb : callbacks) {
+                Object r = cb.operationExecuted(request, operation, result);
+                result = r != null ? r : result;
+            }
+
+            // the map is encoded by the tile layer, the encoder is only looked up so that
+            // callbacks get the same view of the request the dispatcher would give them
+            Response response = null;
+            if (result instanceof RenderedImageMap) {
+                MimeType format = MimeType.createFromFormat(((GetMapRequest) operation
+                        .getParameters()[0]).getFormat());
+                response = getResponseEncoder(format, (RenderedImageMap) result);
+            }
+            for (DispatcherCallback cb : callbacks) {
+                Response r = cb.responseDispatched(request, operation, result, response);
+                response = r != null ? r : response;
+            }
+            return (WebMap) result;
+        } catch (Exception e) {
+            request.setError(e);
+            throw e;
+        } finally {
+            for (DispatcherCallback cb : callbacks) {
+                try {
+                    cb.finished(request);
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Dispatcher callback failed on finished event", e);
+                }
+            }
+            if (previous != null) {
+                Dispatcher.REQUEST.set(previous);
+            } else {
+                Dispatcher.REQUEST.remove();
+            }
+        }
+    }
+
+    private GetMapKvpRequestReader getMapReader() {
+        // private instance, so that no http request gets injected by the dispatcher
+        if (getMapReader == null) {
+            getMapReader = new GetMapKvpRequestReader(WMS.get());
+        }
+        return getMapReader;
+    }
+
+    private org.geoserver.platform.Service getWMSServiceDescriptor(String version) {
+        org.geoserver.platform.Service fallback = null;
+        for (org.geoserver.platform.Service service : GeoServerExtensions
+                .extensions(org.geoserver.platform.Service.class)) {
+            if ("wms".equalsIgnoreCase(service.getId())) {
+                if (version != null && service.getVersion() != null
+                        && version.equals(service.getVersion().toString())) {
+                    return service;
+                }
+                fallback = service;
+            }
+        }
+        if (fallback == null) {
+            throw new IllegalStateException("Could not find the WMS service descriptor");
+        }
+        return fallback;
+    }
+
     public void proxyOwsRequest(ConveyorTile tile) throws Exception {
         HttpServletRequest actualRequest = tile.servletReq;
         
@@ -0,0 +1,78 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import org.geoserver.gwc.layer.SeedThrottle;
+import org.geoserver.gwc.wms.CachingWebMapService;
+import org.geoserver.metrics.MetricsCollector;
+import org.geoserver.metrics.MetricsWriter;
+
+/**
+ * Reports the tile cache hits and misses of the WMS direct integration, the state of the
+ * truncation queue, of the in memory tile tier and of the seed throttle, when enabled
+ */
+public class GWCMetricsCollector implements MetricsCollector {
+
+    GWC gwc;
+
+    CachingWebMapService cachingWebMapService;
+
+    TruncationQueue truncationQueue;
+
+    public GWCMetricsCollector(GWC gwc, CachingWebMapService cachingWebMapService,
+            TruncationQueue truncationQueue) {
+        this.gwc = gwc;
+        this.cachingWebMapService = cachingWebMapService;
+        this.truncationQueue = truncationQueue;
+    }
+
+    public void collect(MetricsWriter writer) {
+        String help = "Tiled WMS requests handled by the direct GeoWebCache integration";
+        writer.counter("geoserver_gwc_wms_requests", help, cachingWebMapService.getHits(),
+                "result", "hit");
+        writer.counter("geoserver_gwc_wms_requests", help, cachingWebMapService.getMisses(),
+                "result", "miss");
+        writer.counter("geoserver_gwc_wms_requests", help, cachingWebMapService.getBypasses(),
+                "result", "bypass");
+
+        writer.gauge("geoserver_gwc_truncate_pending_regions",
+                "Dirty regions waiting to be truncated", truncationQueue.getPendingRegions());
+        writer.counter("geoserver_gwc_truncate_queued_regions",
+                "Dirty regions queued by transactions, before merging",
+                truncationQueue.getQueuedRegions());
+        writer.counter("geoserver_gwc_truncate_coalesced_regions",
+                "Dirty regions merged into other queued ones", truncationQueue.getCoalescedRegions());
+        writer.counter("geoserver_gwc_truncate_completed_regions", "Dirty regions truncated",
+                truncationQueue.getTruncatedRegions());
+        writer.counter("geoserver_gwc_truncate_failed_regions",
+                "Dirty regions whose truncation failed", truncationQueue.getFailures());
+
+        MemoryTierBlobStore memoryTier = gwc.getMemoryTier();
+        if (memoryTier != null) {
+            writer.counter("geoserver_gwc_memory_tier_hits", "Tile reads served from memory",
+                    memoryTier.getHits());
+            writer.counter("geoserver_gwc_memory_tier_misses",
+                    "Tile reads delegated to the blob store", memoryTier.getMisses());
+            writer.counter("geoserver_gwc_memory_tier_evictions",
+                    "Tiles evicted from the memory tier", memoryTier.getEvictions());
+            writer.gauge("geoserver_gwc_memory_tier_used_bytes",
+                    "Memory used by the tiles in the memory tier, in bytes", memoryTier.getSize());
+            writer.gauge("geoserver_gwc_memory_tier_capacity_bytes",
+                    "Maximum memory used by the memory tier, in bytes", memoryTier.getMaxSize());
+            writer.gauge("geoserver_gwc_memory_tier_tiles", "Number of tiles in the memory tier",
+                    memoryTier.getTileCount());
+        }
+
+        SeedThrottle throttle = gwc.getSeedThrottle();
+        if (throttle != null) {
+            writer.gauge("geoserver_gwc_seed_allowed_threads",
+                    "Number of seeding threads allowed to render", throttle.getAllowedThreads());
+            writer.gauge("geoserver_gwc_seed_active_threads",
+                    "Number of seeding threads rendering", throttle.getActiveThreads());
+            writer.counter("geoserver_gwc_seeded_metatiles", "Number of meta tiles seeded",
+                    throttle.getSeeded());
+        }
+    }
+}
@@ -57,13 +57,27 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     final private GWC gwc;
 
+    final private TruncationQueue truncationQueue;
+
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
     /**
+     * Creates a listener truncating synchronously, on the transaction thread
+     * 
      * @param gwc
      */
     public GWCTransactionListener(final GWC gwc) {
+        this(gwc, null);
+    }
+
+    /**
+     * @param gwc
+     * @param truncationQueue the queue coalescing the dirty regions before truncating them, or
+     *        {@code null} to truncate synchronously
+     */
+    public GWCTransactionListener(final GWC gwc, final TruncationQueue truncationQueue) {
         this.gwc = gwc;
+        this.truncationQueue = truncationQueue;
     }
 
     /**
@@ -124,6 +138,15 @@ public class GWCTransactionListener implements TransactionPlugin {
             if (dirtyRegion == null) {
                 continue;
             }
+            if (truncationQueue != null) {
+                try {
+                    truncationQueue.add(tileLayerName, dirtyRegion);
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Error queueing the truncation of tile layer "
+                            + tileLayerName + " for transaction affected bounds " + dirtyRegion, e);
+                }
+                continue;
+            }
             try {
                 gwc.truncate(tileLayerName, dirtyRegion);
             } catch (GeoWebCacheException e) {
@@ -0,0 +1,513 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.BlobStoreListener;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+
+/**
+ * A {@link BlobStore} decorator keeping the most read tiles in memory, in front of the actual
+ * (usually file based) blob store.
+ * <p>
+ * The memory tier is bounded by the total size of the cached tiles and uses a segmented LRU
+ * policy: tiles read once sit in a small probation segment, tiles read again get promoted to a
+ * protected segment taking {@link #PROTECTED_RATIO} of the memory, so that a burst of one-off
+ * reads (e.g., a client panning at high zoom levels) does not flush the popular tiles out.
+ * </p>
+ * <p>
+ * Tiles are added to the memory tier on read only. Writes, deletes, truncation of tile ranges,
+ * layer renames and removals go to the delegate and evict the affected tiles, so that the tier is
+ * coherent with the seeding and truncation tasks issued through the {@link GWC} facade.
+ * </p>
+ * <p>
+ * The tier is disabled unless the {@link #MEMORY_TIER_SIZE} property sets its size, in
+ * megabytes.
+ * </p>
+ */
+public class MemoryTierBlobStore implements BlobStore {
+
+    private static final Logger LOGGER = Logging.getLogger(MemoryTierBlobStore.class);
+
+    /**
+     * Name of the property controlling the size of the memory tier, in megabytes
+     */
+    public static final String MEMORY_TIER_SIZE = "GWC_MEMORY_TIER_SIZE";
+
+    /**
+     * Share of the memory reserved to tiles that have been read more than once
+     */
+    public static final double PROTECTED_RATIO = 0.8;
+
+    /**
+     * Tiles bigger than this share of the memory tier are never cached
+     */
+    static final int MAX_TILE_RATIO = 16;
+
+    static long getConfiguredSize() {
+        String value = GeoServerExtensions.getProperty(MEMORY_TIER_SIZE);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MEMORY_TIER_SIZE + ": " + value
+                        + ", the memory tier is disabled");
+            }
+        }
+        return 0;
+    }
+
+    static final class TileKey {
+        final String layerName;
+
+        final String gridSetId;
+
+        final String format;
+
+        final String parametersId;
+
+        final long[] xyz;
+
+        TileKey(String layerName, String gridSetId, String format, String parametersId,
+                long[] xyz) {
+            this.layerName = layerName;
+            this.gridSetId = gridSetId;
+            this.format = format;
+            this.parametersId = parametersId;
+            this.xyz = xyz.clone();
+        }
+
+        TileKey(TileObject tile) {
+            this(tile.getLayerName(), tile.getGridSetId(), tile.getBlobFormat(), tile
+                    .getParametersId(), tile.getXYZ());
+        }
+
+        boolean isIn(TileRange range) {
+            return layerName.equals(range.getLayerName())
+                    && matches(range.getGridSetId(), gridSetId)
+                    && (range.getMimeType() == null || matches(range.getMimeType().getFormat(),
+                            format)) && matches(range.getParametersId(), parametersId)
+                    && range.contains(xyz);
+        }
+
+        /**
+         * A null value in the range matches everything, we'd rather evict too much than too
+         * little
+         */
+        private static boolean matches(String rangeValue, String value) {
+            return rangeValue == null || rangeValue.equals(value);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(xyz);
+            result = 31 * result + layerName.hashCode();
+            result = 31 * result + (gridSetId == null ? 0 : gridSetId.hashCode());
+            result = 31 * result + (format == null ? 0 : format.hashCode());
+            result = 31 * result + (parametersId == null ? 0 : parametersId.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return Arrays.equals(xyz, other.xyz) && layerName.equals(other.layerName)
+                    && equal(gridSetId, other.gridSetId) && equal(format, other.format)
+                    && equal(parametersId, other.parametersId);
+        }
+
+        private static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+    static final class CachedTile {
+        final byte[] contents;
+
+        final long created;
+
+        CachedTile(byte[] contents, long created) {
+            this.contents = contents;
+            this.created = created;
+        }
+    }
+
+    private final BlobStore delegate;
+
+    private final long maxSize;
+
+    private final long maxProtectedSize;
+
+    /**
+     * Tiles read once, in LRU order, guarded by {@code this}
+     */
+    private final LinkedHashMap<TileKey, CachedTile> probation = new LinkedHashMap<TileKey, CachedTile>();
+
+    /**
+     * Tiles read more than once, in LRU order, guarded by {@code this}
+     */
+    private final LinkedHashMap<TileKey, CachedTile> protectedTiles = new LinkedHashMap<TileKey, CachedTile>(
+            16, 0.75f, true);
+
+    private long probationSize;
+
+    private long protectedSize;
+
+    /**
+     * Incremented on each eviction due to a change, used to avoid caching tiles read from the
+     * delegate while they were being modified
+     */
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public MemoryTierBlobStore(BlobStore delegate) {
+        this(delegate, getConfiguredSize());
+    }
+
+    public MemoryTierBlobStore(BlobStore delegate, long maxSize) {
+        this.delegate = delegate;
+        this.maxSize = Math.max(0, maxSize);
+        this.maxProtectedSize = (long) (this.maxSize * PROTECTED_RATIO);
+    }
+
+    /**
+     * Whether the memory tier is active, or all calls are just forwarded to the delegate
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public boolean get(TileObject tile) throws StorageException {
+        if (!isEnabled()) {
+            return delegate.get(tile);
+        }
+        final TileKey key = new TileKey(tile);
+        final long startGeneration;
+        synchronized (this) {
+            CachedTile cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                tile.setBlob(new ByteArrayResource(cached.contents));
+                tile.setBlobSize(cached.contents.length);
+                tile.setCreated(cached.created);
+                return true;
+            }
+            startGeneration = generation;
+        }
+        misses.incrementAndGet();
+        if (!delegate.get(tile)) {
+            return false;
+        }
+
+        Resource blob = tile.getBlob();
+        if (blob == null || blob.getSize() > maxSize / MAX_TILE_RATIO) {
+            return true;
+        }
+        byte[] contents;
+        try {
+            contents = toByteArray(blob);
+        } catch (IOException e) {
+            throw new StorageException("Failed to read tile contents: " + e.getMessage());
+        }
+        // the contents have been consumed, hand out a copy that can be read again
+        tile.setBlob(new ByteArrayResource(contents));
+        synchronized (this) {
+            if (generation == startGeneration) {
+                admit(key, new CachedTile(contents, tile.getCreated()));
+            }
+        }
+        return true;
+    }
+
+    private static byte[] toByteArray(Resource blob) throws IOException {
+        if (blob instanceof ByteArrayResource) {
+            return ((ByteArrayResource) blob).getContents();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(0, blob.getSize()));
+        InputStream in = blob.getInputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Looks up a tile, promoting it to the protected segment if found in the probation one
+     */
+    private CachedTile lookup(TileKey key) {
+        CachedTile cached = protectedTiles.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        cached = probation.remove(key);
+        if (cached != null) {
+            probationSize -= cached.contents.length;
+            protectedTiles.put(key, cached);
+            protectedSize += cached.contents.length;
+            // demote the least recently used protected tiles back to probation
+            Iterator<Map.Entry<TileKey, CachedTile>> it = protectedTiles.entrySet().iterator();
+            while (protectedSize > maxProtectedSize && it.hasNext()) {
+                Map.Entry<TileKey, CachedTile> eldest = it.next();
+                it.remove();
+                protectedSize -= eldest.getValue().contents.length;
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationSize += eldest.getValue().contents.length;
+            }
+            evictOverflow();
+        }
+        return cached;
+    }
+
+    private void admit(TileKey key, CachedTile tile) {
+        if (protectedTiles.containsKey(key) || probation.containsKey(key)) {
+            // concurrently loaded by another thread
+            return;
+        }
+        probation.put(key, tile);
+        probationSize += tile.contents.length;
+        evictOverflow();
+    }
+
+    private void evictOverflow() {
+        Iterator<CachedTile> it = probation.values().iterator();
+        while (probationSize + protectedSize > maxSize && it.hasNext()) {
+            probationSize -= it.next().contents.length;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+        it = protectedTiles.values().iterator();
+        while (probationSize + protectedSize > maxSize && it.hasNext()) {
+            protectedSize -= it.next().contents.length;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private synchronized void evict(TileKey key) {
+        generation++;
+        CachedTile removed = probation.remove(key);
+        if (removed != null) {
+            probationSize -= removed.contents.length;
+        }
+        removed = protectedTiles.remove(key);
+        if (removed != null) {
+            protectedSize -= removed.contents.length;
+        }
+    }
+
+    private synchronized void evict(String layerName, String gridSetId, TileRange range) {
+        if (!isEnabled()) {
+            return;
+        }
+        generation++;
+        for (Iterator<Map.Entry<TileKey, CachedTile>> it = probation.entrySet().iterator(); it
+                .hasNext();) {
+            Map.Entry<TileKey, CachedTile> entry = it.next();
+            if (matches(entry.getKey(), layerName, gridSetId, range)) {
+                probationSize -= entry.getValue().contents.length;
+                it.remove();
+            }
+        }
+        for (Iterator<Map.Entry<TileKey, CachedTile>> it = protectedTiles.entrySet().iterator(); it
+                .hasNext();) {
+            Map.Entry<TileKey, CachedTile> entry = it.next();
+            if (matches(entry.getKey(), layerName, gridSetId, range)) {
+                protectedSize -= entry.getValue().contents.length;
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean matches(TileKey key, String layerName, String gridSetId,
+            TileRange range) {
+        if (range != null) {
+            return key.isIn(range);
+        }
+        return (layerName == null || layerName.equals(key.layerName))
+                && (gridSetId == null || gridSetId.equals(key.gridSetId));
+    }
+
+    /*
+     * The modifying methods evict both before and after calling the delegate, so that a tile read
+     * from the delegate while it's being modified does not survive in memory
+     */
+
+    public void put(TileObject tile) throws StorageException {
+        if (!isEnabled()) {
+            delegate.put(tile);
+            return;
+        }
+        TileKey key = new TileKey(tile);
+        evict(key);
+        try {
+            delegate.put(tile);
+        } finally {
+            evict(key);
+        }
+    }
+
+    public boolean delete(TileObject tile) throws StorageException {
+        if (!isEnabled()) {
+            return delegate.delete(tile);
+        }
+        TileKey key = new TileKey(tile);
+        evict(key);
+        try {
+            return delegate.delete(tile);
+        } finally {
+            evict(key);
+        }
+    }
+
+    public boolean delete(TileRange range) throws StorageException {
+        evict(null, null, range);
+        try {
+            return delegate.delete(range);
+        } finally {
+            evict(null, null, range);
+        }
+    }
+
+    public boolean delete(String layerName) throws StorageException {
+        evict(layerName, null, null);
+        try {
+            return delegate.delete(layerName);
+        } finally {
+            evict(layerName, null, null);
+        }
+    }
+
+    public boolean deleteByGridsetId(String layerName, String gridSetId) throws StorageException {
+        evict(layerName, gridSetId, null);
+        try {
+            return delegate.deleteByGridsetId(layerName, gridSetId);
+        } finally {
+            evict(layerName, gridSetId, null);
+        }
+    }
+
+    public boolean rename(String oldLayerName, String newLayerName) throws StorageException {
+        evict(oldLayerName, null, null);
+        evict(newLayerName, null, null);
+        try {
+            return delegate.rename(oldLayerName, newLayerName);
+        } finally {
+            evict(oldLayerName, null, null);
+            evict(newLayerName, null, null);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void clear() throws StorageException {
+        clearMemoryTier();
+        delegate.clear();
+    }
+
+    /**
+     * Drops all the tiles held in memory, leaving the delegate untouched
+     */
+    public synchronized void clearMemoryTier() {
+        generation++;
+        probation.clear();
+        protectedTiles.clear();
+        probationSize = 0;
+        protectedSize = 0;
+    }
+
+    /**
+     * Releases the memory tier, the delegate is expected to be destroyed by its own owner
+     */
+    public void destroy() {
+        clearMemoryTier();
+    }
+
+    public void addListener(BlobStoreListener listener) {
+        delegate.addListener(listener);
+    }
+
+    public boolean removeListener(BlobStoreListener listener) {
+        return delegate.removeListener(listener);
+    }
+
+    public String getLayerMetadata(String layerName, String key) {
+        return delegate.getLayerMetadata(layerName, key);
+    }
+
+    public void putLayerMetadata(String layerName, String key, String value) {
+        delegate.putLayerMetadata(layerName, key, value);
+    }
+
+    /**
+     * The maximum amount of memory used by the cached tiles, in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * The amount of memory currently used by the cached tiles, in bytes
+     */
+    public synchronized long getSize() {
+        return probationSize + protectedSize;
+    }
+
+    /**
+     * Number of tiles held in memory
+     */
+    public synchronized int getTileCount() {
+        return probation.size() + protectedTiles.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Share of the tile reads served from memory, between 0 and 1
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,327 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Collects the dirty regions of the tile layers touched by transactions and truncates them
+ * asynchronously, after a short coalescing window.
+ * <p>
+ * Regions of the same layer queued during the window get merged: overlapping regions are unioned,
+ * and when a layer collects more than {@link #getMaxRegionsPerLayer()} disjoint regions the two
+ * whose union grows the least get merged, so that many small edits result in a few truncate tasks
+ * and the queue memory stays bounded. Truncation happens on a single background thread, with at
+ * most one flush scheduled at any time.
+ * </p>
+ * <p>
+ * The window length, in milliseconds, is controlled by the {@link #TRUNCATE_WINDOW} property, a
+ * value of zero makes the queue truncate synchronously on the calling thread.
+ * </p>
+ */
+public class TruncationQueue implements DisposableBean {
+
+    private static final Logger LOGGER = Logging.getLogger(TruncationQueue.class);
+
+    /**
+     * Name of the property controlling the coalescing window, in milliseconds
+     */
+    public static final String TRUNCATE_WINDOW = "GWC_TRUNCATE_WINDOW";
+
+    /**
+     * Default coalescing window, in milliseconds
+     */
+    public static final long DEFAULT_WINDOW = 1000;
+
+    /**
+     * Default maximum number of disjoint regions kept for a single layer
+     */
+    public static final int DEFAULT_MAX_REGIONS = 16;
+
+    static long getConfiguredWindow() {
+        String value = GeoServerExtensions.getProperty(TRUNCATE_WINDOW);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + TRUNCATE_WINDOW + ": " + value
+                        + ", using the default window");
+            }
+        }
+        return DEFAULT_WINDOW;
+    }
+
+    private final GWC gwc;
+
+    private final long window;
+
+    private final int maxRegionsPerLayer;
+
+    /**
+     * Pending regions by tile layer name, guarded by {@code this}
+     */
+    private Map<String, List<ReferencedEnvelope>> pending = new LinkedHashMap<String, List<ReferencedEnvelope>>();
+
+    private int pendingRegions;
+
+    private boolean flushScheduled;
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong queuedRegions = new AtomicLong();
+
+    private final AtomicLong coalescedRegions = new AtomicLong();
+
+    private final AtomicLong truncatedRegions = new AtomicLong();
+
+    private final AtomicLong truncatedTiles = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    public TruncationQueue(final GWC gwc) {
+        this(gwc, getConfiguredWindow(), DEFAULT_MAX_REGIONS);
+    }
+
+    public TruncationQueue(final GWC gwc, final long window, final int maxRegionsPerLayer) {
+        if (maxRegionsPerLayer < 1) {
+            throw new IllegalArgumentException("maxRegionsPerLayer must be positive");
+        }
+        this.gwc = gwc;
+        this.window = window;
+        this.maxRegionsPerLayer = maxRegionsPerLayer;
+        if (window > 0) {
+            this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWC truncation queue " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * The coalescing window in milliseconds, zero if truncation is synchronous
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    public int getMaxRegionsPerLayer() {
+        return maxRegionsPerLayer;
+    }
+
+    /**
+     * Queues a dirty region for the given tile layer
+     *
+     * @param tileLayerName the tile layer to truncate
+     * @param dirtyRegion the region to truncate, in the layer declared CRS
+     */
+    public void add(final String tileLayerName, final ReferencedEnvelope dirtyRegion) {
+        queuedRegions.incrementAndGet();
+        if (executor == null) {
+            truncate(tileLayerName, dirtyRegion);
+            return;
+        }
+        synchronized (this) {
+            List<ReferencedEnvelope> regions = pending.get(tileLayerName);
+            if (regions == null) {
+                regions = new ArrayList<ReferencedEnvelope>(2);
+                pending.put(tileLayerName, regions);
+            }
+            final int before = regions.size();
+            merge(regions, dirtyRegion, maxRegionsPerLayer);
+            pendingRegions += regions.size() - before;
+            // the new region, or as many existing ones, got merged away
+            coalescedRegions.addAndGet(before + 1 - regions.size());
+
+            if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                }, window, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Truncates all the pending regions on the calling thread
+     */
+    public void flush() {
+        final Map<String, List<ReferencedEnvelope>> regions;
+        synchronized (this) {
+            regions = pending;
+            pending = new LinkedHashMap<String, List<ReferencedEnvelope>>();
+            pendingRegions = 0;
+            flushScheduled = false;
+        }
+        for (Map.Entry<String, List<ReferencedEnvelope>> entry : regions.entrySet()) {
+            for (ReferencedEnvelope region : entry.getValue()) {
+                truncate(entry.getKey(), region);
+            }
+        }
+    }
+
+    private void truncate(final String tileLayerName, final ReferencedEnvelope region) {
+        try {
+            truncatedTiles.addAndGet(gwc.truncate(tileLayerName, region));
+            truncatedRegions.incrementAndGet();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Error truncating tile layer " + tileLayerName
+                    + " for transaction affected bounds " + region, e);
+        }
+    }
+
+    /**
+     * Adds a region to the list, unioning it with the ones it overlaps, and then merges the
+     * cheapest pairs until there are at most {@code maxRegions} regions left
+     */
+    static void merge(final List<ReferencedEnvelope> regions, final ReferencedEnvelope region,
+            final int maxRegions) {
+        ReferencedEnvelope merged = new ReferencedEnvelope(region);
+        if (!regions.isEmpty()) {
+            merged = toCrs(merged, regions.get(0));
+        }
+        // unioning might make the region overlap others, loop until stable
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<ReferencedEnvelope> it = regions.iterator(); it.hasNext();) {
+                ReferencedEnvelope existing = it.next();
+                if (existing.intersects((Envelope) merged)) {
+                    merged.expandToInclude(existing);
+                    it.remove();
+                    changed = true;
+                }
+            }
+        }
+        regions.add(merged);
+
+        while (regions.size() > maxRegions) {
+            int bestI = 0, bestJ = 1;
+            double bestGrowth = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < regions.size(); i++) {
+                ReferencedEnvelope a = regions.get(i);
+                for (int j = i + 1; j < regions.size(); j++) {
+                    ReferencedEnvelope b = regions.get(j);
+                    ReferencedEnvelope union = new ReferencedEnvelope(a);
+                    union.expandToInclude(b);
+                    double growth = area(union) - area(a) - area(b);
+                    if (growth < bestGrowth) {
+                        bestGrowth = growth;
+                        bestI = i;
+                        bestJ = j;
+                    }
+                }
+            }
+            ReferencedEnvelope b = regions.remove(bestJ);
+            ReferencedEnvelope a = regions.remove(bestI);
+            ReferencedEnvelope union = new ReferencedEnvelope(a);
+            union.expandToInclude(b);
+            // the union might now overlap other regions
+            merge(regions, union, maxRegions);
+        }
+    }
+
+    private static double area(ReferencedEnvelope envelope) {
+        return envelope.getWidth() * envelope.getHeight();
+    }
+
+    /**
+     * Makes sure the region is expressed in the same CRS as the reference (the layer declared CRS
+     * might have changed while regions were queued)
+     */
+    private static ReferencedEnvelope toCrs(ReferencedEnvelope region, ReferencedEnvelope reference) {
+        if (region.getCoordinateReferenceSystem() == null
+                || reference.getCoordinateReferenceSystem() == null
+                || CRS.equalsIgnoreMetadata(region.getCoordinateReferenceSystem(),
+                        reference.getCoordinateReferenceSystem())) {
+            return region;
+        }
+        try {
+            return region.transform(reference.getCoordinateReferenceSystem(), true, 1000);
+        } catch (Exception e) {
+            throw new RuntimeException("Can't reproject dirty region " + region, e);
+        }
+    }
+
+    /**
+     * Number of regions waiting to be truncated
+     */
+    public synchronized int getPendingRegions() {
+        return pendingRegions;
+    }
+
+    /**
+     * Number of regions queued since startup, before merging
+     */
+    public long getQueuedRegions() {
+        return queuedRegions.get();
+    }
+
+    /**
+     * Number of queued regions merged into others since startup
+     */
+    public long getCoalescedRegions() {
+        return coalescedRegions.get();
+    }
+
+    /**
+     * Number of regions truncated since startup, after merging
+     */
+    public long getTruncatedRegions() {
+        return truncatedRegions.get();
+    }
+
+    /**
+     * Number of tiles (per style, format and parameters combination) covered by the truncated
+     * regions since startup
+     */
+    public long getTruncatedTiles() {
+        return truncatedTiles.get();
+    }
+
+    /**
+     * Number of truncations that failed since startup
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            // whatever is still pending gets truncated right away
+            flush();
+        }
+    }
+}
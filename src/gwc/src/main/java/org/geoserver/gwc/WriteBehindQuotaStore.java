@@ -0,0 +1,396 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TileSetVisitor;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * A {@link QuotaStore} aggregating the quota, tile count and page hit updates in memory, and
+ * writing them to the delegate store periodically.
+ * <p>
+ * Updates only touch atomic counters, concurrent updates do not block each other. Every
+ * {@link #getFlushInterval() flush interval} the accumulated deltas are swapped out and written to
+ * the delegate in a single batch per tile set. The methods reading quota or page information go
+ * straight to the delegate, so they can miss the updates of the last flush interval. The ones
+ * changing the layers structure or truncating pages flush the pending updates first, so that
+ * no update gets written against a layer or page that is gone. In case of a crash only the
+ * updates of the last flush interval are lost.
+ * </p>
+ * <p>
+ * Since the page statistics are not updated right away
+ * {@link #addHitsAndSetAccesTime(Collection)} returns an empty list.
+ * </p>
+ * <p>
+ * This mode is enabled by setting the {@link #WRITE_BEHIND_INTERVAL} property to the flush
+ * interval, in seconds.
+ * </p>
+ */
+public class WriteBehindQuotaStore implements QuotaStore {
+
+    static final Logger LOGGER = Logging.getLogger(WriteBehindQuotaStore.class);
+
+    /**
+     * Name of the property setting the flush interval in seconds, write behind is disabled if not
+     * set or not positive
+     */
+    public static final String WRITE_BEHIND_INTERVAL = "GWC_QUOTA_WRITE_BEHIND";
+
+    /**
+     * Returns the configured flush interval in seconds, zero if write behind is disabled
+     */
+    public static int getConfiguredInterval() {
+        String value = GeoServerExtensions.getProperty(WRITE_BEHIND_INTERVAL);
+        if (value != null) {
+            try {
+                return Math.max(0, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + WRITE_BEHIND_INTERVAL + ": " + value
+                        + ", quota write behind is disabled");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Pending quota and tile count changes for a tile set
+     */
+    static final class TileSetDelta {
+        final TileSet tileSet;
+
+        final AtomicLong bytes = new AtomicLong();
+
+        final ConcurrentMap<TilePage, AtomicInteger> tileCounts = new ConcurrentHashMap<TilePage, AtomicInteger>();
+
+        TileSetDelta(TileSet tileSet) {
+            this.tileSet = tileSet;
+        }
+    }
+
+    /**
+     * Pending hits and last access time for a page
+     */
+    static final class PageHits {
+        final AtomicInteger hits = new AtomicInteger();
+
+        final AtomicLong lastAccess = new AtomicLong();
+
+        void update(int hits, long accessTime) {
+            this.hits.addAndGet(hits);
+            long current;
+            while ((current = lastAccess.get()) < accessTime) {
+                if (lastAccess.compareAndSet(current, accessTime)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The updates collected during a flush interval
+     */
+    static final class Pending {
+        final ConcurrentMap<String, TileSetDelta> tileSets = new ConcurrentHashMap<String, TileSetDelta>();
+
+        final ConcurrentMap<TilePage, PageHits> hits = new ConcurrentHashMap<TilePage, PageHits>();
+
+        /**
+         * The number of updaters currently writing in this buffer
+         */
+        final AtomicInteger writers = new AtomicInteger();
+
+        /**
+         * Set once the buffer has been swapped out, updaters seeing it move to the new one
+         */
+        volatile boolean retired;
+
+        boolean isEmpty() {
+            return tileSets.isEmpty() && hits.isEmpty();
+        }
+    }
+
+    private final QuotaStore delegate;
+
+    private final int flushInterval;
+
+    private final AtomicReference<Pending> pending = new AtomicReference<Pending>(new Pending());
+
+    private final ScheduledExecutorService executor;
+
+    public WriteBehindQuotaStore(QuotaStore delegate, int flushInterval) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("The flush interval must be positive");
+        }
+        this.delegate = delegate;
+        this.flushInterval = flushInterval;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GWC quota write behind");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Failed to write the disk quota updates", e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.SECONDS);
+    }
+
+    public QuotaStore getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * The flush interval, in seconds
+     */
+    public int getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Writes all the pending updates to the delegate store
+     */
+    public synchronized void flush() throws InterruptedException {
+        if (pending.get().isEmpty()) {
+            return;
+        }
+        final Pending flushed = pending.getAndSet(new Pending());
+        // updaters that grabbed the old buffer before the swap are only a few increments away
+        // from being done, the ones coming after see it retired and move to the new one
+        flushed.retired = true;
+        while (flushed.writers.get() > 0) {
+            Thread.yield();
+        }
+
+        for (TileSetDelta delta : flushed.tileSets.values()) {
+            List<PageStatsPayload> tileCounts = new ArrayList<PageStatsPayload>(
+                    delta.tileCounts.size());
+            for (Map.Entry<TilePage, AtomicInteger> entry : delta.tileCounts.entrySet()) {
+                int count = entry.getValue().get();
+                if (count != 0) {
+                    PageStatsPayload payload = new PageStatsPayload(entry.getKey(), delta.tileSet);
+                    payload.setNumTiles(count);
+                    tileCounts.add(payload);
+                }
+            }
+            Quota quotaDiff = new Quota(BigInteger.valueOf(delta.bytes.get()));
+            delegate.addToQuotaAndTileCounts(delta.tileSet, quotaDiff, tileCounts);
+        }
+
+        if (!flushed.hits.isEmpty()) {
+            List<PageStatsPayload> updates = new ArrayList<PageStatsPayload>(flushed.hits.size());
+            for (Map.Entry<TilePage, PageHits> entry : flushed.hits.entrySet()) {
+                PageStatsPayload payload = new PageStatsPayload(entry.getKey());
+                payload.setNumHits(entry.getValue().hits.get());
+                payload.setLastAccessTime(entry.getValue().lastAccess.get());
+                updates.add(payload);
+            }
+            try {
+                delegate.addHitsAndSetAccesTime(updates).get();
+            } catch (java.util.concurrent.ExecutionException e) {
+                LOGGER.log(Level.SEVERE, "Failed to write the page hits", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the buffer collecting the updates, to be released with {@link #release(Pending)}
+     * once done writing in it
+     */
+    private Pending acquire() {
+        while (true) {
+            Pending current = pending.get();
+            current.writers.incrementAndGet();
+            if (!current.retired) {
+                return current;
+            }
+            // swapped out in the meantime, the flush might be reading it already
+            current.writers.decrementAndGet();
+        }
+    }
+
+    private void release(Pending current) {
+        current.writers.decrementAndGet();
+    }
+
+    /**
+     * Flushes before an operation changing the layers structure or the pages
+     */
+    private void sync() throws InterruptedException {
+        flush();
+    }
+
+    private void syncQuietly() {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void addToQuotaAndTileCounts(TileSet tileSet, Quota quotaDiff,
+            Collection<PageStatsPayload> tileCountDiffs) throws InterruptedException {
+        final Pending current = acquire();
+        try {
+            TileSetDelta delta = current.tileSets.get(tileSet.getId());
+            if (delta == null) {
+                TileSetDelta newDelta = new TileSetDelta(tileSet);
+                delta = current.tileSets.putIfAbsent(tileSet.getId(), newDelta);
+                if (delta == null) {
+                    delta = newDelta;
+                }
+            }
+            if (quotaDiff != null) {
+                delta.bytes.addAndGet(quotaDiff.getBytes().longValue());
+            }
+            if (tileCountDiffs != null) {
+                for (PageStatsPayload payload : tileCountDiffs) {
+                    AtomicInteger count = delta.tileCounts.get(payload.getPage());
+                    if (count == null) {
+                        AtomicInteger newCount = new AtomicInteger();
+                        count = delta.tileCounts.putIfAbsent(payload.getPage(), newCount);
+                        if (count == null) {
+                            count = newCount;
+                        }
+                    }
+                    count.addAndGet(payload.getNumTiles());
+                }
+            }
+        } finally {
+            release(current);
+        }
+    }
+
+    public Future<List<PageStats>> addHitsAndSetAccesTime(Collection<PageStatsPayload> statsUpdates) {
+        final Pending current = acquire();
+        try {
+            for (PageStatsPayload payload : statsUpdates) {
+                PageHits hits = current.hits.get(payload.getPage());
+                if (hits == null) {
+                    PageHits newHits = new PageHits();
+                    hits = current.hits.putIfAbsent(payload.getPage(), newHits);
+                    if (hits == null) {
+                        hits = newHits;
+                    }
+                }
+                hits.update(payload.getNumHits(), payload.getLastAccessTime());
+            }
+        } finally {
+            release(current);
+        }
+        return Futures.immediateFuture(Collections.<PageStats> emptyList());
+    }
+
+    public TilePageCalculator getTilePageCalculator() {
+        return delegate.getTilePageCalculator();
+    }
+
+    public void createLayer(String layerName) throws InterruptedException {
+        delegate.createLayer(layerName);
+    }
+
+    public Quota getGloballyUsedQuota() throws InterruptedException {
+        return delegate.getGloballyUsedQuota();
+    }
+
+    public Quota getUsedQuotaByTileSetId(String tileSetId) throws InterruptedException {
+        return delegate.getUsedQuotaByTileSetId(tileSetId);
+    }
+
+    public void deleteLayer(String layerName) {
+        syncQuietly();
+        delegate.deleteLayer(layerName);
+    }
+
+    public void renameLayer(String oldLayerName, String newLayerName) throws InterruptedException {
+        sync();
+        delegate.renameLayer(oldLayerName, newLayerName);
+    }
+
+    public Quota getUsedQuotaByLayerName(String layerName) throws InterruptedException {
+        return delegate.getUsedQuotaByLayerName(layerName);
+    }
+
+    public long[][] getTilesForPage(TilePage page) throws InterruptedException {
+        return delegate.getTilesForPage(page);
+    }
+
+    public Set<TileSet> getTileSets() {
+        return delegate.getTileSets();
+    }
+
+    public TileSet getTileSetById(String tileSetId) throws InterruptedException {
+        return delegate.getTileSetById(tileSetId);
+    }
+
+    public void accept(TileSetVisitor visitor) {
+        delegate.accept(visitor);
+    }
+
+    public TilePage getLeastFrequentlyUsedPage(Set<String> layerNames) throws InterruptedException {
+        return delegate.getLeastFrequentlyUsedPage(layerNames);
+    }
+
+    public TilePage getLeastRecentlyUsedPage(Set<String> layerNames) throws InterruptedException {
+        return delegate.getLeastRecentlyUsedPage(layerNames);
+    }
+
+    public PageStats setTruncated(TilePage tilePage) throws InterruptedException {
+        sync();
+        return delegate.setTruncated(tilePage);
+    }
+
+    public void deleteGridSubset(String layerName, String gridSetId) {
+        syncQuietly();
+        delegate.deleteGridSubset(layerName, gridSetId);
+    }
+
+    public void close() throws Exception {
+        executor.shutdownNow();
+        try {
+            flush();
+        } finally {
+            delegate.close();
+        }
+    }
+
+}
@@ -405,8 +405,12 @@ public class CatalogConfiguration implements Configuration {
             this.layerCache.invalidateAll();
             this.tileLayerCatalog.initialize();
 
-            // startup sanity check
-            for (String layerId : tileLayerCatalog.getLayerIds()) {
+            // startup sanity check, skipped in lazy mode as it would load all the layers
+            final boolean lazy = tileLayerCatalog instanceof DefaultTileLayerCatalog
+                    && ((DefaultTileLayerCatalog) tileLayerCatalog).isLazy();
+            final Set<String> checkedIds = lazy ? Collections.<String> emptySet()
+                    : tileLayerCatalog.getLayerIds();
+            for (String layerId : checkedIds) {
                 final String layerName = tileLayerCatalog.getLayerName(layerId);
                 try {
                     getTileLayerById(layerId);
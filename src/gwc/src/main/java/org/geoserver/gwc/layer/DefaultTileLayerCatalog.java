@@ -17,11 +17,27 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.config.XMLConfiguration;
@@ -31,24 +47,47 @@ import org.geowebcache.storage.blobstore.file.FilePathUtils;
 import org.geowebcache.util.FileUtils;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 import com.thoughtworks.xstream.XStream;
 
+/**
+ * Stores the GeoServer tile layers as one XML file per layer in the {@code gwc-layers} directory.
+ * <p>
+ * Only a concurrent id/name index is kept in memory, the layers are loaded from their files on
+ * each access. The files are read in parallel on initialization (see {@link #LOADING_THREADS}).
+ * In lazy mode (see {@link #LAZY_LOADING}) initialization only scans the id and name out of each
+ * file, the full layer configuration gets parsed the first time the layer is accessed.
+ * </p>
+ */
 public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     private static final Logger LOGGER = Logging.getLogger(DefaultTileLayerCatalog.class);
 
     private static final String LAYERINFO_DIRECTORY = "gwc-layers";
 
-    private BiMap<String, String> layersById;
+    /**
+     * Name of the property enabling the lazy loading of the tile layers
+     */
+    public static final String LAZY_LOADING = "GWC_LAYER_CATALOG_LAZY";
+
+    /**
+     * Name of the property controlling the number of threads used to load the tile layers,
+     * defaults to the number of available processors
+     */
+    public static final String LOADING_THREADS = "GWC_LAYER_CATALOG_THREADS";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
 
     /**
-     * View of layer ids by name
+     * Layer names by id, modified under the {@code this} lock only, together with
+     * {@link #layersByName}
      */
-    private BiMap<String, String> layersByName;
+    private final ConcurrentMap<String, String> layersById = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Layer ids by name
+     */
+    private final ConcurrentMap<String, String> layersByName = new ConcurrentHashMap<String, String>();
 
     private final XStream serializer;
 
@@ -56,6 +95,8 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     private final String baseDirectory;
 
+    private final boolean lazy;
+
     private volatile boolean initialized;
 
     public DefaultTileLayerCatalog(GeoServerResourceLoader resourceLoader,
@@ -66,29 +107,65 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     DefaultTileLayerCatalog(GeoServerResourceLoader resourceLoader, XStream configuredXstream)
             throws IOException {
+        this(resourceLoader, configuredXstream,
+                Boolean.valueOf(GeoServerExtensions.getProperty(LAZY_LOADING)));
+    }
+
+    DefaultTileLayerCatalog(GeoServerResourceLoader resourceLoader, XStream configuredXstream,
+            boolean lazy) throws IOException {
 
         this.resourceLoader = resourceLoader;
         this.serializer = configuredXstream;
         this.baseDirectory = LAYERINFO_DIRECTORY;
-
-        BiMap<String, String> baseBiMap = HashBiMap.create();
-        this.layersById = Maps.synchronizedBiMap(baseBiMap);
-        this.layersByName = layersById.inverse();
+        this.lazy = lazy;
         this.initialized = false;
     }
 
+    /**
+     * Whether the tile layers configuration is parsed only on first access
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
     @Override
-    public void reset() {
-        layersById.clear();
+    public synchronized void reset() {
+        clearIndex();
         this.initialized = false;
     }
 
+    private void clearIndex() {
+        layersById.clear();
+        layersByName.clear();
+    }
+
+    /**
+     * Adds a layer to the index, the caller must hold the {@code this} lock
+     */
+    private void index(final String id, final String name) {
+        final String oldName = layersById.put(id, name);
+        if (oldName != null && !oldName.equals(name)) {
+            layersByName.remove(oldName);
+        }
+        layersByName.put(name, id);
+    }
+
+    /**
+     * Removes a layer from the index, the caller must hold the {@code this} lock
+     */
+    private void unindex(final String id) {
+        final String name = layersById.remove(id);
+        if (name != null) {
+            layersByName.remove(name);
+        }
+    }
+
     @Override
-    public void initialize() {
+    public synchronized void initialize() {
 
-        layersById.clear();
+        clearIndex();
 
-        File baseDir;
+        final File baseDir;
         try {
             baseDir = resourceLoader.findOrCreateDirectory(baseDirectory);
         } catch (IOException e) {
@@ -104,27 +181,123 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
             }
         });
 
-        LOGGER.info("Loading tile layers from " + baseDir.getAbsolutePath());
-        for (String fileName : tileLayerFiles) {
-            GeoServerTileLayerInfoImpl info;
-            try {
-                File file = new File(baseDir, fileName);
-                info = depersist(file);
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "Error depersisting tile layer information from file "
-                        + fileName, e);
-                continue;
+        LOGGER.info("Loading tile layers from " + baseDir.getAbsolutePath()
+                + (lazy ? " (lazy mode)" : ""));
+
+        final int threads = Math.max(1, Math.min(getLoadingThreads(), tileLayerFiles.length));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "GWC tile layer loader "
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            List<Future<String[]>> results = new ArrayList<Future<String[]>>(
+                    tileLayerFiles.length);
+            for (final String fileName : tileLayerFiles) {
+                results.add(executor.submit(new Callable<String[]>() {
+                    @Override
+                    public String[] call() throws Exception {
+                        File file = new File(baseDir, fileName);
+                        if (lazy) {
+                            return readIdAndName(file);
+                        }
+                        GeoServerTileLayerInfoImpl info = depersist(file);
+                        return new String[] { info.getId(), info.getName() };
+                    }
+                }));
             }
 
-            layersById.put(info.getId(), info.getName());
+            for (int i = 0; i < tileLayerFiles.length; i++) {
+                String[] idAndName;
+                try {
+                    idAndName = results.get(i).get();
+                } catch (Exception e) {
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    LOGGER.log(Level.SEVERE, "Error depersisting tile layer information from file "
+                            + tileLayerFiles[i], cause);
+                    continue;
+                }
+                final String id = idAndName[0];
+                final String name = idAndName[1];
+                if (layersByName.containsKey(name)) {
+                    LOGGER.severe("Ignoring tile layer file " + tileLayerFiles[i]
+                            + ", a tile layer named '" + name + "' has already been loaded");
+                    continue;
+                }
+                index(id, name);
 
-            if (LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("Loaded tile layer '" + info.getName() + "'");
+                if (LOGGER.isLoggable(Level.FINER)) {
+                    LOGGER.finer("Loaded tile layer '" + name + "'");
+                }
             }
+        } finally {
+            executor.shutdownNow();
         }
         this.initialized = true;
     }
 
+    static int getLoadingThreads() {
+        String value = GeoServerExtensions.getProperty(LOADING_THREADS);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + LOADING_THREADS + ": " + value
+                        + ", using the number of available processors");
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Scans the tile layer id and name out of the file, without parsing the rest of the
+     * configuration
+     */
+    private String[] readIdAndName(final File file) throws IOException {
+        String id = null;
+        String name = null;
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            XMLStreamReader xml = XML_INPUT_FACTORY.createXMLStreamReader(reader);
+            try {
+                // the root element is at depth 1, the layer properties at depth 2
+                int depth = 0;
+                while (xml.hasNext() && (id == null || name == null)) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == 2 && "id".equals(xml.getLocalName())) {
+                            id = xml.getElementText().trim();
+                            depth--;
+                        } else if (depth == 2 && "name".equals(xml.getLocalName())) {
+                            name = xml.getElementText().trim();
+                            depth--;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing " + file.getAbsolutePath(), e);
+        } finally {
+            reader.close();
+        }
+        if (id == null || name == null) {
+            throw new IOException("Tile layer id or name not found in " + file.getAbsolutePath());
+        }
+        return new String[] { id, name };
+    }
+
     @Override
     public GeoServerTileLayerInfo getLayerById(final String id) {
         checkInitialized();
@@ -143,9 +316,13 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
         return null;
     }
 
-    private synchronized void checkInitialized() {
+    private void checkInitialized() {
         if (!initialized) {
-            initialize();
+            synchronized (this) {
+                if (!initialized) {
+                    initialize();
+                }
+            }
         }
     }
 
@@ -178,13 +355,13 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
     }
 
     @Override
-    public GeoServerTileLayerInfo delete(final String tileLayerId) {
+    public synchronized GeoServerTileLayerInfo delete(final String tileLayerId) {
         checkInitialized();
         try {
             GeoServerTileLayerInfo info = getLayerById(tileLayerId);
             if (info != null) {
                 File file = getFile(tileLayerId, false);
-                layersById.remove(tileLayerId);
+                unindex(tileLayerId);
                 file.delete();
             }
             return info;
@@ -195,7 +372,7 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
     }
 
     @Override
-    public GeoServerTileLayerInfo save(final GeoServerTileLayerInfo newValue) {
+    public synchronized GeoServerTileLayerInfo save(final GeoServerTileLayerInfo newValue) {
         checkInitialized();
         GeoServerTileLayerInfoImpl oldValue = null;
 
@@ -211,18 +388,19 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
                 throw propagate(other);
             }
 
+            final String duplicateNameId = layersByName.get(newValue.getName());
             if (oldValue == null) {
-                final String duplicateNameId = layersByName.get(newValue.getName());
                 if (null != duplicateNameId) {
                     throw new IllegalArgumentException("TileLayer with same name already exists: "
                             + newValue.getName() + ": <" + duplicateNameId + ">");
                 }
-            } else {
-                layersByName.remove(oldValue.getName());
+            } else if (null != duplicateNameId && !tileLayerId.equals(duplicateNameId)) {
+                throw new IllegalArgumentException("TileLayer with same name already exists: "
+                        + newValue.getName() + ": <" + duplicateNameId + ">");
             }
 
             persist(newValue);
-            layersById.put(newValue.getId(), newValue.getName());
+            index(newValue.getId(), newValue.getName());
 
         } catch (Exception e) {
             if (e instanceof ExecutionException) {
@@ -32,16 +32,20 @@ import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.gwc.FakeHttpServletResponse;
 import org.geoserver.gwc.GWC;
 import org.geoserver.gwc.config.GWCConfig;
+import org.geoserver.ows.util.KvpMap;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
+import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.config.ConfigurationException;
@@ -100,6 +104,13 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
     private static LayerListenerList listeners = new LayerListenerList();
 
     private final GridSetBroker gridSetBroker;
+
+    /**
+     * The tile prefetcher, looked up on the first tile request
+     */
+    private volatile TilePrefetcher prefetcher;
+
+    private volatile boolean prefetcherResolved;
     
     public GeoServerTileLayer(final LayerGroupInfo layerGroup, final GWCConfig configDefaults,
             final GridSetBroker gridsets) {
@@ -463,13 +474,38 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             metaX = metaY = 1;
         }
 
-        returnTile = getMetatilingReponse(tile, true, metaX, metaY);
+        final TilePrefetcher prefetcher = getTilePrefetcher();
+        if (prefetcher != null) {
+            prefetcher.foregroundStarted();
+        }
+        try {
+            returnTile = getMetatilingReponse(tile, true, metaX, metaY);
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.foregroundFinished();
+            }
+        }
+        if (prefetcher != null) {
+            prefetcher.tileRequested(this, tile, metaX, metaY);
+        }
 
         sendTileRequestedEvent(returnTile);
 
         return returnTile;
     }
 
+    private TilePrefetcher getTilePrefetcher() {
+        if (!prefetcherResolved) {
+            final GWC gwc = GWC.get();
+            if (gwc == null) {
+                return null;
+            }
+            prefetcher = gwc.getTilePrefetcher();
+            prefetcherResolved = true;
+        }
+        return prefetcher;
+    }
+
     @Override
     public void addLayerListener(final TileLayerListener listener) {
         listeners.addListener(listener);
@@ -564,6 +600,18 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             throws Exception {
 
         Map<String, String> params = buildGetMap(tile, metaTile);
+        if (GWC.isDirectRenderingEnabled()) {
+            // no dispatcher round trip, the map is returned straight away
+            params.remove(GWC_SEED_INTERCEPT_TOKEN);
+            HttpServletRequest actualRequest = tile.servletReq;
+            WebMap map = GWC.get().renderMap(buildGetMapRequest(tile, metaTile, params), params,
+                    actualRequest == null ? null : actualRequest.getCookies());
+            if (!(map instanceof RenderedImageMap)) {
+                throw new IllegalStateException("Expected: RenderedImageMap, got " + map);
+            }
+            return (RenderedImageMap) map;
+        }
+
         WebMap map;
         try {
             HttpServletRequest actualRequest = tile.servletReq;
@@ -635,6 +683,101 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         return params;
     }
 
+    /**
+     * Builds the GetMap request for the meta tile straight out of the cached catalog objects and
+     * the grid subset, without parsing the KVP parameters.
+     * <p>
+     * Returns {@code null} when the tile carries parameters other than {@code STYLES}, when the
+     * requested style is not one of the layer's own, or when cascaded WMS layers are involved,
+     * leaving to {@link GWC#renderMap(GetMapRequest, Map, Cookie[])} the full KVP parsing of
+     * {@code params} in those cases.
+     * </p>
+     */
+    GetMapRequest buildGetMapRequest(final ConveyorTile tile, final MetaTile metaTile,
+            final Map<String, String> params) throws Exception {
+
+        Map<String, String> filteredParams = tile.getFullParameters();
+        if (filteredParams.isEmpty()) {
+            filteredParams = getDefaultParameterFilters();
+        }
+        String styleName = null;
+        for (Map.Entry<String, String> param : filteredParams.entrySet()) {
+            if (!"STYLES".equalsIgnoreCase(param.getKey())) {
+                return null;
+            }
+            styleName = param.getValue();
+        }
+
+        List<MapLayerInfo> layers = new ArrayList<MapLayerInfo>();
+        List<Style> styles = new ArrayList<Style>();
+        if (layerGroupInfo != null) {
+            if (styleName != null && !styleName.isEmpty()) {
+                return null;
+            }
+            List<LayerInfo> groupLayers = layerGroupInfo.layers();
+            List<StyleInfo> groupStyles = layerGroupInfo.styles();
+            for (int i = 0; i < groupLayers.size(); i++) {
+                LayerInfo layer = groupLayers.get(i);
+                StyleInfo style = i < groupStyles.size() ? groupStyles.get(i) : null;
+                if (style == null) {
+                    style = layer.getDefaultStyle();
+                }
+                if (layer.getResource() instanceof WMSLayerInfo || style == null) {
+                    return null;
+                }
+                layers.add(new MapLayerInfo(layer));
+                styles.add(style.getStyle());
+            }
+        } else {
+            StyleInfo style = findStyle(styleName);
+            if (layerInfo.getResource() instanceof WMSLayerInfo || style == null) {
+                return null;
+            }
+            layers.add(new MapLayerInfo(layerInfo));
+            styles.add(style.getStyle());
+        }
+
+        final GridSubset gridSubset = getGridSubset(tile.getGridSetId());
+        final String srs = gridSubset.getSRS().toString();
+        final BoundingBox bbox = metaTile.getMetaTileBounds();
+
+        GetMapRequest getMap = new GetMapRequest();
+        getMap.setRawKvp(new KvpMap(params));
+        getMap.setVersion("1.1.1");
+        getMap.setLayers(layers);
+        getMap.setStyles(styles);
+        getMap.setSRS(srs);
+        getMap.setCrs(CRS.decode(srs));
+        getMap.setBbox(new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox
+                .getMaxY()));
+        getMap.setWidth(metaTile.getMetaTileWidth());
+        getMap.setHeight(metaTile.getMetaTileHeight());
+        getMap.setFormat(tile.getMimeType().getFormat());
+        getMap.setExceptions(GetMapRequest.SE_XML);
+        getMap.setTransparent(true);
+        return getMap;
+    }
+
+    /**
+     * Looks up the named style among the ones of the layer, the default style if the name is
+     * empty, {@code null} if not found
+     */
+    private StyleInfo findStyle(String styleName) {
+        StyleInfo defaultStyle = layerInfo.getDefaultStyle();
+        if (styleName == null || styleName.isEmpty()) {
+            return defaultStyle;
+        }
+        if (defaultStyle != null && styleName.equals(defaultStyle.getName())) {
+            return defaultStyle;
+        }
+        for (StyleInfo style : layerInfo.getStyles()) {
+            if (styleName.equals(style.getName())) {
+                return style;
+            }
+        }
+        return null;
+    }
+
     private boolean tryCacheFetch(ConveyorTile tile) {
         int expireCache = this.getExpireCache((int) tile.getTileIndex()[2]);
         if (expireCache != GWCVars.CACHE_DISABLE_CACHE) {
@@ -708,7 +851,25 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         if (!tile.getMimeType().supportsTiling()) {
             metaX = metaY = 1;
         }
-        getMetatilingReponse(tile, tryCache, metaX, metaY);
+
+        // yield to the interactive requests if so configured
+        final GWC gwc = GWC.get();
+        final SeedThrottle throttle = gwc == null ? null : gwc.getSeedThrottle();
+        if (throttle == null) {
+            getMetatilingReponse(tile, tryCache, metaX, metaY);
+            return;
+        }
+        try {
+            throttle.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException("Interrupted while waiting for seeding to resume");
+        }
+        try {
+            getMetatilingReponse(tile, tryCache, metaX, metaY);
+        } finally {
+            throttle.release();
+        }
     }
 
     /**
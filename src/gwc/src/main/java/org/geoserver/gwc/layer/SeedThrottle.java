@@ -0,0 +1,327 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Limits the number of threads seeding concurrently depending on the interactive load.
+ * <p>
+ * The throttle tracks the OWS requests going through the dispatcher, excluding the ones issued
+ * while seeding. These include the GWC service requests under {@code /gwc/service} (WMTS, TMS,
+ * KML, WMS-C), which are routed through the dispatcher as well, see
+ * {@link org.geoserver.gwc.dispatch.GwcServiceDispatcherCallback}, but not the other requests
+ * handled by the GWC dispatcher, such as the GWC REST API and demo pages, nor the ones served by
+ * other servlets, like the GeoServer REST API. Every second it compares the average latency and the maximum number of
+ * concurrent foreground requests observed with the configured thresholds: when either of them is
+ * exceeded the number of seeding threads allowed to render is halved, down to zero (seeding
+ * paused), when both are back below half of the thresholds it is increased by one, up to the
+ * configured maximum. Seeding threads above the allowed count wait in {@link #acquire()} until
+ * the load drops.
+ * </p>
+ * <p>
+ * The throttle is disabled unless the {@link #SEED_THROTTLE} property is set to {@code true}, the
+ * thresholds can be configured with the {@link #MAX_LATENCY}, {@link #MAX_QUEUE} and
+ * {@link #MAX_THREADS} properties.
+ * </p>
+ */
+public class SeedThrottle extends AbstractDispatcherCallback implements DisposableBean {
+
+    private static final Logger LOGGER = Logging.getLogger(SeedThrottle.class);
+
+    /**
+     * Name of the property enabling the throttle
+     */
+    public static final String SEED_THROTTLE = "GWC_SEED_THROTTLE";
+
+    /**
+     * Name of the property setting the foreground latency threshold, in milliseconds
+     */
+    public static final String MAX_LATENCY = "GWC_SEED_MAX_LATENCY";
+
+    /**
+     * Name of the property setting the concurrent foreground requests threshold
+     */
+    public static final String MAX_QUEUE = "GWC_SEED_MAX_QUEUE";
+
+    /**
+     * Name of the property setting the maximum number of seeding threads rendering at the same
+     * time
+     */
+    public static final String MAX_THREADS = "GWC_SEED_MAX_THREADS";
+
+    static final long DEFAULT_MAX_LATENCY = 1000;
+
+    /**
+     * Interval between two adjustments, in milliseconds
+     */
+    static final long ADJUST_INTERVAL = 1000;
+
+    /**
+     * Throttle states, as reported in the UI and REST API
+     */
+    public static enum State {
+        RUNNING, THROTTLED, PAUSED
+    }
+
+    /**
+     * Marks the threads currently seeding, their requests are not foreground load
+     */
+    private static final ThreadLocal<Boolean> SEEDING = new ThreadLocal<Boolean>();
+
+    /**
+     * Nesting depth and start time of the foreground request being executed by the current
+     * thread, nested dispatches (e.g. a cache miss rendering a meta tile) are not counted
+     */
+    private static final ThreadLocal<long[]> FOREGROUND = new ThreadLocal<long[]>();
+
+    static int getIntProperty(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    private final boolean enabled;
+
+    private final long maxLatency;
+
+    private final int maxQueue;
+
+    private final int maxThreads;
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicInteger foregroundInFlight = new AtomicInteger();
+
+    private final AtomicInteger foregroundPeak = new AtomicInteger();
+
+    private final AtomicLong foregroundCount = new AtomicLong();
+
+    private final AtomicLong foregroundTime = new AtomicLong();
+
+    private final AtomicLong seeded = new AtomicLong();
+
+    private long lastSeeded;
+
+    private volatile double throughput;
+
+    private volatile long latency;
+
+    private int allowed;
+
+    private int active;
+
+    public SeedThrottle() {
+        this(Boolean.valueOf(GeoServerExtensions.getProperty(SEED_THROTTLE)), getIntProperty(
+                MAX_LATENCY, (int) DEFAULT_MAX_LATENCY), getIntProperty(MAX_QUEUE, Runtime
+                .getRuntime().availableProcessors()), getIntProperty(MAX_THREADS, Runtime
+                .getRuntime().availableProcessors()));
+    }
+
+    SeedThrottle(boolean enabled, long maxLatency, int maxQueue, int maxThreads) {
+        this.enabled = enabled;
+        this.maxLatency = maxLatency;
+        this.maxQueue = Math.max(1, maxQueue);
+        this.maxThreads = Math.max(1, maxThreads);
+        this.allowed = this.maxThreads;
+        if (enabled) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWC seed throttle");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        adjust();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to adjust the seeding concurrency", e);
+                    }
+                }
+            }, ADJUST_INTERVAL, ADJUST_INTERVAL, TimeUnit.MILLISECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Request init(Request request) {
+        if (enabled && SEEDING.get() == null) {
+            long[] foreground = FOREGROUND.get();
+            if (foreground == null) {
+                FOREGROUND.set(new long[] { 1, System.nanoTime() });
+                int inFlight = foregroundInFlight.incrementAndGet();
+                int peak;
+                while ((peak = foregroundPeak.get()) < inFlight) {
+                    if (foregroundPeak.compareAndSet(peak, inFlight)) {
+                        break;
+                    }
+                }
+            } else {
+                foreground[0]++;
+            }
+        }
+        return request;
+    }
+
+    @Override
+    public void finished(Request request) {
+        long[] foreground = FOREGROUND.get();
+        if (foreground == null) {
+            return;
+        }
+        if (--foreground[0] == 0) {
+            FOREGROUND.remove();
+            foregroundInFlight.decrementAndGet();
+            foregroundCount.incrementAndGet();
+            foregroundTime.addAndGet(System.nanoTime() - foreground[1]);
+        }
+    }
+
+    /**
+     * Waits until the current thread is allowed to seed, must be paired with {@link #release()}
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting, e.g. because the
+     *         seed task got killed
+     */
+    public void acquire() throws InterruptedException {
+        if (enabled) {
+            synchronized (this) {
+                while (active >= allowed) {
+                    wait(ADJUST_INTERVAL);
+                }
+                active++;
+            }
+        }
+        SEEDING.set(Boolean.TRUE);
+    }
+
+    public void release() {
+        SEEDING.remove();
+        seeded.incrementAndGet();
+        if (enabled) {
+            synchronized (this) {
+                active--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Recomputes the allowed seeding concurrency from the foreground load observed since the last
+     * call
+     */
+    void adjust() {
+        long count = foregroundCount.getAndSet(0);
+        long time = foregroundTime.getAndSet(0);
+        int peak = foregroundPeak.getAndSet(foregroundInFlight.get());
+        latency = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(time / count);
+
+        long total = seeded.get();
+        synchronized (this) {
+            throughput = (total - lastSeeded) * 1000d / ADJUST_INTERVAL;
+            lastSeeded = total;
+
+            int previous = allowed;
+            if (latency > maxLatency || peak > maxQueue) {
+                allowed = allowed / 2;
+            } else if (latency <= maxLatency / 2 && peak <= maxQueue / 2) {
+                allowed = Math.min(maxThreads, allowed + 1);
+            }
+            if (allowed != previous) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Seeding concurrency changed from " + previous + " to " + allowed
+                            + ", foreground latency " + latency + "ms, peak concurrency " + peak);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        if (allowed == 0) {
+            return State.PAUSED;
+        }
+        return allowed < maxThreads ? State.THROTTLED : State.RUNNING;
+    }
+
+    /**
+     * Number of seeding threads currently allowed to render
+     */
+    public synchronized int getAllowedThreads() {
+        return allowed;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Number of seeding threads currently rendering
+     */
+    public synchronized int getActiveThreads() {
+        return active;
+    }
+
+    /**
+     * Meta tiles seeded per second over the last adjustment interval
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Total number of meta tiles seeded since startup
+     */
+    public long getSeeded() {
+        return seeded.get();
+    }
+
+    /**
+     * Average foreground request latency over the last adjustment interval, in milliseconds
+     */
+    public long getForegroundLatency() {
+        return latency;
+    }
+
+    /**
+     * Number of foreground requests currently executing
+     */
+    public int getForegroundRequests() {
+        return foregroundInFlight.get();
+    }
+
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.OutsideCoverageException;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.StorageBroker;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Renders in the background the meta tiles a client is likely to request next.
+ * <p>
+ * The prefetcher keeps, for each client and layer, grid set, format and parameters combination,
+ * the last requested meta tile. Clients are told apart by their http session, if any, or by their
+ * address. When a client pans to an adjacent meta tile the next one in the same
+ * direction gets prefetched, when it zooms in or out the meta tile containing the center of the
+ * requested tile one level further down (or up) gets prefetched.
+ * </p>
+ * <p>
+ * Prefetching runs on a small pool of minimum priority threads with a bounded queue, requests
+ * that do not fit in the queue are dropped. It backs off, dropping the queued tasks, as long as
+ * the number of tile requests rendering in the foreground or the system load average reach the
+ * number of available processors.
+ * </p>
+ * <p>
+ * The prefetcher is disabled unless the {@link #PREFETCH_THREADS} property is set to a positive
+ * number of threads.
+ * </p>
+ */
+public class TilePrefetcher implements DisposableBean {
+
+    private static final Logger LOGGER = Logging.getLogger(TilePrefetcher.class);
+
+    /**
+     * Name of the property setting the number of prefetching threads
+     */
+    public static final String PREFETCH_THREADS = "GWC_PREFETCH_THREADS";
+
+    /**
+     * Maximum number of prefetch requests waiting for a thread
+     */
+    static final int QUEUE_SIZE = 64;
+
+    /**
+     * Maximum number of access patterns tracked, the tracking is reset when exceeded
+     */
+    static final int MAX_TRACKED = 10000;
+
+    static int getConfiguredThreads() {
+        String value = GeoServerExtensions.getProperty(PREFETCH_THREADS);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + PREFETCH_THREADS + ": " + value
+                        + ", prefetching is disabled");
+            }
+        }
+        return 0;
+    }
+
+    private final StorageBroker storageBroker;
+
+    private final ThreadPoolExecutor executor;
+
+    private final int maxForegroundLoad;
+
+    /**
+     * Last requested meta tile {column, row, zoom level}, by access pattern key
+     */
+    private final ConcurrentMap<String, long[]> lastAccess = new ConcurrentHashMap<String, long[]>();
+
+    /**
+     * Meta tiles being prefetched, to avoid queueing the same one twice
+     */
+    private final Set<String> inProgress = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicInteger foregroundRequests = new AtomicInteger();
+
+    private final AtomicLong prefetched = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    public TilePrefetcher(StorageBroker storageBroker) {
+        this(storageBroker, getConfiguredThreads(), Runtime.getRuntime().availableProcessors());
+    }
+
+    TilePrefetcher(StorageBroker storageBroker, int threads, int maxForegroundLoad) {
+        this.storageBroker = storageBroker;
+        this.maxForegroundLoad = maxForegroundLoad;
+        if (threads > 0) {
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                        final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GWC tile prefetcher "
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            t.setPriority(Thread.MIN_PRIORITY);
+                            return t;
+                        }
+                    });
+            this.executor.allowCoreThreadTimeOut(true);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * Marks the start of a foreground tile request, must be paired with
+     * {@link #foregroundFinished()}
+     */
+    public void foregroundStarted() {
+        foregroundRequests.incrementAndGet();
+    }
+
+    public void foregroundFinished() {
+        foregroundRequests.decrementAndGet();
+    }
+
+    /**
+     * Whether the foreground load is high enough for prefetching to back off
+     */
+    boolean isOverloaded() {
+        if (foregroundRequests.get() >= maxForegroundLoad) {
+            return true;
+        }
+        double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        return load >= Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Records a foreground tile request, and queues the prefetch of the meta tile most likely to
+     * be requested next, if any
+     */
+    public void tileRequested(final GeoServerTileLayer layer, final ConveyorTile tile,
+            final int metaX, final int metaY) {
+        if (executor == null) {
+            return;
+        }
+        final GridSubset gridSubset = layer.getGridSubset(tile.getGridSetId());
+        final MimeType mimeType = tile.getMimeType();
+        if (gridSubset == null || mimeType == null) {
+            return;
+        }
+        final long[] index = tile.getTileIndex();
+        final long[] meta = new long[] { index[0] / metaX, index[1] / metaY, index[2] };
+        final Map<String, String> parameters = tile.getFullParameters();
+        final String patternKey = getClientKey(tile.servletReq) + '|' + layer.getName() + '|'
+                + tile.getGridSetId() + '|' + mimeType.getFormat() + '|' + parameters;
+
+        if (lastAccess.size() > MAX_TRACKED) {
+            lastAccess.clear();
+        }
+        final long[] previous = lastAccess.put(patternKey, meta);
+        if (previous == null || isOverloaded()) {
+            return;
+        }
+
+        final long[] next = predict(gridSubset, index, meta, previous, metaX, metaY);
+        if (next == null) {
+            return;
+        }
+        try {
+            gridSubset.checkCoverage(next);
+        } catch (OutsideCoverageException e) {
+            return;
+        }
+        if (!gridSubset.shouldCacheAtZoom((int) next[2])) {
+            return;
+        }
+
+        final String metaKey = patternKey + '|' + (next[0] / metaX) + '|' + (next[1] / metaY)
+                + '|' + next[2];
+        if (!inProgress.add(metaKey)) {
+            return;
+        }
+        final Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        prefetch(layer, tile.getGridSetId(), next, mimeType, parameters, auth);
+                    } finally {
+                        inProgress.remove(metaKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inProgress.remove(metaKey);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Identifies the client issuing a tile request, so that the access patterns of different
+     * clients are not mixed up
+     */
+    static String getClientKey(HttpServletRequest request) {
+        if (request == null) {
+            return "";
+        }
+        HttpSession session = request.getSession(false);
+        if (session != null) {
+            return session.getId();
+        }
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (forwardedFor != null) {
+            // the first address is the originating client
+            return forwardedFor.split(",")[0].trim();
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Computes the index of a tile in the meta tile to prefetch, or null if the access pattern
+     * does not suggest any
+     */
+    static long[] predict(final GridSubset gridSubset, final long[] index, final long[] meta,
+            final long[] previous, final int metaX, final int metaY) {
+        final long dz = meta[2] - previous[2];
+        if (dz == 0) {
+            // panning to an adjacent meta tile, keep going in the same direction
+            long dx = meta[0] - previous[0];
+            long dy = meta[1] - previous[1];
+            if ((dx == 0 && dy == 0) || Math.abs(dx) > 1 || Math.abs(dy) > 1) {
+                return null;
+            }
+            return new long[] { (meta[0] + dx) * metaX, (meta[1] + dy) * metaY, meta[2] };
+        }
+        if (Math.abs(dz) != 1) {
+            return null;
+        }
+        // zooming, keep going in the same direction centered on the requested tile
+        final int z = (int) index[2];
+        final int nextZ = (int) (z + dz);
+        if (nextZ < gridSubset.getZoomStart() || nextZ > gridSubset.getZoomStop()) {
+            return null;
+        }
+        double ratio = gridSubset.getGridSet().getGrid(z).getResolution()
+                / gridSubset.getGridSet().getGrid(nextZ).getResolution();
+        long x = (long) Math.floor((index[0] + 0.5) * ratio);
+        long y = (long) Math.floor((index[1] + 0.5) * ratio);
+        return new long[] { x, y, nextZ };
+    }
+
+    private void prefetch(GeoServerTileLayer layer, String gridSetId, long[] index,
+            MimeType mimeType, Map<String, String> parameters, Authentication auth) {
+        if (isOverloaded()) {
+            dropped.incrementAndGet();
+            return;
+        }
+        SecurityContextHolder.getContext().setAuthentication(auth);
+        try {
+            ConveyorTile tile = new ConveyorTile(storageBroker, layer.getName(), gridSetId,
+                    index, mimeType, parameters, null, null);
+            layer.seedTile(tile, true);
+            prefetched.incrementAndGet();
+        } catch (Exception e) {
+            dropped.incrementAndGet();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Failed to prefetch tile " + index[0] + ", " + index[1]
+                        + ", " + index[2] + " of layer " + layer.getName(), e);
+            }
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    /**
+     * Number of meta tiles prefetched since startup (either rendered or found in the cache)
+     */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /**
+     * Number of prefetch requests dropped because of load, a full queue or a failure
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
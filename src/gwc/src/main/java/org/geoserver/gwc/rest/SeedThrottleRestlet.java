@@ -0,0 +1,82 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.rest;
+
+import java.util.Locale;
+
+import org.geoserver.gwc.layer.SeedThrottle;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.resource.StringRepresentation;
+
+/**
+ * Reports the state of the {@link SeedThrottle} at {@code /gwc/rest/seedthrottle[.xml|.json]}
+ */
+public class SeedThrottleRestlet extends Restlet {
+
+    private final SeedThrottle throttle;
+
+    public SeedThrottleRestlet(SeedThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void handle(Request request, Response response) {
+        if (!Method.GET.equals(request.getMethod())) {
+            response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+            return;
+        }
+        Object extension = request.getAttributes().get("extension");
+        if ("json".equals(extension)) {
+            response.setEntity(new StringRepresentation(toJSON(), MediaType.APPLICATION_JSON));
+        } else if (extension == null || "xml".equals(extension)) {
+            response.setEntity(new StringRepresentation(toXML(), MediaType.TEXT_XML));
+        } else {
+            response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Unsupported format: "
+                    + extension);
+        }
+    }
+
+    String toXML() {
+        StringBuilder sb = new StringBuilder("<seedThrottle>");
+        sb.append("<enabled>").append(throttle.isEnabled()).append("</enabled>");
+        sb.append("<state>").append(throttle.getState()).append("</state>");
+        sb.append("<allowedThreads>").append(throttle.getAllowedThreads())
+                .append("</allowedThreads>");
+        sb.append("<activeThreads>").append(throttle.getActiveThreads())
+                .append("</activeThreads>");
+        sb.append("<maxThreads>").append(throttle.getMaxThreads()).append("</maxThreads>");
+        sb.append("<throughput>").append(format(throttle.getThroughput()))
+                .append("</throughput>");
+        sb.append("<seeded>").append(throttle.getSeeded()).append("</seeded>");
+        sb.append("<foregroundLatency>").append(throttle.getForegroundLatency())
+                .append("</foregroundLatency>");
+        sb.append("<foregroundRequests>").append(throttle.getForegroundRequests())
+                .append("</foregroundRequests>");
+        return sb.append("</seedThrottle>").toString();
+    }
+
+    String toJSON() {
+        StringBuilder sb = new StringBuilder("{\"seedThrottle\":{");
+        sb.append("\"enabled\":").append(throttle.isEnabled());
+        sb.append(",\"state\":\"").append(throttle.getState()).append('"');
+        sb.append(",\"allowedThreads\":").append(throttle.getAllowedThreads());
+        sb.append(",\"activeThreads\":").append(throttle.getActiveThreads());
+        sb.append(",\"maxThreads\":").append(throttle.getMaxThreads());
+        sb.append(",\"throughput\":").append(format(throttle.getThroughput()));
+        sb.append(",\"seeded\":").append(throttle.getSeeded());
+        sb.append(",\"foregroundLatency\":").append(throttle.getForegroundLatency());
+        sb.append(",\"foregroundRequests\":").append(throttle.getForegroundRequests());
+        return sb.append("}}").toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ENGLISH, "%.2f", value);
+    }
+}
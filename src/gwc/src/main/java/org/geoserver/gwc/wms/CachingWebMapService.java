@@ -14,6 +14,7 @@ import java.nio.channels.Channels;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +58,12 @@ public class CachingWebMapService implements MethodInterceptor {
 
     private GWC gwc;
 
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong bypasses = new AtomicLong();
+
     public CachingWebMapService(GWC gwc) {
         this.gwc = gwc;
     }
@@ -83,12 +90,18 @@ public class CachingWebMapService implements MethodInterceptor {
         ConveyorTile cachedTile = gwc.dispatch(request, requestMistmatchTarget);
 
         if (cachedTile == null) {
+            bypasses.incrementAndGet();
             WebMap dynamicResult = (WebMap) invocation.proceed();
             dynamicResult.setResponseHeader("geowebcache-cache-result", MISS.toString());
             dynamicResult.setResponseHeader("geowebcache-miss-reason",
                     requestMistmatchTarget.toString());
             return dynamicResult;
         }
+        if (cachedTile.getCacheResult() == MISS) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
         checkState(cachedTile.getTileLayer() != null);
         final TileLayer layer = cachedTile.getTileLayer();
 
@@ -204,6 +217,28 @@ public class CachingWebMapService implements MethodInterceptor {
         return cacheAge;
     }
 
+    /**
+     * @return the number of tiled GetMap requests served from the tile cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of tiled GetMap requests matching a tile that was not cached yet
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of tiled GetMap requests not matching any cached tile layer, that were
+     *         rendered by the WMS
+     */
+    public long getBypasses() {
+        return bypasses.get();
+    }
+
     private GetMapRequest getRequest(MethodInvocation invocation) {
         final Method method = invocation.getMethod();
         checkArgument(method.getDeclaringClass().equals(WebMapService.class));
@@ -0,0 +1,140 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.Cookie;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.wms.WebMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+/**
+ * Checks the dispatcher callbacks see the same request lifecycle when meta tiles are rendered
+ * directly as when they go through the OWS dispatcher
+ */
+public class GWCDirectRenderingTest extends GeoServerSystemTestSupport {
+
+    /**
+     * Accesses the http request and response the way the user and ip based control-flow
+     * controllers do, and tracks the init/finished balance
+     */
+    public static class FlowCheckingCallback extends AbstractDispatcherCallback {
+
+        static final AtomicInteger INITS = new AtomicInteger();
+
+        static final AtomicInteger DISPATCHED = new AtomicInteger();
+
+        static final AtomicInteger EXECUTED = new AtomicInteger();
+
+        static final AtomicInteger RESPONDED = new AtomicInteger();
+
+        static final AtomicInteger FINISHED = new AtomicInteger();
+
+        @Override
+        public Request init(Request request) {
+            INITS.incrementAndGet();
+            assertNotNull(request.getHttpRequest());
+            return request;
+        }
+
+        @Override
+        public Operation operationDispatched(Request request, Operation operation) {
+            // user flow controller
+            Cookie[] cookies = request.getHttpRequest().getCookies();
+            if (cookies == null) {
+                request.getHttpResponse().addCookie(new Cookie("GS_FLOW_CONTROL", "test"));
+            }
+            // ip flow controllers
+            String ip = request.getHttpRequest().getHeader("X-Forwarded-For");
+            if (ip == null) {
+                ip = request.getHttpRequest().getRemoteAddr();
+            }
+            assertNotNull(ip);
+            DISPATCHED.incrementAndGet();
+            return operation;
+        }
+
+        @Override
+        public Object operationExecuted(Request request, Operation operation, Object result) {
+            assertTrue(result instanceof WebMap);
+            EXECUTED.incrementAndGet();
+            return result;
+        }
+
+        @Override
+        public Response responseDispatched(Request request, Operation operation, Object result,
+                Response response) {
+            assertNotNull(response);
+            RESPONDED.incrementAndGet();
+            return response;
+        }
+
+        @Override
+        public void finished(Request request) {
+            FINISHED.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void setUpSpring(List<String> springContextLocations) {
+        super.setUpSpring(springContextLocations);
+        springContextLocations.add("classpath:/org/geoserver/gwc/DirectRenderingCallbackContext.xml");
+    }
+
+    @Override
+    protected void onSetUp(SystemTestData testData) throws Exception {
+        super.onSetUp(testData);
+        GWC.get().getConfig().setDirectWMSIntegrationEnabled(false);
+    }
+
+    @Before
+    public void enableDirectRendering() {
+        System.setProperty(GWC.GWC_DIRECT_RENDERING, "true");
+        FlowCheckingCallback.INITS.set(0);
+        FlowCheckingCallback.DISPATCHED.set(0);
+        FlowCheckingCallback.EXECUTED.set(0);
+        FlowCheckingCallback.RESPONDED.set(0);
+        FlowCheckingCallback.FINISHED.set(0);
+    }
+
+    @After
+    public void disableDirectRendering() {
+        System.clearProperty(GWC.GWC_DIRECT_RENDERING);
+    }
+
+    @Test
+    public void testCallbacksWithFlowControllers() throws Exception {
+        String layerId = getLayerId(MockData.BASIC_POLYGONS);
+        MockHttpServletResponse sr = getAsServletResponse("gwc/service/wmts?request=GetTile&layer="
+                + layerId
+                + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:0&tilerow=0&tilecol=1");
+        assertEquals(200, sr.getErrorCode());
+        assertEquals("image/png", sr.getContentType());
+
+        int inits = FlowCheckingCallback.INITS.get();
+        assertTrue(inits > 0);
+        assertEquals(inits, FlowCheckingCallback.DISPATCHED.get());
+        assertEquals(inits, FlowCheckingCallback.EXECUTED.get());
+        assertEquals(inits, FlowCheckingCallback.RESPONDED.get());
+        assertEquals(inits, FlowCheckingCallback.FINISHED.get());
+    }
+}
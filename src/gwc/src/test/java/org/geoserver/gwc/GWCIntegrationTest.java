@@ -113,7 +113,22 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals("image/png", sr.getContentType());
     }
     
-    @Test 
+    @Test
+    public void testDirectRendering() throws Exception {
+        System.setProperty(GWC.GWC_DIRECT_RENDERING, "true");
+        try {
+            String layerId = getLayerId(MockData.BASIC_POLYGONS);
+            MockHttpServletResponse sr = getAsServletResponse("gwc/service/wmts?request=GetTile&layer="
+                    + layerId
+                    + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:0&tilerow=0&tilecol=1");
+            assertEquals(200, sr.getErrorCode());
+            assertEquals("image/png", sr.getContentType());
+        } finally {
+            System.clearProperty(GWC.GWC_DIRECT_RENDERING);
+        }
+    }
+
+    @Test
     public void testGetLegendGraphics() throws Exception {
         String layerId = getLayerId(MockData.BASIC_POLYGONS);
         MockHttpServletResponse sr = getAsServletResponse("gwc/service/wms?service=wms&version=1.1.1&request=GetLegendGraphic&layer="
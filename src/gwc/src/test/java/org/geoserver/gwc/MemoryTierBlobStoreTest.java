@@ -0,0 +1,125 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.storage.BlobStore;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.TileRange;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class MemoryTierBlobStoreTest {
+
+    static final int TILE_SIZE = 100;
+
+    private BlobStore delegate;
+
+    private MemoryTierBlobStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = mock(BlobStore.class);
+        when(delegate.get(any(TileObject.class))).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                TileObject tile = (TileObject) invocation.getArguments()[0];
+                tile.setBlob(new ByteArrayResource(new byte[TILE_SIZE]));
+                tile.setCreated(1000);
+                return true;
+            }
+        });
+        // room for 20 tiles, 16 of them in the protected segment
+        store = new MemoryTierBlobStore(delegate, 20 * TILE_SIZE);
+    }
+
+    TileObject tile(long x, long y, int z) {
+        return TileObject.createQueryTileObject("theLayer", new long[] { x, y, z }, "EPSG:4326",
+                "image/png", null);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        store = new MemoryTierBlobStore(delegate, 0);
+        assertFalse(store.isEnabled());
+        assertTrue(store.get(tile(0, 0, 0)));
+        assertTrue(store.get(tile(0, 0, 0)));
+        verify(delegate, times(2)).get(any(TileObject.class));
+        assertEquals(0, store.getTileCount());
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        assertTrue(store.get(tile(0, 0, 0)));
+        TileObject tile = tile(0, 0, 0);
+        assertTrue(store.get(tile));
+        verify(delegate, times(1)).get(any(TileObject.class));
+
+        assertEquals(TILE_SIZE, tile.getBlob().getSize());
+        assertEquals(1000, tile.getCreated());
+        assertEquals(1, store.getHits());
+        assertEquals(1, store.getMisses());
+        assertEquals(0.5, store.getHitRatio(), 0d);
+        assertEquals(TILE_SIZE, store.getSize());
+    }
+
+    @Test
+    public void testFrequentTilesSurvive() throws Exception {
+        // read the base tile twice, it gets promoted
+        store.get(tile(0, 0, 0));
+        store.get(tile(0, 0, 0));
+        // a burst of tiles read only once
+        for (int i = 0; i < 100; i++) {
+            store.get(tile(i, i, 10));
+        }
+        assertTrue(store.getSize() <= store.getMaxSize());
+        assertTrue(store.getEvictions() > 0);
+
+        store.get(tile(0, 0, 0));
+        assertEquals(2, store.getHits());
+    }
+
+    @Test
+    public void testPutEvicts() throws Exception {
+        store.get(tile(0, 0, 0));
+        store.put(tile(0, 0, 0));
+        verify(delegate).put(any(TileObject.class));
+        assertEquals(0, store.getTileCount());
+
+        store.get(tile(0, 0, 0));
+        verify(delegate, times(2)).get(any(TileObject.class));
+    }
+
+    @Test
+    public void testTruncateEvicts() throws Exception {
+        store.get(tile(0, 0, 1));
+        store.get(tile(1, 0, 1));
+        store.get(tile(0, 0, 2));
+        assertEquals(3, store.getTileCount());
+
+        // truncate the first column of zoom level 1
+        long[][] bounds = new long[][] { { 0, 0, 0, 0, 0 }, { 0, 0, 0, 1, 1 } };
+        TileRange range = new TileRange("theLayer", "EPSG:4326", 1, 1, bounds, ImageMime.png,
+                null);
+        store.delete(range);
+        verify(delegate).delete(range);
+        assertEquals(2, store.getTileCount());
+
+        store.delete("theLayer");
+        assertEquals(0, store.getTileCount());
+        assertEquals(0, store.getSize());
+    }
+}
@@ -0,0 +1,105 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TruncationQueueTest {
+
+    private GWC mediator;
+
+    private TruncationQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        mediator = mock(GWC.class);
+        when(mediator.truncate(anyString(), any(ReferencedEnvelope.class))).thenReturn(10L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.destroy();
+        }
+    }
+
+    @Test
+    public void testSynchronous() throws Exception {
+        queue = new TruncationQueue(mediator, 0, TruncationQueue.DEFAULT_MAX_REGIONS);
+        ReferencedEnvelope bounds = new ReferencedEnvelope(0, 10, 0, 10, WGS84);
+        queue.add("theLayer", bounds);
+
+        verify(mediator, times(1)).truncate(eq("theLayer"), eq(bounds));
+        assertEquals(0, queue.getPendingRegions());
+        assertEquals(1, queue.getTruncatedRegions());
+        assertEquals(10, queue.getTruncatedTiles());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        // long window, we flush by hand
+        queue = new TruncationQueue(mediator, 60000, TruncationQueue.DEFAULT_MAX_REGIONS);
+        queue.add("theLayer", new ReferencedEnvelope(0, 10, 0, 10, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(5, 15, 5, 15, WGS84));
+        queue.add("theLayer", new ReferencedEnvelope(50, 60, 50, 60, WGS84));
+        queue.add("theGroup", new ReferencedEnvelope(0, 10, 0, 10, WGS84));
+
+        verify(mediator, never()).truncate(anyString(), any(ReferencedEnvelope.class));
+        assertEquals(3, queue.getPendingRegions());
+        assertEquals(4, queue.getQueuedRegions());
+        assertEquals(1, queue.getCoalescedRegions());
+
+        queue.flush();
+        verify(mediator).truncate(eq("theLayer"), eq(new ReferencedEnvelope(0, 15, 0, 15, WGS84)));
+        verify(mediator).truncate(eq("theLayer"), eq(new ReferencedEnvelope(50, 60, 50, 60, WGS84)));
+        verify(mediator).truncate(eq("theGroup"), eq(new ReferencedEnvelope(0, 10, 0, 10, WGS84)));
+        assertEquals(0, queue.getPendingRegions());
+        assertEquals(3, queue.getTruncatedRegions());
+        assertEquals(30, queue.getTruncatedTiles());
+    }
+
+    @Test
+    public void testAsynchronous() throws Exception {
+        queue = new TruncationQueue(mediator, 10, TruncationQueue.DEFAULT_MAX_REGIONS);
+        queue.add("theLayer", new ReferencedEnvelope(0, 10, 0, 10, WGS84));
+        for (int i = 0; i < 100 && queue.getTruncatedRegions() == 0; i++) {
+            Thread.sleep(50);
+        }
+        verify(mediator).truncate(eq("theLayer"), eq(new ReferencedEnvelope(0, 10, 0, 10, WGS84)));
+        assertEquals(0, queue.getPendingRegions());
+    }
+
+    @Test
+    public void testMergeBounded() {
+        List<ReferencedEnvelope> regions = new ArrayList<ReferencedEnvelope>();
+        TruncationQueue.merge(regions, new ReferencedEnvelope(0, 1, 0, 1, WGS84), 2);
+        TruncationQueue.merge(regions, new ReferencedEnvelope(2, 3, 0, 1, WGS84), 2);
+        assertEquals(2, regions.size());
+
+        // the far away region stays on its own, the two close ones get merged
+        TruncationQueue.merge(regions, new ReferencedEnvelope(100, 101, 0, 1, WGS84), 2);
+        assertEquals(2, regions.size());
+        assertTrue(regions.contains(new ReferencedEnvelope(0, 3, 0, 1, WGS84)));
+        assertTrue(regions.contains(new ReferencedEnvelope(100, 101, 0, 1, WGS84)));
+    }
+}
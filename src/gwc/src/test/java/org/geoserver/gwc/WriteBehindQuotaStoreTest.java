@@ -0,0 +1,190 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.Futures;
+
+public class WriteBehindQuotaStoreTest {
+
+    private QuotaStore delegate;
+
+    private WriteBehindQuotaStore store;
+
+    private TileSet tileSet;
+
+    private TilePage page;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = mock(QuotaStore.class);
+        when(delegate.addHitsAndSetAccesTime(anyCollectionOf(PageStatsPayload.class)))
+                .thenAnswer(new Answer<Object>() {
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        return Futures.immediateFuture(Collections.<PageStats> emptyList());
+                    }
+                });
+        // long interval, the tests flush explicitly
+        store = new WriteBehindQuotaStore(delegate, 3600);
+        tileSet = new TileSet("theLayer", "EPSG:4326", "image/png", null);
+        page = new TilePage(tileSet.getId(), 0, 0, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    PageStatsPayload payload(int tiles, int hits, long accessTime) {
+        PageStatsPayload payload = new PageStatsPayload(page, tileSet);
+        payload.setNumTiles(tiles);
+        payload.setNumHits(hits);
+        payload.setLastAccessTime(accessTime);
+        return payload;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAggregateQuota() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.valueOf(100)),
+                    Arrays.asList(payload(1, 0, 0)));
+        }
+        verify(delegate, never()).addToQuotaAndTileCounts(any(TileSet.class), any(Quota.class),
+                anyCollectionOf(PageStatsPayload.class));
+
+        store.flush();
+        ArgumentCaptor<Quota> quota = ArgumentCaptor.forClass(Quota.class);
+        ArgumentCaptor<Collection> counts = ArgumentCaptor.forClass(Collection.class);
+        verify(delegate).addToQuotaAndTileCounts(eq(tileSet), quota.capture(), counts.capture());
+        assertEquals(BigInteger.valueOf(1000), quota.getValue().getBytes());
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>(counts.getValue());
+        assertEquals(1, payloads.size());
+        assertEquals(10, payloads.get(0).getNumTiles());
+
+        // nothing left to write
+        store.flush();
+        verify(delegate, times(1)).addToQuotaAndTileCounts(any(TileSet.class),
+                any(Quota.class), anyCollectionOf(PageStatsPayload.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAggregateHits() throws Exception {
+        store.addHitsAndSetAccesTime(Arrays.asList(payload(0, 2, 1000)));
+        store.addHitsAndSetAccesTime(Arrays.asList(payload(0, 3, 3000)));
+        store.addHitsAndSetAccesTime(Arrays.asList(payload(0, 1, 2000)));
+        verify(delegate, never()).addHitsAndSetAccesTime(anyCollectionOf(PageStatsPayload.class));
+
+        store.flush();
+        ArgumentCaptor<Collection> updates = ArgumentCaptor.forClass(Collection.class);
+        verify(delegate).addHitsAndSetAccesTime(updates.capture());
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>(updates.getValue());
+        assertEquals(1, payloads.size());
+        assertEquals(6, payloads.get(0).getNumHits());
+        assertEquals(3000, payloads.get(0).getLastAccessTime());
+    }
+
+    @Test
+    public void testNoFlushOnRead() throws Exception {
+        store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.valueOf(100)),
+                Arrays.asList(payload(1, 0, 0)));
+        store.getUsedQuotaByLayerName("theLayer");
+        store.getLeastRecentlyUsedPage(Collections.singleton("theLayer"));
+        // reads accept the staleness of a flush interval
+        verify(delegate, never()).addToQuotaAndTileCounts(any(TileSet.class), any(Quota.class),
+                anyCollectionOf(PageStatsPayload.class));
+        verify(delegate).getUsedQuotaByLayerName("theLayer");
+    }
+
+    @Test
+    public void testFlushBeforeDelete() throws Exception {
+        store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.valueOf(100)),
+                Arrays.asList(payload(1, 0, 0)));
+        store.deleteLayer("theLayer");
+        verify(delegate).addToQuotaAndTileCounts(any(TileSet.class), any(Quota.class),
+                anyCollectionOf(PageStatsPayload.class));
+        verify(delegate).deleteLayer("theLayer");
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final int threads = 4;
+        final int updates = 1000;
+        List<Thread> updaters = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            updaters.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < updates; j++) {
+                            store.addToQuotaAndTileCounts(tileSet,
+                                    new Quota(BigInteger.valueOf(1)), null);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        for (Thread t : updaters) {
+            t.start();
+        }
+        // flush while updating, no update must get lost in the swap
+        for (Thread t : updaters) {
+            while (t.isAlive()) {
+                store.flush();
+                t.join(1);
+            }
+        }
+        store.flush();
+
+        ArgumentCaptor<Quota> quota = ArgumentCaptor.forClass(Quota.class);
+        verify(delegate, atLeastOnce()).addToQuotaAndTileCounts(eq(tileSet), quota.capture(),
+                anyCollectionOf(PageStatsPayload.class));
+        long total = 0;
+        for (Quota q : quota.getAllValues()) {
+            total += q.getBytes().longValue();
+        }
+        assertEquals(threads * updates, total);
+    }
+
+    @Test
+    public void testFlushOnClose() throws Exception {
+        store.addHitsAndSetAccesTime(Arrays.asList(payload(0, 1, 1000)));
+        store.close();
+        verify(delegate).addHitsAndSetAccesTime(anyCollectionOf(PageStatsPayload.class));
+        verify(delegate).close();
+    }
+}
@@ -29,6 +29,8 @@ public class DefaultTileLayerCatalogTest {
 
     private DefaultTileLayerCatalog catalog;
 
+    private XStream xStream;
+
     @Before
     public void setUp() throws Exception {
         baseDirectory = new File("target", "mockTileLayerCatalog");
@@ -36,7 +38,7 @@ public class DefaultTileLayerCatalogTest {
         baseDirectory.mkdirs();
         GeoServerResourceLoader resourceLoader = new GeoServerResourceLoader(baseDirectory);
 
-        XStream xStream = XMLConfiguration.getConfiguredXStreamWithContext(new XStream(), 
+        xStream = XMLConfiguration.getConfiguredXStreamWithContext(new XStream(), 
                 (WebApplicationContext) null, Context.PERSIST);
 
         catalog = new DefaultTileLayerCatalog(resourceLoader, xStream);
@@ -114,4 +116,42 @@ public class DefaultTileLayerCatalogTest {
         assertEquals(ImmutableSet.of("image/gif"), modified.getMimeFormats());
     }
 
+    @Test public void testInitialize() throws Exception {
+        saveLayers(20);
+
+        catalog.reset();
+        catalog.initialize();
+        assertLayersLoaded(20);
+    }
+
+    @Test public void testInitializeLazy() throws Exception {
+        saveLayers(20);
+
+        catalog = new DefaultTileLayerCatalog(new GeoServerResourceLoader(baseDirectory), xStream,
+                true);
+        catalog.initialize();
+        assertLayersLoaded(20);
+    }
+
+    private void saveLayers(int count) {
+        for (int i = 0; i < count; i++) {
+            GeoServerTileLayerInfo info = new GeoServerTileLayerInfoImpl();
+            info.setId("id" + i);
+            info.setName("ws:name<" + i + ">");
+            info.getMimeFormats().add("image/png");
+            catalog.save(info);
+        }
+    }
+
+    private void assertLayersLoaded(int count) {
+        assertEquals(count, catalog.getLayerIds().size());
+        assertEquals(count, catalog.getLayerNames().size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("id" + i, catalog.getLayerId("ws:name<" + i + ">"));
+            assertEquals("ws:name<" + i + ">", catalog.getLayerName("id" + i));
+            GeoServerTileLayerInfo info = catalog.getLayerByName("ws:name<" + i + ">");
+            assertEquals(ImmutableSet.of("image/png"), info.getMimeFormats());
+        }
+    }
+
 }
@@ -0,0 +1,142 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.ows.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeedThrottleTest {
+
+    private SeedThrottle throttle;
+
+    @Before
+    public void setUp() {
+        // latency threshold of 10 seconds, at most 2 concurrent foreground requests
+        throttle = new SeedThrottle(true, 10000, 2, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        throttle.destroy();
+    }
+
+    /**
+     * Starts foreground requests on separate threads, they finish when the returned latch is
+     * released
+     */
+    CountDownLatch foreground(int count) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    Request request = new Request();
+                    throttle.init(request);
+                    started.countDown();
+                    try {
+                        done.await();
+                    } catch (InterruptedException e) {
+                        // finish anyways
+                    }
+                    throttle.finished(request);
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+        started.await();
+        return done;
+    }
+
+    @Test
+    public void testBackOffAndResume() throws Exception {
+        assertEquals(SeedThrottle.State.RUNNING, throttle.getState());
+        assertEquals(4, throttle.getAllowedThreads());
+
+        CountDownLatch done = foreground(3);
+        assertEquals(3, throttle.getForegroundRequests());
+        throttle.adjust();
+        assertEquals(SeedThrottle.State.THROTTLED, throttle.getState());
+        assertEquals(2, throttle.getAllowedThreads());
+        throttle.adjust();
+        throttle.adjust();
+        assertEquals(SeedThrottle.State.PAUSED, throttle.getState());
+
+        // a seeding thread has to wait
+        final CountDownLatch seeded = new CountDownLatch(1);
+        Thread seeder = new Thread() {
+            public void run() {
+                try {
+                    throttle.acquire();
+                    throttle.release();
+                    seeded.countDown();
+                } catch (InterruptedException e) {
+                    // the latch won't be released
+                }
+            }
+        };
+        seeder.setDaemon(true);
+        seeder.start();
+        assertFalse(seeded.await(200, TimeUnit.MILLISECONDS));
+
+        // the load drops, seeding resumes and ramps up
+        done.countDown();
+        while (throttle.getForegroundRequests() > 0) {
+            Thread.sleep(10);
+        }
+        throttle.adjust();
+        throttle.adjust();
+        assertEquals(1, throttle.getAllowedThreads());
+        assertTrue(seeded.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            throttle.adjust();
+        }
+        assertEquals(SeedThrottle.State.RUNNING, throttle.getState());
+        assertEquals(4, throttle.getAllowedThreads());
+    }
+
+    @Test
+    public void testNestedRequests() throws Exception {
+        Request request = new Request();
+        throttle.init(request);
+        throttle.init(request);
+        assertEquals(1, throttle.getForegroundRequests());
+        throttle.finished(request);
+        assertEquals(1, throttle.getForegroundRequests());
+        throttle.finished(request);
+        assertEquals(0, throttle.getForegroundRequests());
+    }
+
+    @Test
+    public void testSeedingRequestsIgnored() throws Exception {
+        throttle.acquire();
+        try {
+            Request request = new Request();
+            throttle.init(request);
+            assertEquals(0, throttle.getForegroundRequests());
+            throttle.finished(request);
+        } finally {
+            throttle.release();
+        }
+        assertEquals(1, throttle.getSeeded());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        SeedThrottle disabled = new SeedThrottle(false, 10000, 2, 4);
+        assertFalse(disabled.isEnabled());
+        disabled.init(new Request());
+        assertEquals(0, disabled.getForegroundRequests());
+    }
+}
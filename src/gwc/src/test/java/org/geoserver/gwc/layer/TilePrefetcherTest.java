@@ -0,0 +1,109 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TilePrefetcherTest {
+
+    private GridSubset gridSubset;
+
+    @Before
+    public void setUp() {
+        GridSetBroker gridSetBroker = new GridSetBroker(true, true);
+        gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+    }
+
+    @Test
+    public void testPredictPan() {
+        // moved one meta tile east, the next one east is predicted
+        long[] next = TilePrefetcher.predict(gridSubset, new long[] { 17, 9, 5 }, new long[] {
+                4, 2, 5 }, new long[] { 3, 2, 5 }, 4, 4);
+        assertArrayEquals(new long[] { 20, 8, 5 }, next);
+
+        // moved south west
+        next = TilePrefetcher.predict(gridSubset, new long[] { 12, 8, 5 }, new long[] { 3, 2,
+                5 }, new long[] { 4, 3, 5 }, 4, 4);
+        assertArrayEquals(new long[] { 8, 4, 5 }, next);
+    }
+
+    @Test
+    public void testPredictNothing() {
+        // same meta tile
+        assertNull(TilePrefetcher.predict(gridSubset, new long[] { 17, 9, 5 }, new long[] { 4,
+                2, 5 }, new long[] { 4, 2, 5 }, 4, 4));
+        // jumped far away
+        assertNull(TilePrefetcher.predict(gridSubset, new long[] { 17, 9, 5 }, new long[] { 4,
+                2, 5 }, new long[] { 0, 0, 5 }, 4, 4));
+        // jumped several levels
+        assertNull(TilePrefetcher.predict(gridSubset, new long[] { 17, 9, 5 }, new long[] { 4,
+                2, 5 }, new long[] { 0, 0, 2 }, 4, 4));
+    }
+
+    @Test
+    public void testPredictZoom() {
+        // zooming in, the center of tile 3,2 ends up in 7,5 one level down
+        long[] next = TilePrefetcher.predict(gridSubset, new long[] { 3, 2, 5 }, new long[] { 0,
+                0, 5 }, new long[] { 0, 0, 4 }, 4, 4);
+        assertArrayEquals(new long[] { 7, 5, 6 }, next);
+
+        // zooming out
+        next = TilePrefetcher.predict(gridSubset, new long[] { 3, 2, 5 }, new long[] { 0, 0, 5 },
+                new long[] { 0, 0, 6 }, 4, 4);
+        assertArrayEquals(new long[] { 1, 1, 4 }, next);
+
+        // can't zoom out of the grid
+        assertNull(TilePrefetcher.predict(gridSubset, new long[] { 0, 0, 0 }, new long[] { 0, 0,
+                0 }, new long[] { 0, 0, 1 }, 4, 4));
+    }
+
+    @Test
+    public void testBackOff() throws Exception {
+        TilePrefetcher prefetcher = new TilePrefetcher(null, 1, 2);
+        try {
+            assertTrue(prefetcher.isEnabled());
+            prefetcher.foregroundStarted();
+            prefetcher.foregroundStarted();
+            assertTrue(prefetcher.isOverloaded());
+            prefetcher.foregroundFinished();
+            prefetcher.foregroundFinished();
+        } finally {
+            prefetcher.destroy();
+        }
+        assertFalse(new TilePrefetcher(null, 0, 2).isEnabled());
+    }
+
+    @Test
+    public void testClientKey() {
+        assertEquals("", TilePrefetcher.getClientKey(null));
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRemoteAddr()).thenReturn("192.168.1.2");
+        assertEquals("192.168.1.2", TilePrefetcher.getClientKey(request));
+
+        when(request.getHeader("X-Forwarded-For")).thenReturn("10.0.0.1, 192.168.1.2");
+        assertEquals("10.0.0.1", TilePrefetcher.getClientKey(request));
+
+        HttpSession session = mock(HttpSession.class);
+        when(session.getId()).thenReturn("abcd");
+        when(request.getSession(false)).thenReturn(session);
+        assertEquals("abcd", TilePrefetcher.getClientKey(request));
+    }
+}
@@ -49,6 +49,7 @@ import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.data.util.CoverageStoreUtils;
 import org.geoserver.data.util.CoverageUtils;
 import org.geoserver.feature.retype.RetypingFeatureSource;
+import org.geoserver.ows.RequestTrace;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
@@ -544,17 +545,22 @@ public class ResourcePool {
                             }
                         }
                         
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
+                        RequestTrace.Span span = RequestTrace.begin("connect", info.getName());
+                        try {
+                            dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+                            if (dataStore == null) {
+                                /*
+                                 * Preserve DataStore retyping behaviour by calling
+                                 * DataAccessFinder.getDataStore after the call to
+                                 * DataStoreUtils.getDataStore above.
+                                 * 
+                                 * TODO: DataAccessFinder can also find DataStores, and when retyping is
+                                 * supported for DataAccess, we can use a single mechanism.
+                                 */
+                                dataStore = DataAccessFinder.getDataStore(connectionParameters);
+                            }
+                        } finally {
+                            RequestTrace.end(span);
                         }
                         
                         if ( dataStore == null ) {
@@ -817,8 +823,16 @@ public class ResourcePool {
     
     FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
         boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        return cacheable ? getCacheableFeatureType(info, handleProjectionPolicy): 
-                           getNonCacheableFeatureType(info, handleProjectionPolicy);
+        if (cacheable) {
+            return getCacheableFeatureType(info, handleProjectionPolicy);
+        }
+        // not cached, the schema is read from the store every time
+        RequestTrace.Span span = RequestTrace.begin("schema", info.getName());
+        try {
+            return getNonCacheableFeatureType(info, handleProjectionPolicy);
+        } finally {
+            RequestTrace.end(span);
+        }
     }
     
     FeatureType getCacheableFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
@@ -828,24 +842,28 @@ public class ResourcePool {
             synchronized ( featureTypeCache ) {
                 ft = (FeatureType) featureTypeCache.get( key );
                 if ( ft == null ) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    if(isSQLView(info, dataAccess)) {
-    
-                        VirtualTable vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        if(!jstore.getVirtualTables().containsValue(vt)) {
-                            jstore.addVirtualTable(vt);
+                    RequestTrace.Span span = RequestTrace.begin("schema", info.getName());
+                    try {
+                        //grab the underlying feature type
+                        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+                        
+                        if(isSQLView(info, dataAccess)) {
+        
+                            VirtualTable vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+                            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+                            if(!jstore.getVirtualTables().containsValue(vt)) {
+                                jstore.addVirtualTable(vt);
+                            }
+                            ft = jstore.getSchema(vt.getName());
+                        } else {
+                            ft = dataAccess.getSchema(info.getQualifiedNativeName());
                         }
-                        ft = jstore.getSchema(vt.getName());
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+                        
+                        ft = buildFeatureType(info, handleProjectionPolicy, ft);
+                    } finally {
+                        RequestTrace.end(span);
                     }
                     
-                    ft = buildFeatureType(info, handleProjectionPolicy, ft);
-                    
                     featureTypeCache.put( key, ft );
                 }
             }
@@ -1291,7 +1309,12 @@ public class ResourcePool {
                     final Object input = obj != null ? obj : url;  
 
                     // readers might change the provided hints, pass down a defensive copy
-                    reader = gridFormat.getReader(input, new Hints(hints));
+                    RequestTrace.Span span = RequestTrace.begin("coverageReader", info.getName());
+                    try {
+                        reader = gridFormat.getReader(input, new Hints(hints));
+                    } finally {
+                        RequestTrace.end(span);
+                    }
                     if(reader == null) {
                         throw new IOException("Failed to create reader from " + url + " and hints " + hints);
                     }
@@ -1457,8 +1480,14 @@ public class ResourcePool {
         //
         // /////////////////////////////////////////////////////////
         
-        GridCoverage gc  = reader.read(CoverageUtils.getParameters(
+        GridCoverage gc;
+        RequestTrace.Span span = RequestTrace.begin("read", info.getName());
+        try {
+            gc = reader.read(CoverageUtils.getParameters(
                     reader.getFormat().getReadParameters(), info.getParameters()));
+        } finally {
+            RequestTrace.end(span);
+        }
         
         if ((gc == null) || !(gc instanceof GridCoverage2D)) {
             throw new IOException("The requested coverage could not be found.");
@@ -0,0 +1,77 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+
+import org.geoserver.config.CoverageAccessInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.JAIInfo;
+
+import com.sun.media.jai.util.CacheDiagnostics;
+
+/**
+ * Reports the state of the JAI tile cache and tile scheduler, and of the coverage access thread
+ * pool. The tile cache hit and miss counts are only maintained by JAI when the cache diagnostics
+ * are enabled.
+ */
+public class JAIMetricsCollector implements MetricsCollector {
+
+    GeoServer geoServer;
+
+    public JAIMetricsCollector(GeoServer geoServer) {
+        this.geoServer = geoServer;
+    }
+
+    public void collect(MetricsWriter writer) {
+        GeoServerInfo global = geoServer.getGlobal();
+        JAIInfo jaiInfo = global.getJAI();
+        if (jaiInfo != null) {
+            TileCache cache = jaiInfo.getTileCache();
+            if (cache != null) {
+                writer.gauge("geoserver_jai_tile_cache_capacity_bytes",
+                        "Memory capacity of the JAI tile cache, in bytes",
+                        cache.getMemoryCapacity());
+                if (cache instanceof CacheDiagnostics) {
+                    CacheDiagnostics diagnostics = (CacheDiagnostics) cache;
+                    writer.gauge("geoserver_jai_tile_cache_used_bytes",
+                            "Memory used by the JAI tile cache, in bytes",
+                            diagnostics.getCacheMemoryUsed());
+                    writer.gauge("geoserver_jai_tile_cache_tiles",
+                            "Number of tiles in the JAI tile cache",
+                            diagnostics.getCacheTileCount());
+                    writer.counter("geoserver_jai_tile_cache_hits", "JAI tile cache hits",
+                            diagnostics.getCacheHitCount());
+                    writer.counter("geoserver_jai_tile_cache_misses", "JAI tile cache misses",
+                            diagnostics.getCacheMissCount());
+                }
+            }
+            JAI jai = jaiInfo.getJAI();
+            if (jai != null && jai.getTileScheduler() != null) {
+                writer.gauge("geoserver_jai_tile_scheduler_threads",
+                        "Number of JAI tile scheduler threads",
+                        jai.getTileScheduler().getParallelism());
+            }
+        }
+
+        CoverageAccessInfo coverageAccess = global.getCoverageAccess();
+        ThreadPoolExecutor executor = coverageAccess == null ? null : coverageAccess
+                .getThreadPoolExecutor();
+        if (executor != null) {
+            writer.gauge("geoserver_coverage_pool_threads",
+                    "Number of threads in the coverage access pool", executor.getPoolSize());
+            writer.gauge("geoserver_coverage_pool_active_threads",
+                    "Number of busy threads in the coverage access pool",
+                    executor.getActiveCount());
+            writer.gauge("geoserver_coverage_pool_queued_tasks",
+                    "Number of tasks waiting in the coverage access pool queue",
+                    executor.getQueue().size());
+        }
+    }
+}
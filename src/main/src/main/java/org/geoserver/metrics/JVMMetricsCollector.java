@@ -0,0 +1,70 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Reports the JVM memory usage, garbage collection activity and thread counts
+ */
+public class JVMMetricsCollector implements MetricsCollector {
+
+    public void collect(MetricsWriter writer) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        String help = "Memory used by the JVM, in bytes";
+        writer.gauge("jvm_memory_used_bytes", help, heap.getUsed(), "area", "heap");
+        writer.gauge("jvm_memory_used_bytes", help, nonHeap.getUsed(), "area", "nonheap");
+        help = "Memory committed by the JVM, in bytes";
+        writer.gauge("jvm_memory_committed_bytes", help, heap.getCommitted(), "area", "heap");
+        writer.gauge("jvm_memory_committed_bytes", help, nonHeap.getCommitted(), "area",
+                "nonheap");
+        help = "Maximum memory the JVM can use, in bytes, -1 if undefined";
+        writer.gauge("jvm_memory_max_bytes", help, heap.getMax(), "area", "heap");
+        writer.gauge("jvm_memory_max_bytes", help, nonHeap.getMax(), "area", "nonheap");
+
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        help = "Memory used in each JVM memory pool, in bytes";
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage usage = pool.getUsage();
+            if (usage != null) {
+                writer.gauge("jvm_memory_pool_used_bytes", help, usage.getUsed(), "pool",
+                        pool.getName());
+            }
+        }
+        help = "Maximum memory of each JVM memory pool, in bytes, -1 if undefined";
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage usage = pool.getUsage();
+            if (usage != null) {
+                writer.gauge("jvm_memory_pool_max_bytes", help, usage.getMax(), "pool",
+                        pool.getName());
+            }
+        }
+
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gc : collectors) {
+            writer.counter("jvm_gc_collections", "Number of garbage collections",
+                    Math.max(0, gc.getCollectionCount()), "gc", gc.getName());
+        }
+        for (GarbageCollectorMXBean gc : collectors) {
+            writer.counter("jvm_gc_collection_seconds", "Time spent in garbage collection",
+                    Math.max(0, gc.getCollectionTime()) / 1000d, "gc", gc.getName());
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        writer.gauge("jvm_threads_current", "Number of live threads", threads.getThreadCount());
+        writer.gauge("jvm_threads_daemon", "Number of live daemon threads",
+                threads.getDaemonThreadCount());
+        writer.gauge("jvm_threads_peak", "Peak number of live threads",
+                threads.getPeakThreadCount());
+    }
+}
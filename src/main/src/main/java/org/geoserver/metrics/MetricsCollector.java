@@ -0,0 +1,23 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+/**
+ * Extension point contributing metrics to the OpenMetrics endpoint. Implementations are looked up
+ * in the application context and called on every scrape.
+ * <p>
+ * Scrapes happen frequently, every few seconds on a monitored node, so collectors should only
+ * read counters and sizes that are already maintained, never compute them by scanning data or by
+ * taking locks that are held by requests.
+ * </p>
+ */
+public interface MetricsCollector {
+
+    /**
+     * Writes the current value of the metrics to the writer. All the samples of a metric family
+     * must be written together, and two collectors should not write the same family.
+     */
+    void collect(MetricsWriter writer);
+}
@@ -0,0 +1,177 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+/**
+ * Encodes metrics in the OpenMetrics text exposition format.
+ * <p>
+ * The {@code # TYPE} and {@code # HELP} lines are written when a new metric family starts, so the
+ * samples of a family have to be written one after the other. Labels are passed as name/value
+ * pairs, a null value is encoded as an empty string.
+ * </p>
+ * <p>
+ * This class is not thread safe, a new writer is used for every scrape.
+ * </p>
+ */
+public class MetricsWriter {
+
+    /**
+     * The media type of the exposition, to be served with the UTF-8 charset
+     */
+    public static final String MEDIA_TYPE = "application/openmetrics-text; version=1.0.0";
+
+    final StringBuilder sb = new StringBuilder(8192);
+
+    String family;
+
+    int mark;
+
+    String markFamily;
+
+    /**
+     * Writes a gauge sample
+     */
+    public MetricsWriter gauge(String name, String help, double value, String... labels) {
+        header(name, "gauge", help);
+        sample(name, null, labels, null, value);
+        return this;
+    }
+
+    /**
+     * Writes a counter sample, the name is the family name, without the {@code _total} suffix
+     */
+    public MetricsWriter counter(String name, String help, double value, String... labels) {
+        header(name, "counter", help);
+        sample(name, "_total", labels, null, value);
+        return this;
+    }
+
+    /**
+     * Writes a histogram
+     *
+     * @param bounds The upper bounds of the buckets, in increasing order, without +Inf
+     * @param counts The number of observations in each bucket, not cumulative, with an extra
+     *        last element counting the observations above the last bound
+     * @param sum The sum of the observations
+     */
+    public MetricsWriter histogram(String name, String help, double[] bounds, long[] counts,
+            double sum, String... labels) {
+        if (counts.length != bounds.length + 1) {
+            throw new IllegalArgumentException("Expected " + (bounds.length + 1)
+                    + " bucket counts, got " + counts.length);
+        }
+        header(name, "histogram", help);
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            sample(name, "_bucket", labels, format(bounds[i]), cumulative);
+        }
+        cumulative += counts[bounds.length];
+        sample(name, "_bucket", labels, "+Inf", cumulative);
+        sample(name, "_count", labels, null, cumulative);
+        sample(name, "_sum", labels, null, sum);
+        return this;
+    }
+
+    /**
+     * Remembers the current position, so that the output following it can be discarded with
+     * {@link #reset()}
+     */
+    public void mark() {
+        mark = sb.length();
+        markFamily = family;
+    }
+
+    /**
+     * Discards the output written since the last {@link #mark()}
+     */
+    public void reset() {
+        sb.setLength(mark);
+        family = markFamily;
+    }
+
+    /**
+     * Terminates the exposition and returns it
+     */
+    public String finish() {
+        sb.append("# EOF\n");
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+    void header(String name, String type, String help) {
+        if (name.equals(family)) {
+            return;
+        }
+        family = name;
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        if (help != null) {
+            sb.append("# HELP ").append(name).append(' ');
+            escape(help);
+            sb.append('\n');
+        }
+    }
+
+    void sample(String name, String suffix, String[] labels, String le, double value) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        sb.append(name);
+        if (suffix != null) {
+            sb.append(suffix);
+        }
+        if (labels.length > 0 || le != null) {
+            sb.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(labels[i]).append("=\"");
+                if (labels[i + 1] != null) {
+                    escape(labels[i + 1]);
+                }
+                sb.append('"');
+            }
+            if (le != null) {
+                if (labels.length > 0) {
+                    sb.append(',');
+                }
+                sb.append("le=\"").append(le).append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(format(value)).append('\n');
+    }
+
+    void escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '"') {
+                sb.append("\\\"");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,168 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.Service;
+
+/**
+ * Counts the OWS requests by service, operation and outcome, and keeps a histogram of their
+ * durations.
+ * <p>
+ * Only the services and operations known to the dispatcher are used as labels, requests for
+ * anything else are accounted as "unknown", so that malformed requests cannot blow up the number
+ * of series.
+ * </p>
+ */
+public class OWSRequestMetrics extends AbstractDispatcherCallback implements MetricsCollector {
+
+    static final String UNKNOWN = "unknown";
+
+    /**
+     * Upper bounds of the duration histogram buckets, in seconds
+     */
+    static final double[] BOUNDS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+            30, 60 };
+
+    static final class Key {
+        final String service;
+
+        final String operation;
+
+        Key(String service, String operation) {
+            this.service = service;
+            this.operation = operation;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * service.hashCode() + operation.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return service.equals(other.service) && operation.equals(other.operation);
+        }
+    }
+
+    static final class Stats {
+        final Key key;
+
+        final AtomicLong ok = new AtomicLong();
+
+        final AtomicLong errors = new AtomicLong();
+
+        final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+        /**
+         * Sum of the durations, in milliseconds
+         */
+        final AtomicLong sum = new AtomicLong();
+
+        Stats(Key key) {
+            this.key = key;
+        }
+
+        void record(long millis, boolean error) {
+            if (error) {
+                errors.incrementAndGet();
+            } else {
+                ok.incrementAndGet();
+            }
+            double seconds = millis / 1000d;
+            int bucket = 0;
+            while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sum.addAndGet(millis);
+        }
+    }
+
+    final Map<Key, Stats> stats = new ConcurrentHashMap<Key, Stats>();
+
+    @Override
+    public void finished(Request request) {
+        String service = UNKNOWN;
+        String operation = UNKNOWN;
+        Service descriptor = request.getServiceDescriptor();
+        if (descriptor != null) {
+            service = descriptor.getId();
+            operation = lookupOperation(descriptor, request.getRequest());
+        }
+
+        long millis = 0;
+        if (request.getTimestamp() != null) {
+            millis = Math.max(0, System.currentTimeMillis() - request.getTimestamp().getTime());
+        }
+        stats(new Key(service, operation)).record(millis, request.getError() != null);
+    }
+
+    String lookupOperation(Service service, String operation) {
+        if (operation != null && service.getOperations() != null) {
+            for (String op : service.getOperations()) {
+                if (op.equalsIgnoreCase(operation)) {
+                    return op;
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+
+    Stats stats(Key key) {
+        Stats s = stats.get(key);
+        if (s == null) {
+            synchronized (stats) {
+                s = stats.get(key);
+                if (s == null) {
+                    s = new Stats(key);
+                    stats.put(key, s);
+                }
+            }
+        }
+        return s;
+    }
+
+    public void collect(MetricsWriter writer) {
+        List<Stats> all = new ArrayList<Stats>(stats.values());
+        Collections.sort(all, new Comparator<Stats>() {
+            public int compare(Stats s1, Stats s2) {
+                int c = s1.key.service.compareTo(s2.key.service);
+                return c != 0 ? c : s1.key.operation.compareTo(s2.key.operation);
+            }
+        });
+
+        String help = "Number of OWS requests handled";
+        for (Stats s : all) {
+            writer.counter("geoserver_ows_requests", help, s.ok.get(), "service", s.key.service,
+                    "operation", s.key.operation, "status", "ok");
+            writer.counter("geoserver_ows_requests", help, s.errors.get(), "service",
+                    s.key.service, "operation", s.key.operation, "status", "error");
+        }
+        help = "Duration of the OWS requests, in seconds";
+        for (Stats s : all) {
+            long[] counts = new long[BOUNDS.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = s.buckets.get(i);
+            }
+            writer.histogram("geoserver_ows_request_duration_seconds", help, BOUNDS, counts,
+                    s.sum.get() / 1000d, "service", s.key.service, "operation", s.key.operation);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourcePool;
+
+/**
+ * Reports the number of entries in the {@link ResourcePool} caches
+ */
+public class ResourcePoolMetricsCollector implements MetricsCollector {
+
+    static final String NAME = "geoserver_resource_pool_cache_entries";
+
+    static final String HELP = "Number of entries in the resource pool caches";
+
+    Catalog catalog;
+
+    public ResourcePoolMetricsCollector(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public void collect(MetricsWriter writer) {
+        ResourcePool pool = catalog.getResourcePool();
+        size(writer, "crs", pool.getCrsCache());
+        size(writer, "datastore", pool.getDataStoreCache());
+        size(writer, "featuretype", pool.getFeatureTypeCache());
+        size(writer, "featuretype_attribute", pool.getFeatureTypeAttributeCache());
+        size(writer, "coverage_reader", pool.getCoverageReaderCache());
+        size(writer, "coverage_hint_reader", pool.getHintCoverageReaderCache());
+        size(writer, "style", pool.getStyleCache());
+        size(writer, "wms", pool.getWmsCache());
+    }
+
+    void size(MetricsWriter writer, String cache, Map<?, ?> map) {
+        writer.gauge(NAME, HELP, map.size(), "cache", cache);
+    }
+}
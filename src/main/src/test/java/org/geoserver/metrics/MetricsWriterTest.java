@@ -0,0 +1,85 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MetricsWriterTest {
+
+    @Test
+    public void testGaugeAndCounter() {
+        MetricsWriter writer = new MetricsWriter();
+        writer.gauge("queue_size", "Queue size", 3, "queue", "a");
+        writer.gauge("queue_size", "Queue size", 1.5, "queue", "b");
+        writer.counter("requests", "Requests", 10);
+
+        assertEquals("# TYPE queue_size gauge\n" 
+                + "# HELP queue_size Queue size\n"
+                + "queue_size{queue=\"a\"} 3\n" 
+                + "queue_size{queue=\"b\"} 1.5\n"
+                + "# TYPE requests counter\n" 
+                + "# HELP requests Requests\n"
+                + "requests_total 10\n" 
+                + "# EOF\n", writer.finish());
+    }
+
+    @Test
+    public void testEscaping() {
+        MetricsWriter writer = new MetricsWriter();
+        writer.gauge("value", "A \"quoted\"\nhelp", 0, "path", "c:\\data\n\"x\"", "empty", null);
+        String result = writer.toString();
+        assertTrue(result.contains("# HELP value A \\\"quoted\\\"\\nhelp\n"));
+        assertTrue(result.contains("value{path=\"c:\\\\data\\n\\\"x\\\"\",empty=\"\"} 0\n"));
+    }
+
+    @Test
+    public void testSpecialValues() {
+        assertEquals("NaN", MetricsWriter.format(Double.NaN));
+        assertEquals("+Inf", MetricsWriter.format(Double.POSITIVE_INFINITY));
+        assertEquals("-Inf", MetricsWriter.format(Double.NEGATIVE_INFINITY));
+        assertEquals("-2", MetricsWriter.format(-2));
+        assertEquals("0.25", MetricsWriter.format(0.25));
+    }
+
+    @Test
+    public void testHistogram() {
+        MetricsWriter writer = new MetricsWriter();
+        writer.histogram("duration_seconds", null, new double[] { 0.1, 1 },
+                new long[] { 2, 3, 1 }, 4.5, "service", "wms");
+
+        assertEquals("# TYPE duration_seconds histogram\n"
+                + "duration_seconds_bucket{service=\"wms\",le=\"0.1\"} 2\n"
+                + "duration_seconds_bucket{service=\"wms\",le=\"1\"} 5\n"
+                + "duration_seconds_bucket{service=\"wms\",le=\"+Inf\"} 6\n"
+                + "duration_seconds_count{service=\"wms\"} 6\n"
+                + "duration_seconds_sum{service=\"wms\"} 4.5\n", writer.toString());
+
+        try {
+            writer.histogram("duration_seconds", null, new double[] { 0.1 }, new long[] { 1 }, 0);
+            fail("Should have failed, the overflow bucket is missing");
+        } catch (IllegalArgumentException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testReset() {
+        MetricsWriter writer = new MetricsWriter();
+        writer.gauge("first", null, 1);
+        writer.mark();
+        writer.gauge("first", null, 2, "label", "value");
+        writer.gauge("second", null, 3);
+        writer.reset();
+        writer.gauge("third", null, 4);
+
+        assertEquals("# TYPE first gauge\n" 
+                + "first 1\n" 
+                + "# TYPE third gauge\n" 
+                + "third 4\n"
+                + "# EOF\n", writer.finish());
+    }
+}
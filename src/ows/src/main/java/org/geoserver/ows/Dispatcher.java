@@ -238,20 +238,31 @@ public class Dispatcher extends AbstractController {
 
         Service service = null;
 
+        // trace the processing phases, if the request is sampled
+        RequestTrace trace = RequestTrace.start();
+
         try {
             // initialize the request and allow callbacks to override it
-            request = init(request);
+            RequestTrace.Span span = RequestTrace.begin("init");
+            try {
+                request = init(request);
+            } finally {
+                RequestTrace.end(span);
+            }
 
             // store it in the thread local
             REQUEST.set(request);
             
             //find the service
+            span = RequestTrace.begin("service");
             try {
                 service = service(request);
             } catch (Throwable t) {
                 exception(t, null, request);
 
                 return null;
+            } finally {
+                RequestTrace.end(span);
             }
             
             //throw any outstanding errors
@@ -260,7 +271,13 @@ public class Dispatcher extends AbstractController {
             }
 
             //dispatch the operation
-            Operation operation = dispatch(request, service);
+            Operation operation;
+            span = RequestTrace.begin("request");
+            try {
+                operation = dispatch(request, service);
+            } finally {
+                RequestTrace.end(span);
+            }
 
             if (request.isSOAP()) {
                 //let the request object know that this is a SOAP request, since it effects
@@ -269,11 +286,22 @@ public class Dispatcher extends AbstractController {
             }
 
             //execute it
-            Object result = execute(request, operation);
+            Object result;
+            span = RequestTrace.begin("execute");
+            try {
+                result = execute(request, operation);
+            } finally {
+                RequestTrace.end(span);
+            }
 
             //write the response
             if (result != null) {
-                response(result, request, operation);
+                span = RequestTrace.begin("response");
+                try {
+                    response(result, request, operation);
+                } finally {
+                    RequestTrace.end(span);
+                }
             }
         } catch (Throwable t) {
          // make Spring security exceptions flow so that exception transformer filter can handle them
@@ -282,6 +310,9 @@ public class Dispatcher extends AbstractController {
             exception(t, service, request);
         } finally {
             fireFinishedCallback(request);
+            if (trace != null) {
+                trace.finish(request);
+            }
             REQUEST.remove();
         }
 
@@ -385,11 +416,16 @@ public class Dispatcher extends AbstractController {
     }
 
     Request fireInitCallback(Request req) {
-        for ( DispatcherCallback cb : callbacks ) {
-            Request r = cb.init( req );
-            req = r != null ? r : req;
+        RequestTrace.Span span = RequestTrace.begin("initCallbacks");
+        try {
+            for ( DispatcherCallback cb : callbacks ) {
+                Request r = cb.init( req );
+                req = r != null ? r : req;
+            }
+            return req;
+        } finally {
+            RequestTrace.end(span);
         }
-        return req;
     }
 
     BufferedReader soapReader(HttpServletRequest httpRequest) throws IOException {
@@ -523,11 +559,16 @@ public class Dispatcher extends AbstractController {
     }
     
     Service fireServiceDispatchedCallback(Request req, Service service ) {
-        for ( DispatcherCallback cb : callbacks ) {
-            Service s = cb.serviceDispatched( req, service );
-            service = s != null ? s : service;
+        RequestTrace.Span span = RequestTrace.begin("serviceCallbacks");
+        try {
+            for ( DispatcherCallback cb : callbacks ) {
+                Service s = cb.serviceDispatched( req, service );
+                service = s != null ? s : service;
+            }
+            return service;
+        } finally {
+            RequestTrace.end(span);
         }
-        return service;
     }
 
     String normalize(String value) {
@@ -725,11 +766,16 @@ public class Dispatcher extends AbstractController {
     }
 
     Operation fireOperationDispatchedCallback(Request req, Operation op ) {
-        for ( DispatcherCallback cb : callbacks ) {
-            Operation o = cb.operationDispatched( req, op );
-            op = o != null ? o : op;
+        RequestTrace.Span span = RequestTrace.begin("operationCallbacks");
+        try {
+            for ( DispatcherCallback cb : callbacks ) {
+                Operation o = cb.operationDispatched( req, op );
+                op = o != null ? o : op;
+            }
+            return op;
+        } finally {
+            RequestTrace.end(span);
         }
-        return op;
     }
     
     String lookupRequestBeanProperty(Object requestBean, String property, boolean allowDefaultValues) {
@@ -784,11 +830,16 @@ public class Dispatcher extends AbstractController {
     }
 
     Object fireOperationExecutedCallback(Request req, Operation op, Object result ) {
-        for ( DispatcherCallback cb : callbacks ) {
-            Object r = cb.operationExecuted( req, op, result );
-            result = r != null ? r : result;
+        RequestTrace.Span span = RequestTrace.begin("executeCallbacks");
+        try {
+            for ( DispatcherCallback cb : callbacks ) {
+                Object r = cb.operationExecuted( req, op, result );
+                result = r != null ? r : result;
+            }
+            return result;
+        } finally {
+            RequestTrace.end(span);
         }
-        return result;
     }
     
     void response(Object result, Request req, Operation opDescriptor)
@@ -916,7 +967,12 @@ public class Dispatcher extends AbstractController {
             }
 
             // actually write out the response
-            response.write(result, output, opDescriptor);
+            RequestTrace.Span span = RequestTrace.begin("write", response.getClass().getSimpleName());
+            try {
+                response.write(result, output, opDescriptor);
+            } finally {
+                RequestTrace.end(span);
+            }
 
             if (req.isSOAP()) {
                 //SOAP request, start the SOAP wrapper
@@ -1005,11 +1061,16 @@ public class Dispatcher extends AbstractController {
     }
 
     Response fireResponseDispatchedCallback(Request req, Operation op, Object result, Response response ) {
-        for ( DispatcherCallback cb : callbacks ) {
-            Response r = cb.responseDispatched(req, op, result, response);
-            response = r != null ? r : response;
+        RequestTrace.Span span = RequestTrace.begin("responseCallbacks");
+        try {
+            for ( DispatcherCallback cb : callbacks ) {
+                Response r = cb.responseDispatched(req, op, result, response);
+                response = r != null ? r : response;
+            }
+            return response;
+        } finally {
+            RequestTrace.end(span);
         }
-        return response;
     }
     
     Collection loadServices() {
@@ -0,0 +1,351 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Records the time spent by a request in its processing phases, as a list of timed spans.
+ * <p>
+ * Tracing is controlled by the {@code GEOSERVER_TRACE_SAMPLING} property, the fraction of the
+ * requests to be traced between 0 and 1, by default 0 meaning tracing is off. When tracing is off
+ * or the current request is not sampled, {@link #begin(String)} returns null and
+ * {@link #end(Span)} does nothing, so the instrumentation costs a thread local lookup at most.
+ * </p>
+ * <p>
+ * Spans are opened and closed by the thread running the request, with the following pattern:
+ *
+ * <pre>
+ * RequestTrace.Span span = RequestTrace.begin(&quot;render&quot;);
+ * try {
+ *     ...
+ * } finally {
+ *     RequestTrace.end(span);
+ * }
+ * </pre>
+ *
+ * Work performed on other threads can be recorded with {@link #add(String, String, long, long)}
+ * on the trace captured from the request thread. If the {@code GEOSERVER_TRACE_LOG} property is
+ * true the completed traces are logged, one JSON object per line, on the
+ * {@code org.geoserver.ows.trace} logger.
+ * </p>
+ */
+public class RequestTrace {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.ows.trace");
+
+    /**
+     * A timed phase of the request processing
+     */
+    public static class Span implements Serializable {
+        private static final long serialVersionUID = -6102453618395126742L;
+
+        final String name;
+
+        final String detail;
+
+        final int depth;
+
+        final long start;
+
+        long duration = -1;
+
+        Span(String name, String detail, int depth, long start) {
+            this.name = name;
+            this.detail = detail;
+            this.depth = depth;
+            this.start = start;
+        }
+
+        /**
+         * The phase name, e.g. "execute" or "render"
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Additional information about the phase, e.g. the name of the store accessed, or null
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        /**
+         * The nesting level of the span, 0 for the top level phases
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * The start of the span, in microseconds since the start of the request
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * The duration of the span, in microseconds, or -1 if the span is not complete
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return name + (detail != null ? "[" + detail + "]" : "") + "@" + start + "+"
+                    + duration;
+        }
+    }
+
+    static final ThreadLocal<RequestTrace> TRACE = new ThreadLocal<RequestTrace>();
+
+    static final AtomicLong COUNTER = new AtomicLong();
+
+    static volatile int sampleEvery = -1;
+
+    static volatile Boolean log;
+
+    final long startNanos = System.nanoTime();
+
+    final long startTime = System.currentTimeMillis();
+
+    final List<Span> spans = new ArrayList<Span>();
+
+    /**
+     * Nesting level of the spans opened by the request thread
+     */
+    int depth;
+
+    /**
+     * Sets the fraction of requests to be traced, overriding the {@code GEOSERVER_TRACE_SAMPLING}
+     * property. A value of 0 or less turns tracing off.
+     */
+    public static void setSampling(double sampling) {
+        sampleEvery = sampling <= 0 ? 0 : (int) Math.max(1, Math.round(1 / sampling));
+    }
+
+    /**
+     * Enables or disables the logging of the completed traces, overriding the
+     * {@code GEOSERVER_TRACE_LOG} property
+     */
+    public static void setLogEnabled(boolean enabled) {
+        log = enabled;
+    }
+
+    static int getSampleEvery() {
+        int every = sampleEvery;
+        if (every < 0) {
+            every = 0;
+            String value = GeoServerExtensions.getProperty("GEOSERVER_TRACE_SAMPLING");
+            if (value != null) {
+                try {
+                    double sampling = Double.parseDouble(value);
+                    every = sampling <= 0 ? 0 : (int) Math.max(1, Math.round(1 / sampling));
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid GEOSERVER_TRACE_SAMPLING value " + value
+                            + ", tracing is disabled");
+                }
+            }
+            sampleEvery = every;
+        }
+        return every;
+    }
+
+    static boolean isLogEnabled() {
+        Boolean enabled = log;
+        if (enabled == null) {
+            enabled = Boolean.valueOf(GeoServerExtensions.getProperty("GEOSERVER_TRACE_LOG"));
+            log = enabled;
+        }
+        return enabled;
+    }
+
+    /**
+     * Starts tracing the current request, if it is sampled. Requests nested in a traced one are
+     * not traced separately, their phases are recorded in the outer trace.
+     *
+     * @return the trace, or null if the request is not traced
+     */
+    public static RequestTrace start() {
+        int every = getSampleEvery();
+        if (every == 0 || TRACE.get() != null || COUNTER.getAndIncrement() % every != 0) {
+            return null;
+        }
+        RequestTrace trace = new RequestTrace();
+        TRACE.set(trace);
+        return trace;
+    }
+
+    /**
+     * Returns the trace of the current request, or null if the request is not traced
+     */
+    public static RequestTrace current() {
+        return TRACE.get();
+    }
+
+    /**
+     * Stops tracing the request, logging the trace if required
+     *
+     * @param request The traced request, used to identify it in the logs, may be null
+     */
+    public void finish(Request request) {
+        if (TRACE.get() == this) {
+            TRACE.remove();
+        }
+        if (isLogEnabled() && LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info(toJSON(request));
+        }
+    }
+
+    /**
+     * Opens a span in the current request trace
+     *
+     * @return the span, or null if the request is not traced
+     */
+    public static Span begin(String name) {
+        return begin(name, null);
+    }
+
+    /**
+     * Opens a span with additional information in the current request trace
+     *
+     * @return the span, or null if the request is not traced
+     */
+    public static Span begin(String name, String detail) {
+        if (sampleEvery == 0) {
+            return null;
+        }
+        RequestTrace trace = TRACE.get();
+        if (trace == null) {
+            return null;
+        }
+        Span span = new Span(name, detail, trace.depth++, trace.elapsed(System.nanoTime()));
+        synchronized (trace) {
+            trace.spans.add(span);
+        }
+        return span;
+    }
+
+    /**
+     * Closes a span opened by {@link #begin(String)}, null spans are ignored
+     */
+    public static void end(Span span) {
+        if (span == null) {
+            return;
+        }
+        RequestTrace trace = TRACE.get();
+        if (trace == null) {
+            return;
+        }
+        long duration = trace.elapsed(System.nanoTime()) - span.start;
+        synchronized (trace) {
+            span.duration = duration;
+        }
+        trace.depth--;
+    }
+
+    /**
+     * Records a complete span, can be called from any thread
+     *
+     * @param start The start time, as returned by {@link System#nanoTime()}
+     * @param end The end time, as returned by {@link System#nanoTime()}
+     */
+    public Span add(String name, String detail, long start, long end) {
+        Span span = new Span(name, detail, depth, elapsed(start));
+        span.duration = (end - start) / 1000;
+        synchronized (this) {
+            spans.add(span);
+        }
+        return span;
+    }
+
+    long elapsed(long nanos) {
+        return (nanos - startNanos) / 1000;
+    }
+
+    /**
+     * The request start, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns a copy of the spans recorded so far, in start order
+     */
+    public synchronized List<Span> getSpans() {
+        List<Span> result = new ArrayList<Span>(spans.size());
+        for (Span span : spans) {
+            Span copy = new Span(span.name, span.detail, span.depth, span.start);
+            copy.duration = span.duration;
+            result.add(copy);
+        }
+        return result;
+    }
+
+    synchronized String toJSON(Request request) {
+        StringBuilder sb = new StringBuilder("{\"start\":").append(startTime);
+        if (request != null) {
+            sb.append(",\"service\":");
+            string(sb, request.getService());
+            sb.append(",\"request\":");
+            string(sb, request.getRequest());
+            sb.append(",\"error\":").append(request.getError() != null);
+        }
+        sb.append(",\"duration\":").append(millis(elapsed(System.nanoTime())));
+        sb.append(",\"spans\":[");
+        for (int i = 0; i < spans.size(); i++) {
+            Span span = spans.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":");
+            string(sb, span.name);
+            if (span.detail != null) {
+                sb.append(",\"detail\":");
+                string(sb, span.detail);
+            }
+            sb.append(",\"depth\":").append(span.depth);
+            sb.append(",\"start\":").append(millis(span.start));
+            sb.append(",\"duration\":").append(span.duration < 0 ? "null" : millis(span.duration));
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    static String millis(long micros) {
+        return String.format(Locale.ENGLISH, "%.3f", micros / 1000d);
+    }
+
+    static void string(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
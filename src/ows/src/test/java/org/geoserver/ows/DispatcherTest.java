@@ -12,7 +12,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -209,6 +212,53 @@ public class DispatcherTest extends TestCase {
         assertEquals("Hello world!", response.getOutputStreamContent());
     }
 
+    public void testTracing() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+
+        // grab the trace before the dispatcher closes it
+        final List<RequestTrace.Span> spans = new ArrayList<RequestTrace.Span>();
+        dispatcher.callbacks = Collections.singletonList((DispatcherCallback) new AbstractDispatcherCallback() {
+            public void finished(Request request) {
+                spans.addAll(RequestTrace.current().getSpans());
+            }
+        });
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setContextPath("/geoserver");
+        request.setMethod("GET");
+        request.setupAddParameter("service", "hello");
+        request.setupAddParameter("request", "Hello");
+        request.setupAddParameter("version", "1.0.0");
+        request.setupAddParameter("message", "Hello world!");
+        request.setRequestURI("http://localhost/geoserver/ows");
+        request.setQueryString("service=hello&request=hello&version=1.0.0&message=Hello world!");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        RequestTrace.setSampling(1);
+        try {
+            dispatcher.handleRequest(request, response);
+        } finally {
+            RequestTrace.setSampling(0);
+        }
+        assertEquals("Hello world!", response.getOutputStreamContent());
+        assertNull(RequestTrace.current());
+
+        List<String> names = new ArrayList<String>();
+        for (RequestTrace.Span span : spans) {
+            names.add(span.getName());
+            if (span.getDepth() == 0) {
+                assertTrue(span.getDuration() >= 0);
+            }
+        }
+        assertEquals(Arrays.asList("init", "initCallbacks", "service", "serviceCallbacks",
+                "request", "operationCallbacks", "execute", "executeCallbacks", "response",
+                "responseCallbacks", "write"), names);
+    }
+
     public void testHelloOperationPost() throws Exception {
         URL url = getClass().getResource("applicationContext.xml");
 
@@ -0,0 +1,128 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.geoserver.ows.RequestTrace.Span;
+import org.junit.After;
+import org.junit.Test;
+
+public class RequestTraceTest {
+
+    @After
+    public void reset() {
+        RequestTrace.TRACE.remove();
+        RequestTrace.setSampling(0);
+    }
+
+    @Test
+    public void testDisabled() {
+        RequestTrace.setSampling(0);
+        assertNull(RequestTrace.start());
+        assertNull(RequestTrace.current());
+        Span span = RequestTrace.begin("init");
+        assertNull(span);
+        // must not fail
+        RequestTrace.end(span);
+    }
+
+    @Test
+    public void testSpans() {
+        RequestTrace.setSampling(1);
+        RequestTrace trace = RequestTrace.start();
+        assertNotNull(trace);
+        assertSame(trace, RequestTrace.current());
+
+        Span execute = RequestTrace.begin("execute");
+        Span render = RequestTrace.begin("render", "topp:states");
+        RequestTrace.end(render);
+        RequestTrace.end(execute);
+        Span response = RequestTrace.begin("response");
+        RequestTrace.end(response);
+        trace.finish(null);
+        assertNull(RequestTrace.current());
+
+        List<Span> spans = trace.getSpans();
+        assertEquals(3, spans.size());
+        assertEquals("execute", spans.get(0).getName());
+        assertEquals(0, spans.get(0).getDepth());
+        assertEquals("render", spans.get(1).getName());
+        assertEquals("topp:states", spans.get(1).getDetail());
+        assertEquals(1, spans.get(1).getDepth());
+        assertEquals("response", spans.get(2).getName());
+        assertEquals(0, spans.get(2).getDepth());
+        for (Span span : spans) {
+            assertTrue(span.getDuration() >= 0);
+        }
+        assertTrue(spans.get(1).getStart() >= spans.get(0).getStart());
+        assertTrue(spans.get(0).getDuration() >= spans.get(1).getDuration());
+    }
+
+    @Test
+    public void testNested() {
+        RequestTrace.setSampling(1);
+        RequestTrace outer = RequestTrace.start();
+        assertNotNull(outer);
+        // a nested request is recorded in the outer trace
+        assertNull(RequestTrace.start());
+        assertSame(outer, RequestTrace.current());
+        outer.finish(null);
+        assertNull(RequestTrace.current());
+    }
+
+    @Test
+    public void testSampling() {
+        RequestTrace.setSampling(0.25);
+        int traced = 0;
+        for (int i = 0; i < 100; i++) {
+            RequestTrace trace = RequestTrace.start();
+            if (trace != null) {
+                traced++;
+                trace.finish(null);
+            }
+        }
+        assertEquals(25, traced);
+    }
+
+    @Test
+    public void testAddFromOtherThread() throws Exception {
+        RequestTrace.setSampling(1);
+        final RequestTrace trace = RequestTrace.start();
+        final long start = System.nanoTime();
+        Thread t = new Thread() {
+            public void run() {
+                trace.add("tile", "0", start, start + 2000000);
+            }
+        };
+        t.start();
+        t.join();
+        trace.finish(null);
+
+        List<Span> spans = trace.getSpans();
+        assertEquals(1, spans.size());
+        assertEquals("tile", spans.get(0).getName());
+        assertEquals(2000, spans.get(0).getDuration());
+    }
+
+    @Test
+    public void testJSON() {
+        RequestTrace.setSampling(1);
+        RequestTrace trace = RequestTrace.start();
+        RequestTrace.end(RequestTrace.begin("write", "a \"quoted\" name"));
+        Request request = new Request();
+        request.setService("WMS");
+        request.setRequest("GetMap");
+        String json = trace.toJSON(request);
+        trace.finish(null);
+
+        assertTrue(json, json.startsWith("{\"start\":"));
+        assertTrue(json, json.contains("\"service\":\"WMS\",\"request\":\"GetMap\",\"error\":false"));
+        assertTrue(json, json.contains("{\"name\":\"write\",\"detail\":\"a \\\"quoted\\\" name\",\"depth\":0"));
+        assertTrue(json, json.endsWith("}]}"));
+    }
+}
@@ -0,0 +1,63 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.metrics.MetricsCollector;
+import org.geoserver.metrics.MetricsWriter;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.restlet.Restlet;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.resource.StringRepresentation;
+
+/**
+ * Serves the metrics of all the {@link MetricsCollector} extensions in the OpenMetrics text
+ * format at {@code /rest/metrics}, for scraping by Prometheus and compatible systems.
+ * <p>
+ * A collector failing does not fail the scrape, its partial output is discarded and the error
+ * is logged.
+ * </p>
+ */
+public class MetricsRestlet extends Restlet {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.rest");
+
+    static final MediaType OPENMETRICS = new MediaType(MetricsWriter.MEDIA_TYPE);
+
+    @Override
+    public void handle(Request request, Response response) {
+        if (!Method.GET.equals(request.getMethod())) {
+            response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+            return;
+        }
+        StringRepresentation result = new StringRepresentation(collect(), OPENMETRICS);
+        result.setCharacterSet(CharacterSet.UTF_8);
+        response.setEntity(result);
+    }
+
+    String collect() {
+        MetricsWriter writer = new MetricsWriter();
+        List<MetricsCollector> collectors = GeoServerExtensions.extensions(MetricsCollector.class);
+        for (MetricsCollector collector : collectors) {
+            writer.mark();
+            try {
+                collector.collect(writer);
+            } catch (Exception e) {
+                writer.reset();
+                LOGGER.log(Level.WARNING, "Metrics collector " + collector + " failed", e);
+            }
+        }
+        return writer.finish();
+    }
+}
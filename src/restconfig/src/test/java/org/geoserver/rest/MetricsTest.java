@@ -0,0 +1,41 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class MetricsTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGet() throws Exception {
+        // run a request so that there is something to count
+        getAsServletResponse("wms?service=WMS&request=GetCapabilities&version=1.1.1");
+
+        MockHttpServletResponse response = getAsServletResponse("/rest/metrics");
+        assertEquals(200, response.getStatusCode());
+        assertTrue(response.getContentType().startsWith("application/openmetrics-text"));
+
+        String metrics = response.getOutputStreamContent();
+        assertTrue(metrics.endsWith("# EOF\n"));
+        assertTrue(metrics.contains("# TYPE jvm_memory_used_bytes gauge"));
+        assertTrue(metrics.contains("jvm_memory_used_bytes{area=\"heap\"}"));
+        assertTrue(metrics.contains("geoserver_resource_pool_cache_entries{cache=\"style\"}"));
+        assertTrue(metrics.contains("geoserver_ows_requests_total{service=\"wms\","
+                + "operation=\"GetCapabilities\",status=\"ok\"}"));
+        assertTrue(metrics.contains("geoserver_ows_request_duration_seconds_bucket{service=\"wms\","
+                + "operation=\"GetCapabilities\",le=\"+Inf\"}"));
+    }
+
+    @Test
+    public void testPostNotAllowed() throws Exception {
+        MockHttpServletResponse response = postAsServletResponse("/rest/metrics", "");
+        assertEquals(405, response.getStatusCode());
+    }
+}
@@ -10,17 +10,23 @@ import java.util.logging.Logger;
 
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.Component;
+import org.apache.commons.io.FileUtils;
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.Button;
 import org.apache.wicket.markup.html.form.CheckBox;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.panel.Fragment;
+import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.ResourceModel;
 import org.apache.wicket.model.StringResourceModel;
 import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.MemoryTierBlobStore;
 import org.geoserver.gwc.config.GWCConfig;
+import org.geoserver.gwc.layer.SeedThrottle;
 import org.geoserver.web.GeoServerSecuredPage;
 import org.geoserver.web.wicket.GeoServerAjaxFormLink;
 import org.geotools.image.io.ImageIOExt;
@@ -49,6 +55,8 @@ public class GWCSettingsPage extends GeoServerSecuredPage {
 
         form.add(gwcServicesPanel);
         form.add(defaultCachingOptionsPanel);
+        form.add(memoryTierStatistics("memoryTier"));
+        form.add(seedThrottleStatus("seedThrottle"));
 
         form.add(new Button("submit") {
             private static final long serialVersionUID = 1L;
@@ -91,6 +99,80 @@ public class GWCSettingsPage extends GeoServerSecuredPage {
         }
     }
 
+    /**
+     * Reports the usage of the in memory tile tier, hidden if the tier is not enabled
+     */
+    private Component memoryTierStatistics(String id) {
+        WebMarkupContainer container = new WebMarkupContainer(id);
+        container.setVisible(GWC.get().getMemoryTier() != null);
+        container.add(new Label("memoryUsage", new AbstractReadOnlyModel<String>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getObject() {
+                MemoryTierBlobStore memoryTier = GWC.get().getMemoryTier();
+                if (memoryTier == null) {
+                    return "";
+                }
+                return FileUtils.byteCountToDisplaySize(memoryTier.getSize()) + " / "
+                        + FileUtils.byteCountToDisplaySize(memoryTier.getMaxSize()) + " ("
+                        + memoryTier.getTileCount() + " tiles)";
+            }
+        }));
+        container.add(new Label("hitRatio", new AbstractReadOnlyModel<String>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getObject() {
+                MemoryTierBlobStore memoryTier = GWC.get().getMemoryTier();
+                if (memoryTier == null) {
+                    return "";
+                }
+                return String.format("%.1f%% (%d hits, %d misses, %d evictions)",
+                        memoryTier.getHitRatio() * 100, memoryTier.getHits(),
+                        memoryTier.getMisses(), memoryTier.getEvictions());
+            }
+        }));
+        return container;
+    }
+
+    /**
+     * Reports the state of the seed throttle, hidden if the throttle is not enabled
+     */
+    private Component seedThrottleStatus(String id) {
+        WebMarkupContainer container = new WebMarkupContainer(id);
+        container.setVisible(GWC.get().getSeedThrottle() != null);
+        container.add(new Label("seedState", new AbstractReadOnlyModel<String>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getObject() {
+                SeedThrottle throttle = GWC.get().getSeedThrottle();
+                if (throttle == null) {
+                    return "";
+                }
+                return String.format("%s (%d of %d threads allowed, %d seeding)",
+                        throttle.getState(), throttle.getAllowedThreads(),
+                        throttle.getMaxThreads(), throttle.getActiveThreads());
+            }
+        }));
+        container.add(new Label("seedThroughput", new AbstractReadOnlyModel<String>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getObject() {
+                SeedThrottle throttle = GWC.get().getSeedThrottle();
+                if (throttle == null) {
+                    return "";
+                }
+                return String.format("%.1f meta tiles/s (foreground latency %d ms, %d requests)",
+                        throttle.getThroughput(), throttle.getForegroundLatency(),
+                        throttle.getForegroundRequests());
+            }
+        }));
+        return container;
+    }
+
     protected Component headerPanel() {
         Fragment header = new Fragment(HEADER_PANEL, "header", this);
         return header;
@@ -175,103 +175,29 @@ public class Transaction {
         // Map of required FeatureStores by typeName
         Map stores = new HashMap();
 
-        // Map of required FeatureStores by typeRef (dataStoreId:typeName)
-        // (This will be added to the contents are harmed)
-        Map stores2 = new HashMap();
-
-        // List of type names, maintain this list because of the insert hack
-        // described below
-        // List typeNames = new ArrayList();
-        Map elementHandlers = gatherElementHandlers(request);
-
-        // Gather feature types required by transaction elements and validate
-        // the elements
-        // finally gather FeatureStores required by Transaction Elements
-        // and configure them with our transaction
-        //
-        // (I am using element rather than transaction sub request
-        // to agree with the spec docs)
-        for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
-            Map.Entry entry = (Map.Entry) it.next();
-            TransactionElement element = (TransactionElement) entry.getKey();
-            TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
-            Map featureTypeInfos = new HashMap();
-
-            
-            QName[] typeNames = handler.getTypeNames(element);
-
-            for (int i = 0; i < typeNames.length; i++) {
-                final QName typeName = typeNames[i];
-                final String name = typeName.getLocalPart();
-                final String namespaceURI;
-
-                if (typeName.getNamespaceURI() != null) {
-                    namespaceURI = typeName.getNamespaceURI();
-                } else {
-                    namespaceURI = catalog.getDefaultNamespace().getURI();
-                }
-
-                LOGGER.fine("Locating FeatureSource uri:'" + namespaceURI + "' name:'" + name + "'");
-
-                final FeatureTypeInfo meta = catalog.getFeatureTypeByName(namespaceURI, name);
-
-                if (meta == null) {
-                    String msg = "Feature type '" + name + "' is not available: ";
-                    throw new WFSTransactionException(msg, (String) null, element.getHandle());
-                }
-
-                featureTypeInfos.put(typeName, meta);
-            }
-
-            // check element validity
-            handler.checkValidity(element, featureTypeInfos);
-
-            // go through all feature type infos data objects, and load feature
-            // stores
-            for (Iterator m = featureTypeInfos.values().iterator(); m.hasNext();) {
-                FeatureTypeInfo meta = (FeatureTypeInfo) m.next();
-                String typeRef = meta.getStore().getName() + ":" + meta.getName();
-
-                String URI = meta.getNamespace().getURI();
-                QName elementName = new QName(URI, meta.getName(),
-                        meta.getNamespace().getPrefix());
-                QName elementNameDefault = null;
-
-                if (catalog.getDefaultNamespace().getURI().equals(URI)) {
-                    elementNameDefault = new QName(meta.getName());
-                }
-
-                LOGGER.fine("located FeatureType w/ typeRef '" + typeRef + "' and elementName '"
-                    + elementName + "'");
-
-                if (stores.containsKey(elementName)) {
-                    // typeName already loaded
-                    continue;
-                }
-
-                try {
-                    FeatureSource<? extends FeatureType, ? extends Feature> source = meta.getFeatureSource(null,null);
-
-                    if (source instanceof FeatureStore) {
-                        FeatureStore<? extends FeatureType, ? extends Feature> store;
-                        store = (FeatureStore<? extends FeatureType, ? extends Feature>) source;
-                        store.setTransaction(transaction);
-                        stores.put(elementName, source);
-
-                        if (elementNameDefault != null) {
-                            stores.put(elementNameDefault, source);
-                        }
-
-                        stores2.put(typeRef, source);
-                    } else {
-                        String msg = elementName + " is read-only";
-                        throw new WFSTransactionException(msg, (String) null, element.getHandle());
-                    }
-                } catch (IOException ioException) {
-                    String msg = elementName + " is not available: "
-                        + ioException.getLocalizedMessage();
-                    throw new WFSTransactionException(msg, ioException, element.getHandle());
-                }
+        // in streaming mode the elements are parsed, validated and executed one at a time,
+        // otherwise we gather and validate all of them before executing any
+        Iterator<TransactionElement> elementStream = request.getElementStream();
+        Map elementHandlers = null;
+        if (elementStream == null) {
+            // List of type names, maintain this list because of the insert hack
+            // described below
+            // List typeNames = new ArrayList();
+            elementHandlers = gatherElementHandlers(request);
+    
+            // Gather feature types required by transaction elements and validate
+            // the elements
+            // finally gather FeatureStores required by Transaction Elements
+            // and configure them with our transaction
+            //
+            // (I am using element rather than transaction sub request
+            // to agree with the spec docs)
+            for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                TransactionElement element = (TransactionElement) entry.getKey();
+                TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
+                
+                prepareElement(element, handler, stores);
             }
         }
 
@@ -313,12 +239,25 @@ public class Transaction {
         Exception exception = null;
 
         try {
-            for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
-                Map.Entry entry = (Map.Entry) it.next();
-                TransactionElement element = (TransactionElement) entry.getKey();
-                TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
-
-                handler.execute(element, request, stores, result, multiplexer);
+            if (elementHandlers != null) {
+                for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry entry = (Map.Entry) it.next();
+                    TransactionElement element = (TransactionElement) entry.getKey();
+                    TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
+    
+                    handler.execute(element, request, stores, result, multiplexer);
+                }
+            } else {
+                // streaming mode, each element (or batch of inserted features) is released
+                // as soon as it's executed, all the changes are still committed or rolled
+                // back together at the end
+                while (elementStream.hasNext()) {
+                    TransactionElement element = elementStream.next();
+                    TransactionElementHandler handler = findElementHandler(element.getClass());
+                    
+                    prepareElement(element, handler, stores);
+                    handler.execute(element, request, stores, result, multiplexer);
+                }
             }
         } catch (WFSTransactionException e) {
             LOGGER.log(Level.SEVERE, "Transaction failed", e);
@@ -443,6 +382,89 @@ public class Transaction {
         // response = build;
     }
 
+    /**
+     * Looks up the feature types referenced by the element, checks the element validity and
+     * loads the feature stores it needs, configuring them with the current transaction
+     */
+    void prepareElement(TransactionElement element, TransactionElementHandler handler, Map stores)
+            throws WFSTransactionException {
+        Map featureTypeInfos = new HashMap();
+
+        QName[] typeNames = handler.getTypeNames(element);
+
+        for (int i = 0; i < typeNames.length; i++) {
+            final QName typeName = typeNames[i];
+            final String name = typeName.getLocalPart();
+            final String namespaceURI;
+
+            if (typeName.getNamespaceURI() != null) {
+                namespaceURI = typeName.getNamespaceURI();
+            } else {
+                namespaceURI = catalog.getDefaultNamespace().getURI();
+            }
+
+            LOGGER.fine("Locating FeatureSource uri:'" + namespaceURI + "' name:'" + name + "'");
+
+            final FeatureTypeInfo meta = catalog.getFeatureTypeByName(namespaceURI, name);
+
+            if (meta == null) {
+                String msg = "Feature type '" + name + "' is not available: ";
+                throw new WFSTransactionException(msg, (String) null, element.getHandle());
+            }
+
+            featureTypeInfos.put(typeName, meta);
+        }
+
+        // check element validity
+        handler.checkValidity(element, featureTypeInfos);
+
+        // go through all feature type infos data objects, and load feature
+        // stores
+        for (Iterator m = featureTypeInfos.values().iterator(); m.hasNext();) {
+            FeatureTypeInfo meta = (FeatureTypeInfo) m.next();
+            String typeRef = meta.getStore().getName() + ":" + meta.getName();
+
+            String URI = meta.getNamespace().getURI();
+            QName elementName = new QName(URI, meta.getName(),
+                    meta.getNamespace().getPrefix());
+            QName elementNameDefault = null;
+
+            if (catalog.getDefaultNamespace().getURI().equals(URI)) {
+                elementNameDefault = new QName(meta.getName());
+            }
+
+            LOGGER.fine("located FeatureType w/ typeRef '" + typeRef + "' and elementName '"
+                + elementName + "'");
+
+            if (stores.containsKey(elementName)) {
+                // typeName already loaded
+                continue;
+            }
+
+            try {
+                FeatureSource<? extends FeatureType, ? extends Feature> source = meta.getFeatureSource(null,null);
+
+                if (source instanceof FeatureStore) {
+                    FeatureStore<? extends FeatureType, ? extends Feature> store;
+                    store = (FeatureStore<? extends FeatureType, ? extends Feature>) source;
+                    store.setTransaction(transaction);
+                    stores.put(elementName, source);
+
+                    if (elementNameDefault != null) {
+                        stores.put(elementNameDefault, source);
+                    }
+                } else {
+                    String msg = elementName + " is read-only";
+                    throw new WFSTransactionException(msg, (String) null, element.getHandle());
+                }
+            } catch (IOException ioException) {
+                String msg = elementName + " is not available: "
+                    + ioException.getLocalizedMessage();
+                throw new WFSTransactionException(msg, ioException, element.getHandle());
+            }
+        }
+    }
+
     void fireAfterTransaction(TransactionRequest request, TransactionResponse result, boolean committed, TransactionPlugin tp) {
         TransactionType tx = TransactionRequest.WFS11.unadapt(request);
         TransactionResponseType tr = TransactionResponse.WFS11.unadapt(result);
@@ -566,6 +588,10 @@ public class Transaction {
         if (extendedProperties != null) {
             for (Entry<?, ?> e : extendedProperties.entrySet()) {
                 Object propKey = e.getKey();
+                if (TransactionRequest.ELEMENT_STREAM.equals(propKey)) {
+                    // parser state, not something the datastores should see
+                    continue;
+                }
                 Object propValue = e.getValue();
                 transaction.putProperty(propKey, propValue);
             }
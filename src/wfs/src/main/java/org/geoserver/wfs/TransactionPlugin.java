@@ -14,7 +14,13 @@ import net.opengis.wfs.TransactionType;
  */
 public interface TransactionPlugin extends TransactionListener {
     /**
-     * Check/alter the transaction request elements
+     * Check/alter the transaction request elements.
+     * <p>
+     * When the request is parsed in streaming mode the elements are not available yet, plugins
+     * that need to check them can register a visitor with
+     * {@link org.geoserver.wfs.request.TransactionRequest#addElementVisitor} instead, see
+     * {@link org.geoserver.wfs.request.TransactionRequest#isStreaming()}.
+     * </p>
      */
     TransactionType beforeTransaction(TransactionType request)
         throws WFSException;
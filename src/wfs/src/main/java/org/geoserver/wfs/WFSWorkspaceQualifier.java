@@ -144,27 +144,43 @@ public class WFSWorkspaceQualifier extends WorkspaceQualifyingCallback {
             return;
         }
         
-        TransactionRequest t = TransactionRequest.adapt(
+        final TransactionRequest t = TransactionRequest.adapt(
             OwsUtils.parameter(operation.getParameters(), EObject.class));
         if (t != null) {
-            for (TransactionElement el : t.getElements()) {
-                if (el instanceof Insert) {
-                    Insert in = (Insert) el;
-                    //in the insert case the objects are gt feature types which are not mutable
-                    // so we just check them and throw an exception if a name does not match
-                    for (Iterator j = in.getFeatures().iterator(); j.hasNext(); ) {
-                        Feature f = (Feature) j.next();
-                        Name n = f.getType().getName();
-                        if (n.getNamespaceURI() != null && !ns.getURI().equals(n.getNamespaceURI())) {
-                            throw new WFSException(t, "No such feature type " + n);
-                        }
+            if (t.isStreaming()) {
+                // the elements are not parsed yet, qualify them as they get parsed
+                final WorkspaceInfo ws = workspace;
+                final NamespaceInfo nsInfo = ns;
+                t.addElementVisitor(new TransactionRequest.ElementVisitor() {
+                    public void visit(TransactionElement el) {
+                        qualifyElement(t, el, ws, nsInfo);
                     }
+                });
+            } else {
+                for (TransactionElement el : t.getElements()) {
+                    qualifyElement(t, el, workspace, ns);
                 }
-                else {
-                    el.setTypeName(qualifyTypeName(el.getTypeName(), workspace, ns));
+            }
+        }
+    }
+
+    void qualifyElement(TransactionRequest t, TransactionElement el, WorkspaceInfo workspace,
+            NamespaceInfo ns) {
+        if (el instanceof Insert) {
+            Insert in = (Insert) el;
+            //in the insert case the objects are gt feature types which are not mutable
+            // so we just check them and throw an exception if a name does not match
+            for (Iterator j = in.getFeatures().iterator(); j.hasNext(); ) {
+                Feature f = (Feature) j.next();
+                Name n = f.getType().getName();
+                if (n.getNamespaceURI() != null && !ns.getURI().equals(n.getNamespaceURI())) {
+                    throw new WFSException(t, "No such feature type " + n);
                 }
             }
         }
+        else {
+            el.setTypeName(qualifyTypeName(el.getTypeName(), workspace, ns));
+        }
     }
     
     void qualifyTypeNames(List names, WorkspaceInfo ws, NamespaceInfo ns) {
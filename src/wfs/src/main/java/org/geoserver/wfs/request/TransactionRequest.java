@@ -6,8 +6,10 @@ package org.geoserver.wfs.request;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import net.opengis.wfs.AllSomeType;
 import net.opengis.wfs.DeleteElementType;
@@ -25,6 +27,7 @@ import net.opengis.wfs20.Wfs20Factory;
 
 import org.eclipse.emf.ecore.EObject;
 import org.geotools.data.Transaction;
+import org.geotools.xml.EMFUtils;
 
 /**
  * WFS Transaction request.
@@ -44,6 +47,12 @@ public abstract class TransactionRequest extends RequestObject {
         return null;
     }
     
+    /**
+     * Extended property key under which a lazy iterator over the transaction elements is stored
+     * when the request is parsed in streaming mode
+     */
+    public static final String ELEMENT_STREAM = "org.geoserver.wfs.TransactionElementStream";
+
     private Transaction transaction;
     
     protected TransactionRequest(EObject adaptee) {
@@ -79,7 +88,125 @@ public abstract class TransactionRequest extends RequestObject {
     public abstract List<TransactionElement> getElements();
     
     public abstract TransactionResponse createResponse();
+
+    /**
+     * Wraps a single transaction element model object (insert, update, delete, ...) into its
+     * adapter
+     */
+    public abstract TransactionElement adaptElement(EObject element);
+
+    /**
+     * Appends a transaction element model object to the request elements
+     */
+    public abstract void addElement(EObject element);
+
+    /**
+     * Sets the source of the transaction elements for a request parsed in streaming mode. The
+     * element list of the request is empty in this case, elements are parsed as the stream
+     * is consumed. Returns false if the underlying request object cannot carry the stream.
+     */
+    public boolean setElementStream(Iterator<? extends EObject> stream) {
+        if (!EMFUtils.has(adaptee, "extendedProperties")) {
+            return false;
+        }
+        Map properties = getExtendedProperties();
+        if (properties == null) {
+            properties = new HashMap();
+            eSet(adaptee, "extendedProperties", properties);
+        }
+        properties.put(ELEMENT_STREAM, stream);
+        return true;
+    }
+
+    /**
+     * Returns true if the request has been parsed in streaming mode, in which case
+     * {@link #getElements()} is empty and the elements are only available through the
+     * {@link #getElementStream() element stream}
+     */
+    public boolean isStreaming() {
+        Map properties = getExtendedProperties();
+        return properties != null && properties.get(ELEMENT_STREAM) instanceof Iterator;
+    }
+
+    /**
+     * Registers a visitor called on each element of a streaming request as soon as it's parsed,
+     * before the element is executed. This is the way for dispatcher callbacks and transaction
+     * plugins to inspect or alter the elements of a streaming request, since they are not
+     * parsed yet when the request is dispatched. The visitor can reject the element, and with
+     * it the whole transaction, by throwing an exception.
+     * 
+     * @throws IllegalStateException if the request is not a streaming one
+     */
+    public void addElementVisitor(final ElementVisitor visitor) {
+        if (!isStreaming()) {
+            throw new IllegalStateException("Not a streaming transaction request");
+        }
+        final Map properties = getExtendedProperties();
+        final Iterator<? extends EObject> stream = (Iterator) properties.get(ELEMENT_STREAM);
+        properties.put(ELEMENT_STREAM, new Iterator<EObject>() {
+            public boolean hasNext() {
+                return stream.hasNext();
+            }
+
+            public EObject next() {
+                EObject element = stream.next();
+                visitor.visit(adaptStreamedElement(element));
+                return element;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * Adapts an element of the stream. The transaction plugins get a WFS 1.1 copy of WFS 2.0
+     * requests sharing the same stream, so the element version might not match this adapter one.
+     */
+    TransactionElement adaptStreamedElement(EObject element) {
+        if (element instanceof DeleteElementType || element instanceof InsertElementType
+                || element instanceof UpdateElementType || element instanceof NativeType) {
+            return new WFS11(adaptee).adaptElement(element);
+        }
+        return new WFS20(adaptee).adaptElement(element);
+    }
+
+    /**
+     * Returns the transaction elements as a lazy iterator if the request has been parsed in
+     * streaming mode, or null otherwise. The stream can be consumed only once.
+     */
+    public Iterator<TransactionElement> getElementStream() {
+        if (!isStreaming()) {
+            return null;
+        }
+
+        final Iterator<? extends EObject> stream = (Iterator) getExtendedProperties().get(
+                ELEMENT_STREAM);
+        return new Iterator<TransactionElement>() {
+            public boolean hasNext() {
+                return stream.hasNext();
+            }
+
+            public TransactionElement next() {
+                return adaptElement(stream.next());
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
     
+    /**
+     * Visits the elements of a streaming transaction as they are parsed, see
+     * {@link TransactionRequest#addElementVisitor(ElementVisitor)}
+     */
+    public interface ElementVisitor {
+
+        void visit(TransactionElement element);
+    }
+
     public static class WFS11 extends TransactionRequest {
         public WFS11(EObject adaptee) {
             super(adaptee);
@@ -104,27 +231,49 @@ public abstract class TransactionRequest extends RequestObject {
         public List<TransactionElement> getElements() {
             List<TransactionElement> list = new ArrayList();
             for (Iterator it = ((TransactionType)adaptee).getGroup().valueListIterator(); it.hasNext(); ) {
-                EObject el = (EObject) it.next();
-                if (el instanceof DeleteElementType) {
-                    list.add(new Delete.WFS11(el));
-                }
-                else if (el instanceof InsertElementType) {
-                    list.add(new Insert.WFS11(el));
-                }
-                else if (el instanceof UpdateElementType) {
-                    list.add(new Update.WFS11(el));
-                }
-                else if (el instanceof NativeType) {
-                    list.add(new Native.WFS11(el));
-                }
-                else {
-                    throw new IllegalArgumentException("Unrecognized transaction element: " + el);
-                }
+                list.add(adaptElement((EObject) it.next()));
             }
             
             return list;
         }
         
+        @Override
+        public void addElement(EObject el) {
+            TransactionType tx = (TransactionType) adaptee;
+            if (el instanceof DeleteElementType) {
+                tx.getDelete().add((DeleteElementType) el);
+            }
+            else if (el instanceof InsertElementType) {
+                tx.getInsert().add((InsertElementType) el);
+            }
+            else if (el instanceof UpdateElementType) {
+                tx.getUpdate().add((UpdateElementType) el);
+            }
+            else if (el instanceof NativeType) {
+                tx.getNative().add((NativeType) el);
+            }
+            else {
+                throw new IllegalArgumentException("Unrecognized transaction element: " + el);
+            }
+        }
+        
+        @Override
+        public TransactionElement adaptElement(EObject el) {
+            if (el instanceof DeleteElementType) {
+                return new Delete.WFS11(el);
+            }
+            else if (el instanceof InsertElementType) {
+                return new Insert.WFS11(el);
+            }
+            else if (el instanceof UpdateElementType) {
+                return new Update.WFS11(el);
+            }
+            else if (el instanceof NativeType) {
+                return new Native.WFS11(el);
+            }
+            throw new IllegalArgumentException("Unrecognized transaction element: " + el);
+        }
+        
         @Override
         public TransactionResponse createResponse() {
             WfsFactory factory = (WfsFactory) getFactory();
@@ -202,29 +351,38 @@ public abstract class TransactionRequest extends RequestObject {
             Iterator it = ((net.opengis.wfs20.TransactionType)adaptee)
                 .getAbstractTransactionAction().iterator();
             while(it.hasNext()) {
-                EObject el = (EObject) it.next();
-                if (el instanceof DeleteType) {
-                    list.add(new Delete.WFS20(el));
-                }
-                else if (el instanceof InsertType) {
-                    list.add(new Insert.WFS20(el));
-                }
-                else if (el instanceof UpdateType) {
-                    list.add(new Update.WFS20(el));
-                }
-                else if (el instanceof ReplaceType) {
-                    list.add(new Replace.WFS20(el));
-                }
-                else if (el instanceof net.opengis.wfs20.NativeType) {
-                    list.add(new Native.WFS20(el));
-                }
-                else {
-                    throw new IllegalArgumentException("Unrecognized transaction element: " + el);
-                }
+                list.add(adaptElement((EObject) it.next()));
             }
             return list;
         }
         
+        @Override
+        public void addElement(EObject el) {
+            // the generated list is typed on the abstract action class
+            ((List) ((net.opengis.wfs20.TransactionType)adaptee).getAbstractTransactionAction())
+                .add(el);
+        }
+        
+        @Override
+        public TransactionElement adaptElement(EObject el) {
+            if (el instanceof DeleteType) {
+                return new Delete.WFS20(el);
+            }
+            else if (el instanceof InsertType) {
+                return new Insert.WFS20(el);
+            }
+            else if (el instanceof UpdateType) {
+                return new Update.WFS20(el);
+            }
+            else if (el instanceof ReplaceType) {
+                return new Replace.WFS20(el);
+            }
+            else if (el instanceof net.opengis.wfs20.NativeType) {
+                return new Native.WFS20(el);
+            }
+            throw new IllegalArgumentException("Unrecognized transaction element: " + el);
+        }
+        
         @Override
         public TransactionResponse createResponse() {
             Wfs20Factory factory = (Wfs20Factory) getFactory();
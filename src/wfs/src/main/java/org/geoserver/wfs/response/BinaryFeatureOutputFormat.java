@@ -0,0 +1,573 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.WFSGetFeatureOutputFormat;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * WFS output format writing a compact, length prefixed binary encoding of simple features,
+ * modeled after FlatGeobuf.
+ * <p>
+ * All numbers are little endian, strings are written as a uint32 byte length followed by UTF-8
+ * bytes. The layout is:
+ *
+ * <pre>
+ * stream   := 'G' 'S' 'B' 'F' version(uint8) layer*
+ * layer    := headerLength(uint32) header index? feature* 0(uint32)
+ * header   := name(string) namespace(string) geometryColumn(int16) geometryType(uint8)
+ *             srid(int32) featureCount(int64) extent(4 x float64) indexNodeSize(uint16)
+ *             columnCount(uint16) column*
+ * column   := name(string) type(uint8)
+ * index    := node*, packed Hilbert R-tree, root first, each node is 4 x float64 + uint64
+ * feature  := length(uint32) fid(string) (columnIndex(uint16) value)*
+ * geometry := type(uint8) body, the 0x80 bit of the type flags 3D coordinates
+ * </pre>
+ *
+ * Null attributes are simply omitted. Geometry types follow the WKB codes, a Point is a single
+ * coordinate, a LineString is a uint32 count followed by the packed coordinates, a Polygon a
+ * uint32 ring count, the ring end positions and all the packed coordinates, collections a uint32
+ * part count followed by the parts.
+ * </p>
+ * <p>
+ * Without an index the features are encoded straight out of the feature iterator, the feature
+ * count is -1 and the extent is made of NaNs. When the "index" format option is set to true the
+ * features are spilled to disk, then written out sorted along a Hilbert curve, preceded by a
+ * packed R-tree whose leaves point to the feature byte offsets within the feature section of the
+ * layer.
+ * </p>
+ */
+public class BinaryFeatureOutputFormat extends WFSGetFeatureOutputFormat {
+
+    public static final String MIME_TYPE = "application/x-geoserver-features";
+
+    static final byte[] MAGIC = new byte[] { 'G', 'S', 'B', 'F' };
+
+    static final int VERSION = 1;
+
+    /**
+     * Default number of children of each R-tree node
+     */
+    public static final int DEFAULT_NODE_SIZE = 16;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Column types */
+    static final byte BOOLEAN = 0, BYTE = 1, SHORT = 2, INT = 3, LONG = 4, FLOAT = 5, DOUBLE = 6,
+            STRING = 7, DATETIME = 8, BINARY = 9, GEOMETRY = 10;
+
+    /** Geometry types, as per WKB */
+    static final byte UNKNOWN = 0, POINT = 1, LINESTRING = 2, POLYGON = 3, MULTIPOINT = 4,
+            MULTILINESTRING = 5, MULTIPOLYGON = 6, GEOMETRYCOLLECTION = 7;
+
+    static final int HAS_Z = 0x80;
+
+    public BinaryFeatureOutputFormat(GeoServer gs) {
+        super(gs, "binary");
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public String getPreferredDisposition(Object value, Operation operation) {
+        return DISPOSITION_ATTACH;
+    }
+
+    @Override
+    public String getAttachmentFileName(Object value, Operation operation) {
+        GetFeatureRequest request = GetFeatureRequest.adapt(operation.getParameters()[0]);
+        String outputFileName = request.getQueries().get(0).getTypeNames().get(0).getLocalPart();
+        return outputFileName + ".gsbf";
+    }
+
+    @Override
+    public String getCapabilitiesElementName() {
+        return "BINARY";
+    }
+
+    @Override
+    protected void write(FeatureCollectionResponse featureCollection, OutputStream output,
+            Operation getFeature) throws IOException, ServiceException {
+        GetFeatureRequest request = GetFeatureRequest.adapt(getFeature.getParameters()[0]);
+        boolean index = isIndexed(request);
+
+        List<FeatureCollection> collections = featureCollection.getFeatures();
+        for (FeatureCollection fc : collections) {
+            if (!(fc instanceof SimpleFeatureCollection)) {
+                throw new WFSException(request, "The binary output format only supports "
+                        + "simple features, " + fc.getSchema().getName() + " is complex");
+            }
+        }
+
+        OutputStream os = new BufferedOutputStream(output);
+        os.write(MAGIC);
+        os.write(VERSION);
+        for (FeatureCollection fc : collections) {
+            if (index) {
+                writeIndexedLayer((SimpleFeatureCollection) fc, os);
+            } else {
+                writeLayer((SimpleFeatureCollection) fc, os);
+            }
+        }
+        os.flush();
+    }
+
+    boolean isIndexed(GetFeatureRequest request) {
+        if (request != null && request.getFormatOptions() != null) {
+            Object index = request.getFormatOptions().get("INDEX");
+            if (index != null) {
+                return Boolean.valueOf(String.valueOf(index));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a layer straight out of the feature iterator
+     */
+    void writeLayer(SimpleFeatureCollection fc, OutputStream os) throws IOException {
+        SimpleFeatureType schema = fc.getSchema();
+        double[] extent = new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+        writeHeader(schema, -1, extent, 0, os);
+
+        FeatureBuffer buffer = new FeatureBuffer();
+        SimpleFeatureIterator it = fc.features();
+        try {
+            while (it.hasNext()) {
+                buffer.reset();
+                encodeFeature(it.next(), buffer);
+                buffer.writePrefixedTo(os);
+            }
+        } finally {
+            it.close();
+        }
+        writeInt(os, 0);
+    }
+
+    /**
+     * Writes a layer sorted along the Hilbert curve and preceded by a packed R-tree. The encoded
+     * features are spilled to a temporary file, only their envelopes and offsets are kept in
+     * memory.
+     */
+    void writeIndexedLayer(SimpleFeatureCollection fc, OutputStream os) throws IOException {
+        SimpleFeatureType schema = fc.getSchema();
+        File spill = File.createTempFile("binaryfeatures", ".tmp");
+        try {
+            // first pass, encode the features and collect their envelopes
+            int count = 0;
+            double[] boxes = new double[1024 * 4];
+            long[] offsets = new long[1024];
+            double[] extent = new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+            long offset = 0;
+            OutputStream spillStream = new BufferedOutputStream(new FileOutputStream(spill));
+            FeatureBuffer buffer = new FeatureBuffer();
+            SimpleFeatureIterator it = fc.features();
+            try {
+                while (it.hasNext()) {
+                    SimpleFeature f = it.next();
+                    buffer.reset();
+                    encodeFeature(f, buffer);
+                    buffer.writePrefixedTo(spillStream);
+
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                        boxes = Arrays.copyOf(boxes, count * 8);
+                    }
+                    offsets[count] = offset;
+                    offset += buffer.size() + 4;
+
+                    Geometry g = (Geometry) f.getDefaultGeometry();
+                    if (g == null || g.isEmpty()) {
+                        Arrays.fill(boxes, count * 4, count * 4 + 4, Double.NaN);
+                    } else {
+                        Envelope env = g.getEnvelopeInternal();
+                        boxes[count * 4] = env.getMinX();
+                        boxes[count * 4 + 1] = env.getMinY();
+                        boxes[count * 4 + 2] = env.getMaxX();
+                        boxes[count * 4 + 3] = env.getMaxY();
+                        extent[0] = PackedHilbertRTree.min(extent[0], env.getMinX());
+                        extent[1] = PackedHilbertRTree.min(extent[1], env.getMinY());
+                        extent[2] = PackedHilbertRTree.max(extent[2], env.getMaxX());
+                        extent[3] = PackedHilbertRTree.max(extent[3], env.getMaxY());
+                    }
+                    count++;
+                }
+            } finally {
+                it.close();
+                spillStream.close();
+            }
+
+            // sort along the Hilbert curve and build the tree with the final offsets
+            int[] order = PackedHilbertRTree.sort(boxes, count, extent);
+            PackedHilbertRTree tree = new PackedHilbertRTree(count, DEFAULT_NODE_SIZE);
+            long sortedOffset = 0;
+            for (int i = 0; i < count; i++) {
+                int item = order[i];
+                tree.setLeaf(i, boxes[item * 4], boxes[item * 4 + 1], boxes[item * 4 + 2],
+                        boxes[item * 4 + 3], sortedOffset);
+                sortedOffset += featureLength(offsets, item, count, offset);
+            }
+            tree.build();
+
+            writeHeader(schema, count, extent, DEFAULT_NODE_SIZE, os);
+            byte[] node = new byte[40];
+            for (int i = 0; i < tree.getNumNodes(); i++) {
+                putLong(node, 0, Double.doubleToLongBits(tree.bounds[i * 4]));
+                putLong(node, 8, Double.doubleToLongBits(tree.bounds[i * 4 + 1]));
+                putLong(node, 16, Double.doubleToLongBits(tree.bounds[i * 4 + 2]));
+                putLong(node, 24, Double.doubleToLongBits(tree.bounds[i * 4 + 3]));
+                putLong(node, 32, tree.offsets[i]);
+                os.write(node);
+            }
+
+            // second pass, copy the features in Hilbert order
+            RandomAccessFile raf = new RandomAccessFile(spill, "r");
+            try {
+                byte[] copy = new byte[8192];
+                for (int i = 0; i < count; i++) {
+                    int item = order[i];
+                    long length = featureLength(offsets, item, count, offset);
+                    raf.seek(offsets[item]);
+                    while (length > 0) {
+                        int read = raf.read(copy, 0, (int) Math.min(copy.length, length));
+                        if (read < 0) {
+                            throw new IOException("Unexpected end of the feature spill file");
+                        }
+                        os.write(copy, 0, read);
+                        length -= read;
+                    }
+                }
+            } finally {
+                raf.close();
+            }
+            writeInt(os, 0);
+        } finally {
+            spill.delete();
+        }
+    }
+
+    long featureLength(long[] offsets, int item, int count, long end) {
+        return (item == count - 1 ? end : offsets[item + 1]) - offsets[item];
+    }
+
+    void writeHeader(SimpleFeatureType schema, long featureCount, double[] extent,
+            int nodeSize, OutputStream os) throws IOException {
+        FeatureBuffer header = new FeatureBuffer();
+        header.writeString(schema.getTypeName());
+        header.writeString(schema.getName().getNamespaceURI());
+
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        int geometryColumn = -1;
+        byte geometryType = UNKNOWN;
+        int srid = 0;
+        if (gd != null) {
+            geometryColumn = schema.indexOf(gd.getLocalName());
+            geometryType = getGeometryType(gd.getType().getBinding());
+            CoordinateReferenceSystem crs = gd.getCoordinateReferenceSystem();
+            if (crs != null) {
+                try {
+                    Integer code = CRS.lookupEpsgCode(crs, false);
+                    if (code != null) {
+                        srid = code;
+                    }
+                } catch (Exception e) {
+                    LOGGER.fine("Could not find an EPSG code for " + crs);
+                }
+            }
+        }
+        header.writeShort(geometryColumn);
+        header.write(geometryType);
+        header.writeInt(srid);
+        header.writeLong(featureCount);
+        for (int i = 0; i < 4; i++) {
+            header.writeDouble(extent[i]);
+        }
+        header.writeShort(nodeSize);
+
+        List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+        header.writeShort(descriptors.size());
+        for (AttributeDescriptor ad : descriptors) {
+            header.writeString(ad.getLocalName());
+            header.write(getColumnType(ad));
+        }
+        header.writePrefixedTo(os);
+    }
+
+    byte getColumnType(AttributeDescriptor ad) {
+        if (ad instanceof GeometryDescriptor) {
+            return GEOMETRY;
+        }
+        Class<?> binding = ad.getType().getBinding();
+        if (Boolean.class.isAssignableFrom(binding)) {
+            return BOOLEAN;
+        } else if (Byte.class.isAssignableFrom(binding)) {
+            return BYTE;
+        } else if (Short.class.isAssignableFrom(binding)) {
+            return SHORT;
+        } else if (Integer.class.isAssignableFrom(binding)) {
+            return INT;
+        } else if (Long.class.isAssignableFrom(binding)) {
+            return LONG;
+        } else if (Float.class.isAssignableFrom(binding)) {
+            return FLOAT;
+        } else if (Double.class.isAssignableFrom(binding)) {
+            return DOUBLE;
+        } else if (Date.class.isAssignableFrom(binding)) {
+            return DATETIME;
+        } else if (byte[].class.isAssignableFrom(binding)) {
+            return BINARY;
+        } else if (Geometry.class.isAssignableFrom(binding)) {
+            return GEOMETRY;
+        }
+        // strings, big numbers and everything else
+        return STRING;
+    }
+
+    byte getGeometryType(Class<?> binding) {
+        if (Point.class.isAssignableFrom(binding)) {
+            return POINT;
+        } else if (LineString.class.isAssignableFrom(binding)) {
+            return LINESTRING;
+        } else if (Polygon.class.isAssignableFrom(binding)) {
+            return POLYGON;
+        } else if (MultiPoint.class.isAssignableFrom(binding)) {
+            return MULTIPOINT;
+        } else if (MultiLineString.class.isAssignableFrom(binding)) {
+            return MULTILINESTRING;
+        } else if (MultiPolygon.class.isAssignableFrom(binding)) {
+            return MULTIPOLYGON;
+        } else if (GeometryCollection.class.isAssignableFrom(binding)) {
+            return GEOMETRYCOLLECTION;
+        }
+        return UNKNOWN;
+    }
+
+    void encodeFeature(SimpleFeature f, FeatureBuffer buffer) throws IOException {
+        buffer.writeString(f.getID());
+        SimpleFeatureType schema = f.getFeatureType();
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            Object value = f.getAttribute(i);
+            if (value == null) {
+                continue;
+            }
+            buffer.writeShort(i);
+            encodeValue(getColumnType(schema.getDescriptor(i)), value, buffer);
+        }
+    }
+
+    void encodeValue(byte type, Object value, FeatureBuffer buffer) throws IOException {
+        switch (type) {
+        case BOOLEAN:
+            buffer.write(((Boolean) value).booleanValue() ? 1 : 0);
+            break;
+        case BYTE:
+            buffer.write(((Number) value).byteValue());
+            break;
+        case SHORT:
+            buffer.writeShort(((Number) value).shortValue());
+            break;
+        case INT:
+            buffer.writeInt(((Number) value).intValue());
+            break;
+        case LONG:
+            buffer.writeLong(((Number) value).longValue());
+            break;
+        case FLOAT:
+            buffer.writeInt(Float.floatToIntBits(((Number) value).floatValue()));
+            break;
+        case DOUBLE:
+            buffer.writeDouble(((Number) value).doubleValue());
+            break;
+        case DATETIME:
+            buffer.writeLong(((Date) value).getTime());
+            break;
+        case BINARY:
+            byte[] bytes = (byte[]) value;
+            buffer.writeInt(bytes.length);
+            buffer.write(bytes);
+            break;
+        case GEOMETRY:
+            encodeGeometry((Geometry) value, buffer);
+            break;
+        default:
+            buffer.writeString(toString(value));
+        }
+    }
+
+    String toString(Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        } else if (value instanceof BigInteger) {
+            return value.toString();
+        }
+        String converted = Converters.convert(value, String.class);
+        return converted != null ? converted : value.toString();
+    }
+
+    void encodeGeometry(Geometry g, FeatureBuffer buffer) {
+        boolean z = hasZ(g);
+        int flags = z ? HAS_Z : 0;
+        if (g instanceof Point && g.isEmpty()) {
+            // an empty point has no coordinates to write, use an empty collection instead
+            buffer.write(MULTIPOINT);
+            buffer.writeInt(0);
+        } else if (g instanceof Point) {
+            buffer.write(POINT | flags);
+            writeCoordinates(((Point) g).getCoordinateSequence(), z, buffer);
+        } else if (g instanceof LineString) {
+            CoordinateSequence cs = ((LineString) g).getCoordinateSequence();
+            buffer.write(LINESTRING | flags);
+            buffer.writeInt(cs.size());
+            writeCoordinates(cs, z, buffer);
+        } else if (g instanceof Polygon) {
+            Polygon p = (Polygon) g;
+            buffer.write(POLYGON | flags);
+            int rings = p.getNumInteriorRing() + 1;
+            buffer.writeInt(rings);
+            int end = 0;
+            for (int i = 0; i < rings; i++) {
+                end += ring(p, i).getNumPoints();
+                buffer.writeInt(end);
+            }
+            for (int i = 0; i < rings; i++) {
+                writeCoordinates(ring(p, i).getCoordinateSequence(), z, buffer);
+            }
+        } else if (g instanceof GeometryCollection) {
+            buffer.write(getGeometryType(g.getClass()) | flags);
+            buffer.writeInt(g.getNumGeometries());
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                encodeGeometry(g.getGeometryN(i), buffer);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type " + g.getClass());
+        }
+    }
+
+    LineString ring(Polygon p, int i) {
+        return i == 0 ? p.getExteriorRing() : p.getInteriorRingN(i - 1);
+    }
+
+    boolean hasZ(Geometry g) {
+        if (g.isEmpty()) {
+            return false;
+        }
+        double z = g.getCoordinate().z;
+        return !Double.isNaN(z);
+    }
+
+    void writeCoordinates(CoordinateSequence cs, boolean z, FeatureBuffer buffer) {
+        int size = cs.size();
+        boolean hasZ = z && cs.getDimension() > 2;
+        for (int i = 0; i < size; i++) {
+            buffer.writeDouble(cs.getOrdinate(i, 0));
+            buffer.writeDouble(cs.getOrdinate(i, 1));
+            if (z) {
+                buffer.writeDouble(hasZ ? cs.getOrdinate(i, 2) : Double.NaN);
+            }
+        }
+    }
+
+    static void writeInt(OutputStream os, int value) throws IOException {
+        os.write(value);
+        os.write(value >>> 8);
+        os.write(value >>> 16);
+        os.write(value >>> 24);
+    }
+
+    static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Growable little endian buffer holding a single encoded feature or header
+     */
+    static class FeatureBuffer extends ByteArrayOutputStream {
+
+        FeatureBuffer() {
+            super(1024);
+        }
+
+        void writeShort(int value) {
+            write(value);
+            write(value >>> 8);
+        }
+
+        void writeInt(int value) {
+            write(value);
+            write(value >>> 8);
+            write(value >>> 16);
+            write(value >>> 24);
+        }
+
+        void writeLong(long value) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (value >>> (8 * i)));
+            }
+        }
+
+        void writeDouble(double value) {
+            writeLong(Double.doubleToLongBits(value));
+        }
+
+        void writeString(String value) throws IOException {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF8);
+            writeInt(bytes.length);
+            write(bytes);
+        }
+
+        /**
+         * Writes the buffer contents prefixed by their length
+         */
+        void writePrefixedTo(OutputStream out) throws IOException {
+            BinaryFeatureOutputFormat.writeInt(out, count);
+            out.write(buf, 0, count);
+        }
+    }
+}
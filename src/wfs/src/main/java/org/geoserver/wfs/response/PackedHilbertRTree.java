@@ -0,0 +1,220 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.util.Arrays;
+
+/**
+ * A static, packed R-tree whose leaves are sorted along a Hilbert curve, as used by
+ * {@link BinaryFeatureOutputFormat}.
+ * <p>
+ * The tree is stored as a flat array of nodes, root first and leaves last. Each node holds its
+ * bounding box and an offset: for leaves it's the byte offset of the feature in the feature
+ * section, for the other nodes it's the position of the first child in the node array. A node has
+ * at most {@link #getNodeSize()} children, and the children of a node are contiguous.
+ * </p>
+ */
+class PackedHilbertRTree {
+
+    /**
+     * Resolution of the Hilbert curve on each axis
+     */
+    static final int HILBERT_MAX = (1 << 16) - 1;
+
+    int nodeSize;
+
+    int numItems;
+
+    /**
+     * Number of nodes in each level, leaves first
+     */
+    int[] levelNumNodes;
+
+    /**
+     * Position of the first node of each level, leaves first
+     */
+    int[] levelStart;
+
+    int numNodes;
+
+    double[] bounds;
+
+    long[] offsets;
+
+    /**
+     * Computes the tree layout for the given number of items
+     */
+    PackedHilbertRTree(int numItems, int nodeSize) {
+        if (nodeSize < 2) {
+            throw new IllegalArgumentException("Node size must be at least 2");
+        }
+        this.numItems = numItems;
+        this.nodeSize = nodeSize;
+
+        int levels = 1;
+        int n = numItems;
+        while (n > 1) {
+            n = (n + nodeSize - 1) / nodeSize;
+            levels++;
+        }
+        levelNumNodes = new int[levels];
+        n = numItems;
+        numNodes = 0;
+        for (int i = 0; i < levels; i++) {
+            levelNumNodes[i] = n;
+            numNodes += n;
+            n = (n + nodeSize - 1) / nodeSize;
+        }
+        levelStart = new int[levels];
+        int start = numNodes;
+        for (int i = 0; i < levels; i++) {
+            start -= levelNumNodes[i];
+            levelStart[i] = start;
+        }
+
+        bounds = new double[numNodes * 4];
+        offsets = new long[numNodes];
+    }
+
+    int getNodeSize() {
+        return nodeSize;
+    }
+
+    int getNumNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Sets the i-th leaf (in Hilbert order)
+     */
+    void setLeaf(int i, double minX, double minY, double maxX, double maxY, long offset) {
+        int node = levelStart[0] + i;
+        bounds[node * 4] = minX;
+        bounds[node * 4 + 1] = minY;
+        bounds[node * 4 + 2] = maxX;
+        bounds[node * 4 + 3] = maxY;
+        offsets[node] = offset;
+    }
+
+    /**
+     * Builds the upper levels out of the leaves. Leaves with a NaN bounding box (features without
+     * a geometry) do not contribute to their parent bounds.
+     */
+    void build() {
+        for (int level = 0; level < levelNumNodes.length - 1; level++) {
+            int child = levelStart[level];
+            int childEnd = child + levelNumNodes[level];
+            int parent = levelStart[level + 1];
+            while (child < childEnd) {
+                double minX = Double.NaN, minY = Double.NaN, maxX = Double.NaN, maxY = Double.NaN;
+                offsets[parent] = child;
+                for (int j = 0; j < nodeSize && child < childEnd; j++, child++) {
+                    if (Double.isNaN(bounds[child * 4])) {
+                        continue;
+                    }
+                    minX = min(minX, bounds[child * 4]);
+                    minY = min(minY, bounds[child * 4 + 1]);
+                    maxX = max(maxX, bounds[child * 4 + 2]);
+                    maxY = max(maxY, bounds[child * 4 + 3]);
+                }
+                bounds[parent * 4] = minX;
+                bounds[parent * 4 + 1] = minY;
+                bounds[parent * 4 + 2] = maxX;
+                bounds[parent * 4 + 3] = maxY;
+                parent++;
+            }
+        }
+    }
+
+    static double min(double current, double value) {
+        return Double.isNaN(current) || value < current ? value : current;
+    }
+
+    static double max(double current, double value) {
+        return Double.isNaN(current) || value > current ? value : current;
+    }
+
+    /**
+     * Returns the items order along the Hilbert curve. The centers of the boxes are mapped on a
+     * 2^16 x 2^16 grid covering the extent, items with a NaN box are sorted first.
+     *
+     * @param boxes The item boxes, as minx, miny, maxx, maxy quadruplets
+     * @param count The number of items
+     * @param extent The overall extent, as minx, miny, maxx, maxy
+     */
+    static int[] sort(double[] boxes, int count, double[] extent) {
+        double width = extent[2] - extent[0];
+        double height = extent[3] - extent[1];
+        // hilbert value in the upper 32 bits, item position in the lower 31
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            long h = 0;
+            if (!Double.isNaN(boxes[i * 4])) {
+                double cx = (boxes[i * 4] + boxes[i * 4 + 2]) / 2;
+                double cy = (boxes[i * 4 + 1] + boxes[i * 4 + 3]) / 2;
+                int x = width > 0 ? (int) Math.floor(HILBERT_MAX * (cx - extent[0]) / width) : 0;
+                int y = height > 0 ? (int) Math.floor(HILBERT_MAX * (cy - extent[1]) / height) : 0;
+                h = hilbert(x, y) & 0xFFFFFFFFL;
+            }
+            keys[i] = (h << 31) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) (keys[i] & 0x7FFFFFFFL);
+        }
+        return order;
+    }
+
+    /**
+     * Position of (x, y) along the Hilbert curve covering a 2^16 x 2^16 grid (based on the public
+     * domain "Fast Hilbert curve generation, sorting, and range queries" algorithm)
+     */
+    static int hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >> 1);
+        int B = (a >> 1) ^ a;
+        int C = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+        int D = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+        a = A; b = B; c = C; d = D;
+        A = ((a & (a >> 2)) ^ (b & (b >> 2)));
+        B = ((a & (b >> 2)) ^ (b & ((a ^ b) >> 2)));
+        C ^= ((a & (c >> 2)) ^ (b & (d >> 2)));
+        D ^= ((b & (c >> 2)) ^ ((a ^ b) & (d >> 2)));
+
+        a = A; b = B; c = C; d = D;
+        A = ((a & (a >> 4)) ^ (b & (b >> 4)));
+        B = ((a & (b >> 4)) ^ (b & ((a ^ b) >> 4)));
+        C ^= ((a & (c >> 4)) ^ (b & (d >> 4)));
+        D ^= ((b & (c >> 4)) ^ ((a ^ b) & (d >> 4)));
+
+        a = A; b = B; c = C; d = D;
+        C ^= ((a & (c >> 8)) ^ (b & (d >> 8)));
+        D ^= ((b & (c >> 8)) ^ ((a ^ b) & (d >> 8)));
+
+        a = C ^ (C >> 1);
+        b = D ^ (D >> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return (i1 << 1) | i0;
+    }
+}
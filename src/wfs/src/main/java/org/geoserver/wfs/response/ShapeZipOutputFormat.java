@@ -13,6 +13,7 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -29,8 +30,14 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
@@ -79,8 +86,11 @@ import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.FactoryException;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
@@ -105,15 +115,34 @@ import freemarker.template.Template;
  * @author ported to gs 1.6.x by Saul Farber, MassGIS, saul.farber@state.ma.us
  *
  */
-public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements ApplicationContextAware {
+public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements ApplicationContextAware, DisposableBean {
     private static final Logger LOGGER = Logging.getLogger(ShapeZipOutputFormat.class);
     public static final String GS_SHAPEFILE_CHARSET = "GS-SHAPEFILE-CHARSET";
     public static final String SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI = "SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI";
+    public static final String SHAPE_ZIP_STREAMING = "SHAPE-ZIP_STREAMING";
+    
+    /**
+     * Max number of feature collections written in parallel in streaming mode, across all the
+     * requests
+     */
+    static final int MAX_PARALLEL_WRITERS = Runtime.getRuntime().availableProcessors();
     
     private static final Configuration templateConfig = new Configuration();
     
+    /**
+     * The files that end up in the zip
+     */
+    static final FilenameFilter SHAPEFILE_FILTER = new FilenameFilter() {
+        
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
+                   || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
+        }
+    };
+    
     private ApplicationContext applicationContext;
     private Catalog catalog;
+    private ExecutorService writers;
 	private GeoServerResourceLoader resourceLoader;
     
     /**
@@ -213,6 +242,11 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      */
     public void write(List<SimpleFeatureCollection> collections, Charset charset, OutputStream output, 
         GetFeatureRequest request) throws IOException, ServiceException {
+        if (isStreaming(request)) {
+            writeStreaming(collections, charset, output, request);
+            return;
+        }
+        
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
         File tempDir = IOUtils.createTempDirectory("shpziptemp");
@@ -254,15 +288,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             createRequestDump(tempDir, request, collections.get(0));
             
             // zip all the files produced
-            final FilenameFilter filter = new FilenameFilter() {
-            
-                public boolean accept(File dir, String name) {
-                    return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
-                           || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
-                }
-            };
             ZipOutputStream zipOut = new ZipOutputStream(output);
-            IOUtils.zipDirectory(tempDir, zipOut, filter);
+            IOUtils.zipDirectory(tempDir, zipOut, SHAPEFILE_FILTER);
             zipOut.finish();
 
             // This is an error, because this closes the output stream too... it's
@@ -278,6 +305,195 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }
     }
 
+    /**
+     * Writes out the zip in streaming mode: each feature collection is written in its own
+     * temporary directory (several of them in parallel), and its files are added to the zip and
+     * removed as soon as it's complete. This way the client starts receiving data after the first
+     * collection is written, and the temporary disk usage is bounded by the collections being
+     * written at a given time instead of the whole output.
+     */
+    void writeStreaming(final List<SimpleFeatureCollection> collections, final Charset charset,
+            OutputStream output, final GetFeatureRequest request) throws IOException,
+            ServiceException {
+        // check all collections can be written before starting to send out data
+        for (SimpleFeatureCollection curCollection : collections) {
+            if (curCollection.getSchema().getGeometryDescriptor() == null) {
+                throw new WFSException(request, "Cannot write geometryless shapefiles, yet "
+                        + curCollection.getSchema() + " has no geometry field");
+            }
+        }
+
+        File tempDir = IOUtils.createTempDirectory("shpziptemp");
+        ZipOutputStream zipOut = new ZipOutputStream(output);
+        Set<String> entries = new HashSet<String>();
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        try {
+            // the writers run in other threads, make sure they see the same security and
+            // request context as the current one
+            final SecurityContext securityContext = SecurityContextHolder.getContext();
+            final Request dispatcherRequest = Dispatcher.REQUEST.get();
+            
+            ExecutorService executor = getWriters();
+            List<File> directories = new ArrayList<File>();
+            for (int i = 0; i < collections.size(); i++) {
+                final SimpleFeatureCollection collection = collections.get(i);
+                final File directory = new File(tempDir, "fc" + i);
+                directory.mkdir();
+                directories.add(directory);
+                results.add(executor.submit(new Callable<Boolean>() {
+
+                    public Boolean call() throws Exception {
+                        SecurityContextHolder.setContext(securityContext);
+                        Dispatcher.REQUEST.set(dispatcherRequest);
+                        try {
+                            return writeCollection(collection, directory, charset, request);
+                        } finally {
+                            Dispatcher.REQUEST.remove();
+                            SecurityContextHolder.clearContext();
+                        }
+                    }
+                }));
+            }
+
+            // zip each collection in request order as soon as it's ready
+            boolean shapefileCreated = false;
+            for (int i = 0; i < results.size(); i++) {
+                shapefileCreated |= getResult(results.get(i));
+                zipAndDelete(directories.get(i), zipOut, entries);
+            }
+
+            // take care of the case the output is completely empty
+            if (!shapefileCreated) {
+                SimpleFeatureCollection fc = remapCollectionSchema(collections.get(0), Point.class);
+                File directory = new File(tempDir, "empty");
+                directory.mkdir();
+                writeCollectionToShapefile(fc, directory, charset, request);
+                createEmptyZipWarning(directory);
+                zipAndDelete(directory, zipOut, entries);
+            }
+
+            // dump the request
+            createRequestDump(tempDir, request, collections.get(0));
+            zipAndDelete(tempDir, zipOut, entries);
+            
+            zipOut.finish();
+        } finally {
+            // stop the writers still running or queued if we failed midway
+            for (Future<Boolean> result : results) {
+                result.cancel(true);
+            }
+            try {
+                FileUtils.deleteDirectory(tempDir);
+            } catch(IOException e) {
+                LOGGER.warning("Could not delete temp directory: " + tempDir.getAbsolutePath() + " due to: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The pool writing the collections in streaming mode, shared by all requests so that the
+     * number of writer threads is bounded
+     */
+    synchronized ExecutorService getWriters() {
+        if (writers == null) {
+            writers = Executors.newFixedThreadPool(MAX_PARALLEL_WRITERS);
+        }
+        return writers;
+    }
+
+    public synchronized void destroy() {
+        if (writers != null) {
+            writers.shutdownNow();
+            writers = null;
+        }
+    }
+
+    /**
+     * Writes a collection into the specified directory, fanning it out into multiple shapefiles
+     * if the geometry type is generic
+     * @return true if a shapefile has been created, false otherwise
+     */
+    boolean writeCollection(SimpleFeatureCollection collection, File directory,
+            Charset charset, GetFeatureRequest request) {
+        Class geomType = collection.getSchema().getGeometryDescriptor().getType().getBinding();
+        if (GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
+            return writeCollectionToShapefiles(collection, directory, charset, request);
+        } else {
+            writeCollectionToShapefile(collection, directory, charset, request);
+            return true;
+        }
+    }
+
+    boolean getResult(Future<Boolean> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while writing the shapefiles", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new ServiceException(cause);
+        }
+    }
+
+    /**
+     * Adds the shapefile related files found in the directory to the zip, and removes them
+     * from the disk. Files whose name has already been added to the zip are skipped.
+     */
+    void zipAndDelete(File directory, ZipOutputStream zipOut, Set<String> entries)
+            throws IOException {
+        File[] files = directory.listFiles(SHAPEFILE_FILTER);
+        if (files == null) {
+            return;
+        }
+        byte[] buffer = new byte[16 * 1024];
+        for (File file : files) {
+            if (file.isDirectory()) {
+                continue;
+            }
+            if (entries.add(file.getName())) {
+                zipOut.putNextEntry(new ZipEntry(file.getName()));
+                InputStream in = new FileInputStream(file);
+                try {
+                    int c;
+                    while (-1 != (c = in.read(buffer))) {
+                        zipOut.write(buffer, 0, c);
+                    }
+                    zipOut.closeEntry();
+                } finally {
+                    in.close();
+                }
+            } else {
+                LOGGER.warning("Skipping " + file.getName()
+                        + " as a file with the same name has already been written in the zip");
+            }
+            file.delete();
+        }
+        zipOut.flush();
+    }
+
+    /**
+     * Checks if the zip should be written in streaming mode, either because the request
+     * asked for it with the STREAMING format option, or because it has been enabled in the
+     * WFS configuration
+     */
+    boolean isStreaming(GetFeatureRequest request) {
+        if (request != null && request.getFormatOptions() != null) {
+            Object streaming = request.getFormatOptions().get("STREAMING");
+            if (streaming != null) {
+                return Boolean.valueOf(String.valueOf(streaming));
+            }
+        }
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        Boolean streaming = wfs.getMetadata().get(SHAPE_ZIP_STREAMING, Boolean.class);
+        return streaming != null && streaming.booleanValue();
+    }
+
     /**
      * Dumps the request
      * @param simpleFeatureCollection
@@ -7,6 +7,7 @@ package org.geoserver.wfs.xml;
 import static org.geoserver.ows.util.ResponseUtils.buildURL;
 import static org.geoserver.ows.util.ResponseUtils.params;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -38,6 +39,7 @@ import org.eclipse.xsd.XSDSchemaContent;
 import org.eclipse.xsd.XSDTypeDefinition;
 import org.eclipse.xsd.impl.XSDSchemaImpl;
 import org.eclipse.xsd.util.XSDConstants;
+import org.eclipse.xsd.util.XSDResourceImpl;
 import org.eclipse.xsd.util.XSDSchemaLocator;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -153,6 +155,35 @@ public abstract class FeatureTypeSchemaBuilder {
         return schema;
     }
     
+    /**
+     * Builds the schema for the specified feature types and serializes it with the given
+     * encoding. The result is cached (see {@link FeatureTypeSchemaCache}), so repeated requests
+     * for the same set of types do not rebuild it.
+     */
+    public byte[] buildSerialized(FeatureTypeInfo[] featureTypeInfos, String baseUrl,
+            String encoding) throws IOException {
+        FeatureTypeSchemaCache cache = FeatureTypeSchemaCache.get();
+        FeatureTypeSchemaCache.SchemaKey key = null;
+        if (cache != null) {
+            key = cache.getKey(this, featureTypeInfos, baseUrl, encoding);
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        XSDSchema schema = build(featureTypeInfos, baseUrl);
+        schema.updateElement();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XSDResourceImpl.serialize(bos, schema.getElement(), encoding);
+        byte[] result = bos.toByteArray();
+
+        if (cache != null) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
     public final XSDSchema buildSchemaInternal(FeatureTypeInfo[] featureTypeInfos, String baseUrl, 
         boolean resolveAppSchemaImports) throws IOException {
 
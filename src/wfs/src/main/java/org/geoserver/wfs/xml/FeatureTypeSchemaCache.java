@@ -0,0 +1,276 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the serialized application schemas generated by {@link FeatureTypeSchemaBuilder}, so
+ * that repeated DescribeFeatureType requests for the same types do not rebuild them.
+ * <p>
+ * Entries are keyed by schema builder (that is, GML version), the set of feature types, the base
+ * URL, the encoding and the current user (the secure catalog might expose different attributes,
+ * and the URL manglers might add user specific parameters). Entries involving a feature type are
+ * evicted as soon as it changes, any change to stores, namespaces, workspaces or to the service
+ * configuration drops the whole cache.
+ * </p>
+ * <p>
+ * The maximum number of cached schemas can be set with the {@link #SCHEMA_CACHE_SIZE} property,
+ * a value of zero disables the cache.
+ * </p>
+ */
+public class FeatureTypeSchemaCache implements CatalogListener {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(FeatureTypeSchemaCache.class);
+
+    /**
+     * Name of the property controlling the maximum number of cached schemas
+     */
+    public static final String SCHEMA_CACHE_SIZE = "WFS_SCHEMA_CACHE_SIZE";
+
+    /**
+     * Default number of cached schemas
+     */
+    public static final int DEFAULT_SIZE = 100;
+
+    /**
+     * Looks up the cache in the application context, returns null if not found (e.g., in unit
+     * tests not setting up the context) or if disabled
+     */
+    public static FeatureTypeSchemaCache get() {
+        FeatureTypeSchemaCache cache = GeoServerExtensions.bean(FeatureTypeSchemaCache.class);
+        if (cache != null && cache.maxSize <= 0) {
+            return null;
+        }
+        return cache;
+    }
+
+    static int getConfiguredSize() {
+        String value = GeoServerExtensions.getProperty(SCHEMA_CACHE_SIZE);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + SCHEMA_CACHE_SIZE + ": " + value
+                        + ", using the default cache size");
+            }
+        }
+        return DEFAULT_SIZE;
+    }
+
+    /**
+     * Key of a cached schema
+     */
+    static final class SchemaKey {
+        final Class<?> builder;
+
+        final String[] typeIds;
+
+        final String baseUrl;
+
+        final String encoding;
+
+        final String user;
+
+        SchemaKey(Class<?> builder, FeatureTypeInfo[] featureTypes, String baseUrl,
+                String encoding, String user) {
+            this.builder = builder;
+            this.typeIds = new String[featureTypes.length];
+            for (int i = 0; i < featureTypes.length; i++) {
+                typeIds[i] = featureTypes[i].getId();
+            }
+            this.baseUrl = baseUrl;
+            this.encoding = encoding;
+            this.user = user;
+        }
+
+        boolean references(String id) {
+            for (String typeId : typeIds) {
+                if (typeId != null && typeId.equals(id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = builder.hashCode();
+            result = 31 * result + Arrays.hashCode(typeIds);
+            result = 31 * result + (baseUrl == null ? 0 : baseUrl.hashCode());
+            result = 31 * result + (encoding == null ? 0 : encoding.hashCode());
+            result = 31 * result + (user == null ? 0 : user.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SchemaKey)) {
+                return false;
+            }
+            SchemaKey other = (SchemaKey) obj;
+            return builder.equals(other.builder) && Arrays.equals(typeIds, other.typeIds)
+                    && equal(baseUrl, other.baseUrl) && equal(encoding, other.encoding)
+                    && equal(user, other.user);
+        }
+
+        static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+    final int maxSize;
+
+    final Map<SchemaKey, byte[]> schemas;
+
+    public FeatureTypeSchemaCache(GeoServer geoServer) {
+        this(geoServer, getConfiguredSize());
+    }
+
+    @SuppressWarnings("serial")
+    public FeatureTypeSchemaCache(GeoServer geoServer, int maxSize) {
+        this.maxSize = maxSize;
+        // access ordered, so that the least recently used schema gets evicted first
+        this.schemas = new LinkedHashMap<SchemaKey, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SchemaKey, byte[]> eldest) {
+                return size() > FeatureTypeSchemaCache.this.maxSize;
+            }
+        };
+
+        geoServer.getCatalog().addListener(this);
+        geoServer.addListener(new ConfigurationListenerAdapter() {
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                clear();
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                clear();
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                clear();
+            }
+
+            @Override
+            public void reloaded() {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Builds the cache key for the specified schema
+     */
+    SchemaKey getKey(FeatureTypeSchemaBuilder builder, FeatureTypeInfo[] featureTypes,
+            String baseUrl, String encoding) {
+        String user = null;
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            user = auth.getName();
+        }
+        return new SchemaKey(builder.getClass(), featureTypes, baseUrl, encoding, user);
+    }
+
+    /**
+     * Returns the cached schema, or null if not found
+     */
+    synchronized byte[] get(SchemaKey key) {
+        return schemas.get(key);
+    }
+
+    synchronized void put(SchemaKey key, byte[] schema) {
+        schemas.put(key, schema);
+    }
+
+    /**
+     * Number of cached schemas
+     */
+    public synchronized int size() {
+        return schemas.size();
+    }
+
+    /**
+     * Drops all the cached schemas
+     */
+    public synchronized void clear() {
+        schemas.clear();
+    }
+
+    /**
+     * Drops the cached schemas involving the specified feature type
+     */
+    synchronized void evict(String featureTypeId) {
+        for (Iterator<SchemaKey> it = schemas.keySet().iterator(); it.hasNext();) {
+            if (it.next().references(featureTypeId)) {
+                it.remove();
+            }
+        }
+    }
+
+    void handleEvent(CatalogEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof FeatureTypeInfo) {
+            evict(source.getId());
+        } else if (source instanceof StoreInfo || source instanceof NamespaceInfo
+                || source instanceof WorkspaceInfo) {
+            clear();
+        }
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // a new type cannot be part of any cached schema, but it might replace one with the
+        // same name that has been removed
+        handleEvent(event);
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        handleEvent(event);
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // we use the post event
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        handleEvent(event);
+    }
+
+    public void reloaded() {
+        clear();
+    }
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -108,11 +109,24 @@ public class GML32OutputFormat extends GML3OutputFormat {
     }
 
     @Override
-    protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+    protected Map<String, String> getAdditionalSchemaLocations(GetFeatureRequest request,
+            WFSInfo wfs) {
         //since wfs 2.0 schema does not depend on gml 3.2 schema we register it manually
         String loc = wfs.isCanonicalSchemaLocation() ? GML.CANONICAL_SCHEMA_LOCATION : 
             ResponseUtils.buildSchemaURL(request.getBaseUrl(), "gml/3.2.1/gml.xsd");
-        encoder.setSchemaLocation(GML.NAMESPACE, loc);
+        return Collections.singletonMap(GML.NAMESPACE, loc);
+    }
+
+    @Override
+    protected boolean canEncodeStreaming(FeatureCollectionResponse results) {
+        // multiple collections are nested into each other in wfs 2.0, leave them to the encoder
+        return results.getFeatures().size() == 1 && super.canEncodeStreaming(results);
+    }
+
+    @Override
+    protected GMLStreamingEncoder createStreamingEncoder(WFSInfo wfs, int numDecimals) {
+        return new GMLStreamingEncoder(GMLStreamingEncoder.Version.GML32, catalog, wfs.getGML()
+                .get(WFSInfo.Version.V_20).getSrsNameStyle().toSrsSyntax(), numDecimals);
     }
 
     @Override
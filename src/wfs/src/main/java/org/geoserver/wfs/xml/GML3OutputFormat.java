@@ -20,9 +20,11 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -196,15 +198,11 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         }
         
         //declare wfs schema location
-        Object gft = getFeature.getParameters()[0];
-        
-        Encoder encoder = createEncoder(configuration, ns2metas, gft);
-        encoder.setEncoding(Charset.forName( geoServer.getSettings().getCharset() ));
-
+        Map<String, String> schemaLocations = new LinkedHashMap<String, String>();
         if (wfs.isCanonicalSchemaLocation()) {
-            encoder.setSchemaLocation(getWfsNamespace(), getCanonicalWfsSchemaLocation());
+            schemaLocations.put(getWfsNamespace(), getCanonicalWfsSchemaLocation());
         } else {
-            encoder.setSchemaLocation(getWfsNamespace(),
+            schemaLocations.put(getWfsNamespace(),
                     buildSchemaURL(request.getBaseURL(), getRelativeWfsSchemaLocation()));
         }
 
@@ -212,6 +210,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         
         Map<String, String> params = params("service", "WFS", "version", request.getVersion(), 
                 "request", "DescribeFeatureType");
+        boolean userSchemas = false;
         for (Iterator i = ns2metas.entrySet().iterator(); i.hasNext();) {
             Map.Entry entry = (Map.Entry) i.next();
 
@@ -227,9 +226,8 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                     Object userSchemaLocation = featureType.getUserData().get("schemaURI");
                     if (userSchemaLocation != null && userSchemaLocation instanceof Map) {
                         Map<String, String> schemaURIs = (Map<String, String>) userSchemaLocation;
-                        for (String namespace : schemaURIs.keySet()) {
-                            encoder.setSchemaLocation(namespace, schemaURIs.get(namespace));
-                        }
+                        schemaLocations.putAll(schemaURIs);
+                        userSchemas = true;
                     } else {
                         typeNames.append(meta.getPrefixedName());
                         if (m.hasNext()) {
@@ -245,10 +243,31 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 String schemaLocation = buildURL(request.getBaseURL(), "wfs", params, URLType.SERVICE);
                 LOGGER.finer("Unable to find user-defined schema location for: " + namespaceURI
                         + ". Using a built schema location by default: " + schemaLocation);
-                encoder.setSchemaLocation(namespaceURI, schemaLocation);
+                schemaLocations.put(namespaceURI, schemaLocation);
             }
         }
+        schemaLocations.putAll(getAdditionalSchemaLocations(request, wfs));
+
+        // simple features can skip the binding based encoder entirely, types with user provided
+        // schemas are left to the encoder as their layout might not be the one we'd generate
+        if (!userSchemas && GMLStreamingEncoder.isEnabled() && canEncodeStreaming(results)) {
+            GMLStreamingEncoder streamingEncoder = createStreamingEncoder(wfs,
+                    getNumDecimals(ns2metas));
+            streamingEncoder.setEncoding(geoServer.getSettings().getCharset());
+            streamingEncoder.setFeatureBounding(wfs.isFeatureBounding());
+            streamingEncoder.setEncodeSrsDimension(!wfs.isCiteCompliant());
+            streamingEncoder.setEncodeFeatureMember(wfs.isEncodeFeatureMember());
+            streamingEncoder.encode(results, schemaLocations, output);
+            return;
+        }
 
+        Object gft = getFeature.getParameters()[0];
+        
+        Encoder encoder = createEncoder(configuration, ns2metas, gft);
+        encoder.setEncoding(Charset.forName( geoServer.getSettings().getCharset() ));
+        for (Map.Entry<String, String> location : schemaLocations.entrySet()) {
+            encoder.setSchemaLocation(location.getKey(), location.getValue());
+        }
         setAdditionalSchemaLocations(encoder, request, wfs);
         if (this.isComplexFeature(results)) {
             complexFeatureStreamIntercept(results, output, encoder);
@@ -266,6 +285,50 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
         //hook for subclasses
     }
+
+    /**
+     * Schema locations to be declared in the output in addition to the wfs and application
+     * schema ones, keyed by namespace URI
+     */
+    protected Map<String, String> getAdditionalSchemaLocations(GetFeatureRequest request,
+            WFSInfo wfs) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Returns true if the results can be written out by the {@link GMLStreamingEncoder}
+     */
+    protected boolean canEncodeStreaming(FeatureCollectionResponse results) {
+        return !isComplexFeature(results) && GMLStreamingEncoder.canEncode(results.getFeatures());
+    }
+
+    protected GMLStreamingEncoder createStreamingEncoder(WFSInfo wfs, int numDecimals) {
+        return new GMLStreamingEncoder(GMLStreamingEncoder.Version.GML31, catalog, wfs.getGML()
+                .get(WFSInfo.Version.V_11).getSrsNameStyle().toSrsSyntax(), numDecimals);
+    }
+
+    /**
+     * Number of decimals used to encode coordinates, the maximum among the ones configured on
+     * the feature types, or the global one if none is set
+     */
+    int getNumDecimals(Map<String, Set<ResourceInfo>> ns2metas) {
+        int numDecimals = -1;
+        for (Set<ResourceInfo> metas : ns2metas.values()) {
+            for (ResourceInfo meta : metas) {
+                if (meta instanceof FeatureTypeInfo) {
+                    int ftiDecimals = ((FeatureTypeInfo) meta).getNumDecimals();
+                    if (ftiDecimals > 0) {
+                        numDecimals = numDecimals == -1 ? ftiDecimals : Math.max(numDecimals,
+                                ftiDecimals);
+                    }
+                }
+            }
+        }
+        if (numDecimals == -1) {
+            numDecimals = geoServer.getSettings().getNumDecimals();
+        }
+        return numDecimals;
+    }
     
     protected void encode(FeatureCollectionResponse results, OutputStream output, Encoder encoder)
         throws IOException {
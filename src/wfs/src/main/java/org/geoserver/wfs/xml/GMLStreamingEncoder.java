@@ -0,0 +1,638 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.gml2.SrsSyntax;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Encodes simple feature collections as GML 3.1 (WFS 1.1) or GML 3.2 (WFS 2.0) writing directly
+ * to a {@link XMLStreamWriter}, without going through the GeoTools {@link org.geotools.xml.Encoder}
+ * binding machinery.
+ * <p>
+ * Element names and the encoding decision for each attribute are computed once per feature type,
+ * coordinates are written straight out of the geometries {@link CoordinateSequence}. Only simple
+ * features are supported, see {@link #canEncode(List)}, the output formats fall back on the
+ * standard encoder for everything else.
+ * </p>
+ */
+public class GMLStreamingEncoder {
+
+    /**
+     * Name of the property enabling the streaming encoder (can be set as a system variable,
+     * servlet context parameter or environment variable)
+     */
+    public static final String STREAMING_ENCODER = "WFS_STREAMING_GML_ENCODER";
+
+    static final String XSI = "http://www.w3.org/2001/XMLSchema-instance";
+
+    static final String XLINK = "http://www.w3.org/1999/xlink";
+
+    /**
+     * Attributes of gml:AbstractFeatureType, feature types using them need the standard encoder
+     * to sort out in which namespace they belong
+     */
+    static final Set<String> GML_FEATURE_PROPERTIES = new HashSet<String>(Arrays.asList(
+            "name", "description", "boundedBy", "location", "metaDataProperty"));
+
+    static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    /**
+     * The GML/WFS versions supported by this encoder
+     */
+    public static enum Version {
+        GML31("http://www.opengis.net/gml", "http://www.opengis.net/wfs"),
+        GML32("http://www.opengis.net/gml/3.2", "http://www.opengis.net/wfs/2.0");
+
+        final String gml;
+
+        final String wfs;
+
+        Version(String gml, String wfs) {
+            this.gml = gml;
+            this.wfs = wfs;
+        }
+    }
+
+    /**
+     * How an attribute value gets encoded
+     */
+    static enum Kind {
+        GEOMETRY, DATE, TIME, DATETIME, VALUE
+    }
+
+    /**
+     * Encoding decisions for a feature type, computed only once
+     */
+    static class FeatureTypeEncoding {
+        QName element;
+
+        QName[] properties;
+
+        Kind[] kinds;
+
+        /**
+         * The CRS declared by the geometry attributes, null for the other ones
+         */
+        CoordinateReferenceSystem[] crs;
+
+        CoordinateReferenceSystem defaultCrs;
+    }
+
+    /**
+     * Returns true if the streaming encoder has been enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(STREAMING_ENCODER));
+    }
+
+    /**
+     * Checks the collections can be handled by this encoder, that is, they are all simple feature
+     * collections whose attributes do not clash with the GML feature ones
+     */
+    public static boolean canEncode(List<FeatureCollection> collections) {
+        for (FeatureCollection fc : collections) {
+            if (!(fc instanceof SimpleFeatureCollection)
+                    || !(fc.getSchema() instanceof SimpleFeatureType)) {
+                return false;
+            }
+            SimpleFeatureType schema = (SimpleFeatureType) fc.getSchema();
+            for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
+                if (GML_FEATURE_PROPERTIES.contains(ad.getLocalName())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    Version version;
+
+    Catalog catalog;
+
+    SrsSyntax srsSyntax;
+
+    boolean featureBounding;
+
+    boolean encodeSrsDimension = true;
+
+    boolean encodeFeatureMember;
+
+    String encoding = "UTF-8";
+
+    DecimalFormat coordFormatter;
+
+    SimpleDateFormat dateFormat;
+
+    SimpleDateFormat timeFormat;
+
+    SimpleDateFormat dateTimeFormat;
+
+    Map<SimpleFeatureType, FeatureTypeEncoding> encodings = new HashMap<SimpleFeatureType, FeatureTypeEncoding>();
+
+    Map<CoordinateReferenceSystem, String> srsNames = new HashMap<CoordinateReferenceSystem, String>();
+
+    /**
+     * The CRS of the attribute being written, used when the geometries do not carry one
+     */
+    CoordinateReferenceSystem attributeCrs;
+
+    StringBuilder buffer = new StringBuilder();
+
+    XMLStreamWriter writer;
+
+    public GMLStreamingEncoder(Version version, Catalog catalog, SrsSyntax srsSyntax,
+            int numDecimals) {
+        this.version = version;
+        this.catalog = catalog;
+        this.srsSyntax = srsSyntax;
+
+        coordFormatter = new DecimalFormat();
+        coordFormatter.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.ENGLISH));
+        coordFormatter.setGroupingUsed(false);
+        coordFormatter.setMaximumFractionDigits(numDecimals);
+
+        TimeZone gmt = TimeZone.getTimeZone("GMT");
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        timeFormat = new SimpleDateFormat("HH:mm:ss");
+        dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateTimeFormat.setTimeZone(gmt);
+    }
+
+    /**
+     * Encodes the envelope of each feature as gml:boundedBy
+     */
+    public void setFeatureBounding(boolean featureBounding) {
+        this.featureBounding = featureBounding;
+    }
+
+    /**
+     * Encodes the srsDimension attribute on geometries (not allowed in CITE compliance mode)
+     */
+    public void setEncodeSrsDimension(boolean encodeSrsDimension) {
+        this.encodeSrsDimension = encodeSrsDimension;
+    }
+
+    /**
+     * Uses one gml:featureMember per feature instead of a single gml:featureMembers element
+     * (GML 3.1 only)
+     */
+    public void setEncodeFeatureMember(boolean encodeFeatureMember) {
+        this.encodeFeatureMember = encodeFeatureMember;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Encodes the response as a wfs:FeatureCollection
+     *
+     * @param results The response to encode
+     * @param schemaLocations The schema locations, keyed by namespace URI
+     * @param output The target stream
+     */
+    public void encode(FeatureCollectionResponse results, Map<String, String> schemaLocations,
+            OutputStream output) throws IOException {
+        try {
+            writer = OUTPUT_FACTORY.createXMLStreamWriter(output, encoding);
+            writer.writeStartDocument(encoding, "1.0");
+
+            writer.setPrefix("wfs", version.wfs);
+            writer.setPrefix("gml", version.gml);
+            writer.setPrefix("xsi", XSI);
+            writer.setPrefix("xlink", XLINK);
+            writer.writeStartElement(version.wfs, "FeatureCollection");
+
+            // namespace declarations, the feature ones included
+            Map<String, String> namespaces = new LinkedHashMap<String, String>();
+            namespaces.put("wfs", version.wfs);
+            namespaces.put("gml", version.gml);
+            namespaces.put("xsi", XSI);
+            namespaces.put("xlink", XLINK);
+            for (FeatureCollection fc : results.getFeatures()) {
+                QName element = getEncoding((SimpleFeatureType) fc.getSchema()).element;
+                if (!namespaces.containsKey(element.getPrefix())) {
+                    namespaces.put(element.getPrefix(), element.getNamespaceURI());
+                }
+            }
+            for (Map.Entry<String, String> ns : namespaces.entrySet()) {
+                writer.writeNamespace(ns.getKey(), ns.getValue());
+            }
+
+            writeCollectionAttributes(results);
+            if (schemaLocations != null && !schemaLocations.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, String> location : schemaLocations.entrySet()) {
+                    if (sb.length() > 0) {
+                        sb.append(" ");
+                    }
+                    sb.append(location.getKey()).append(" ").append(location.getValue());
+                }
+                writer.writeAttribute("xsi", XSI, "schemaLocation", sb.toString());
+            }
+
+            boolean members = version == Version.GML31 && !encodeFeatureMember;
+            if (members) {
+                writer.writeStartElement(version.gml, "featureMembers");
+            }
+            for (FeatureCollection fc : results.getFeatures()) {
+                writeFeatures((SimpleFeatureCollection) fc);
+            }
+            if (members) {
+                writer.writeEndElement();
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw (IOException) new IOException("Failed to encode the feature collection")
+                    .initCause(e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (XMLStreamException e) {
+                    // nothing we can do
+                }
+            }
+        }
+    }
+
+    void writeCollectionAttributes(FeatureCollectionResponse results) throws XMLStreamException {
+        BigInteger returned = results.getNumberOfFeatures();
+        if (version == Version.GML31) {
+            if (returned != null) {
+                writer.writeAttribute("numberOfFeatures", returned.toString());
+            }
+        } else {
+            BigInteger matched = results.getTotalNumberOfFeatures();
+            writer.writeAttribute("numberMatched", matched != null && matched.signum() >= 0 ?
+                    matched.toString() : "unknown");
+            writer.writeAttribute("numberReturned", returned != null ? returned.toString() : "0");
+        }
+        Calendar timeStamp = results.getTimeStamp();
+        if (timeStamp != null) {
+            writer.writeAttribute("timeStamp", dateTimeFormat.format(timeStamp.getTime()));
+        }
+        if (results.getLockId() != null) {
+            writer.writeAttribute("lockId", results.getLockId());
+        }
+        if (version == Version.GML32) {
+            if (results.getNext() != null) {
+                writer.writeAttribute("next", results.getNext());
+            }
+            if (results.getPrevious() != null) {
+                writer.writeAttribute("previous", results.getPrevious());
+            }
+        }
+    }
+
+    void writeFeatures(SimpleFeatureCollection features) throws XMLStreamException {
+        FeatureTypeEncoding encoding = getEncoding(features.getSchema());
+        SimpleFeatureIterator it = features.features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                if (version == Version.GML32) {
+                    writer.writeStartElement(version.wfs, "member");
+                } else if (encodeFeatureMember) {
+                    writer.writeStartElement(version.gml, "featureMember");
+                }
+                writeFeature(f, encoding);
+                if (version == Version.GML32 || encodeFeatureMember) {
+                    writer.writeEndElement();
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    void writeFeature(SimpleFeature f, FeatureTypeEncoding encoding) throws XMLStreamException {
+        QName element = encoding.element;
+        writer.writeStartElement(element.getPrefix(), element.getLocalPart(),
+                element.getNamespaceURI());
+        writer.writeAttribute("gml", version.gml, "id", f.getID());
+
+        if (featureBounding) {
+            Geometry g = (Geometry) f.getDefaultGeometry();
+            if (g != null && !g.isEmpty()) {
+                attributeCrs = encoding.defaultCrs;
+                writeBoundedBy(g);
+            }
+        }
+
+        List<Object> values = f.getAttributes();
+        for (int i = 0; i < encoding.properties.length; i++) {
+            Object value = values.get(i);
+            if (value == null) {
+                continue;
+            }
+            QName property = encoding.properties[i];
+            writer.writeStartElement(property.getPrefix(), property.getLocalPart(),
+                    property.getNamespaceURI());
+            switch (encoding.kinds[i]) {
+            case GEOMETRY:
+                attributeCrs = encoding.crs[i];
+                writeGeometry((Geometry) value, f.getID() + "." + property.getLocalPart(), true);
+                break;
+            case DATE:
+                writer.writeCharacters(dateFormat.format((Date) value));
+                break;
+            case TIME:
+                writer.writeCharacters(timeFormat.format((Date) value));
+                break;
+            case DATETIME:
+                writer.writeCharacters(dateTimeFormat.format((Date) value));
+                break;
+            default:
+                writer.writeCharacters(toString(value));
+            }
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+    }
+
+    String toString(Object value) {
+        String converted = Converters.convert(value, String.class);
+        return converted != null ? converted : value.toString();
+    }
+
+    FeatureTypeEncoding getEncoding(SimpleFeatureType schema) {
+        FeatureTypeEncoding encoding = encodings.get(schema);
+        if (encoding == null) {
+            encoding = new FeatureTypeEncoding();
+            String uri = schema.getName().getNamespaceURI();
+            String prefix = null;
+            NamespaceInfo ns = uri != null ? catalog.getNamespaceByURI(uri) : null;
+            if (ns != null) {
+                prefix = ns.getPrefix();
+            } else {
+                ns = catalog.getDefaultNamespace();
+                uri = ns.getURI();
+                prefix = ns.getPrefix();
+            }
+            encoding.element = new QName(uri, schema.getTypeName(), prefix);
+
+            List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+            encoding.properties = new QName[descriptors.size()];
+            encoding.kinds = new Kind[descriptors.size()];
+            encoding.crs = new CoordinateReferenceSystem[descriptors.size()];
+            encoding.defaultCrs = schema.getCoordinateReferenceSystem();
+            for (int i = 0; i < descriptors.size(); i++) {
+                AttributeDescriptor ad = descriptors.get(i);
+                encoding.properties[i] = new QName(uri, ad.getLocalName(), prefix);
+                Class<?> binding = ad.getType().getBinding();
+                if (ad instanceof GeometryDescriptor || Geometry.class.isAssignableFrom(binding)) {
+                    encoding.kinds[i] = Kind.GEOMETRY;
+                    if (ad instanceof GeometryDescriptor) {
+                        encoding.crs[i] = ((GeometryDescriptor) ad).getCoordinateReferenceSystem();
+                    }
+                } else if (java.sql.Date.class.isAssignableFrom(binding)) {
+                    encoding.kinds[i] = Kind.DATE;
+                } else if (java.sql.Time.class.isAssignableFrom(binding)) {
+                    encoding.kinds[i] = Kind.TIME;
+                } else if (Date.class.isAssignableFrom(binding)) {
+                    encoding.kinds[i] = Kind.DATETIME;
+                } else {
+                    encoding.kinds[i] = Kind.VALUE;
+                }
+            }
+            encodings.put(schema, encoding);
+        }
+        return encoding;
+    }
+
+    void writeBoundedBy(Geometry g) throws XMLStreamException {
+        Envelope env = g.getEnvelopeInternal();
+        writer.writeStartElement(version.gml, "boundedBy");
+        writer.writeStartElement(version.gml, "Envelope");
+        writeSrsAttributes(g, 2);
+        writer.writeStartElement(version.gml, "lowerCorner");
+        buffer.setLength(0);
+        buffer.append(coordFormatter.format(env.getMinX())).append(' ')
+                .append(coordFormatter.format(env.getMinY()));
+        writer.writeCharacters(buffer.toString());
+        writer.writeEndElement();
+        writer.writeStartElement(version.gml, "upperCorner");
+        buffer.setLength(0);
+        buffer.append(coordFormatter.format(env.getMaxX())).append(' ')
+                .append(coordFormatter.format(env.getMaxY()));
+        writer.writeCharacters(buffer.toString());
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes out a geometry, the root one carries the srsName and srsDimension attributes. GML
+     * 3.2 requires an id on each geometry, we generate one out of the feature id and the property
+     * name.
+     */
+    void writeGeometry(Geometry g, String id, boolean root) throws XMLStreamException {
+        if (g instanceof Point) {
+            Point p = (Point) g;
+            startGeometry("Point", g, id, root);
+            writer.writeStartElement(version.gml, "pos");
+            writeCoordinates(p.getCoordinateSequence(), dimension(p.getCoordinateSequence()));
+            writer.writeEndElement();
+            writer.writeEndElement();
+        } else if (g instanceof LineString) {
+            startGeometry(g instanceof LinearRing ? "LinearRing" : "LineString", g, id, root);
+            writePosList(((LineString) g).getCoordinateSequence());
+            writer.writeEndElement();
+        } else if (g instanceof Polygon) {
+            Polygon p = (Polygon) g;
+            startGeometry("Polygon", g, id, root);
+            writer.writeStartElement(version.gml, "exterior");
+            writeRing(p.getExteriorRing());
+            writer.writeEndElement();
+            for (int i = 0; i < p.getNumInteriorRing(); i++) {
+                writer.writeStartElement(version.gml, "interior");
+                writeRing(p.getInteriorRingN(i));
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        } else if (g instanceof MultiPoint) {
+            writeCollection("MultiPoint", "pointMember", (GeometryCollection) g, id, root);
+        } else if (g instanceof MultiLineString) {
+            writeCollection("MultiCurve", "curveMember", (GeometryCollection) g, id, root);
+        } else if (g instanceof MultiPolygon) {
+            writeCollection("MultiSurface", "surfaceMember", (GeometryCollection) g, id, root);
+        } else if (g instanceof GeometryCollection) {
+            writeCollection("MultiGeometry", "geometryMember", (GeometryCollection) g, id, root);
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type " + g.getClass());
+        }
+    }
+
+    void writeCollection(String name, String member, GeometryCollection gc, String id,
+            boolean root) throws XMLStreamException {
+        startGeometry(name, gc, id, root);
+        for (int i = 0; i < gc.getNumGeometries(); i++) {
+            writer.writeStartElement(version.gml, member);
+            writeGeometry(gc.getGeometryN(i), id + "." + (i + 1), false);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    void writeRing(LineString ring) throws XMLStreamException {
+        writer.writeStartElement(version.gml, "LinearRing");
+        writePosList(ring.getCoordinateSequence());
+        writer.writeEndElement();
+    }
+
+    void startGeometry(String name, Geometry g, String id, boolean root)
+            throws XMLStreamException {
+        writer.writeStartElement(version.gml, name);
+        if (version == Version.GML32) {
+            writer.writeAttribute("gml", version.gml, "id", id);
+        }
+        if (root) {
+            writeSrsAttributes(g, dimension(g));
+        }
+    }
+
+    void writeSrsAttributes(Geometry g, int dimension) throws XMLStreamException {
+        String srsName = getSrsName(g);
+        if (srsName != null) {
+            writer.writeAttribute("srsName", srsName);
+        }
+        if (encodeSrsDimension) {
+            writer.writeAttribute("srsDimension", String.valueOf(dimension));
+        }
+    }
+
+    /**
+     * Returns the srsName of the geometry CRS, that is, the one found in the geometry user data
+     * or, as most stores do not set it, the one of the attribute being written
+     */
+    String getSrsName(Geometry g) {
+        Object userData = g.getUserData();
+        CoordinateReferenceSystem crs = null;
+        if (userData instanceof CoordinateReferenceSystem) {
+            crs = (CoordinateReferenceSystem) userData;
+        } else if (userData instanceof Map) {
+            Object value = ((Map) userData).get(CoordinateReferenceSystem.class);
+            if (value instanceof CoordinateReferenceSystem) {
+                crs = (CoordinateReferenceSystem) value;
+            }
+        }
+        if (crs == null) {
+            crs = attributeCrs;
+        }
+        if (crs == null) {
+            return null;
+        }
+
+        String srsName = srsNames.get(crs);
+        if (srsName == null && !srsNames.containsKey(crs)) {
+            try {
+                Integer code = CRS.lookupEpsgCode(crs, false);
+                if (code != null) {
+                    srsName = srsSyntax.getPrefix() + code;
+                }
+            } catch (Exception e) {
+                // no srsName then
+            }
+            srsNames.put(crs, srsName);
+        }
+        return srsName;
+    }
+
+    void writePosList(CoordinateSequence cs) throws XMLStreamException {
+        writer.writeStartElement(version.gml, "posList");
+        writeCoordinates(cs, dimension(cs));
+        writer.writeEndElement();
+    }
+
+    void writeCoordinates(CoordinateSequence cs, int dimension) throws XMLStreamException {
+        buffer.setLength(0);
+        int size = cs.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            buffer.append(coordFormatter.format(cs.getOrdinate(i, 0))).append(' ')
+                    .append(coordFormatter.format(cs.getOrdinate(i, 1)));
+            if (dimension > 2) {
+                buffer.append(' ').append(coordFormatter.format(cs.getOrdinate(i, 2)));
+            }
+        }
+        writer.writeCharacters(buffer.toString());
+    }
+
+    int dimension(Geometry g) {
+        if (g instanceof Point) {
+            return dimension(((Point) g).getCoordinateSequence());
+        } else if (g instanceof LineString) {
+            return dimension(((LineString) g).getCoordinateSequence());
+        } else if (g instanceof Polygon) {
+            return dimension(((Polygon) g).getExteriorRing().getCoordinateSequence());
+        } else if (g instanceof GeometryCollection && g.getNumGeometries() > 0) {
+            return dimension(g.getGeometryN(0));
+        }
+        return 2;
+    }
+
+    int dimension(CoordinateSequence cs) {
+        if (cs.getDimension() > 2 && cs.size() > 0 && !Double.isNaN(cs.getOrdinate(0, 2))) {
+            return 3;
+        }
+        return 2;
+    }
+}
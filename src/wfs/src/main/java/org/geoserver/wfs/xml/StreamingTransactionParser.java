@@ -0,0 +1,374 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.eclipse.emf.ecore.EObject;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.WFSException;
+import org.geotools.xml.Parser;
+import org.xml.sax.InputSource;
+
+/**
+ * Parses a WFS Transaction document one action at a time, instead of building the full request
+ * model in memory before executing it.
+ * <p>
+ * The root element is parsed on creation (see {@link #getTransaction()}), the Insert, Update,
+ * Delete, Replace and Native actions are then parsed lazily as the iterator is consumed. Insert
+ * actions holding more than {@link #getBatchSize()} features are split into consecutive Insert
+ * actions sharing the same attributes, so that memory usage is bounded by the batch size rather
+ * than by the request size.
+ * </p>
+ * <p>
+ * Each action is parsed by a fresh parser obtained from {@link #createParser()}, subclasses
+ * are supposed to configure it exactly as they would configure the parser for the full request.
+ * </p>
+ */
+public abstract class StreamingTransactionParser implements Iterator<EObject> {
+
+    /**
+     * Name of the property enabling streaming transaction parsing (can be set as a system
+     * variable, servlet context parameter or environment variable)
+     */
+    public static final String STREAMING_TRANSACTION = "WFS_STREAMING_TRANSACTION";
+
+    /**
+     * Name of the property controlling how many features are parsed at most in a single Insert
+     * batch
+     */
+    public static final String STREAMING_TRANSACTION_BATCH = "WFS_STREAMING_TRANSACTION_BATCH";
+
+    /**
+     * Default number of features in a single Insert batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // we don't want the stax parser to resolve anything, the actual parsing (and entity
+        // resolution) is delegated to the GeoTools parser
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    /**
+     * Returns true if streaming transaction parsing has been enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(STREAMING_TRANSACTION));
+    }
+
+    /**
+     * Returns the configured Insert batch size
+     */
+    public static int getConfiguredBatchSize() {
+        String value = GeoServerExtensions.getProperty(STREAMING_TRANSACTION_BATCH);
+        if (value != null) {
+            try {
+                int size = Integer.parseInt(value.trim());
+                if (size > 0) {
+                    return size;
+                }
+            } catch (NumberFormatException e) {
+                // fall back on the default
+            }
+        }
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    XMLStreamReader reader;
+
+    int batchSize;
+
+    /**
+     * Namespace declarations found on the root element, they have to be re-declared on each
+     * action fragment
+     */
+    Map<String, String> rootNamespaces = new LinkedHashMap<String, String>();
+
+    String rootNamespaceURI;
+
+    String transactionFragment;
+
+    Object transaction;
+
+    /**
+     * The next action fragment, or null if we have to look for it
+     */
+    String nextFragment;
+
+    /**
+     * Start and end tags of the Insert being split, if any
+     */
+    String insertStart;
+
+    String insertEnd;
+
+    int insertChunks;
+
+    boolean finished;
+
+    public StreamingTransactionParser(Reader input) throws Exception {
+        this(input, getConfiguredBatchSize());
+    }
+
+    public StreamingTransactionParser(Reader input, int batchSize) throws Exception {
+        this.batchSize = batchSize;
+        this.reader = INPUT_FACTORY.createXMLStreamReader(input);
+        reader.nextTag();
+        this.rootNamespaceURI = reader.getNamespaceURI();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            rootNamespaces.put(prefix == null ? "" : prefix, reader.getNamespaceURI(i));
+        }
+
+        // keep an empty copy of the root element to grab the transaction attributes
+        StringWriter root = new StringWriter();
+        writeStartTag(root, true);
+        root.write("</" + qualifiedName() + ">");
+        this.transactionFragment = root.toString();
+    }
+
+    /**
+     * The parsed root element, without any action in it
+     */
+    public Object getTransaction() throws Exception {
+        if (transaction == null) {
+            transaction = parse(transactionFragment);
+        }
+        return transaction;
+    }
+
+    /**
+     * The maximum amount of features in a single parsed Insert
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Creates a new parser, configured to parse a single transaction action
+     */
+    protected abstract Parser createParser();
+
+    public boolean hasNext() {
+        if (nextFragment == null && !finished) {
+            try {
+                nextFragment = nextFragment();
+            } catch (Exception e) {
+                throw new WFSException("Failed to read the transaction request", e);
+            }
+            if (nextFragment == null) {
+                finished = true;
+            }
+        }
+        return nextFragment != null;
+    }
+
+    public EObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        String fragment = nextFragment;
+        nextFragment = null;
+        try {
+            return (EObject) parse(fragment);
+        } catch (WFSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new WFSException("Failed to parse transaction element", e);
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    Object parse(String fragment) throws Exception {
+        Parser parser = createParser();
+        return parser.parse(new InputSource(new StringReader(fragment)));
+    }
+
+    /**
+     * Extracts the next action as a self standing xml fragment
+     */
+    String nextFragment() throws XMLStreamException, IOException {
+        if (insertStart != null) {
+            String chunk = nextInsertChunk();
+            if (chunk != null) {
+                return chunk;
+            }
+        }
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("Insert".equals(reader.getLocalName())
+                        && rootNamespaceURI.equals(reader.getNamespaceURI())) {
+                    StringWriter start = new StringWriter();
+                    writeStartTag(start, true);
+                    insertStart = start.toString();
+                    insertEnd = "</" + qualifiedName() + ">";
+                    insertChunks = 0;
+                    String chunk = nextInsertChunk();
+                    if (chunk != null) {
+                        return chunk;
+                    }
+                } else {
+                    StringWriter writer = new StringWriter();
+                    copyElement(writer, true);
+                    return writer.toString();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                // end of the transaction element
+                reader.close();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads at most {@link #batchSize} features out of the current Insert, and returns them as a
+     * standalone Insert fragment. Returns null if the Insert has no more features.
+     */
+    String nextInsertChunk() throws XMLStreamException, IOException {
+        StringWriter writer = new StringWriter();
+        writer.write(insertStart);
+        int features = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                copyElement(writer, false);
+                features++;
+                if (features >= batchSize) {
+                    insertChunks++;
+                    writer.write(insertEnd);
+                    return writer.toString();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                // end of the insert element, an empty insert is still reported once
+                String end = insertEnd;
+                insertStart = null;
+                insertEnd = null;
+                if (features == 0 && insertChunks > 0) {
+                    return null;
+                }
+                insertChunks++;
+                writer.write(end);
+                return writer.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the element the reader is positioned on, and all of its contents, into the writer
+     */
+    void copyElement(Writer writer, boolean fragmentRoot) throws XMLStreamException, IOException {
+        writeStartTag(writer, fragmentRoot);
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                writeStartTag(writer, false);
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                writer.write("</" + qualifiedName() + ">");
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                writeEscaped(writer, reader.getText(), false);
+                break;
+            default:
+                // comments and processing instructions are not relevant
+            }
+        }
+    }
+
+    /**
+     * Writes out the start tag the reader is positioned on. If the element is the root of a
+     * fragment the namespace declarations of the transaction element are added as well, so that
+     * the fragment can be parsed on its own
+     */
+    void writeStartTag(Writer writer, boolean fragmentRoot) throws IOException {
+        writer.write("<" + qualifiedName());
+
+        Map<String, String> namespaces = new LinkedHashMap<String, String>();
+        if (fragmentRoot) {
+            namespaces.putAll(rootNamespaces);
+        }
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            namespaces.put(prefix == null ? "" : prefix, reader.getNamespaceURI(i));
+        }
+        for (Map.Entry<String, String> ns : namespaces.entrySet()) {
+            writer.write(ns.getKey().length() == 0 ? " xmlns=\"" : " xmlns:" + ns.getKey() + "=\"");
+            writeEscaped(writer, ns.getValue(), true);
+            writer.write("\"");
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String name = reader.getAttributeLocalName(i);
+            writer.write(" " + (prefix == null || prefix.length() == 0 ? name : prefix + ":" + name)
+                    + "=\"");
+            writeEscaped(writer, reader.getAttributeValue(i), true);
+            writer.write("\"");
+        }
+        writer.write(">");
+    }
+
+    String qualifiedName() {
+        String prefix = reader.getPrefix();
+        if (prefix == null || prefix.length() == 0) {
+            return reader.getLocalName();
+        }
+        return prefix + ":" + reader.getLocalName();
+    }
+
+    static void writeEscaped(Writer writer, String text, boolean attribute) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<':
+                writer.write("&lt;");
+                break;
+            case '>':
+                writer.write("&gt;");
+                break;
+            case '&':
+                writer.write("&amp;");
+                break;
+            case '"':
+                writer.write(attribute ? "&quot;" : "\"");
+                break;
+            default:
+                writer.write(c);
+            }
+        }
+    }
+}
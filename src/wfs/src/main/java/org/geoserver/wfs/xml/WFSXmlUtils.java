@@ -21,6 +21,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.ows.XmlRequestReader;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.xml.gml3.AbstractGeometryTypeBinding;
 import org.geoserver.wfs.xml.v1_0_0.WFSConfiguration;
 import org.geotools.gml2.FeatureTypeCache;
@@ -82,6 +83,36 @@ public class WFSXmlUtils {
         return parser.parse(source);
     }
 
+    /**
+     * Returns true if the request being read is a transaction that should be parsed in streaming
+     * mode, that is, streaming has been enabled and the parser is not validating (validation
+     * requires the full document)
+     */
+    public static boolean isStreamingTransaction(Parser parser, XmlRequestReader requestReader) {
+        return "Transaction".equals(requestReader.getElement().getLocalPart())
+                && !parser.isValidating() && StreamingTransactionParser.isEnabled();
+    }
+
+    /**
+     * Parses the root of a streaming transaction and attaches the lazy element stream to it. If
+     * the request object cannot hold the stream the elements are parsed eagerly instead.
+     */
+    public static Object initStreamingTransaction(StreamingTransactionParser stream)
+            throws Exception {
+        Object parsed = stream.getTransaction();
+        TransactionRequest tx = TransactionRequest.adapt(parsed);
+        if (tx == null) {
+            throw new WFSException("Streaming transaction parsing is not supported for "
+                    + parsed);
+        }
+        if (!tx.setElementStream(stream)) {
+            while (stream.hasNext()) {
+                tx.addElement(stream.next());
+            }
+        }
+        return parsed;
+    }
+
     public static void checkValidationErrors(Parser parser, XmlRequestReader requestReader) {
         //TODO: HACK, disabling validation for transaction
         if (!"Transaction".equalsIgnoreCase(requestReader.getElement().getLocalPart())) {
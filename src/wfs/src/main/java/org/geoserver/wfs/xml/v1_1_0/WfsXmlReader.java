@@ -13,6 +13,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.ows.XmlRequestReader;
 import org.geoserver.util.EntityResolverProvider;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.StreamingTransactionParser;
 import org.geoserver.wfs.xml.WFSURIHandler;
 import org.geoserver.wfs.xml.WFSXmlUtils;
 import org.geotools.util.Version;
@@ -57,18 +58,33 @@ public class WfsXmlReader extends XmlRequestReader {
         this.entityResolverProvider = new EntityResolverProvider(geoServer);
     }
     
-    public Object read(Object request, Reader reader, Map kvp) throws Exception {
+    public Object read(Object request, Reader reader, final Map kvp) throws Exception {
         //TODO: make this configurable?
         configuration.getProperties().add(Parser.Properties.PARSE_UNKNOWN_ELEMENTS);
 
-        Parser parser = new Parser(configuration);
-        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
+        Parser parser = createParser(kvp);
+        if (WFSXmlUtils.isStreamingTransaction(parser, this)) {
+            StreamingTransactionParser stream = new StreamingTransactionParser(reader) {
+                @Override
+                protected Parser createParser() {
+                    return WfsXmlReader.this.createParser(kvp);
+                }
+            };
+            return WFSXmlUtils.initStreamingTransaction(stream);
+        }
         
-        WFSXmlUtils.initRequestParser(parser, wfs, geoServer, kvp);
         Object parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);
         
         WFSXmlUtils.checkValidationErrors(parser, this);
         
         return parsed;
     }
+
+    Parser createParser(Map kvp) {
+        Parser parser = new Parser(configuration);
+        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
+        
+        WFSXmlUtils.initRequestParser(parser, wfs, geoServer, kvp);
+        return parser;
+    }
 }
@@ -17,8 +17,6 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.codec.binary.Base64;
-import org.eclipse.xsd.XSDSchema;
-import org.eclipse.xsd.util.XSDResourceImpl;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
@@ -103,12 +101,9 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         Object request = describeFeatureType.getParameters()[0];
         DescribeFeatureTypeRequest req = DescribeFeatureTypeRequest.adapt(request);
         
-        XSDSchema schema = schemaBuilder.build(featureTypeInfos, req.getBaseURL());
-
-        //serialize
-        schema.updateElement();
+        //build and serialize, the builder caches the result
         final String encoding = gs.getSettings().getCharset();
-        XSDResourceImpl.serialize(output, schema.getElement(), encoding);
+        output.write(schemaBuilder.buildSerialized(featureTypeInfos, req.getBaseURL(), encoding));
     }
     
     public static class V20 extends XmlSchemaEncoder {
@@ -16,6 +16,7 @@ import org.geoserver.util.EntityResolverProvider;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.xml.FeatureTypeSchemaBuilder;
+import org.geoserver.wfs.xml.StreamingTransactionParser;
 import org.geoserver.wfs.xml.WFSURIHandler;
 import org.geoserver.wfs.xml.WFSXmlUtils;
 import org.geotools.util.Version;
@@ -40,18 +41,25 @@ public class WfsXmlReader extends XmlRequestReader {
     }  
     
     @Override
-    public Object read(Object request, Reader reader, Map kvp) throws Exception {
-        WFSConfiguration config = new WFSConfiguration();
+    public Object read(Object request, Reader reader, final Map kvp) throws Exception {
+        final WFSConfiguration config = new WFSConfiguration();
         WFSXmlUtils.initWfsConfiguration(config, gs, new FeatureTypeSchemaBuilder.GML32(gs));
         
-        Parser parser = new Parser(config);
-        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
+        Parser parser = createParser(config, kvp);
         
         WFSInfo wfs = wfs();
         
-        WFSXmlUtils.initRequestParser(parser, wfs, gs, kvp);
         Object parsed = null;
         try {
+            if (WFSXmlUtils.isStreamingTransaction(parser, this)) {
+                StreamingTransactionParser stream = new StreamingTransactionParser(reader) {
+                    @Override
+                    protected Parser createParser() {
+                        return WfsXmlReader.this.createParser(config, kvp);
+                    }
+                };
+                return WFSXmlUtils.initStreamingTransaction(stream);
+            }
             parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);    
         }
         catch(Exception e) {
@@ -67,6 +75,14 @@ public class WfsXmlReader extends XmlRequestReader {
         return parsed;
     }
 
+    Parser createParser(WFSConfiguration config, Map kvp) {
+        Parser parser = new Parser(config);
+        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
+        
+        WFSXmlUtils.initRequestParser(parser, wfs(), gs, kvp);
+        return parser;
+    }
+
     WFSInfo wfs() {
         return gs.getService(WFSInfo.class);
     }
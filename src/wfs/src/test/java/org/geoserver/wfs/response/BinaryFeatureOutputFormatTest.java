@@ -0,0 +1,168 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.WFSTestSupport;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class BinaryFeatureOutputFormatTest extends WFSTestSupport {
+
+    /**
+     * Minimal reader for a single layer
+     */
+    static class Layer {
+        String name;
+
+        int geometryColumn;
+
+        int geometryType;
+
+        long featureCount;
+
+        double[] extent = new double[4];
+
+        int nodeSize;
+
+        List<String> columns = new ArrayList<String>();
+
+        double[] rootBounds;
+
+        List<Long> leafOffsets = new ArrayList<Long>();
+
+        List<Long> featureOffsets = new ArrayList<Long>();
+
+        List<String> fids = new ArrayList<String>();
+    }
+
+    static String readString(ByteBuffer bb) {
+        byte[] bytes = new byte[bb.getInt()];
+        bb.get(bytes);
+        return new String(bytes, BinaryFeatureOutputFormat.UTF8);
+    }
+
+    static Layer readLayer(ByteBuffer bb) {
+        Layer layer = new Layer();
+        int headerLength = bb.getInt();
+        int headerEnd = bb.position() + headerLength;
+        layer.name = readString(bb);
+        readString(bb);
+        layer.geometryColumn = bb.getShort();
+        layer.geometryType = bb.get();
+        bb.getInt();
+        layer.featureCount = bb.getLong();
+        for (int i = 0; i < 4; i++) {
+            layer.extent[i] = bb.getDouble();
+        }
+        layer.nodeSize = bb.getShort();
+        int columns = bb.getShort();
+        for (int i = 0; i < columns; i++) {
+            layer.columns.add(readString(bb));
+            bb.get();
+        }
+        assertEquals(headerEnd, bb.position());
+
+        if (layer.nodeSize > 0) {
+            PackedHilbertRTree tree = new PackedHilbertRTree((int) layer.featureCount,
+                    layer.nodeSize);
+            int leavesStart = tree.getNumNodes() - (int) layer.featureCount;
+            for (int i = 0; i < tree.getNumNodes(); i++) {
+                double[] bounds = new double[] { bb.getDouble(), bb.getDouble(),
+                        bb.getDouble(), bb.getDouble() };
+                long offset = bb.getLong();
+                if (i == 0) {
+                    layer.rootBounds = bounds;
+                }
+                if (i >= leavesStart) {
+                    layer.leafOffsets.add(offset);
+                }
+            }
+        }
+
+        int featuresStart = bb.position();
+        int length;
+        while ((length = bb.getInt()) > 0) {
+            int featureEnd = bb.position() + length;
+            layer.featureOffsets.add((long) (bb.position() - 4 - featuresStart));
+            layer.fids.add(readString(bb));
+            bb.position(featureEnd);
+        }
+        return layer;
+    }
+
+    ByteBuffer getFeatures(String path) throws Exception {
+        MockHttpServletResponse resp = getAsServletResponse(path);
+        assertEquals(BinaryFeatureOutputFormat.MIME_TYPE, resp.getContentType());
+        ByteBuffer bb = ByteBuffer.wrap(getBinary(resp)).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[4];
+        bb.get(magic);
+        assertEquals("GSBF", new String(magic, "ASCII"));
+        assertEquals(BinaryFeatureOutputFormat.VERSION, bb.get());
+        return bb;
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        ByteBuffer bb = getFeatures("wfs?version=1.1.0&request=GetFeature"
+                + "&typeName=sf:PrimitiveGeoFeature&outputFormat=binary");
+        Layer layer = readLayer(bb);
+        assertEquals(0, bb.remaining());
+
+        FeatureSource fs = getFeatureSource(MockData.PRIMITIVEGEOFEATURE);
+        assertEquals("PrimitiveGeoFeature", layer.name);
+        assertEquals(-1, layer.featureCount);
+        assertEquals(0, layer.nodeSize);
+        assertEquals(fs.getSchema().getDescriptors().size(), layer.columns.size());
+        assertEquals(fs.getCount(Query.ALL), layer.fids.size());
+        for (String fid : layer.fids) {
+            assertTrue(fid.startsWith("PrimitiveGeoFeature."));
+        }
+    }
+
+    @Test
+    public void testIndexed() throws Exception {
+        ByteBuffer bb = getFeatures("wfs?version=1.1.0&request=GetFeature"
+                + "&typeName=cgf:Points,cgf:Polygons&outputFormat=binary&format_options=index:true");
+        Layer points = readLayer(bb);
+        Layer polygons = readLayer(bb);
+        assertEquals(0, bb.remaining());
+
+        for (Layer layer : new Layer[] { points, polygons }) {
+            assertEquals(layer.fids.size(), layer.featureCount);
+            assertEquals(BinaryFeatureOutputFormat.DEFAULT_NODE_SIZE, layer.nodeSize);
+            // the root covers the whole layer, the leaves point to the features
+            for (int i = 0; i < 4; i++) {
+                assertEquals(layer.extent[i], layer.rootBounds[i], 0d);
+            }
+            assertEquals(layer.featureOffsets, layer.leafOffsets);
+        }
+        assertEquals(BinaryFeatureOutputFormat.POINT, points.geometryType);
+        assertEquals(BinaryFeatureOutputFormat.POLYGON, polygons.geometryType);
+    }
+
+    @Test
+    public void testHilbertOrder() {
+        // the corners of the grid are visited in the expected order
+        assertEquals(0, PackedHilbertRTree.hilbert(0, 0));
+        int max = PackedHilbertRTree.HILBERT_MAX;
+        long upperLeft = PackedHilbertRTree.hilbert(0, max) & 0xFFFFFFFFL;
+        long upperRight = PackedHilbertRTree.hilbert(max, max) & 0xFFFFFFFFL;
+        long lowerRight = PackedHilbertRTree.hilbert(max, 0) & 0xFFFFFFFFL;
+        assertTrue(upperLeft < upperRight);
+        assertTrue(upperRight < lowerRight);
+    }
+}
@@ -475,6 +475,62 @@ public class ShapeZipTest extends WFSTestSupport {
                 get4326_ESRI_WKTContent());
     }
 
+    @Test
+    public void testStreamingMultiType() throws Exception {
+        gft.getFormatOptions().put("STREAMING", "true");
+        
+        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures(Filter.INCLUDE));
+        fct.getFeature().add(getFeatureSource(SystemTestData.BRIDGES).getFeatures(Filter.INCLUDE));
+        fct.getFeature().add(getFeatureSource(ALL_DOTS).getFeatures(Filter.INCLUDE));
+        zip.write(fct, bos, op);
+        
+        String[] expectedTypes = new String[] { "BasicPolygons", "Bridges", 
+                "All_Types_DotsPoint", "All_Types_DotsMPoint", "All_Types_DotsPolygon", 
+                "All_Types_DotsLine" };
+        Set<String> entries = getZipEntries(new ByteArrayInputStream(bos.toByteArray()));
+        for (String type : expectedTypes) {
+            assertTrue("Missing " + type, entries.contains(type + ".shp"));
+            assertTrue("Missing " + type, entries.contains(type + ".dbf"));
+        }
+        checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(bos.toByteArray()));
+    }
+    
+    @Test
+    public void testStreamingEmptyResult() throws Exception {
+        setupStreamingByDefault(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(ALL_DOTS).getFeatures(Filter.EXCLUDE));
+    
+            final String[] expectedTypes = new String[] { "All_Types_Dots" };
+            assertTrue(getZipEntries(new ByteArrayInputStream(zip)).contains("All_Types_Dots.shp"));
+            checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(zip));
+        } finally {
+            setupStreamingByDefault(getGeoServer(), false);
+        }
+    }
+    
+    private Set<String> getZipEntries(InputStream in) throws IOException {
+        Set<String> names = new HashSet<String>();
+        ZipInputStream zis = new ZipInputStream(in);
+        ZipEntry entry = null;
+        while ((entry = zis.getNextEntry()) != null) {
+            names.add(entry.getName());
+            zis.closeEntry();
+        }
+        zis.close();
+        return names;
+    }
+    
+    private void setupStreamingByDefault(GeoServer geoServer, Boolean value) {
+        WFSInfo wfsInfo = geoServer.getService(WFSInfo.class);
+        wfsInfo.getMetadata().put(ShapeZipOutputFormat.SHAPE_ZIP_STREAMING, value);
+        geoServer.save(wfsInfo);
+    }
+
     /**
      * Saves the feature source contents into a zipped shapefile, returns the output as a byte array
      */
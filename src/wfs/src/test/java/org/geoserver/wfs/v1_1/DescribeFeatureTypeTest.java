@@ -23,6 +23,7 @@ import org.geoserver.data.util.IOUtils;
 import org.geoserver.wfs.GMLInfo;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.FeatureTypeSchemaCache;
 import org.junit.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -243,6 +244,37 @@ public class DescribeFeatureTypeTest extends WFSTestSupport {
         print(dom);
     }
     
+    @Test
+    public void testSchemaCache() throws Exception {
+        FeatureTypeSchemaCache cache = FeatureTypeSchemaCache.get();
+        cache.clear();
+
+        String path = "ows?service=WFS&version=1.1.0&request=DescribeFeatureType&typename="
+                + getLayerId(CiteTestData.PRIMITIVEGEOFEATURE);
+        Document dom = getAsDOM(path);
+        assertEquals("xsd:schema", dom.getDocumentElement().getNodeName());
+        assertEquals(1, cache.size());
+
+        // same request, served from the cache
+        dom = getAsDOM(path);
+        XMLAssert.assertXpathExists("//xsd:element[@name = 'dateProperty']", dom);
+        assertEquals(1, cache.size());
+
+        // changing the feature type drops the cached schema
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName(getLayerId(CiteTestData.PRIMITIVEGEOFEATURE));
+        String title = ft.getTitle();
+        try {
+            ft.setTitle("Changed");
+            catalog.save(ft);
+            assertEquals(0, cache.size());
+        } finally {
+            ft = catalog.getFeatureTypeByName(getLayerId(CiteTestData.PRIMITIVEGEOFEATURE));
+            ft.setTitle(title);
+            catalog.save(ft);
+        }
+    }
+
     @Test
     public void testGMLAttributeMapping() throws Exception {
         WFSInfo wfs = getWFS();
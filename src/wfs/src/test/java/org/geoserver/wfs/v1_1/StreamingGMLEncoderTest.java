@@ -0,0 +1,104 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.v1_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.GMLStreamingEncoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class StreamingGMLEncoderTest extends WFSTestSupport {
+
+    static final String GML = "http://www.opengis.net/gml";
+
+    @Before
+    public void enableStreaming() {
+        System.setProperty(GMLStreamingEncoder.STREAMING_ENCODER, "true");
+    }
+
+    @After
+    public void disableStreaming() {
+        System.clearProperty(GMLStreamingEncoder.STREAMING_ENCODER);
+    }
+
+    @Test
+    public void testGML3() throws Exception {
+        Document dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&typename=cgf:Polygons");
+        assertEquals("wfs:FeatureCollection", dom.getDocumentElement().getNodeName());
+        assertEquals("http://www.opengis.net/wfs", dom.getDocumentElement().getNamespaceURI());
+        assertTrue(dom.getDocumentElement().getAttribute("xsi:schemaLocation").contains(
+                "DescribeFeatureType"));
+
+        assertEquals(1, dom.getElementsByTagName("gml:featureMembers").getLength());
+        Element polygon = getFirstElementByTagName(dom, "cgf:Polygons");
+        assertEquals("Polygons.0", polygon.getAttribute("gml:id"));
+
+        Element geometry = getFirstElementByTagName(polygon, "gml:Polygon");
+        assertTrue(geometry.getAttribute("srsName").endsWith("32615"));
+        assertEquals("http://www.opengis.net/gml", geometry.getNamespaceURI());
+        Element posList = getFirstElementByTagName(geometry, "gml:posList");
+        assertEquals(10, posList.getFirstChild().getNodeValue().trim().split(" ").length);
+
+        assertEquals("t0002", getFirstElementByTagName(polygon, "cgf:id").getFirstChild()
+                .getNodeValue());
+    }
+
+    @Test
+    public void testGML32() throws Exception {
+        Document dom = getAsDOM("wfs?request=GetFeature&version=2.0.0&typenames=cgf:Lines");
+        assertEquals("wfs:FeatureCollection", dom.getDocumentElement().getNodeName());
+        assertEquals("http://www.opengis.net/wfs/2.0", dom.getDocumentElement()
+                .getNamespaceURI());
+        assertEquals("1", dom.getDocumentElement().getAttribute("numberReturned"));
+
+        Element member = getFirstElementByTagName(dom, "wfs:member");
+        Element line = getFirstElementByTagName(member, "cgf:Lines");
+        assertEquals("Lines.0", line.getAttribute("gml:id"));
+
+        Element geometry = getFirstElementByTagName(line, "gml:LineString");
+        assertEquals("http://www.opengis.net/gml/3.2", geometry.getNamespaceURI());
+        assertEquals("Lines.0.lineStringProperty", geometry.getAttribute("gml:id"));
+        assertEquals(1, geometry.getElementsByTagName("gml:posList").getLength());
+    }
+
+    @Test
+    public void testSrsNameMatchesStandardEncoder() throws Exception {
+        // native CRS, no reprojection, the geometries do not carry the CRS in their user data
+        for (String type : new String[] { "cgf:Lines", "cgf:Points", "cgf:Polygons" }) {
+            String path = "wfs?request=GetFeature&version=1.1.0&typename=" + type;
+            Element streamed = getFirstGeometry(getAsDOM(path), type);
+
+            System.clearProperty(GMLStreamingEncoder.STREAMING_ENCODER);
+            Element standard = getFirstGeometry(getAsDOM(path), type);
+            System.setProperty(GMLStreamingEncoder.STREAMING_ENCODER, "true");
+
+            assertTrue(standard.getAttribute("srsName").length() > 0);
+            assertEquals(standard.getAttribute("srsName"), streamed.getAttribute("srsName"));
+        }
+    }
+
+    Element getFirstGeometry(Document dom, String type) {
+        // first gml element nested in a feature property (skipping boundedBy)
+        Element feature = getFirstElementByTagName(dom, type);
+        for (Node p = feature.getFirstChild(); p != null; p = p.getNextSibling()) {
+            if (!(p instanceof Element) || GML.equals(p.getNamespaceURI())) {
+                continue;
+            }
+            for (Node g = p.getFirstChild(); g != null; g = g.getNextSibling()) {
+                if (g instanceof Element && GML.equals(g.getNamespaceURI())) {
+                    return (Element) g;
+                }
+            }
+        }
+        throw new AssertionError("No geometry found in " + type);
+    }
+}
@@ -0,0 +1,135 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.v1_1;
+
+import static org.junit.Assert.assertEquals;
+
+import org.geoserver.data.test.CiteTestData;
+import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.StreamingTransactionParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+public class StreamingTransactionTest extends WFSTestSupport {
+
+    static final String GET_POINTS = "<wfs:GetFeature service=\"WFS\" version=\"1.1.0\" "
+            + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+            + "xmlns:wfs=\"http://www.opengis.net/wfs\"> "
+            + "<wfs:Query typeName=\"cgf:Points\"/> " + "</wfs:GetFeature>";
+
+    @Before
+    public void enableStreaming() throws Exception {
+        System.setProperty(StreamingTransactionParser.STREAMING_TRANSACTION, "true");
+        // force the insert to be split in several batches
+        System.setProperty(StreamingTransactionParser.STREAMING_TRANSACTION_BATCH, "2");
+        revertLayer(CiteTestData.POINTS);
+    }
+
+    @After
+    public void disableStreaming() {
+        System.clearProperty(StreamingTransactionParser.STREAMING_TRANSACTION);
+        System.clearProperty(StreamingTransactionParser.STREAMING_TRANSACTION_BATCH);
+    }
+
+    String point(String id, String pos) {
+        return "<cgf:Points><cgf:pointProperty><gml:Point><gml:pos>" + pos
+                + "</gml:pos></gml:Point></cgf:pointProperty><cgf:id>" + id
+                + "</cgf:id></cgf:Points>";
+    }
+
+    String transaction(String body) {
+        return "<wfs:Transaction service=\"WFS\" version=\"1.1.0\" handle=\"streaming\" "
+                + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                + "xmlns:gml=\"http://www.opengis.net/gml\">" + body + "</wfs:Transaction>";
+    }
+
+    @Test
+    public void testInsertBatches() throws Exception {
+        int n = postAsDOM("wfs", GET_POINTS).getElementsByTagName("cgf:Points").getLength();
+
+        String xml = transaction("<wfs:Insert handle=\"bulk\">" + point("s1", "1 1")
+                + point("s2", "2 2") + point("s3", "3 3") + point("s4", "4 4")
+                + point("s5", "5 5") + "</wfs:Insert>"
+                + "<wfs:Update typeName=\"cgf:Points\">"
+                + "<wfs:Property><wfs:Name>cgf:id</wfs:Name><wfs:Value>s6</wfs:Value></wfs:Property>"
+                + "<ogc:Filter><ogc:PropertyIsEqualTo><ogc:PropertyName>cgf:id</ogc:PropertyName>"
+                + "<ogc:Literal>s5</ogc:Literal></ogc:PropertyIsEqualTo></ogc:Filter>"
+                + "</wfs:Update>");
+
+        Document dom = postAsDOM("wfs", xml);
+        assertEquals("wfs:TransactionResponse", dom.getDocumentElement().getNodeName());
+        assertEquals("5", getFirstElementByTagName(dom, "wfs:totalInserted").getFirstChild()
+                .getNodeValue());
+        assertEquals("1", getFirstElementByTagName(dom, "wfs:totalUpdated").getFirstChild()
+                .getNodeValue());
+        assertEquals(5, dom.getElementsByTagName("ogc:FeatureId").getLength());
+
+        dom = postAsDOM("wfs", GET_POINTS);
+        assertEquals(n + 5, dom.getElementsByTagName("cgf:Points").getLength());
+    }
+
+    @Test
+    public void testRollbackAcrossBatches() throws Exception {
+        int n = postAsDOM("wfs", GET_POINTS).getElementsByTagName("cgf:Points").getLength();
+
+        // the delete targets a type that does not exist, the inserts executed before it
+        // have to be rolled back
+        String xml = transaction("<wfs:Insert>" + point("r1", "1 1") + point("r2", "2 2")
+                + point("r3", "3 3") + "</wfs:Insert>"
+                + "<wfs:Delete typeName=\"cgf:NotThere\">"
+                + "<ogc:Filter><ogc:PropertyIsEqualTo><ogc:PropertyName>cgf:id</ogc:PropertyName>"
+                + "<ogc:Literal>r1</ogc:Literal></ogc:PropertyIsEqualTo></ogc:Filter>"
+                + "</wfs:Delete>");
+        postAsDOM("wfs", xml);
+
+        Document dom = postAsDOM("wfs", GET_POINTS);
+        assertEquals(n, dom.getElementsByTagName("cgf:Points").getLength());
+    }
+
+    @Test
+    public void testWorkspaceQualified() throws Exception {
+        int n = postAsDOM("wfs", GET_POINTS).getElementsByTagName("cgf:Points").getLength();
+
+        // the type belongs to another workspace, the insert must be rejected
+        String insert = transaction("<wfs:Insert>" + point("w1", "1 1") + point("w2", "2 2")
+                + point("w3", "3 3") + "</wfs:Insert>");
+        Document dom = postAsDOM("sf/wfs", insert);
+        assertEquals("ows:ExceptionReport", dom.getDocumentElement().getNodeName());
+        assertEquals(n, postAsDOM("wfs", GET_POINTS).getElementsByTagName("cgf:Points")
+                .getLength());
+
+        // the update gets qualified with the sf workspace, where there is no such type
+        String update = transaction("<wfs:Update typeName=\"cgf:Points\">"
+                + "<wfs:Property><wfs:Name>cgf:id</wfs:Name><wfs:Value>w4</wfs:Value></wfs:Property>"
+                + "</wfs:Update>");
+        postAsDOM("sf/wfs", update);
+        dom = postAsDOM("wfs", GET_POINTS);
+        assertEquals(0, countIds(dom, "w4"));
+
+        // while in the right workspace both work
+        dom = postAsDOM("cgf/wfs", insert);
+        assertEquals("3", getFirstElementByTagName(dom, "wfs:totalInserted").getFirstChild()
+                .getNodeValue());
+        dom = postAsDOM("cgf/wfs", update);
+        assertEquals(String.valueOf(n + 3), getFirstElementByTagName(dom, "wfs:totalUpdated")
+                .getFirstChild().getNodeValue());
+    }
+
+    int countIds(Document dom, String id) {
+        int count = 0;
+        NodeList ids = dom.getElementsByTagName("cgf:id");
+        for (int i = 0; i < ids.getLength(); i++) {
+            if (id.equals(ids.item(i).getFirstChild().getNodeValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,35 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.geoserver.metrics.MetricsCollector;
+import org.geoserver.metrics.MetricsWriter;
+
+/**
+ * Reports the state of the global rendering pool used for parallel rendering, see
+ * {@link DefaultWebMapService#getRenderingPool()}. Nothing is reported until the pool has been
+ * created by a rendering request.
+ */
+public class RenderingPoolMetricsCollector implements MetricsCollector {
+
+    public void collect(MetricsWriter writer) {
+        ExecutorService pool = DefaultWebMapService.RENDERING_POOL;
+        if (!(pool instanceof ThreadPoolExecutor)) {
+            return;
+        }
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) pool;
+        writer.gauge("geoserver_wms_rendering_pool_threads",
+                "Number of threads in the WMS rendering pool", executor.getPoolSize());
+        writer.gauge("geoserver_wms_rendering_pool_active_threads",
+                "Number of threads of the WMS rendering pool busy rendering",
+                executor.getActiveCount());
+        writer.counter("geoserver_wms_rendering_pool_tasks",
+                "Number of rendering tasks completed by the WMS rendering pool",
+                executor.getCompletedTaskCount());
+    }
+}
@@ -0,0 +1,40 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.geoserver.ows.RequestTrace;
+import org.geotools.renderer.RenderListener;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Records in the request trace the time between the start of the rendering and the first
+ * feature being painted, which is mostly spent running the data queries. Only registered when
+ * the request is traced.
+ */
+class FirstFeatureTraceListener implements RenderListener {
+
+    final RequestTrace trace;
+
+    final long start;
+
+    final AtomicBoolean first = new AtomicBoolean(true);
+
+    FirstFeatureTraceListener(RequestTrace trace) {
+        this.trace = trace;
+        this.start = System.nanoTime();
+    }
+
+    public void featureRenderer(SimpleFeature feature) {
+        if (first.get() && first.compareAndSet(true, false)) {
+            trace.add("firstFeature", null, start, System.nanoTime());
+        }
+    }
+
+    public void errorOccurred(Exception e) {
+        // nothing to do
+    }
+}
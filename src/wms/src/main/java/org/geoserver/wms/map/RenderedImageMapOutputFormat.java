@@ -44,6 +44,7 @@ import javax.media.jai.operator.FormatDescriptor;
 import javax.media.jai.operator.LookupDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 
+import org.geoserver.ows.RequestTrace;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
@@ -325,10 +326,13 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 && mapContent.getAngle() == 0.0
                 && (layout == null || layout.isEmpty())) {
             List<GridCoverage2D> renderedCoverages = new ArrayList<GridCoverage2D>(2);
+            RequestTrace.Span span = RequestTrace.begin("render", "direct raster");
             try {
                 image = directRasterRender(mapContent, 0, renderedCoverages);
             } catch (Exception e) {
                 throw new ServiceException("Error rendering coverage on the fast path", e);
+            } finally {
+                RequestTrace.end(span);
             }
 
             if (image != null) {
@@ -478,6 +482,11 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
                 graphic);
         timeout.start();
+        RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            renderer.addRenderListener(new FirstFeatureTraceListener(trace));
+        }
+        RequestTrace.Span span = RequestTrace.begin("render");
         try {
             // finally render the image;
             renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
@@ -492,6 +501,7 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 }
             }
         } finally {
+            RequestTrace.end(span);
             timeout.stop();
             graphic.dispose();
         }